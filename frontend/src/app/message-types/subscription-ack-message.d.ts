@@ -1,5 +1,9 @@
+import {StatusCreatedMessage} from "./status-created-message";
+
 export interface SubscriptionAckMessage{
   hashtag: string;
   principal: string;
   subscribed: boolean;
+  recent?: StatusCreatedMessage[];
+  destination?: string;
 }
@@ -0,0 +1,5 @@
+export interface WallEventMessage{
+  type: 'creation' | 'modification' | 'deletion' | 'state';
+  hashtag: string;
+  payload: any;
+}
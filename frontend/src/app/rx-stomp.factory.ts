@@ -25,12 +25,18 @@ export function rxStompServiceFactory(http: HttpClient, document: Document) {
   const brokerURL: string = protocolWebsocket + '://' + host + ':' + port + '/websocket';
   const rxStompConfig = generateConfig(brokerURL);
 
-  rxStompConfig.beforeConnect = (): Promise<void> =>
-    lastValueFrom(http.get<void>('/rest/wall-id'))
+  rxStompConfig.beforeConnect = (): Promise<void> => {
+    // Tell the backend the last received message, so that it can send the messages missed while disconnected
+    const lastSequence = localStorage.getItem('lastSequence');
+    if (lastSequence !== null) {
+      rxStompConfig.connectHeaders!['resume'] = lastSequence;
+    }
+    return lastValueFrom(http.get<void>('/rest/wall-id'))
       .catch((error: HttpErrorResponse) => {
         console.log("error: ", error);
         return;
       });
+  };
   rxStomp.configure(rxStompConfig);
   rxStomp.activate();
   return rxStomp;
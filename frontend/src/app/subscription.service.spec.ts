@@ -263,6 +263,24 @@ describe('SubscriptionService', () => {
     expect(enqueueSpy).toHaveBeenCalledWith({id: "1", url: 'test-content'});
   });
 
+  it('should remember the sequence number of a received message for the resume after a reconnect', () => {
+    const destination = '/topic/test-destination';
+    const testMessage = {
+      body: JSON.stringify({id: "1", url: 'test-content'}),
+      headers: {seq: '42'},
+    };
+    rxStompServiceSpy.watch.and.returnValue({
+      subscribe: (callback: (message: any) => void) => {
+        callback(testMessage);
+        return {unsubscribe: jasmine.createSpy('unsubscribe')};
+      },
+    } as any);
+
+    service.subscribeToStatusCreatedMessages(destination);
+
+    expect(localStorage.getItem('lastSequence')).toBe('42');
+  });
+
   it('should remove all entries in the subscriptions object when terminateAllSubscriptions is called', () => {
     // Mock subscriptions
     service['subscriptions'] = {
@@ -296,6 +314,26 @@ describe('SubscriptionService', () => {
     expect(hashtags).toContain('exampleHashtag');
   });
 
+  it('should enqueue the recent toots of a valid SubscriptionAckMessage', () => {
+    const mockMessage = {
+      body: JSON.stringify({
+        principal: 'principalUser',
+        hashtag: 'exampleHashtag',
+        subscribed: true,
+        recent: [{id: '1', url: 'https://example.com/1/embed'}, {id: '2', url: 'https://example.com/2/embed'}],
+      }),
+    };
+    rxStompServiceSpy.watch.and.returnValue(of({
+      ...mockMessage, ack: () => {
+      }, nack: () => {
+      }, command: '', headers: {}, isBinaryBody: false, binaryBody: new Uint8Array(), destination: ''
+    }));
+
+    service = new SubscriptionService(rxStompServiceSpy);
+
+    expect(service['receivedMessages'].toArray().map(message => message.id)).toEqual(jasmine.arrayContaining(['1', '2']));
+  });
+
   it('should log an error for an invalid SubscriptionAckMessage', () => {
     const mockMessage = {
       body: JSON.stringify({
@@ -339,6 +377,35 @@ describe('SubscriptionService', () => {
     expect(hashtags).toContain('exampleHashtag');
   });
 
+  it('should subscribe once to the destination of the wall, if the SubscriptionAckMessage contains one', () => {
+    const subscribeSpy = spyOn(service, 'subscribeToWallEvents').and.returnValue(jasmine.createSpyObj('Subscription', ['unsubscribe']));
+
+    (service as any).handleSubscriptionAckMessage({principal: 'principalUser', hashtag: 'java', subscribed: true, destination: '/topic/hashtags/principalUser/events'});
+    (service as any).handleSubscriptionAckMessage({principal: 'principalUser', hashtag: 'jvm', subscribed: true, destination: '/topic/hashtags/principalUser/events'});
+
+    expect(subscribeSpy).toHaveBeenCalledOnceWith('/topic/hashtags/principalUser/events');
+    expect(service['destinations']).toEqual(['/topic/hashtags/principalUser/events']);
+  });
+
+  it('should handle the events of the wall by their type', () => {
+    const testMessage = {
+      body: JSON.stringify({type: 'deletion', hashtag: 'java', payload: {id: '1'}}),
+      headers: {seq: '7'},
+    };
+    rxStompServiceSpy.watch.and.returnValue({
+      subscribe: (callback: (message: any) => void) => {
+        callback(testMessage);
+        return {unsubscribe: jasmine.createSpy('unsubscribe')};
+      },
+    } as any);
+    const dequeueSpy = spyOn(service['receivedMessages'], 'dequeue');
+
+    service.subscribeToWallEvents('/topic/hashtags/principalUser/events');
+
+    expect(dequeueSpy).toHaveBeenCalledWith('1');
+    expect(localStorage.getItem('lastSequence')).toBe('7');
+  });
+
   it('should handle a successful termination acknowledgment', () => {
     localStorage.setItem('hashtags', JSON.stringify(['hashtag1', 'hashtag2']));
     service['hashtags'] = ['hashtag1', 'hashtag2'];
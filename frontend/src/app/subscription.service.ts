@@ -8,6 +8,7 @@ import {StatusCreatedMessage} from "./message-types/status-created-message";
 import {StatusUpdatedMessage} from "./message-types/status-updated-message";
 import {StatusDeletedMessage} from "./message-types/status-deleted-message";
 import {SafeMessage} from "./message-types/safe-message";
+import {WallEventMessage} from "./message-types/wall-event-message";
 
 /**
  * Service for managing subscriptions to topics, handling received messages,
@@ -28,6 +29,7 @@ export class SubscriptionService {
   private subscriptions: { [key: string]: Subscription } = {};
   private destinations: string[] = [];
   private hashtags: string[] = [];
+  private wallDestination?: string;
 
   constructor(private rxStompService: RxStompService) {
     this.subscriptionsSubscription = this.rxStompService
@@ -67,18 +69,36 @@ export class SubscriptionService {
   /**
    * Handles the subscription acknowledgment message and manages subscriptions
    * for creation, modification, and deletion events based on the provided data.
+   * If the acknowledgment contains the single destination of the wall, it is subscribed once for all hashtags.
+   * Otherwise, the three destinations of the hashtag are subscribed.
    *
    * @param {SubscriptionAckMessage} data - The subscription acknowledgment message,
-   * including subscription status, principal, and hashtag information.
+   * including subscription status, principal, hashtag information, the recent toots of the hashtag and the destination of the wall.
    * @return {void} This method does not return a value.
    */
   private handleSubscriptionAckMessage(data: SubscriptionAckMessage) {
     if (data.subscribed) {
-      console.log('Adding subscriptions for creation, modification and deletion.');
-
       this.hashtags.push(data.hashtag);
       localStorage.setItem('hashtags', JSON.stringify(this.hashtags));
 
+      // Show the recent toots of the hashtag right away, instead of waiting for the next one
+      if (data.recent?.length) {
+        data.recent.forEach(message => this.receivedMessages.enqueue(message));
+        this.messageSubject$.next(this.receivedMessages.toArray());
+      }
+
+      if (data.destination) {
+        if (!this.subscriptions[data.destination]) {
+          console.log('Adding subscription for the events of the wall.');
+          this.wallDestination = data.destination;
+          this.destinations.push(data.destination);
+          this.subscriptions[data.destination] = this.subscribeToWallEvents(data.destination);
+        }
+        return;
+      }
+
+      console.log('Adding subscriptions for creation, modification and deletion.');
+
       const creationDestination = this.destination(data.principal, data.hashtag, 'creation');
       this.destinations.push(creationDestination);
       this.subscriptions[creationDestination] = this.subscribeToStatusCreatedMessages(creationDestination);
@@ -110,6 +130,15 @@ export class SubscriptionService {
       this.hashtags = this.hashtags.filter(tag => tag !== data.hashtag);
       localStorage.setItem('hashtags', JSON.stringify(this.hashtags));
 
+      // The destination of the wall carries the events of all hashtags. It is only needed until the last hashtag is gone
+      if (this.wallDestination) {
+        if (this.hashtags.length === 0) {
+          this.terminateSubscriptionByDestination(this.wallDestination);
+          this.wallDestination = undefined;
+        }
+        return;
+      }
+
       const creationDestination = this.destination(data.principal, data.hashtag, 'creation');
       this.terminateSubscriptionByDestination(creationDestination);
 
@@ -192,9 +221,8 @@ export class SubscriptionService {
       .watch(dest)
       .subscribe((message: Message) => {
         console.log('StatusCreatedMessage received:', message.body);
-        const data: StatusCreatedMessage = JSON.parse(message.body);
-        this.receivedMessages.enqueue(data);
-        this.messageSubject$.next(this.receivedMessages.toArray())
+        this.rememberSequence(message);
+        this.handleStatusCreatedMessage(JSON.parse(message.body));
       });
   }
 
@@ -209,9 +237,8 @@ export class SubscriptionService {
       .watch(dest)
       .subscribe((message: Message) => {
         console.log('StatusUpdatedMessage received:', message.body);
-        const data: StatusUpdatedMessage = JSON.parse(message.body);
-        this.receivedMessages.update(data);
-        this.messageSubject$.next(this.receivedMessages.toArray())
+        this.rememberSequence(message);
+        this.handleStatusUpdatedMessage(JSON.parse(message.body));
       });
   }
 
@@ -227,12 +254,69 @@ export class SubscriptionService {
       .watch(dest)
       .subscribe((message: Message) => {
         console.log('StatusDeletedMessage received:', message.body);
-        const data: StatusDeletedMessage = JSON.parse(message.body);
-        this.receivedMessages.dequeue(data.id);
-        this.messageSubject$.next(this.receivedMessages.toArray())
+        this.rememberSequence(message);
+        this.handleStatusDeletedMessage(JSON.parse(message.body));
+      });
+  }
+
+  /**
+   * Subscribes to the single destination of the wall, that carries the events of all its hashtags.
+   * Each event is wrapped in an envelope with its type and handled like the messages of the three destinations per hashtag.
+   *
+   * @param {string} dest - The destination of the wall.
+   * @return {Subscription} A subscription object that can be used to manage the lifecycle of the subscription.
+   */
+  subscribeToWallEvents(dest: string) {
+    return this.rxStompService
+      .watch(dest)
+      .subscribe((message: Message) => {
+        console.log('WallEventMessage received:', message.body);
+        this.rememberSequence(message);
+        const data: WallEventMessage = JSON.parse(message.body);
+        switch (data.type) {
+          case 'creation':
+            this.handleStatusCreatedMessage(data.payload);
+            break;
+          case 'modification':
+            this.handleStatusUpdatedMessage(data.payload);
+            break;
+          case 'deletion':
+            this.handleStatusDeletedMessage(data.payload);
+            break;
+          default:
+            console.log('Stream of hashtag', data.hashtag, 'is', data.payload?.state);
+        }
       });
   }
 
+  private handleStatusCreatedMessage(data: StatusCreatedMessage) {
+    this.receivedMessages.enqueue(data);
+    this.messageSubject$.next(this.receivedMessages.toArray())
+  }
+
+  private handleStatusUpdatedMessage(data: StatusUpdatedMessage) {
+    this.receivedMessages.update(data);
+    this.messageSubject$.next(this.receivedMessages.toArray())
+  }
+
+  private handleStatusDeletedMessage(data: StatusDeletedMessage) {
+    this.receivedMessages.dequeue(data.id);
+    this.messageSubject$.next(this.receivedMessages.toArray())
+  }
+
+  /**
+   * Remembers the sequence number of a received message, so that the backend can send the missed messages after a reconnect.
+   * The value is kept as it is. It is prefixed with the node, that numbered the message, and only that node resumes it.
+   *
+   * @param {Message} message - The received message with the sequence header.
+   * @return {void}
+   */
+  private rememberSequence(message: Message) {
+    if (message.headers?.['seq']) {
+      localStorage.setItem('lastSequence', message.headers['seq']);
+    }
+  }
+
   /**
    * Subscribes to updates for the specified hashtag by publishing a subscription request.
    *
@@ -0,0 +1,71 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import social.bigbone.MastodonClient;
+import social.bigbone.api.entity.streaming.WebSocketCallback;
+import social.bigbone.api.method.StreamingMethods;
+
+import java.io.Closeable;
+
+/**
+ * The BigboneUpstreamConnector opens a separate bigbone streaming connection for every hashtag and one for the notifications.
+ * <p>
+ * The returned stream is owned by the {@link HashtagStreamRegistry HashtagStreamRegistry}, which keeps it open
+ * and closes it explicitly, when the last subscriber leaves. No thread is held for an open stream.
+ *
+ * @see UpstreamConnector
+ */
+public class BigboneUpstreamConnector implements UpstreamConnector {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(BigboneUpstreamConnector.class);
+
+    /**
+     * The streaming methods of the mastodon client, used to open the upstream streams.
+     */
+    private final StreamingMethods streaming;
+
+    /**
+     * Constructs a connector for the given mastodon client.
+     *
+     * @param client the Mastodon client used for API interactions
+     */
+    public BigboneUpstreamConnector(final MastodonClient client) {
+        this.streaming = client.streaming();
+    }
+
+    /**
+     * Opens a bigbone hashtag stream.
+     * The stream stays open, until the returned closeable is closed.
+     *
+     * @param hashtag  The canonical hashtag to stream.
+     * @param callback The callback for the events of the stream.
+     * @return A closeable, that closes the stream.
+     */
+    @Override
+    public Closeable open(final String hashtag, final WebSocketCallback callback) {
+        Closeable subscription = streaming.hashtag(hashtag, false, callback);
+        LOGGER.info("Upstream for the hashtag {} started", hashtag);
+        return subscription;
+    }
+
+    /**
+     * Opens the bigbone notification stream of the glacier account.
+     * The stream stays open, until the returned closeable is closed.
+     *
+     * @param callback The callback for the events of the stream.
+     * @return A closeable, that closes the stream.
+     */
+    @Override
+    public Closeable openNotifications(final WebSocketCallback callback) {
+        Closeable subscription = streaming.userNotifications(callback);
+        LOGGER.info("Upstream for the notifications started");
+        return subscription;
+    }
+}
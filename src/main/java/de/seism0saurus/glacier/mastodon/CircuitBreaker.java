@@ -0,0 +1,118 @@
+package de.seism0saurus.glacier.mastodon;
+
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * The CircuitBreaker stops reconnects to an upstream, that keeps failing.
+ * <p>
+ * It starts {@link State#CLOSED CLOSED}. After a number of consecutive failures it opens and rejects all attempts for a while.
+ * Then it is {@link State#HALF_OPEN HALF_OPEN} and lets exactly one trial through. A success closes it again,
+ * a failure opens it again. If the trial neither succeeds nor fails within the open duration, another trial is allowed.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of a circuit breaker.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final Clock clock;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private long trialStarted;
+
+    /**
+     * Constructs a closed circuit breaker.
+     *
+     * @param clock            the clock for the open duration
+     * @param failureThreshold the number of consecutive failures, that opens the breaker
+     * @param openDuration     the time, the breaker rejects all attempts, before a trial is allowed
+     */
+    public CircuitBreaker(final Clock clock, final int failureThreshold, final Duration openDuration) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("The failure threshold must be at least one");
+        }
+        this.clock = clock;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openDuration.toMillis();
+    }
+
+    /**
+     * Records a failure of the upstream.
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openUntil = clock.millis() + openMillis;
+        }
+    }
+
+    /**
+     * Records a success of the upstream. The breaker is closed.
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Checks without side effects, if an attempt would be permitted now.
+     *
+     * @return true if {@link #tryAcquire() tryAcquire} would succeed
+     */
+    public synchronized boolean isPermitted() {
+        long now = clock.millis();
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> now >= openUntil;
+            case HALF_OPEN -> now >= trialStarted + openMillis;
+        };
+    }
+
+    /**
+     * Acquires the permission for an attempt. An open breaker, whose open duration is over, becomes half-open and permits one trial.
+     *
+     * @return true if the attempt is permitted
+     */
+    public synchronized boolean tryAcquire() {
+        if (!isPermitted()) {
+            return false;
+        }
+        if (state != State.CLOSED) {
+            state = State.HALF_OPEN;
+            trialStarted = clock.millis();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the time, until an attempt may be permitted again.
+     *
+     * @return the remaining time or zero, if an attempt is permitted now or a trial is running, whose end is not known
+     */
+    public synchronized Duration remainingWait() {
+        long now = clock.millis();
+        long until = switch (state) {
+            case CLOSED, HALF_OPEN -> now;
+            case OPEN -> openUntil;
+        };
+        return Duration.ofMillis(Math.max(0, until - now));
+    }
+
+    /**
+     * Returns the current state. An open breaker stays open until the next attempt, even if its open duration is over.
+     *
+     * @return the state
+     */
+    public synchronized State state() {
+        return state;
+    }
+}
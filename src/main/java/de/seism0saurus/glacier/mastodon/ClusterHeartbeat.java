@@ -0,0 +1,68 @@
+package de.seism0saurus.glacier.mastodon;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ClusterHeartbeat renews the lease of this node periodically and rebalances the upstream streams of the cluster.
+ * <p>
+ * The renew interval has to be well below the lease duration, so that a slow renewal does not end the membership.
+ * On shutdown, the node leaves the cluster, so that the other members take over its streams with their next renewal.
+ */
+@Component
+public class ClusterHeartbeat {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(ClusterHeartbeat.class);
+
+    private final StreamOwnership streamOwnership;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Constructs the heartbeat and starts it.
+     *
+     * @param subscriptionManager the manager, that rebalances the upstream streams
+     * @param streamOwnership     the members of the cluster
+     * @param renewInterval       the milliseconds between two renewals
+     * @param leaseDuration       the milliseconds after the last renewal, until a member is gone
+     */
+    public ClusterHeartbeat(final SubscriptionManager subscriptionManager,
+                            final StreamOwnership streamOwnership,
+                            @Value("${glacier.cluster.renewInterval}") final long renewInterval,
+                            @Value("${glacier.cluster.leaseDuration}") final long leaseDuration) {
+        if (renewInterval < 1 || renewInterval * 2 > leaseDuration) {
+            throw new IllegalArgumentException("The renew interval has to be positive and at most half of the lease duration");
+        }
+        this.streamOwnership = streamOwnership;
+        this.executor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("glacier-cluster-heartbeat").daemon().factory());
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                subscriptionManager.rebalanceHashtagStreams();
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not renew the membership of {} in the cluster", streamOwnership.localMember(), e);
+            }
+        }, renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+        LOGGER.info("ClusterHeartbeat for member {} started with an interval of {} ms", streamOwnership.localMember(), renewInterval);
+    }
+
+    /**
+     * Stops the heartbeat and leaves the cluster.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        streamOwnership.leave();
+    }
+}
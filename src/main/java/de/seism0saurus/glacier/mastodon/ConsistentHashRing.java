@@ -0,0 +1,80 @@
+package de.seism0saurus.glacier.mastodon;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The ConsistentHashRing assigns keys to members.
+ * <p>
+ * Every member is placed on a ring of 64 bit hashes with a number of virtual nodes. A key belongs to the first member
+ * at or after its hash on the ring. If a member joins or leaves, only the keys next to its virtual nodes move.
+ * The ring is immutable. All nodes, that know the same members, compute the same owners.
+ */
+public final class ConsistentHashRing {
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final Set<String> members;
+
+    /**
+     * Constructs the ring.
+     *
+     * @param members      the members
+     * @param virtualNodes the number of places of each member on the ring
+     */
+    public ConsistentHashRing(final Collection<String> members, final int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Each member needs at least one virtual node");
+        }
+        this.members = Set.copyOf(new TreeSet<>(members));
+        for (String member : this.members) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // On a collision the smaller member wins, so that the ring does not depend on the order of the members
+                ring.merge(hash(member + "#" + i), member, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+    }
+
+    /**
+     * Returns the owner of a key.
+     *
+     * @param key the key, e.g. a canonical hashtag
+     * @return the member, that owns the key, or null if there are no members
+     */
+    public String ownerOf(final String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    /**
+     * Returns the members of the ring.
+     *
+     * @return the members
+     */
+    public Set<String> members() {
+        return members;
+    }
+
+    /**
+     * Hashes a string with 64 bit FNV-1a over its UTF-8 bytes and spreads the bits with the finalizer of MurmurHash3.
+     */
+    static long hash(final String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,133 @@
+package de.seism0saurus.glacier.mastodon;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The DeliveredStatuses remember per wall, which statuses were sent to it.
+ * <p>
+ * A wall, that follows several hashtags, receives a status tagged with more than one of them only once,
+ * no matter which stream delivers it first. Modifications and deletions are only sent for statuses, that the wall got.
+ * <p>
+ * Every wall has a {@link LongWindowSet LongWindowSet} of the last delivered status ids. Mastodon ids are numeric snowflakes,
+ * so they are stored as primitive longs. An id, that is not numeric, is hashed to a long instead.
+ * The memory per wall is bounded by the size of the window.
+ */
+public class DeliveredStatuses {
+
+    private final int windowSize;
+
+    /**
+     * The windows of the walls. The key is the principal aka wallId. Each window is guarded by its own monitor.
+     */
+    private final Map<String, LongWindowSet> walls = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs the delivered statuses without any walls.
+     *
+     * @param windowSize the number of remembered statuses per wall
+     */
+    public DeliveredStatuses(final int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("The window needs a size of at least one");
+        }
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Remembers the delivery of a status to a wall.
+     *
+     * @param principal the principal aka wallId
+     * @param statusId  the id of the status
+     * @return true if the status is new to the wall and shall be sent, false if the wall already got it
+     */
+    public boolean deliver(final String principal, final String statusId) {
+        return deliver(principal, key(statusId));
+    }
+
+    /**
+     * Remembers the delivery of a status with a key from {@link #key key} to a wall.
+     * The key is computed once per status, when the status is delivered to many walls.
+     *
+     * @param principal the principal aka wallId
+     * @param key       the key of the status
+     * @return true if the status is new to the wall and shall be sent, false if the wall already got it
+     */
+    boolean deliver(final String principal, final long key) {
+        LongWindowSet window = walls.get(principal);
+        if (window == null) {
+            window = walls.computeIfAbsent(principal, p -> new LongWindowSet(windowSize));
+        }
+        synchronized (window) {
+            return window.add(key);
+        }
+    }
+
+    /**
+     * Checks if a status was delivered to a wall.
+     *
+     * @param principal the principal aka wallId
+     * @param statusId  the id of the status
+     * @return true if the wall got the status
+     */
+    public boolean wasDelivered(final String principal, final String statusId) {
+        return wasDelivered(principal, key(statusId));
+    }
+
+    /**
+     * Checks if a status with a key from {@link #key key} was delivered to a wall.
+     *
+     * @param principal the principal aka wallId
+     * @param key       the key of the status
+     * @return true if the wall got the status
+     */
+    boolean wasDelivered(final String principal, final long key) {
+        LongWindowSet window = walls.get(principal);
+        if (window == null) {
+            return false;
+        }
+        synchronized (window) {
+            return window.contains(key);
+        }
+    }
+
+    /**
+     * Drops the window of a wall, that has no subscriptions anymore.
+     *
+     * @param principal the principal aka wallId
+     */
+    public void forget(final String principal) {
+        walls.remove(principal);
+    }
+
+    /**
+     * Returns the number of walls with a window.
+     *
+     * @return the number of walls
+     */
+    public int numberOfWalls() {
+        return walls.size();
+    }
+
+    /**
+     * Converts a status id to the key of the window.
+     *
+     * @param statusId the id of the status
+     * @return the numeric id or a 64 bit FNV-1a hash of an id, that is not numeric
+     */
+    static long key(final String statusId) {
+        boolean numeric = !statusId.isEmpty() && statusId.length() <= 18;
+        for (int i = 0; numeric && i < statusId.length(); i++) {
+            numeric = statusId.charAt(i) >= '0' && statusId.charAt(i) <= '9';
+        }
+        if (numeric) {
+            return Long.parseLong(statusId);
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < statusId.length(); i++) {
+            hash ^= statusId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,281 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The EmbedCheckClient requests the headers of the embed pages of statuses asynchronously.
+ * <p>
+ * It uses one pooled, keep-alive {@link HttpClient HttpClient}, that prefers HTTP/2.
+ * The number of concurrent requests is limited per remote server and in total.
+ * Requests over the limit are queued and not blocking any thread.
+ * So a slow remote server only delays its own statuses and not the streams of other servers.
+ */
+@Component
+public class EmbedCheckClient {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(EmbedCheckClient.class);
+
+    /**
+     * Sends a request and returns the future response.
+     */
+    private final Function<HttpRequest, CompletableFuture<HttpResponse<Void>>> sender;
+
+    /**
+     * The limiters of the remote servers by host. A limiter is removed, when it has no running or queued requests.
+     */
+    private final Map<String, Limiter> hostLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * The number of requests, that are running or queued.
+     */
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * The limiter for all requests.
+     */
+    private final Limiter globalLimiter;
+
+    private final int maxPerHost;
+    private final Duration readTimeout;
+
+    /**
+     * Constructs a client with a new pooled {@link HttpClient HttpClient}.
+     *
+     * @param connectTimeout the connect timeout in milliseconds
+     * @param readTimeout    the timeout for the response in milliseconds
+     * @param maxPerHost     the maximum number of concurrent requests per remote server
+     * @param maxInFlight    the maximum number of concurrent requests in total
+     */
+    @Autowired
+    public EmbedCheckClient(@Value("${glacier.embed.client.connectTimeout}") final int connectTimeout,
+                            @Value("${glacier.embed.client.readTimeout}") final int readTimeout,
+                            @Value("${glacier.embed.client.maxPerHost}") final int maxPerHost,
+                            @Value("${glacier.embed.client.maxInFlight}") final int maxInFlight) {
+        this(HttpClient.newBuilder()
+                        .version(HttpClient.Version.HTTP_2)
+                        .connectTimeout(Duration.ofMillis(connectTimeout))
+                        .followRedirects(HttpClient.Redirect.NEVER)
+                        .build(),
+                Duration.ofMillis(readTimeout), maxPerHost, maxInFlight);
+    }
+
+    /**
+     * Constructs a client with the given {@link HttpClient HttpClient}.
+     *
+     * @param httpClient  the client for the requests
+     * @param readTimeout the timeout for the response
+     * @param maxPerHost  the maximum number of concurrent requests per remote server
+     * @param maxInFlight the maximum number of concurrent requests in total
+     */
+    EmbedCheckClient(final HttpClient httpClient, final Duration readTimeout, final int maxPerHost, final int maxInFlight) {
+        this(request -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()), readTimeout, maxPerHost, maxInFlight);
+    }
+
+    /**
+     * Constructs a client with the given sender.
+     *
+     * @param sender      sends a request and returns the future response
+     * @param readTimeout the timeout for the response
+     * @param maxPerHost  the maximum number of concurrent requests per remote server
+     * @param maxInFlight the maximum number of concurrent requests in total
+     */
+    EmbedCheckClient(final Function<HttpRequest, CompletableFuture<HttpResponse<Void>>> sender,
+                     final Duration readTimeout, final int maxPerHost, final int maxInFlight) {
+        if (maxPerHost < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one concurrent request per host and in total is needed");
+        }
+        this.sender = sender;
+        this.readTimeout = readTimeout;
+        this.maxPerHost = maxPerHost;
+        this.globalLimiter = new Limiter(maxInFlight, () -> {
+        });
+        LOGGER.info("EmbedCheckClient with {} requests per host, {} requests in flight and a read timeout of {} created", maxPerHost, maxInFlight, readTimeout);
+    }
+
+    /**
+     * Requests the headers of a URL with a HEAD request.
+     * Redirects are not followed. Like the HEAD requests of the former RestTemplate, the headers of a redirect response are returned and judged.
+     * The future fails, if the URL is invalid, the request fails or times out or the response status is an error.
+     *
+     * @param url the URL
+     * @return the future headers of the response
+     */
+    public CompletableFuture<HttpHeaders> fetchHeaders(final String url) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .timeout(readTimeout)
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (request.uri().getHost() == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("The URL " + url + " has no host"));
+        }
+        String host = request.uri().getHost().toLowerCase(Locale.ROOT);
+        requests.incrementAndGet();
+        CompletableFuture<HttpResponse<Void>> response = new CompletableFuture<>();
+        // The request is queued while the map holds the entry, so that an idle limiter is not removed in between
+        Limiter hostLimiter = hostLimiters.compute(host, (h, limiter) -> {
+            Limiter current = limiter != null ? limiter : new Limiter(maxPerHost, () -> hostLimiters.computeIfPresent(h, (k, l) -> l.idle() ? null : l));
+            current.enqueue(() -> globalLimiter.submit(() -> sender.apply(request)), response);
+            return current;
+        });
+        hostLimiter.drain();
+        return response
+                .whenComplete((value, error) -> requests.decrementAndGet())
+                .thenApply(value -> {
+                    if (value.statusCode() < 200 || value.statusCode() >= 400) {
+                        throw new CompletionException(new IOException("HEAD " + url + " returned status " + value.statusCode()));
+                    }
+                    HttpHeaders headers = new HttpHeaders();
+                    value.headers().map().forEach(headers::addAll);
+                    return headers;
+                });
+    }
+
+    /**
+     * Returns the number of requests, that are running or queued.
+     *
+     * @return the number of requests in total
+     */
+    public int numberOfRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of remote servers with running or queued requests.
+     *
+     * @return the number of limiters of the remote servers
+     */
+    int numberOfHosts() {
+        return hostLimiters.size();
+    }
+
+    /**
+     * Limits the number of concurrently running asynchronous tasks. Further tasks are queued without blocking.
+     * <p>
+     * A task, that completes synchronously, releases its permit while it is started. The queued tasks are therefore started in a loop
+     * by the thread, that is already draining, instead of recursively, so that a long queue of failing tasks does not overflow the stack.
+     */
+    private static class Limiter {
+
+        private final int permits;
+        private final Runnable whenIdle;
+        private final Queue<Runnable> queue = new ArrayDeque<>();
+        private int running = 0;
+        private boolean draining = false;
+
+        /**
+         * Constructs a limiter.
+         *
+         * @param permits  the maximum number of concurrently running tasks
+         * @param whenIdle runs, when the last task completed and no task is queued
+         */
+        private Limiter(final int permits, final Runnable whenIdle) {
+            this.permits = permits;
+            this.whenIdle = whenIdle;
+        }
+
+        private <T> CompletableFuture<T> submit(final Supplier<CompletableFuture<T>> task) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            enqueue(task, result);
+            drain();
+            return result;
+        }
+
+        /**
+         * Queues a task without starting it. The caller has to {@link #drain() drain} the limiter afterwards.
+         *
+         * @param task   starts the asynchronous task
+         * @param result is completed with the result of the task
+         */
+        private synchronized <T> void enqueue(final Supplier<CompletableFuture<T>> task, final CompletableFuture<T> result) {
+            queue.add(() -> {
+                CompletableFuture<T> started;
+                try {
+                    started = task.get();
+                } catch (RuntimeException e) {
+                    started = CompletableFuture.failedFuture(e);
+                }
+                started.whenComplete((value, error) -> {
+                    release();
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            });
+        }
+
+        /**
+         * Starts the queued tasks as long as permits are left. If another call is already draining, it starts them instead.
+         */
+        private void drain() {
+            synchronized (this) {
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            boolean idle;
+            while (true) {
+                Runnable next;
+                synchronized (this) {
+                    if (running >= permits || queue.isEmpty()) {
+                        draining = false;
+                        idle = running == 0 && queue.isEmpty();
+                        break;
+                    }
+                    next = queue.poll();
+                    running++;
+                }
+                next.run();
+            }
+            if (idle) {
+                whenIdle.run();
+            }
+        }
+
+        private void release() {
+            synchronized (this) {
+                running--;
+            }
+            drain();
+        }
+
+        private synchronized boolean idle() {
+            return running == 0 && queue.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * The EmbedPolicyCache remembers the embed policy of each remote Mastodon server.
+ * <p>
+ * The X-Frame-Options and the frame-ancestors directive of the Content-Security-Policy are configured per server, not per toot.
+ * So the verdict for one status of a server is valid for all of its statuses.
+ * Statuses from known servers are classified without any request. Only unknown servers are probed before the verdict is known.
+ * After the revalidation interval, the known policy is still used, but the server is probed again asynchronously.
+ * After the maximum age, the policy is dropped and the server is unknown again.
+ * <p>
+ * Probes for unknown servers go through the {@link LoadabilityCache LoadabilityCache},
+ * so that concurrent lookups for the same status share one request.
+ */
+@Component
+public class EmbedPolicyCache {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(EmbedPolicyCache.class);
+
+    /**
+     * The known policies by origin in access order, so that the eldest entry is the least recently used one.
+     */
+    private final LinkedHashMap<String, EmbedPolicy> policies;
+
+    /**
+     * The origins, that are currently revalidated.
+     */
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+    private final LoadabilityCache loadabilityCache;
+    private final int maxOrigins;
+    private final Duration revalidateAfter;
+    private final Duration maxAge;
+    private final Clock clock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+
+    /**
+     * Constructs a cache with the configured limits.
+     *
+     * @param loadabilityCache the cache for the probes of unknown servers
+     * @param maxOrigins       the maximum number of known servers
+     * @param revalidateAfter  the age of a policy in seconds, after which it is revalidated
+     * @param maxAge           the age of a policy in seconds, after which it is dropped
+     */
+    @Autowired
+    public EmbedPolicyCache(final LoadabilityCache loadabilityCache,
+                            @Value("${glacier.embed.policy.maxOrigins}") final int maxOrigins,
+                            @Value("${glacier.embed.policy.revalidateAfter}") final int revalidateAfter,
+                            @Value("${glacier.embed.policy.maxAge}") final int maxAge) {
+        this(loadabilityCache, maxOrigins, Duration.ofSeconds(revalidateAfter), Duration.ofSeconds(maxAge), Clock.systemUTC());
+    }
+
+    /**
+     * Constructs a cache with an explicit clock.
+     *
+     * @param loadabilityCache the cache for the probes of unknown servers
+     * @param maxOrigins       the maximum number of known servers
+     * @param revalidateAfter  the age of a policy, after which it is revalidated
+     * @param maxAge           the age of a policy, after which it is dropped
+     * @param clock            the clock for the age of the policies
+     */
+    EmbedPolicyCache(final LoadabilityCache loadabilityCache, final int maxOrigins, final Duration revalidateAfter,
+                     final Duration maxAge, final Clock clock) {
+        if (maxOrigins < 1) {
+            throw new IllegalArgumentException("The cache needs a size of at least one");
+        }
+        if (maxAge.compareTo(revalidateAfter) < 0) {
+            throw new IllegalArgumentException("The maximum age must not be shorter than the revalidation interval");
+        }
+        this.loadabilityCache = loadabilityCache;
+        this.maxOrigins = maxOrigins;
+        this.revalidateAfter = revalidateAfter;
+        this.maxAge = maxAge;
+        this.clock = clock;
+        this.policies = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, EmbedPolicy> eldest) {
+                return size() > EmbedPolicyCache.this.maxOrigins;
+            }
+        };
+        LOGGER.info("EmbedPolicyCache for {} servers with revalidation after {} and a maximum age of {} created", maxOrigins, revalidateAfter, maxAge);
+    }
+
+    /**
+     * Decides if a status is loadable by the policy of its server.
+     * If the server is unknown, the status is probed and the result is stored as policy of the server.
+     *
+     * @param statusUrl the URL of the status
+     * @param probe     the asynchronous check, that requests the status and decides if it is loadable
+     * @return the future verdict. True if the status is loadable, false otherwise
+     */
+    public CompletableFuture<Boolean> isLoadable(final String statusUrl, final Function<String, CompletableFuture<Boolean>> probe) {
+        String origin = origin(statusUrl);
+        if (origin == null) {
+            return loadabilityCache.isLoadable(statusUrl, probe);
+        }
+        Instant now = clock.instant();
+        EmbedPolicy policy = lookup(origin, now);
+        if (policy != null) {
+            hits.increment();
+            if (!now.isBefore(policy.revalidateAt())) {
+                revalidate(origin, statusUrl, probe);
+            }
+            return CompletableFuture.completedFuture(policy.loadable());
+        }
+        return loadabilityCache.isLoadable(statusUrl, url -> {
+            probes.increment();
+            return probe.apply(url).thenApply(loadable -> {
+                store(origin, loadable);
+                return loadable;
+            });
+        });
+    }
+
+    /**
+     * Probes a server again, unless it is already revalidated.
+     */
+    private void revalidate(final String origin, final String statusUrl, final Function<String, CompletableFuture<Boolean>> probe) {
+        if (!revalidating.add(origin)) {
+            return;
+        }
+        revalidations.increment();
+        CompletableFuture<Boolean> probed;
+        try {
+            probed = probe.apply(statusUrl);
+        } catch (RuntimeException e) {
+            probed = CompletableFuture.failedFuture(e);
+        }
+        probed.whenComplete((loadable, error) -> {
+            if (error != null) {
+                LOGGER.warn("Could not revalidate the embed policy of {}", origin, error);
+            } else {
+                store(origin, loadable);
+                LOGGER.debug("Embed policy of {} revalidated", origin);
+            }
+            revalidating.remove(origin);
+        });
+    }
+
+    private EmbedPolicy lookup(final String origin, final Instant now) {
+        synchronized (policies) {
+            EmbedPolicy policy = policies.get(origin);
+            if (policy != null && !now.isBefore(policy.expiry())) {
+                policies.remove(origin);
+                return null;
+            }
+            return policy;
+        }
+    }
+
+    private void store(final String origin, final boolean loadable) {
+        Instant now = clock.instant();
+        synchronized (policies) {
+            policies.put(origin, new EmbedPolicy(loadable, now.plus(revalidateAfter), now.plus(maxAge)));
+        }
+    }
+
+    /**
+     * Extracts the origin of a URL, e.g. https://mastodon.social:443.
+     *
+     * @param url the URL
+     * @return the origin in lower case or null, if the URL has no host
+     */
+    static String origin(final String url) {
+        try {
+            URI uri = URI.create(url);
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return null;
+            }
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            int port = uri.getPort() != -1 ? uri.getPort() : ("https".equals(scheme) ? 443 : 80);
+            return scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of lookups, that were answered by a known policy.
+     *
+     * @return the number of hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of probes of unknown servers.
+     *
+     * @return the number of probes
+     */
+    public long probes() {
+        return probes.sum();
+    }
+
+    /**
+     * Returns the number of background revalidations.
+     *
+     * @return the number of revalidations
+     */
+    public long revalidations() {
+        return revalidations.sum();
+    }
+
+    /**
+     * Returns the number of known servers.
+     *
+     * @return the number of known servers
+     */
+    public int size() {
+        synchronized (policies) {
+            return policies.size();
+        }
+    }
+
+    /**
+     * The embed policy of a server as verdict for this glacier instance.
+     *
+     * @param loadable     true if statuses of the server are loadable
+     * @param revalidateAt the instant, after which the policy is revalidated in the background
+     * @param expiry       the instant, after which the policy is dropped
+     */
+    private record EmbedPolicy(boolean loadable, Instant revalidateAt, Instant expiry) {
+    }
+}
@@ -0,0 +1,293 @@
+package de.seism0saurus.glacier.mastodon;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The EventPipeline moves the processing of the stream events off the reading threads of the upstream connections.
+ * <p>
+ * Every stream gets its own bounded {@link Lane Lane}. The reading thread only enqueues the event and returns.
+ * A shared pool of workers processes the lanes. The events of one lane are processed strictly one after another,
+ * even if the processing of an event completes asynchronously. So a deletion never overtakes its creation.
+ * If a lane is full, new events of this stream are dropped and counted, instead of blocking the reading thread.
+ * The first drop of a lane is logged and then at most one summary per {@link #DROP_LOG_INTERVAL DROP_LOG_INTERVAL},
+ * because a full lane drops the events of a busy hashtag by the hundreds.
+ * The depth and the drops of each lane are exposed by the {@link GlacierMetrics GlacierMetrics}.
+ */
+@Component
+public class EventPipeline {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(EventPipeline.class);
+
+    /**
+     * The maximum number of events, a worker processes from one lane before it gives other lanes a turn.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * The minimum time between two warnings about the dropped events of one lane.
+     */
+    private static final Duration DROP_LOG_INTERVAL = Duration.ofSeconds(30);
+
+    /**
+     * The time, the workers get to process the queued events, when the application shuts down.
+     */
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * The workers, that process the lanes.
+     */
+    private final Executor workers;
+
+    /**
+     * The capacity of each lane.
+     */
+    private final int laneCapacity;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Constructs a pipeline with a fixed pool of workers.
+     *
+     * @param workers      the number of worker threads
+     * @param laneCapacity the maximum number of queued events per stream
+     */
+    @Autowired
+    public EventPipeline(@Value("${glacier.pipeline.workers}") final int workers,
+                         @Value("${glacier.pipeline.laneCapacity}") final int laneCapacity) {
+        this(Executors.newFixedThreadPool(workers, Thread.ofPlatform().name("glacier-pipeline-", 0).daemon().factory()), laneCapacity);
+        LOGGER.info("EventPipeline with {} workers created", workers);
+    }
+
+    /**
+     * Constructs a pipeline with the given workers.
+     *
+     * @param workers      the executor, that processes the lanes
+     * @param laneCapacity the maximum number of queued events per stream
+     */
+    EventPipeline(final Executor workers, final int laneCapacity) {
+        if (laneCapacity < 1) {
+            throw new IllegalArgumentException("A lane needs a capacity of at least one");
+        }
+        this.workers = workers;
+        this.laneCapacity = laneCapacity;
+    }
+
+    /**
+     * Creates a new lane for a stream.
+     *
+     * @param name the name of the stream, used for logging
+     * @return the new lane
+     */
+    public Lane lane(final String name) {
+        return new Lane(name);
+    }
+
+    /**
+     * Returns the number of events, that are queued in all lanes.
+     *
+     * @return the number of queued events
+     */
+    public int queued() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the number of processed events.
+     *
+     * @return the number of processed events
+     */
+    public long processed() {
+        return processed.sum();
+    }
+
+    /**
+     * Returns the number of events, that were dropped because their lane was full.
+     *
+     * @return the number of dropped events
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stops the workers, when the application shuts down. The queued events are processed until the {@link #SHUTDOWN_TIMEOUT SHUTDOWN_TIMEOUT}.
+     * Events, that are offered afterwards, are not processed anymore. An executor, that is not an ExecutorService, is left alone.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (!(workers instanceof ExecutorService executor)) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(SHUTDOWN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                LOGGER.info("EventPipeline shut down");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+        LOGGER.warn("EventPipeline shut down with {} unprocessed events", queued.get());
+    }
+
+    /**
+     * The queue of one stream. Its events are processed in order, one after another.
+     */
+    public class Lane {
+
+        private final String name;
+        private final BlockingQueue<Supplier<CompletionStage<?>>> queue = new ArrayBlockingQueue<>(laneCapacity);
+        private final AtomicBoolean active = new AtomicBoolean(false);
+        private final LongAdder laneDropped = new LongAdder();
+
+        /**
+         * The {@link System#nanoTime() nanoTime} of the last warning about dropped events. It is only valid, if the lane dropped an event before.
+         */
+        private final AtomicLong lastDropWarning = new AtomicLong();
+        private final AtomicBoolean droppedBefore = new AtomicBoolean(false);
+
+        private Lane(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Enqueues the processing of an event. The processing is complete, when the returned stage completes.
+         * This method never blocks.
+         *
+         * @param task the processing of the event
+         * @return true if the event was enqueued, false if the lane was full and the event was dropped
+         */
+        public boolean offer(final Supplier<CompletionStage<?>> task) {
+            if (!queue.offer(task)) {
+                laneDropped.increment();
+                dropped.increment();
+                warnAboutDrops();
+                return false;
+            }
+            queued.incrementAndGet();
+            schedule();
+            return true;
+        }
+
+        /**
+         * Returns the number of queued events of this lane.
+         *
+         * @return the number of queued events
+         */
+        public int depth() {
+            return queue.size();
+        }
+
+        /**
+         * Returns the number of dropped events of this lane.
+         *
+         * @return the number of dropped events
+         */
+        public long dropped() {
+            return laneDropped.sum();
+        }
+
+        /**
+         * Logs the first drop of this lane and then at most one warning per {@link #DROP_LOG_INTERVAL DROP_LOG_INTERVAL}.
+         */
+        private void warnAboutDrops() {
+            long now = System.nanoTime();
+            if (droppedBefore.compareAndSet(false, true)) {
+                lastDropWarning.set(now);
+                LOGGER.warn("Lane {} is full. Dropping events. Further drops are logged at most every {}", name, DROP_LOG_INTERVAL);
+                return;
+            }
+            long last = lastDropWarning.get();
+            if (now - last >= DROP_LOG_INTERVAL.toNanos() && lastDropWarning.compareAndSet(last, now)) {
+                LOGGER.warn("Lane {} is still full. {} events of this lane were dropped so far", name, laneDropped.sum());
+            }
+        }
+
+        private void schedule() {
+            if (active.compareAndSet(false, true)) {
+                execute();
+            }
+        }
+
+        /**
+         * Hands the active lane to a worker. After the shutdown, the lane stays inactive and its events are not processed anymore.
+         */
+        private void execute() {
+            try {
+                workers.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                active.set(false);
+                LOGGER.debug("Lane {} is not processed, because the pipeline is shut down", name);
+            }
+        }
+
+        /**
+         * Processes the queued events. If the processing of an event completes asynchronously,
+         * the lane stays active and is drained again after the completion.
+         */
+        private void drain() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Supplier<CompletionStage<?>> task = queue.poll();
+                if (task == null) {
+                    break;
+                }
+                queued.decrementAndGet();
+                CompletableFuture<?> completion = run(task);
+                if (!completion.isDone()) {
+                    completion.whenComplete((result, error) -> execute());
+                    return;
+                }
+            }
+            active.set(false);
+            // An event may have been enqueued, after the last poll and before the lane was inactive
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private CompletableFuture<?> run(final Supplier<CompletionStage<?>> task) {
+            try {
+                return task.get().toCompletableFuture().whenComplete((result, error) -> {
+                    processed.increment();
+                    if (error != null) {
+                        LOGGER.error("Lane {} could not process an event", name, error);
+                    }
+                });
+            } catch (RuntimeException e) {
+                processed.increment();
+                LOGGER.error("Lane {} could not process an event", name, e);
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+    }
+}
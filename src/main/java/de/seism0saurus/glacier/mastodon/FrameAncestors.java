@@ -0,0 +1,252 @@
+package de.seism0saurus.glacier.mastodon;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The FrameAncestors decide, if the frame-ancestors directives of content security policies allow glacier to embed a page.
+ * <p>
+ * The matcher for the origin of glacier is built once from the configured domain. The policies are parsed in one pass
+ * over the header values without splitting or copying them. The parser follows the matching of source expressions
+ * of CSP Level 3 for the origins https://domain and http://domain:
+ * <ul>
+ *     <li>Several policies, either in several headers or separated by commas in one header, must all allow glacier.
+ *     A policy without a frame-ancestors directive does not restrict the ancestors.</li>
+ *     <li>Only the first frame-ancestors directive of a policy counts. Names and keywords are case-insensitive.</li>
+ *     <li>{@code *}, {@code http:} and {@code https:} allow every origin of glacier. {@code 'self'} and other keywords do not.</li>
+ *     <li>Host sources match the host exactly or, with a leading {@code *.}, every subdomain, but not the domain itself.
+ *     A source without a scheme matches both schemes, a source with http also matches https.</li>
+ *     <li>A port matches, if it is {@code *}, the port of the origin or missing and the origin has the default port.
+ *     Paths are ignored.</li>
+ *     <li>A directive without a matching source, e.g. {@code 'none'} or an empty one, denies glacier.</li>
+ * </ul>
+ */
+public final class FrameAncestors {
+
+    private static final String DIRECTIVE = "frame-ancestors";
+    private static final int HTTP_PORT = 80;
+    private static final int HTTPS_PORT = 443;
+
+    /**
+     * The lowercase host of glacier.
+     */
+    private final String host;
+
+    /**
+     * The port of glacier or -1, if glacier uses the default ports.
+     */
+    private final int port;
+
+    private FrameAncestors(final String host, final int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Builds the matcher for the origin of glacier.
+     *
+     * @param glacierDomain the domain of glacier, optionally with a port, e.g. glacier.example or localhost:8080
+     * @return the matcher
+     */
+    public static FrameAncestors of(final String glacierDomain) {
+        if (glacierDomain == null || glacierDomain.isBlank()) {
+            throw new IllegalArgumentException("The glacier domain is needed to check the frame-ancestors");
+        }
+        String domain = glacierDomain.trim().toLowerCase(Locale.ROOT);
+        int colon = domain.lastIndexOf(':');
+        if (colon > 0 && colon < domain.length() - 1 && isDigits(domain, colon + 1, domain.length())) {
+            return new FrameAncestors(domain.substring(0, colon), Integer.parseInt(domain.substring(colon + 1)));
+        }
+        return new FrameAncestors(domain, -1);
+    }
+
+    /**
+     * Checks the frame-ancestors directives of content security policies.
+     *
+     * @param policies the values of the Content-Security-Policy headers, may be null
+     * @return true if all frame-ancestors directives allow glacier, false if one of them does not,
+     * null if there is no frame-ancestors directive
+     */
+    public Boolean allows(final List<String> policies) {
+        if (policies == null) {
+            return null;
+        }
+        Boolean verdict = null;
+        for (String header : policies) {
+            int start = 0;
+            while (start <= header.length()) {
+                int end = indexOf(header, ',', start, header.length());
+                Boolean policyVerdict = allowsPolicy(header, start, end);
+                if (policyVerdict != null) {
+                    if (!policyVerdict) {
+                        return false;
+                    }
+                    verdict = true;
+                }
+                start = end + 1;
+            }
+        }
+        return verdict;
+    }
+
+    /**
+     * Checks the first frame-ancestors directive of one policy.
+     *
+     * @return the verdict or null, if the policy has no frame-ancestors directive
+     */
+    private Boolean allowsPolicy(final String policy, final int start, final int end) {
+        int directiveStart = start;
+        while (directiveStart <= end) {
+            int directiveEnd = indexOf(policy, ';', directiveStart, end);
+            int name = skipWhitespace(policy, directiveStart, directiveEnd);
+            int nameEnd = name + DIRECTIVE.length();
+            if (nameEnd <= directiveEnd && policy.regionMatches(true, name, DIRECTIVE, 0, DIRECTIVE.length())
+                    && (nameEnd == directiveEnd || isWhitespace(policy.charAt(nameEnd)))) {
+                return allowsSources(policy, nameEnd, directiveEnd);
+            }
+            directiveStart = directiveEnd + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Checks the whitespace separated source expressions of a directive.
+     */
+    private boolean allowsSources(final String policy, final int start, final int end) {
+        int source = skipWhitespace(policy, start, end);
+        while (source < end) {
+            int sourceEnd = source;
+            while (sourceEnd < end && !isWhitespace(policy.charAt(sourceEnd))) {
+                sourceEnd++;
+            }
+            if (matches(policy, source, sourceEnd)) {
+                return true;
+            }
+            source = skipWhitespace(policy, sourceEnd, end);
+        }
+        return false;
+    }
+
+    /**
+     * Checks one source expression against the origins of glacier.
+     */
+    private boolean matches(final String source, final int start, final int end) {
+        if (start >= end || source.charAt(start) == '\'') {
+            // 'none', 'self' and the other keywords never mean glacier
+            return false;
+        }
+        if (end - start == 1 && source.charAt(start) == '*') {
+            return true;
+        }
+        // Scheme source like https:
+        if (source.charAt(end - 1) == ':' && isScheme(source, start, end - 1)) {
+            return isHttp(source, start, end - 1) || isHttps(source, start, end - 1);
+        }
+        // Host source [scheme://]host[:port][/path]
+        boolean http = true;
+        boolean https = true;
+        int hostStart = start;
+        int schemeEnd = indexOf(source, ':', start, end);
+        if (schemeEnd + 2 < end && source.charAt(schemeEnd + 1) == '/' && source.charAt(schemeEnd + 2) == '/') {
+            if (isHttps(source, start, schemeEnd)) {
+                http = false;
+            } else if (!isHttp(source, start, schemeEnd)) {
+                return false;
+            }
+            hostStart = schemeEnd + 3;
+        }
+        int hostEnd = hostStart;
+        while (hostEnd < end && source.charAt(hostEnd) != ':' && source.charAt(hostEnd) != '/') {
+            hostEnd++;
+        }
+        if (!matchesHost(source, hostStart, hostEnd)) {
+            return false;
+        }
+        if (hostEnd == end || source.charAt(hostEnd) == '/') {
+            // Without a port, the source matches the default port of the scheme of the origin
+            return port == -1 || (https && port == HTTPS_PORT) || (http && port == HTTP_PORT);
+        }
+        int portEnd = indexOf(source, '/', hostEnd + 1, end);
+        if (portEnd - hostEnd == 2 && source.charAt(hostEnd + 1) == '*') {
+            return true;
+        }
+        if (portEnd == hostEnd + 1 || portEnd - hostEnd > 6 || !isDigits(source, hostEnd + 1, portEnd)) {
+            return false;
+        }
+        int sourcePort = Integer.parseInt(source, hostEnd + 1, portEnd, 10);
+        if (port != -1) {
+            return sourcePort == port;
+        }
+        // A source with http also matches the https origin, so both default ports are possible
+        return (https && sourcePort == HTTPS_PORT) || (http && sourcePort == HTTP_PORT);
+    }
+
+    private boolean matchesHost(final String source, final int start, final int end) {
+        int length = end - start;
+        if (length == 1 && source.charAt(start) == '*') {
+            return true;
+        }
+        if (length > 2 && source.charAt(start) == '*' && source.charAt(start + 1) == '.') {
+            // *.example matches the subdomains of example
+            int suffix = length - 1;
+            return host.length() > suffix
+                    && host.regionMatches(true, host.length() - suffix, source, start + 1, suffix);
+        }
+        return length == host.length() && host.regionMatches(true, 0, source, start, length);
+    }
+
+    private static boolean isHttp(final String source, final int start, final int end) {
+        return end - start == 4 && source.regionMatches(true, start, "http", 0, 4);
+    }
+
+    private static boolean isHttps(final String source, final int start, final int end) {
+        return end - start == 5 && source.regionMatches(true, start, "https", 0, 5);
+    }
+
+    private static boolean isScheme(final String source, final int start, final int end) {
+        if (start >= end || !Character.isLetter(source.charAt(start))) {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++) {
+            char c = source.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '+' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigits(final String source, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return start < end;
+    }
+
+    private static int indexOf(final String source, final char c, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (source.charAt(i) == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int skipWhitespace(final String source, final int start, final int end) {
+        int i = start;
+        while (i < end && isWhitespace(source.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * The ASCII whitespace of the CSP grammar.
+     */
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+}
@@ -0,0 +1,260 @@
+package de.seism0saurus.glacier.mastodon;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import de.seism0saurus.glacier.webservice.messaging.messages.DecodedGenericMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The GenericMessageDecoder extracts the fields glacier needs from the generic messages of the Mastodon streaming API.
+ * <p>
+ * A message looks like {@code {"stream":["hashtag","devoxx"],"event":"update","payload":"{\"id\":\"1\",...}"}}.
+ * The payload is a JSON document encoded as string. The decoder reads the message and the payload with a streaming
+ * {@link JsonParser JsonParser} in one pass each, keeps only event, stream, id, url, edited_at and mentions[].acct
+ * and skips everything else without building any tree.
+ * <p>
+ * While the hashtag streams are joined with the mentions of glacier, a created status is first only peeked at up to its id.
+ * The rest of the status is read, when the id is in the {@link OptInIndex OptInIndex}.
+ */
+public final class GenericMessageDecoder {
+
+    /**
+     * The shared, pre-configured mapper for all JSON handling of the streams. It is thread safe.
+     */
+    public static final ObjectMapper MAPPER = JsonMapper.builder()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    /**
+     * The factory for the streaming parsers, taken from the shared mapper.
+     */
+    private static final JsonFactory FACTORY = MAPPER.getFactory();
+
+    private GenericMessageDecoder() {
+    }
+
+    /**
+     * Decodes a generic message.
+     * The payload is only decoded for status events (update and status.update). For delete events, the payload is the id.
+     *
+     * @param text the text of the message
+     * @return the decoded message
+     * @throws IOException if the message is no valid JSON object
+     */
+    public static DecodedGenericMessage decode(final String text) throws IOException {
+        return decode(text, false);
+    }
+
+    /**
+     * Decodes a generic message like {@link #decode decode}, but reads the status of an update event only up to its id.
+     * Mastodon sends the id as the first field of a status, so the rest of the payload is not parsed.
+     *
+     * @param text the text of the message
+     * @return the decoded message, with only the id of a created status
+     * @throws IOException if the message is no valid JSON object
+     */
+    public static DecodedGenericMessage peek(final String text) throws IOException {
+        return decode(text, true);
+    }
+
+    /**
+     * Reads the id of the mentioning status from a message of the notification stream.
+     * A notification looks like {@code {"stream":["user:notification"],"event":"notification","payload":"{\"type\":\"mention\",\"status\":{\"id\":\"1\",...},...}"}}.
+     *
+     * @param text the text of the message
+     * @return the id of the status or null, if the message is no mention
+     * @throws IOException if the message is no valid JSON object
+     */
+    public static String readMentionedStatusId(final String text) throws IOException {
+        DecodedGenericMessage message = new DecodedGenericMessage();
+        String payload = readEnvelope(text, message);
+        if (payload == null || !"notification".equals(message.getEvent())) {
+            return null;
+        }
+        String type = null;
+        String statusId = null;
+        try (JsonParser parser = FACTORY.createParser(payload)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("type".equals(field)) {
+                    type = parser.getValueAsString();
+                } else if ("status".equals(field) && value == JsonToken.START_OBJECT) {
+                    statusId = readId(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return "mention".equals(type) ? statusId : null;
+    }
+
+    private static DecodedGenericMessage decode(final String text, final boolean idOnly) throws IOException {
+        DecodedGenericMessage message = new DecodedGenericMessage();
+        String payload = readEnvelope(text, message);
+        if (payload != null) {
+            switch (message.getEvent() == null ? "" : message.getEvent()) {
+                case "update" -> decodePayload(payload, message, idOnly);
+                case "status.update" -> decodePayload(payload, message, false);
+                case "delete", "status.delete" -> message.setId(payload);
+                default -> {
+                    // The payload of other events is not needed
+                }
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Reads the stream and the event of a generic message.
+     *
+     * @return the payload, if it is a string
+     */
+    private static String readEnvelope(final String text, final DecodedGenericMessage message) throws IOException {
+        String payload = null;
+        try (JsonParser parser = FACTORY.createParser(text)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "stream" -> message.setStream(readStrings(parser, value));
+                    case "event" -> message.setEvent(parser.getValueAsString());
+                    case "payload" -> {
+                        if (value == JsonToken.VALUE_STRING) {
+                            payload = parser.getText();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Reads only the stream field of a generic message and stops as soon as it is found.
+     *
+     * @param text the text of the message
+     * @return the streams of the message or null, if the message has no stream field
+     * @throws IOException if the message is no valid JSON object
+     */
+    public static List<String> readStream(final String text) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(text)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("stream".equals(field)) {
+                    return readStrings(parser, value);
+                }
+                parser.skipChildren();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes the status in the payload. Only the fields of the status itself are read, nested objects like the account
+     * or a reblogged status are skipped.
+     */
+    private static void decodePayload(final String payload, final DecodedGenericMessage message, final boolean idOnly) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(payload)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "id" -> {
+                        message.setId(parser.getValueAsString());
+                        if (idOnly) {
+                            return;
+                        }
+                    }
+                    case "url" -> message.setUrl(parser.getValueAsString());
+                    case "edited_at", "editedAt" -> message.setEditedAt(parser.getValueAsString());
+                    case "mentions" -> message.setMentions(readMentions(parser, value));
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the id field of an object and skips the rest of it.
+     */
+    private static String readId(final JsonParser parser) throws IOException {
+        String id = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("id".equals(field)) {
+                id = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Reads the acct fields of an array of mentions.
+     */
+    private static List<String> readMentions(final JsonParser parser, final JsonToken value) throws IOException {
+        List<String> accts = new ArrayList<>();
+        if (value != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return accts;
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("acct".equals(field)) {
+                    accts.add(parser.getValueAsString());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return accts;
+    }
+
+    /**
+     * Reads a string or an array of strings.
+     */
+    private static List<String> readStrings(final JsonParser parser, final JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return List.of(parser.getText());
+        }
+        if (value != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        List<String> strings = new ArrayList<>(2);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() == JsonToken.VALUE_STRING) {
+                strings.add(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return strings;
+    }
+
+    private static void expect(final JsonParser parser, final JsonToken actual, final JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Expected " + expected + " but got " + actual + " at " + parser.currentLocation());
+        }
+    }
+}
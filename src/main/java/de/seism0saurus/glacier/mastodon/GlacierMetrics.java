@@ -0,0 +1,192 @@
+package de.seism0saurus.glacier.mastodon;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The GlacierMetrics record what happens to the events of the upstream streams with Micrometer.
+ * <p>
+ * The meters are registered once, so that recording an event on the hot path neither allocates nor looks up a meter.
+ * The gauges of the state of the components are bound by the
+ * {@link de.seism0saurus.glacier.webservice.messaging.GlacierMeterBinder GlacierMeterBinder}.
+ * The meters are exposed by the actuator, if the operator includes e.g. the prometheus endpoint in management.endpoints.web.exposure.include.
+ */
+@Component
+public class GlacierMetrics {
+
+    /**
+     * The type of the events, that are not about a status, e.g. the opening or failure of a stream.
+     */
+    public static final String TECHNICAL = "technical";
+
+    /**
+     * The type of the events, that glacier does not know.
+     */
+    public static final String UNKNOWN = "unknown";
+
+    private final MeterRegistry registry;
+    private final Timer embedChecksSucceeded;
+    private final Timer embedChecksFailed;
+    private final Counter loadable;
+    private final Counter notLoadable;
+    private final Counter verdictFailed;
+    private final Counter optInRejections;
+
+    /**
+     * The counters of the sent messages by type. There are only a few types, so the map stays small.
+     */
+    private final Map<String, Counter> sends = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs the metrics and registers the meters.
+     *
+     * @param registry the registry of the meters
+     */
+    public GlacierMetrics(final MeterRegistry registry) {
+        this.registry = registry;
+        this.embedChecksSucceeded = embedCheckTimer("success");
+        this.embedChecksFailed = embedCheckTimer("failure");
+        this.loadable = verdictCounter("loadable");
+        this.notLoadable = verdictCounter("not_loadable");
+        this.verdictFailed = verdictCounter("failed");
+        this.optInRejections = Counter.builder("glacier.opt_in.rejections")
+                .description("Statuses, that do not mention the glacier account")
+                .register(registry);
+    }
+
+    /**
+     * Returns the counter of the received events of a stream and type.
+     * The callback of the stream keeps the counter and removes it, when the stream is dropped.
+     * So the hashtag tag has one value per stream of this member, although the hashtags are entered by the users.
+     *
+     * @param hashtag the canonical hashtag of the stream
+     * @param type    the type of the event, e.g. {@link de.seism0saurus.glacier.webservice.messaging.messages.WallEventMessage#CREATION creation}
+     * @return the counter
+     */
+    public Counter upstreamEvents(final String hashtag, final String type) {
+        return Counter.builder("glacier.upstream.events")
+                .description("Events received from the upstream streams")
+                .tag("hashtag", hashtag)
+                .tag("type", type)
+                .register(registry);
+    }
+
+    /**
+     * Removes the counters of the received events of a stream, that was dropped.
+     *
+     * @param counters the counters of the stream
+     */
+    public void removeUpstreamEvents(final Counter... counters) {
+        for (Counter counter : counters) {
+            registry.remove(counter);
+        }
+    }
+
+    /**
+     * Registers the depth and the dropped events of the lane of a stream in the {@link EventPipeline EventPipeline}.
+     * Like the counters of the received events, the callback of the stream keeps the meters and removes them, when the stream is dropped.
+     *
+     * @param hashtag the canonical hashtag of the stream
+     * @param lane    the lane of the stream
+     * @return the meters of the lane
+     */
+    public Meter[] laneMeters(final String hashtag, final EventPipeline.Lane lane) {
+        return new Meter[]{
+                Gauge.builder("glacier.pipeline.lane.depth", lane, EventPipeline.Lane::depth)
+                        .description("Events, that wait in the lane of a stream")
+                        .tag("hashtag", hashtag)
+                        .register(registry),
+                FunctionCounter.builder("glacier.pipeline.lane.dropped", lane, EventPipeline.Lane::dropped)
+                        .description("Events of a stream, that were dropped because its lane was full")
+                        .tag("hashtag", hashtag)
+                        .register(registry)
+        };
+    }
+
+    /**
+     * Removes the meters of the lane of a stream, that was dropped.
+     *
+     * @param meters the meters of the lane
+     */
+    public void removeLaneMeters(final Meter... meters) {
+        for (Meter meter : meters) {
+            registry.remove(meter);
+        }
+    }
+
+    /**
+     * Records the duration of a HEAD request for the embed page of a status.
+     *
+     * @param nanos     the duration in nanoseconds, including the time in the queue of the limiters
+     * @param succeeded true if the request returned a successful response
+     */
+    public void embedChecked(final long nanos, final boolean succeeded) {
+        (succeeded ? embedChecksSucceeded : embedChecksFailed).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts the verdict for a status, no matter if it came from the cache or from a HEAD request.
+     *
+     * @param verdict true if loadable, false if not loadable and null if the check failed
+     */
+    public void embedVerdict(final Boolean verdict) {
+        if (verdict == null) {
+            verdictFailed.increment();
+        } else if (verdict) {
+            loadable.increment();
+        } else {
+            notLoadable.increment();
+        }
+    }
+
+    /**
+     * Counts a status, that was ignored, because it does not mention the glacier account.
+     */
+    public void optInRejected() {
+        optInRejections.increment();
+    }
+
+    /**
+     * Counts a message, that was sent to the destination of a wall.
+     *
+     * @param type the type of the event, e.g. {@link de.seism0saurus.glacier.webservice.messaging.messages.WallEventMessage#CREATION creation}
+     */
+    public void stompSent(final String type) {
+        Counter counter = sends.get(type);
+        if (counter == null) {
+            // The lookup first avoids the capturing lambda of computeIfAbsent on every message
+            counter = sends.computeIfAbsent(type, t -> Counter.builder("glacier.stomp.sends")
+                    .description("Messages sent to the destinations of the walls")
+                    .tag("type", t)
+                    .register(registry));
+        }
+        counter.increment();
+    }
+
+    private Timer embedCheckTimer(final String outcome) {
+        return Timer.builder("glacier.embed.checks")
+                .description("Latency of the HEAD requests for the embed pages of the statuses")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(5))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(registry);
+    }
+
+    private Counter verdictCounter(final String verdict) {
+        return Counter.builder("glacier.embed.verdicts")
+                .description("Verdicts, if the embed page of a status is loadable as iframe")
+                .tag("verdict", verdict)
+                .register(registry);
+    }
+}
@@ -0,0 +1,530 @@
+package de.seism0saurus.glacier.mastodon;
+
+import de.seism0saurus.glacier.webservice.messaging.messages.StatusCreatedMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * The HashtagStreamRegistry keeps exactly one upstream Mastodon stream per canonical hashtag.
+ * <p>
+ * All walls following the same hashtag share this stream.
+ * Every incoming event is processed once by the {@link StompCallback StompCallback} of the stream
+ * and fanned out to all subscribed principals.
+ * The streams are reference counted by their subscribers. The upstream is opened with the first subscriber
+ * and closed when the last subscriber leaves.
+ * <p>
+ * In a cluster, only the owner of a canonical hashtag opens its upstream. The owner is chosen by the {@link StreamOwnership StreamOwnership}
+ * with a {@link ConsistentHashRing ConsistentHashRing} over the live members. The owner sends the events to the subscribers of all members.
+ * The other members only keep their local subscribers. The owner forgets the {@link DeliveredStatuses DeliveredStatuses} of a wall of another member,
+ * when the wall is not a subscriber of any stream of this member anymore. A periodic {@link #rebalance() rebalance} renews the lease of this member,
+ * takes over the streams of members, that are gone, and hands streams over to members, that joined.
+ * <p>
+ * The shared state of the cluster may live in a database. It is never accessed under the monitor of the registry:
+ * {@link #acquire(String, String) acquire} and {@link #release(String, String) release} only queue the writes of the local subscribers,
+ * which {@link #flush() flush} performs outside of all locks. A rebalance loads the subscribers of the cluster with one query
+ * and only applies the result under the monitor.
+ * <p>
+ * The upstreams are opened and closed outside of all locks in the same way, because opening an upstream waits for the handshake with Mastodon.
+ * The monitor only records, which upstreams should be open, and queues the connections. A stream counts as open from then on.
+ */
+public class HashtagStreamRegistry {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(HashtagStreamRegistry.class);
+
+    /**
+     * The number of places of each member on the ring. Enough to spread the hashtags evenly over a few dozen members.
+     */
+    private static final int VIRTUAL_NODES = 128;
+
+    /**
+     * The streams with subscribers by their canonical hashtag. Only the streams, that this member owns, have an open upstream.
+     */
+    private final Map<String, HashtagStream> streams = new HashMap<>();
+
+    /**
+     * The connector, used to open the upstream streams.
+     */
+    private final UpstreamConnector connector;
+
+    /**
+     * Creates the callback for a new stream from its canonical hashtag.
+     */
+    private final Function<String, StompCallback> callbackFactory;
+
+    /**
+     * The members of the cluster and their subscribers.
+     */
+    private final StreamOwnership ownership;
+
+    /**
+     * The statuses, that were sent to each wall. The windows of the walls of other members are dropped here.
+     */
+    private final DeliveredStatuses deliveredStatuses;
+
+    /**
+     * The ring over the live members at the last renewal.
+     */
+    private ConsistentHashRing ring;
+
+    /**
+     * The writes of the local subscribers to the {@link StreamOwnership StreamOwnership}, in the order of the changes.
+     * They are queued under the monitor of the registry and performed by {@link #flush() flush}.
+     */
+    private final Queue<Runnable> writes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Keeps the order of the writes, when several threads flush at once.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * The openings and closings of the upstreams and the seeding of the streams, in the order of the changes.
+     * They are queued under the monitor of the registry and performed by {@link #connect() connect}.
+     */
+    private final Queue<Runnable> connections = new ConcurrentLinkedQueue<>();
+
+    /**
+     * True, while a thread performs the queued connections. The other threads leave theirs to it instead of waiting for a handshake.
+     */
+    private final AtomicBoolean connecting = new AtomicBoolean();
+
+    /**
+     * Constructs a new registry. The local member joins the cluster.
+     *
+     * @param connector       the connector, used to open the upstream streams
+     * @param callbackFactory creates the {@link StompCallback StompCallback} for a canonical hashtag
+     * @param ownership         the members of the cluster and their subscribers
+     * @param deliveredStatuses the statuses, that were sent to each wall
+     */
+    public HashtagStreamRegistry(final UpstreamConnector connector, final Function<String, StompCallback> callbackFactory,
+                                 final StreamOwnership ownership, final DeliveredStatuses deliveredStatuses) {
+        this.connector = connector;
+        this.callbackFactory = callbackFactory;
+        this.ownership = ownership;
+        this.deliveredStatuses = deliveredStatuses;
+        this.ring = new ConsistentHashRing(ownership.renew(), VIRTUAL_NODES);
+    }
+
+    /**
+     * Converts a hashtag into its canonical form.
+     * <p>
+     * A leading # is removed, the hashtag is Unicode-normalized (NFKC) and case-folded,
+     * so that #Devoxx, devoxx and ＤＥＶＯＸＸ all share the same upstream stream.
+     *
+     * @param hashtag the hashtag as entered by the user
+     * @return the canonical hashtag
+     */
+    public static String canonicalize(final String hashtag) {
+        String tag = hashtag.strip();
+        if (tag.startsWith("#")) {
+            tag = tag.substring(1);
+        }
+        tag = Normalizer.normalize(tag, Normalizer.Form.NFKC);
+        // Upper case first, so that special cases like ß or the final sigma are folded to the same lower case form
+        return tag.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a principal as subscriber of the stream for the given hashtag.
+     * If this member owns the hashtag and the upstream is not open yet, the upstream is opened and seeded.
+     * Otherwise, only the buffer of the recent statuses is seeded once, so that new walls on this member do not start empty.
+     * The subscriber is shared with the cluster and the upstream is opened by the next {@link #flush() flush}.
+     *
+     * @param principal the principal aka wallId of the subscriber
+     * @param hashtag   the hashtag as subscribed by the principal. It is used for the destinations of the principal.
+     */
+    public synchronized void acquire(final String principal, final String hashtag) {
+        String canonical = canonicalize(hashtag);
+        HashtagStream stream = streams.computeIfAbsent(canonical, tag -> new HashtagStream(tag, callbackFactory.apply(tag)));
+        stream.local.put(principal, hashtag);
+        writes.add(() -> ownership.register(canonical, principal, hashtag));
+        stream.callback.addSubscriber(principal, hashtag);
+        if (owns(canonical)) {
+            stream.open();
+        } else {
+            // The owner sends the events to the walls of this member, but the new walls here need the recent statuses too
+            connections.add(stream.callback::seedRecent);
+        }
+        LOGGER.info("Principal {} joined stream {}. The stream has {} subscribers", principal, canonical, stream.callback.numberOfSubscribers());
+    }
+
+    /**
+     * Removes a principal from the stream for the given hashtag.
+     * If it was the last subscriber, the upstream is closed.
+     * The subscriber is removed from the cluster and the upstream is closed by the next {@link #flush() flush}.
+     *
+     * @param principal the principal aka wallId of the subscriber
+     * @param hashtag   the hashtag of the subscription
+     */
+    public synchronized void release(final String principal, final String hashtag) {
+        String canonical = canonicalize(hashtag);
+        HashtagStream stream = streams.get(canonical);
+        if (stream == null) {
+            return;
+        }
+        stream.local.remove(principal);
+        writes.add(() -> ownership.unregister(canonical, principal));
+        stream.callback.removeSubscriber(principal);
+        if (stream.callback.numberOfSubscribers() == 0) {
+            LOGGER.info("Last subscriber left stream {}. Closing upstream", canonical);
+            streams.remove(canonical);
+            stream.discard();
+        }
+    }
+
+    /**
+     * Performs the queued writes of the local subscribers to the {@link StreamOwnership StreamOwnership} and the queued connections.
+     * The caller must not hold a lock, because the writes may go to a database.
+     * A failed write is logged and repaired by the next {@link #rebalance() rebalance}.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            Runnable write;
+            while ((write = writes.poll()) != null) {
+                try {
+                    write.run();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Could not share a subscriber with the cluster. The next rebalance repairs it", e);
+                }
+            }
+        }
+        connect();
+    }
+
+    /**
+     * Performs the queued openings and closings of the upstreams and the seeding of the streams, in their order.
+     * If another thread is already connecting, it performs the queued connections of this thread too, so that this thread does not wait.
+     * The caller must not hold a lock, because opening an upstream waits for the handshake with Mastodon.
+     */
+    private void connect() {
+        while (!connections.isEmpty() && connecting.compareAndSet(false, true)) {
+            try {
+                Runnable connection;
+                while ((connection = connections.poll()) != null) {
+                    try {
+                        connection.run();
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Could not connect a stream", e);
+                    }
+                }
+            } finally {
+                connecting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Renews the lease of this member and moves the streams to their owners on the ring of the live members.
+     * <p>
+     * This member opens the upstream of the hashtags, that it owns now, and sends their events to the subscribers of all members.
+     * It closes the upstream of the hashtags, that another member owns now, and keeps only its local subscribers for them.
+     * Until the new owner renews its lease, the events of a moved hashtag are missed.
+     * <p>
+     * The lease and the subscribers of the cluster are loaded outside of the monitor. The local subscribers are taken
+     * from the registry, so that the changes during the loading are not lost. The caller must not hold a lock.
+     */
+    public void rebalance() {
+        flush();
+        Set<String> members = ownership.renew();
+        List<StreamOwnership.Subscriber> subscribers = ownership.subscribers();
+        apply(members, subscribers);
+        flush();
+    }
+
+    /**
+     * Applies the loaded state of the cluster to the streams.
+     *
+     * @param members     the live members
+     * @param subscribers the subscribers of all hashtags on the live members
+     */
+    private synchronized void apply(final Set<String> members, final List<StreamOwnership.Subscriber> subscribers) {
+        if (!members.equals(ring.members())) {
+            LOGGER.info("The cluster has {} members: {}", members.size(), members);
+            ring = new ConsistentHashRing(members, VIRTUAL_NODES);
+        }
+        Map<String, Map<String, String>> remote = new HashMap<>();
+        Map<String, Set<String>> registered = new HashMap<>();
+        for (StreamOwnership.Subscriber subscriber : subscribers) {
+            if (subscriber.member().equals(ownership.localMember())) {
+                registered.computeIfAbsent(subscriber.canonical(), tag -> new HashSet<>()).add(subscriber.principal());
+            } else {
+                remote.computeIfAbsent(subscriber.canonical(), tag -> new HashMap<>()).put(subscriber.principal(), subscriber.hashtag());
+            }
+        }
+        // The rows of this member, that the registry does not know anymore, are left over from a failed or pending write
+        registered.forEach((canonical, principals) -> {
+            HashtagStream stream = streams.get(canonical);
+            principals.stream()
+                    .filter(principal -> stream == null || !stream.local.containsKey(principal))
+                    .forEach(principal -> writes.add(() -> ownership.unregister(canonical, principal)));
+        });
+        Set<String> formerRemote = new HashSet<>();
+        streams.values().forEach(stream -> formerRemote.addAll(stream.remote));
+        Set<String> hashtags = new HashSet<>(remote.keySet());
+        hashtags.addAll(streams.keySet());
+        for (String canonical : hashtags) {
+            HashtagStream stream = streams.get(canonical);
+            Map<String, String> all = new HashMap<>(remote.getOrDefault(canonical, Map.of()));
+            if (stream != null) {
+                Set<String> shared = registered.getOrDefault(canonical, Set.of());
+                // The subscribers of this member are dropped, if its lease ran out, e.g. during a long pause. They are registered again
+                stream.local.forEach((principal, hashtag) -> {
+                    all.put(principal, hashtag);
+                    if (!shared.contains(principal)) {
+                        writes.add(() -> ownership.register(canonical, principal, hashtag));
+                    }
+                });
+            }
+            if (!owns(canonical)) {
+                if (stream != null) {
+                    if (stream.isOpen()) {
+                        LOGGER.info("Handing stream {} over to member {}", canonical, ring.ownerOf(canonical));
+                        stream.close();
+                    }
+                    stream.remote.clear();
+                    stream.callback.replaceSubscribers(stream.local);
+                    if (stream.local.isEmpty()) {
+                        streams.remove(canonical);
+                        stream.discard();
+                    }
+                }
+            } else if (all.isEmpty()) {
+                if (stream != null) {
+                    streams.remove(canonical);
+                    stream.discard();
+                }
+            } else {
+                if (stream == null) {
+                    stream = new HashtagStream(canonical, callbackFactory.apply(canonical));
+                    streams.put(canonical, stream);
+                }
+                stream.remote.clear();
+                stream.remote.addAll(remote.getOrDefault(canonical, Map.of()).keySet());
+                stream.callback.replaceSubscribers(all);
+                if (!stream.isOpen()) {
+                    LOGGER.info("Member {} takes over stream {} with {} subscribers", ownership.localMember(), canonical, all.size());
+                    stream.open();
+                }
+            }
+        }
+        forgetRemoteWalls(formerRemote);
+    }
+
+    /**
+     * Drops the delivered statuses of the walls of other members, that are not a subscriber of any stream of this member anymore.
+     * The walls of this member are forgotten by the {@link SubscriptionManagerImpl SubscriptionManagerImpl}, when they leave.
+     *
+     * @param formerRemote the walls of other members, that were subscribers before the rebalance
+     */
+    private void forgetRemoteWalls(final Set<String> formerRemote) {
+        for (HashtagStream stream : streams.values()) {
+            formerRemote.removeAll(stream.remote);
+            formerRemote.removeAll(stream.local.keySet());
+        }
+        formerRemote.forEach(deliveredStatuses::forget);
+    }
+
+    /**
+     * Returns the last delivered statuses of the stream for the given hashtag.
+     *
+     * @param hashtag the hashtag of the stream
+     * @return the statuses, the oldest first. Empty, if there is no stream.
+     */
+    public synchronized List<StatusCreatedMessage> recentStatuses(final String hashtag) {
+        HashtagStream stream = streams.get(canonicalize(hashtag));
+        return stream == null ? List.of() : stream.callback.recentStatuses();
+    }
+
+    /**
+     * Closes and reopens the upstream of a stream. The subscribers are kept.
+     * The caller must not hold a lock.
+     *
+     * @param hashtag the hashtag of the stream
+     */
+    public void restart(final String hashtag) {
+        synchronized (this) {
+            HashtagStream stream = streams.get(canonicalize(hashtag));
+            if (stream == null || !stream.isOpen()) {
+                return;
+            }
+            stream.close();
+            stream.open();
+        }
+        connect();
+    }
+
+    /**
+     * Closes all upstream streams at once, e.g. when the application shuts down. The subscribers are dropped.
+     * The caller must not hold a lock.
+     *
+     * @return the number of closed streams
+     */
+    public int closeAll() {
+        int closed;
+        synchronized (this) {
+            closed = numberOfStreams();
+            streams.values().forEach(HashtagStream::discard);
+            streams.clear();
+        }
+        connect();
+        return closed;
+    }
+
+    /**
+     * Returns the number of open upstream streams.
+     *
+     * @return the number of open upstream streams
+     */
+    public synchronized int numberOfStreams() {
+        return (int) streams.values().stream().filter(HashtagStream::isOpen).count();
+    }
+
+    /**
+     * Returns the number of subscribers of the stream for the given hashtag.
+     *
+     * @param hashtag the hashtag of the stream
+     * @return the number of subscribers or 0, if there is no such stream
+     */
+    public synchronized int numberOfSubscribers(final String hashtag) {
+        HashtagStream stream = streams.get(canonicalize(hashtag));
+        return stream == null ? 0 : stream.callback.numberOfSubscribers();
+    }
+
+    private boolean owns(final String canonical) {
+        return ownership.localMember().equals(ring.ownerOf(canonical));
+    }
+
+    /**
+     * One shared upstream stream with its callback.
+     */
+    private class HashtagStream {
+
+        private final String canonical;
+        private final StompCallback callback;
+
+        /**
+         * The subscribers of this member. The key is the principal aka wallId, the value the hashtag as subscribed by the principal.
+         */
+        private final Map<String, String> local = new HashMap<>();
+
+        /**
+         * The subscribers of the other members, if this member owns the stream.
+         */
+        private final Set<String> remote = new HashSet<>();
+
+        /**
+         * The upstream, if this member owns the stream and it is connected.
+         */
+        private Closeable upstream;
+
+        /**
+         * The token of the queued opening of the upstream. Only the connection with the current token keeps its upstream,
+         * so that an upstream, that was closed or reopened in the meantime, is closed again.
+         */
+        private Object opening;
+
+        private HashtagStream(final String canonical, final StompCallback callback) {
+            this.canonical = canonical;
+            this.callback = callback;
+        }
+
+        private boolean isOpen() {
+            return upstream != null || opening != null;
+        }
+
+        /**
+         * Queues the opening of the upstream, if it is neither open nor opening. Must be called under the monitor of the registry.
+         */
+        private void open() {
+            if (isOpen()) {
+                return;
+            }
+            Object token = new Object();
+            opening = token;
+            connections.add(() -> attach(token));
+        }
+
+        /**
+         * Opens the upstream outside of the monitor and keeps it, if the opening is still current.
+         * The stream is seeded after its upstream is open. Only the first seed has an effect.
+         *
+         * @param token the token of the opening
+         */
+        private void attach(final Object token) {
+            Closeable opened;
+            try {
+                opened = connector.open(canonical, callback);
+            } catch (RuntimeException e) {
+                synchronized (HashtagStreamRegistry.this) {
+                    if (opening == token) {
+                        opening = null;
+                    }
+                }
+                LOGGER.warn("Could not open the upstream for the hashtag {}. The next rebalance retries it", canonical, e);
+                return;
+            }
+            boolean current;
+            synchronized (HashtagStreamRegistry.this) {
+                current = opening == token;
+                if (current) {
+                    upstream = opened;
+                    opening = null;
+                }
+            }
+            if (current) {
+                callback.seed();
+            } else {
+                closeQuietly(opened);
+            }
+        }
+
+        /**
+         * Drops a queued opening and queues the closing of the upstream. Must be called under the monitor of the registry.
+         */
+        private void close() {
+            opening = null;
+            if (upstream == null) {
+                return;
+            }
+            Closeable closed = upstream;
+            upstream = null;
+            connections.add(() -> closeQuietly(closed));
+        }
+
+        private void closeQuietly(final Closeable closed) {
+            try {
+                closed.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not close the upstream for the hashtag {}", canonical, e);
+            }
+        }
+
+        /**
+         * Closes the upstream and drops the counters of the callback, because the stream is removed from the registry.
+         */
+        private void discard() {
+            close();
+            callback.discard();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package de.seism0saurus.glacier.mastodon;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The InMemoryStreamOwnership keeps the members and subscribers of a cluster in the memory of one JVM.
+ * <p>
+ * A glacier node, that runs alone, is a cluster with only one member, which owns every hashtag.
+ * Several members, that share one {@link Cluster Cluster}, simulate a cluster in the tests.
+ */
+public class InMemoryStreamOwnership implements StreamOwnership {
+
+    private final String member;
+    private final Duration leaseDuration;
+    private final Clock clock;
+    private final Cluster cluster;
+
+    /**
+     * Constructs a member of a cluster.
+     *
+     * @param member        the name of the local member
+     * @param leaseDuration the time after the last renewal, until the member is gone
+     * @param clock         the clock for the leases
+     * @param cluster       the state shared by the members of the cluster
+     */
+    public InMemoryStreamOwnership(final String member, final Duration leaseDuration, final Clock clock, final Cluster cluster) {
+        this.member = member;
+        this.leaseDuration = leaseDuration;
+        this.clock = clock;
+        this.cluster = cluster;
+    }
+
+    @Override
+    public String localMember() {
+        return member;
+    }
+
+    @Override
+    public Set<String> renew() {
+        synchronized (cluster) {
+            long now = clock.millis();
+            cluster.leases.put(member, now + leaseDuration.toMillis());
+            cluster.leases.values().removeIf(leaseUntil -> leaseUntil <= now);
+            cluster.registrations.values().removeIf(registration -> !cluster.leases.containsKey(registration.member));
+            return Set.copyOf(cluster.leases.keySet());
+        }
+    }
+
+    @Override
+    public void leave() {
+        synchronized (cluster) {
+            cluster.leases.remove(member);
+            cluster.registrations.values().removeIf(registration -> registration.member.equals(member));
+        }
+    }
+
+    @Override
+    public void register(final String canonical, final String principal, final String hashtag) {
+        synchronized (cluster) {
+            cluster.registrations.put(new Key(canonical, principal), new Registration(hashtag, member));
+        }
+    }
+
+    @Override
+    public void unregister(final String canonical, final String principal) {
+        synchronized (cluster) {
+            cluster.registrations.remove(new Key(canonical, principal));
+        }
+    }
+
+    @Override
+    public List<Subscriber> subscribers() {
+        synchronized (cluster) {
+            long now = clock.millis();
+            List<Subscriber> subscribers = new ArrayList<>();
+            cluster.registrations.forEach((key, registration) -> {
+                if (cluster.isLive(registration.member, now)) {
+                    subscribers.add(new Subscriber(key.canonical, key.principal, registration.hashtag, registration.member));
+                }
+            });
+            return subscribers;
+        }
+    }
+
+    /**
+     * The members and subscribers of a cluster. Guarded by its own monitor.
+     */
+    public static class Cluster {
+
+        private final Map<String, Long> leases = new HashMap<>();
+        private final Map<Key, Registration> registrations = new HashMap<>();
+
+        private boolean isLive(final String member, final long now) {
+            Long leaseUntil = leases.get(member);
+            return leaseUntil != null && leaseUntil > now;
+        }
+    }
+
+    private record Key(String canonical, String principal) {
+    }
+
+    private record Registration(String hashtag, String member) {
+    }
+}
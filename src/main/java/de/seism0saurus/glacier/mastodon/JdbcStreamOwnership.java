@@ -0,0 +1,117 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The JdbcStreamOwnership keeps the members and subscribers of a cluster in a database, that all glacier nodes share.
+ * <p>
+ * The tables are created, if they do not exist. Only portable SQL is used, so that any database with a JDBC driver works,
+ * e.g. PostgreSQL for a cluster or an embedded H2 for the tests. The leases are compared with the clocks of the nodes,
+ * so the clocks have to be synchronized within a small fraction of the lease duration.
+ */
+public class JdbcStreamOwnership implements StreamOwnership {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(JdbcStreamOwnership.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String member;
+    private final Duration leaseDuration;
+    private final Clock clock;
+
+    /**
+     * Constructs a member of a cluster and creates the tables, if they do not exist.
+     *
+     * @param jdbcTemplate  the template for the shared database
+     * @param member        the name of the local member
+     * @param leaseDuration the time after the last renewal, until the member is gone
+     * @param clock         the clock for the leases
+     */
+    public JdbcStreamOwnership(final JdbcTemplate jdbcTemplate, final String member, final Duration leaseDuration, final Clock clock) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.member = member;
+        this.leaseDuration = leaseDuration;
+        this.clock = clock;
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS glacier_members ("
+                + "member_id VARCHAR(255) NOT NULL PRIMARY KEY, "
+                + "lease_until BIGINT NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS glacier_stream_subscribers ("
+                + "canonical_hashtag VARCHAR(255) NOT NULL, "
+                + "principal VARCHAR(255) NOT NULL, "
+                + "hashtag VARCHAR(255) NOT NULL, "
+                + "member_id VARCHAR(255) NOT NULL, "
+                + "PRIMARY KEY (canonical_hashtag, principal))");
+        LOGGER.info("JdbcStreamOwnership for member {} created", member);
+    }
+
+    @Override
+    public String localMember() {
+        return member;
+    }
+
+    @Override
+    public Set<String> renew() {
+        long now = clock.millis();
+        long leaseUntil = now + leaseDuration.toMillis();
+        if (jdbcTemplate.update("UPDATE glacier_members SET lease_until = ? WHERE member_id = ?", leaseUntil, member) == 0) {
+            try {
+                jdbcTemplate.update("INSERT INTO glacier_members (member_id, lease_until) VALUES (?, ?)", member, leaseUntil);
+                LOGGER.info("Member {} joined the cluster", member);
+            } catch (DuplicateKeyException e) {
+                jdbcTemplate.update("UPDATE glacier_members SET lease_until = ? WHERE member_id = ?", leaseUntil, member);
+            }
+        }
+        int expired = jdbcTemplate.update("DELETE FROM glacier_members WHERE lease_until <= ?", now);
+        if (expired > 0) {
+            LOGGER.info("{} members of the cluster are gone", expired);
+            jdbcTemplate.update("DELETE FROM glacier_stream_subscribers WHERE member_id NOT IN (SELECT member_id FROM glacier_members)");
+        }
+        return Set.copyOf(jdbcTemplate.queryForList("SELECT member_id FROM glacier_members WHERE lease_until > ?", String.class, now));
+    }
+
+    @Override
+    public void leave() {
+        jdbcTemplate.update("DELETE FROM glacier_stream_subscribers WHERE member_id = ?", member);
+        jdbcTemplate.update("DELETE FROM glacier_members WHERE member_id = ?", member);
+        LOGGER.info("Member {} left the cluster", member);
+    }
+
+    @Override
+    public void register(final String canonical, final String principal, final String hashtag) {
+        String update = "UPDATE glacier_stream_subscribers SET hashtag = ?, member_id = ? WHERE canonical_hashtag = ? AND principal = ?";
+        if (jdbcTemplate.update(update, hashtag, member, canonical, principal) == 0) {
+            try {
+                jdbcTemplate.update("INSERT INTO glacier_stream_subscribers (canonical_hashtag, principal, hashtag, member_id) VALUES (?, ?, ?, ?)",
+                        canonical, principal, hashtag, member);
+            } catch (DuplicateKeyException e) {
+                jdbcTemplate.update(update, hashtag, member, canonical, principal);
+            }
+        }
+    }
+
+    @Override
+    public void unregister(final String canonical, final String principal) {
+        jdbcTemplate.update("DELETE FROM glacier_stream_subscribers WHERE canonical_hashtag = ? AND principal = ?", canonical, principal);
+    }
+
+    @Override
+    public List<Subscriber> subscribers() {
+        return jdbcTemplate.query("SELECT s.canonical_hashtag, s.principal, s.hashtag, s.member_id FROM glacier_stream_subscribers s "
+                        + "JOIN glacier_members m ON m.member_id = s.member_id WHERE m.lease_until > ?",
+                (resultSet, row) -> new Subscriber(resultSet.getString(1), resultSet.getString(2), resultSet.getString(3), resultSet.getString(4)),
+                clock.millis());
+    }
+}
@@ -0,0 +1,227 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * The LoadabilityCache remembers for each status URL, if the status can be embedded as iframe by this glacier instance.
+ * <p>
+ * A toot, that reaches many walls or carries several followed hashtags, is checked only once.
+ * The cache is bounded and evicts the least recently used verdicts. Positive and negative verdicts expire after their own TTL.
+ * Concurrent lookups for the same URL are coalesced, so that they share one in-flight check.
+ * Failed checks are not cached.
+ */
+@Component
+public class LoadabilityCache {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(LoadabilityCache.class);
+
+    /**
+     * The cached verdicts in access order, so that the eldest entry is the least recently used one.
+     */
+    private final LinkedHashMap<String, Verdict> verdicts;
+
+    /**
+     * The checks, that are currently running, by their URL.
+     */
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+    private final Duration ttl;
+    private final Duration negativeTtl;
+    private final Clock clock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs a cache with the configured size and TTLs.
+     *
+     * @param maxSize     the maximum number of cached verdicts
+     * @param ttl         the time to live of a positive verdict in seconds
+     * @param negativeTtl the time to live of a negative verdict in seconds
+     */
+    @Autowired
+    public LoadabilityCache(@Value("${glacier.embed.cache.maxSize}") final int maxSize,
+                            @Value("${glacier.embed.cache.ttl}") final int ttl,
+                            @Value("${glacier.embed.cache.negativeTtl}") final int negativeTtl) {
+        this(maxSize, Duration.ofSeconds(ttl), Duration.ofSeconds(negativeTtl), Clock.systemUTC());
+    }
+
+    /**
+     * Constructs a cache with an explicit clock.
+     *
+     * @param maxSize     the maximum number of cached verdicts
+     * @param ttl         the time to live of a positive verdict
+     * @param negativeTtl the time to live of a negative verdict
+     * @param clock       the clock for the expiry of the verdicts
+     */
+    LoadabilityCache(final int maxSize, final Duration ttl, final Duration negativeTtl, final Clock clock) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The cache needs a size of at least one");
+        }
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.clock = clock;
+        this.verdicts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Verdict> eldest) {
+                if (size() > LoadabilityCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        LOGGER.info("LoadabilityCache with {} entries, a TTL of {} and a negative TTL of {} created", maxSize, ttl, negativeTtl);
+    }
+
+    /**
+     * Returns the cached verdict for the URL or runs the check, if there is no valid verdict.
+     * If a check for the URL is already running, its result is awaited instead of starting a second one.
+     *
+     * @param url   the URL of the status
+     * @param check the asynchronous check, that decides if the status is loadable
+     * @return the future verdict. True if the status is loadable, false otherwise
+     */
+    public CompletableFuture<Boolean> isLoadable(final String url, final Function<String, CompletableFuture<Boolean>> check) {
+        Boolean cached = lookup(url);
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<Boolean> own = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = inFlight.putIfAbsent(url, own);
+        if (running != null) {
+            coalesced.increment();
+            return running;
+        }
+        // The previous owner may have finished between our lookup and putIfAbsent
+        Boolean verdict = lookup(url);
+        if (verdict != null) {
+            hits.increment();
+            inFlight.remove(url, own);
+            own.complete(verdict);
+            return own;
+        }
+        misses.increment();
+        CompletableFuture<Boolean> checked;
+        try {
+            checked = check.apply(url);
+        } catch (RuntimeException e) {
+            checked = CompletableFuture.failedFuture(e);
+        }
+        checked.whenComplete((loadable, error) -> {
+            if (error == null) {
+                store(url, loadable);
+            }
+            inFlight.remove(url, own);
+            if (error != null) {
+                own.completeExceptionally(error);
+            } else {
+                own.complete(loadable);
+            }
+        });
+        return own;
+    }
+
+    private Boolean lookup(final String url) {
+        synchronized (verdicts) {
+            Verdict verdict = verdicts.get(url);
+            if (verdict == null) {
+                return null;
+            }
+            if (!clock.instant().isBefore(verdict.expiry())) {
+                verdicts.remove(url);
+                evictions.increment();
+                return null;
+            }
+            return verdict.loadable();
+        }
+    }
+
+    private void store(final String url, final boolean loadable) {
+        Instant expiry = clock.instant().plus(loadable ? ttl : negativeTtl);
+        synchronized (verdicts) {
+            verdicts.put(url, new Verdict(loadable, expiry));
+        }
+    }
+
+    /**
+     * Returns the number of lookups, that were answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups, that needed a check.
+     *
+     * @return the number of misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of lookups, that awaited the check of a concurrent lookup for the same URL.
+     *
+     * @return the number of coalesced lookups
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Returns the number of verdicts, that were removed because they expired or the cache was full.
+     *
+     * @return the number of evictions
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of cached verdicts.
+     *
+     * @return the number of cached verdicts
+     */
+    public int size() {
+        synchronized (verdicts) {
+            return verdicts.size();
+        }
+    }
+
+    /**
+     * A cached verdict with its expiry.
+     *
+     * @param loadable true if the status is loadable
+     * @param expiry   the instant, after which the verdict is no longer valid
+     */
+    private record Verdict(boolean loadable, Instant expiry) {
+    }
+}
@@ -0,0 +1,160 @@
+package de.seism0saurus.glacier.mastodon;
+
+/**
+ * The LongWindowSet is a set of the last added primitive longs with a fixed memory footprint.
+ * <p>
+ * The keys are kept in an open addressing table with linear probing, that is never more than half full.
+ * A ring remembers the order of the keys. When the window is full, the oldest key is evicted from the table
+ * with a backward shift, so that no tombstones are left behind. No key is boxed and nothing is allocated after construction.
+ * <p>
+ * The set is not thread safe. Its owner guards it.
+ */
+class LongWindowSet {
+
+    /**
+     * The multiplier of the Fibonacci hashing. It spreads the ids, that differ only in their low sequence bits.
+     */
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    /**
+     * The marker of a free slot. A key, that equals the marker, is tracked by {@link #containsFree containsFree}.
+     */
+    private static final long FREE = 0L;
+
+    private final long[] table;
+    private final long[] window;
+    private final int mask;
+    private final int shift;
+
+    /**
+     * The index of the oldest key in the window.
+     */
+    private int head;
+    private int size;
+    private boolean containsFree;
+
+    /**
+     * Constructs an empty set.
+     *
+     * @param capacity the number of keys in the window
+     */
+    LongWindowSet(final int capacity) {
+        if (capacity < 1 || capacity > 1 << 29) {
+            throw new IllegalArgumentException("The window needs a capacity between 1 and 2^29");
+        }
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.table = new long[tableSize];
+        this.window = new long[capacity];
+        this.mask = tableSize - 1;
+        this.shift = Long.SIZE - Integer.numberOfTrailingZeros(tableSize);
+    }
+
+    /**
+     * Adds a key. If the window is full, the oldest key is evicted.
+     *
+     * @param key the key
+     * @return true if the key was added, false if it is already in the window
+     */
+    boolean add(final long key) {
+        if (contains(key)) {
+            return false;
+        }
+        if (size == window.length) {
+            delete(window[head]);
+            window[head] = key;
+            head = (head + 1) % window.length;
+        } else {
+            window[(head + size) % window.length] = key;
+            size++;
+        }
+        if (key == FREE) {
+            containsFree = true;
+        } else {
+            int slot = slot(key);
+            while (table[slot] != FREE) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = key;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a key is in the window.
+     *
+     * @param key the key
+     * @return true if the key is in the window
+     */
+    boolean contains(final long key) {
+        if (key == FREE) {
+            return containsFree;
+        }
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Removes the oldest key of the window, e.g. when it is too old for its owner.
+     */
+    void removeOldest() {
+        if (size == 0) {
+            return;
+        }
+        delete(window[head]);
+        head = (head + 1) % window.length;
+        size--;
+    }
+
+    /**
+     * Returns the number of keys in the window.
+     *
+     * @return the number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    private int indexOf(final long key) {
+        int slot = slot(key);
+        while (table[slot] != FREE) {
+            if (table[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Removes a key from the table and shifts the following keys of the probe sequence back into the gap.
+     */
+    private void delete(final long key) {
+        if (key == FREE) {
+            containsFree = false;
+            return;
+        }
+        int gap = indexOf(key);
+        if (gap < 0) {
+            return;
+        }
+        int next = gap;
+        while (true) {
+            next = (next + 1) & mask;
+            long candidate = table[next];
+            if (candidate == FREE) {
+                break;
+            }
+            int home = slot(candidate);
+            // The candidate may only move, if its home slot is not between the gap and its current slot
+            boolean homeBetween = gap <= next ? gap < home && home <= next : gap < home || home <= next;
+            if (!homeBetween) {
+                table[gap] = candidate;
+                gap = next;
+            }
+        }
+        table[gap] = FREE;
+    }
+
+    private int slot(final long key) {
+        return (int) ((key * GOLDEN_RATIO) >>> shift);
+    }
+}
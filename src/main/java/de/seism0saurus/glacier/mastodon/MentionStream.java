@@ -0,0 +1,149 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import social.bigbone.api.entity.Notification;
+import social.bigbone.api.entity.streaming.MastodonApiEvent;
+import social.bigbone.api.entity.streaming.ParsedStreamEvent;
+import social.bigbone.api.entity.streaming.TechnicalEvent;
+import social.bigbone.api.entity.streaming.WebSocketCallback;
+import social.bigbone.api.entity.streaming.WebSocketEvent;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The MentionStream is the single notification stream of the glacier account. It feeds the {@link OptInIndex OptInIndex}
+ * with the ids of the statuses, that mention glacier.
+ * <p>
+ * The stream is opened with the first subscription of a wall and stays open until the application shuts down.
+ * Only mention notifications are used, all other notifications are ignored.
+ * The state of the stream decides, if the hashtag streams are joined with the index.
+ * A failed stream is restarted by the {@link ReconnectSupervisor ReconnectSupervisor} like a hashtag stream.
+ */
+public class MentionStream implements WebSocketCallback {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(MentionStream.class);
+
+    /**
+     * The name of the notification stream of the Mastodon streaming API.
+     * It is also the key of the stream in the {@link ReconnectSupervisor ReconnectSupervisor}, where it can not clash with a hashtag.
+     */
+    public static final String STREAM = "user:notification";
+
+    private final UpstreamConnector connector;
+    private final OptInIndex optInIndex;
+    private final ReconnectSupervisor reconnectSupervisor;
+
+    /**
+     * The open upstream or null.
+     */
+    private Closeable upstream;
+
+    /**
+     * Constructs the closed stream.
+     *
+     * @param connector           the connector, used to open the notification stream
+     * @param optInIndex          the index of the mentioning statuses
+     * @param reconnectSupervisor the supervisor, that decides when the failed stream is restarted
+     */
+    public MentionStream(final UpstreamConnector connector, final OptInIndex optInIndex, final ReconnectSupervisor reconnectSupervisor) {
+        this.connector = connector;
+        this.optInIndex = optInIndex;
+        this.reconnectSupervisor = reconnectSupervisor;
+    }
+
+    /**
+     * Opens the stream, if it is not open yet.
+     */
+    public synchronized void open() {
+        if (upstream == null) {
+            upstream = connector.openNotifications(this);
+            LOGGER.info("Mention stream started");
+        }
+    }
+
+    /**
+     * Closes and reopens the stream after a failure.
+     */
+    public synchronized void restart() {
+        if (upstream != null) {
+            close();
+            open();
+        }
+    }
+
+    /**
+     * Closes the stream. The hashtag streams check the mentions of each status again.
+     */
+    public synchronized void close() {
+        if (upstream == null) {
+            return;
+        }
+        try {
+            upstream.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close the mention stream", e);
+        }
+        upstream = null;
+        optInIndex.closed();
+    }
+
+    /**
+     * Handles an event of the notification stream.
+     * The multiplexed connector passes the raw messages, bigbone the parsed notifications.
+     *
+     * @param event The WebSocket event to handle.
+     */
+    @Override
+    public void onEvent(@NotNull final WebSocketEvent event) {
+        switch (event) {
+            case MastodonApiEvent.GenericMessage genericMessage -> {
+                try {
+                    String statusId = GenericMessageDecoder.readMentionedStatusId(genericMessage.getText());
+                    if (statusId != null) {
+                        mentioned(statusId);
+                    }
+                } catch (IOException e) {
+                    LOGGER.error("Could not parse the notification", e);
+                }
+            }
+            case MastodonApiEvent.StreamEvent streamEvent -> {
+                if (streamEvent.getEvent() instanceof ParsedStreamEvent.NewNotification newNotification) {
+                    Notification notification = newNotification.getNewNotification();
+                    if (notification.getType() == Notification.NotificationType.MENTION && notification.getStatus() != null) {
+                        mentioned(notification.getStatus().getId());
+                    }
+                }
+            }
+            case TechnicalEvent.Open open -> {
+                LOGGER.info("Mention stream got an Open event: {}", open);
+                reconnectSupervisor.connected(STREAM);
+                optInIndex.opened();
+            }
+            case TechnicalEvent.Failure failure -> {
+                LOGGER.warn("Mention stream got a Failure event. Restarting it. The error is: {}", failure.getError().getMessage());
+                optInIndex.closed();
+                reconnectSupervisor.failed(STREAM, this::restart);
+            }
+            case TechnicalEvent.Closed closed -> {
+                LOGGER.info("Mention stream got a Closed event: {}", closed);
+                optInIndex.closed();
+            }
+            default -> LOGGER.debug("Mention stream got {}", event);
+        }
+    }
+
+    private void mentioned(final String statusId) {
+        if (optInIndex.record(statusId)) {
+            LOGGER.debug("Status {} mentions glacier", statusId);
+        }
+    }
+}
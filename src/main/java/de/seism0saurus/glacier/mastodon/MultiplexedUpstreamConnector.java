@@ -0,0 +1,326 @@
+package de.seism0saurus.glacier.mastodon;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import social.bigbone.api.entity.streaming.MastodonApiEvent;
+import social.bigbone.api.entity.streaming.TechnicalEvent;
+import social.bigbone.api.entity.streaming.WebSocketCallback;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.http.WebSocket;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The MultiplexedUpstreamConnector streams all hashtags over a small, fixed pool of Mastodon streaming WebSockets.
+ * <p>
+ * Mastodon's streaming endpoint accepts many subscribe frames on one socket.
+ * Opening a stream therefore only sends a {@code {"type":"subscribe","stream":"hashtag","tag":...}} frame
+ * on the least loaded socket of the pool and closing it sends the matching unsubscribe frame.
+ * The incoming events are routed to the callbacks by the {@code stream} field of the message.
+ * The notification stream of the glacier account is subscribed on the pool like a hashtag, under the key {@value MentionStream#STREAM}.
+ * <p>
+ * The sockets are connected lazily. A stream gets an {@link TechnicalEvent.Open Open} event, when it is subscribed on a connected socket.
+ * If a socket fails, all streams on it get a {@link TechnicalEvent.Failure Failure} event, so that they can be restarted.
+ *
+ * @see UpstreamConnector
+ */
+public class MultiplexedUpstreamConnector implements UpstreamConnector {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(MultiplexedUpstreamConnector.class);
+
+    /**
+     * The pool of streaming sockets.
+     */
+    private final List<StreamingSocket> pool;
+
+    /**
+     * The callbacks of the open streams by their canonical hashtag or {@link MentionStream#STREAM MentionStream.STREAM}.
+     */
+    private final Map<String, WebSocketCallback> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Connects a new WebSocket with the given listener.
+     */
+    private final Function<WebSocket.Listener, CompletableFuture<WebSocket>> webSocketFactory;
+
+    /**
+     * Constructs a connector with a pool of streaming sockets.
+     *
+     * @param poolSize         the number of streaming sockets
+     * @param webSocketFactory connects a new WebSocket to the streaming endpoint with the given listener
+     */
+    public MultiplexedUpstreamConnector(final int poolSize, final Function<WebSocket.Listener, CompletableFuture<WebSocket>> webSocketFactory) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("The pool needs at least one streaming socket");
+        }
+        this.webSocketFactory = webSocketFactory;
+        this.pool = new ArrayList<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            this.pool.add(new StreamingSocket(i));
+        }
+        LOGGER.info("MultiplexedUpstreamConnector with {} streaming sockets created", poolSize);
+    }
+
+    /**
+     * Subscribes the hashtag on the least loaded socket of the pool.
+     *
+     * @param hashtag  The canonical hashtag to stream.
+     * @param callback The callback for the events of the stream.
+     * @return A closeable, that unsubscribes the hashtag.
+     */
+    @Override
+    public Closeable open(final String hashtag, final WebSocketCallback callback) {
+        return subscribe(hashtag, callback);
+    }
+
+    /**
+     * Subscribes the notification stream on the least loaded socket of the pool.
+     *
+     * @param callback The callback for the events of the stream.
+     * @return A closeable, that unsubscribes the notification stream.
+     */
+    @Override
+    public Closeable openNotifications(final WebSocketCallback callback) {
+        return subscribe(MentionStream.STREAM, callback);
+    }
+
+    private Closeable subscribe(final String hashtag, final WebSocketCallback callback) {
+        StreamingSocket socket = pool.stream()
+                .min(Comparator.comparingInt(StreamingSocket::numberOfTags))
+                .orElseThrow();
+        routes.put(hashtag, callback);
+        socket.subscribe(hashtag);
+        return () -> {
+            routes.remove(hashtag, callback);
+            socket.unsubscribe(hashtag);
+        };
+    }
+
+    /**
+     * Returns the number of connected sockets of the pool.
+     *
+     * @return the number of connected sockets
+     */
+    public int numberOfConnectedSockets() {
+        return (int) pool.stream().filter(StreamingSocket::isConnected).count();
+    }
+
+    /**
+     * Routes a complete message from a socket to the callback of its hashtag.
+     * Only the stream field is read by the {@link GenericMessageDecoder GenericMessageDecoder}. For a hashtag message it looks like {@code ["hashtag","devoxx"]}.
+     *
+     * @param text the text of the message
+     */
+    void route(final String text) {
+        try {
+            List<String> stream = GenericMessageDecoder.readStream(text);
+            if (stream != null && stream.contains(MentionStream.STREAM)) {
+                WebSocketCallback callback = routes.get(MentionStream.STREAM);
+                if (callback != null) {
+                    callback.onEvent(new MastodonApiEvent.GenericMessage(text));
+                }
+                return;
+            }
+            if (stream == null || stream.size() < 2 || !stream.getFirst().startsWith("hashtag")) {
+                LOGGER.debug("Ignoring message without hashtag stream: {}", text);
+                return;
+            }
+            WebSocketCallback callback = routes.get(HashtagStreamRegistry.canonicalize(stream.get(1)));
+            if (callback == null) {
+                LOGGER.debug("Ignoring message for a hashtag without subscribers: {}", stream);
+                return;
+            }
+            callback.onEvent(new MastodonApiEvent.GenericMessage(text));
+        } catch (IOException e) {
+            LOGGER.error("Could not route streaming message", e);
+        }
+    }
+
+    /**
+     * Creates a subscribe or unsubscribe frame for a hashtag or the notification stream.
+     *
+     * @param type    subscribe or unsubscribe
+     * @param hashtag the canonical hashtag or {@link MentionStream#STREAM MentionStream.STREAM}
+     * @return the frame as json
+     */
+    static String frame(final String type, final String hashtag) {
+        ObjectNode frame = GenericMessageDecoder.MAPPER.createObjectNode();
+        frame.put("type", type);
+        if (MentionStream.STREAM.equals(hashtag)) {
+            frame.put("stream", MentionStream.STREAM);
+        } else {
+            frame.put("stream", "hashtag");
+            frame.put("tag", hashtag);
+        }
+        return frame.toString();
+    }
+
+    /**
+     * One streaming socket of the pool with the hashtags subscribed on it.
+     */
+    private class StreamingSocket implements WebSocket.Listener {
+
+        private final int number;
+        private final Set<String> tags = ConcurrentHashMap.newKeySet();
+        private final StringBuilder buffer = new StringBuilder();
+        private boolean connecting = false;
+        private WebSocket webSocket;
+        private CompletableFuture<?> sending = CompletableFuture.completedFuture(null);
+
+        private StreamingSocket(final int number) {
+            this.number = number;
+        }
+
+        private int numberOfTags() {
+            return tags.size();
+        }
+
+        private synchronized boolean isConnected() {
+            return webSocket != null;
+        }
+
+        private void subscribe(final String hashtag) {
+            synchronized (this) {
+                tags.add(hashtag);
+                if (webSocket == null) {
+                    connect();
+                    return;
+                }
+                send(frame("subscribe", hashtag));
+            }
+            opened(List.of(hashtag));
+        }
+
+        private synchronized void connect() {
+            if (!connecting) {
+                LOGGER.info("Connecting streaming socket {}", number);
+                connecting = true;
+                webSocketFactory.apply(this).whenComplete((connected, e) -> {
+                    if (e != null) {
+                        fail(null, e);
+                    } else {
+                        connected(connected);
+                    }
+                });
+            }
+        }
+
+        private synchronized void unsubscribe(final String hashtag) {
+            if (tags.remove(hashtag) && webSocket != null) {
+                send(frame("unsubscribe", hashtag));
+            }
+        }
+
+        /**
+         * Sends the subscribe frames of all hashtags, which were subscribed while the socket was connecting.
+         */
+        private void connected(final WebSocket connected) {
+            List<String> subscribedTags;
+            synchronized (this) {
+                LOGGER.info("Streaming socket {} connected", number);
+                connecting = false;
+                webSocket = connected;
+                subscribedTags = List.copyOf(tags);
+                subscribedTags.forEach(tag -> send(frame("subscribe", tag)));
+            }
+            opened(subscribedTags);
+        }
+
+        /**
+         * Informs the streams, that they are subscribed on a connected socket.
+         */
+        private void opened(final List<String> openedTags) {
+            openedTags.forEach(tag -> {
+                WebSocketCallback callback = routes.get(tag);
+                if (callback != null) {
+                    callback.onEvent(new TechnicalEvent.Open());
+                }
+            });
+        }
+
+        /**
+         * Sends a frame. The JDK WebSocket does not allow concurrent sends, so the frames are chained.
+         */
+        private synchronized void send(final String frame) {
+            WebSocket target = webSocket;
+            sending = sending.thenCompose(v -> target.sendText(frame, true))
+                    .exceptionally(e -> {
+                        LOGGER.warn("Could not send frame {} on streaming socket {}", frame, number, e);
+                        return null;
+                    });
+        }
+
+        @Override
+        public void onOpen(final WebSocket webSocket) {
+            webSocket.request(1);
+        }
+
+        @Override
+        public CompletionStage<?> onText(final WebSocket webSocket, final CharSequence data, final boolean last) {
+            buffer.append(data);
+            if (last) {
+                String text = buffer.toString();
+                buffer.setLength(0);
+                route(text);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(final WebSocket webSocket, final int statusCode, final String reason) {
+            fail(webSocket, new IllegalStateException("Streaming socket closed with status " + statusCode + ": " + reason));
+            return null;
+        }
+
+        @Override
+        public void onError(final WebSocket webSocket, final Throwable error) {
+            fail(webSocket, error);
+        }
+
+        /**
+         * Resets the socket and informs all streams on it about the failure, so that they can be restarted.
+         *
+         * @param source the failed WebSocket or null, if the connection could not be established
+         * @param error  the cause of the failure
+         */
+        private void fail(final WebSocket source, final Throwable error) {
+            List<String> failedTags;
+            synchronized (this) {
+                if (source != null && source != webSocket) {
+                    // A late event of an already replaced socket
+                    return;
+                }
+                LOGGER.warn("Streaming socket {} failed with {} subscribed hashtags", number, tags.size(), error);
+                connecting = false;
+                webSocket = null;
+                sending = CompletableFuture.completedFuture(null);
+                buffer.setLength(0);
+                failedTags = List.copyOf(tags);
+                tags.clear();
+            }
+            failedTags.forEach(tag -> {
+                WebSocketCallback callback = routes.get(tag);
+                if (callback != null) {
+                    callback.onEvent(new TechnicalEvent.Failure(error));
+                }
+            });
+        }
+    }
+}
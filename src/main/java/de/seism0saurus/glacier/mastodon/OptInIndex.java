@@ -0,0 +1,288 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import social.bigbone.api.entity.streaming.WebSocketEvent;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * The OptInIndex knows the statuses, that mention the glacier account and therefore opt in to be shown on the walls.
+ * <p>
+ * It is fed by the {@link MentionStream MentionStream}, the single notification stream of the glacier account.
+ * The ids of the mentioning statuses are kept in a {@link LongWindowSet LongWindowSet}, bounded by its capacity
+ * and by the time window, after which an id is dropped.
+ * <p>
+ * While the mention stream is open, the hashtag streams are joined with the index: a created status is only processed,
+ * if its id is in the index. Mastodon sends the mention and the hashtag event independently, so the hashtag event can come first.
+ * Such an event is parked for the grace period and handed back to its stream, when the mention arrives in time.
+ * The parked events are kept by the key of their status in the order of their parking, so that a mention finds its events
+ * with one lookup and the events, whose grace period is over, are dropped from the head. When all parking spaces are taken,
+ * the status, that was parked first, gives up its space.
+ * <p>
+ * After the mention stream is opened, the join starts after the grace period, so that the mentions, that were missed
+ * while the stream was closed, do not drop their statuses. While the stream is closed, the streams check the mentions of each status.
+ */
+@Component
+public class OptInIndex {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(OptInIndex.class);
+
+    /**
+     * The keys of the mentioning statuses. The set and the times are guarded by the monitor of the index.
+     */
+    private final LongWindowSet statuses;
+
+    /**
+     * The time of each key in the set in the same ring order, so that the oldest key is at the head.
+     */
+    private final long[] recordedAt;
+    private int oldest;
+
+    /**
+     * The parked events of the hashtag streams by the keys of their statuses, the first parked status at the head.
+     * The events of several streams for the same status are chained. Guarded by the monitor of the index.
+     */
+    private final LinkedHashMap<Long, Parked> parking = new LinkedHashMap<>();
+    private final int parkingSpaces;
+
+    private final long windowMillis;
+    private final long graceMillis;
+    private final Clock clock;
+
+    /**
+     * The time, from which on the streams are joined with the index, or -1 while the mention stream is closed.
+     */
+    private volatile long joinFrom = -1;
+
+    private final LongAdder parked = new LongAdder();
+    private final LongAdder joined = new LongAdder();
+
+    /**
+     * Constructs an empty index with the configured limits.
+     *
+     * @param capacity      the maximum number of remembered statuses
+     * @param window        the time in seconds, a status is remembered
+     * @param grace         the time in seconds, an event of a hashtag stream waits for its mention
+     * @param parkingSpaces the maximum number of statuses of all hashtag streams, that wait for their mention
+     */
+    @Autowired
+    public OptInIndex(@Value("${glacier.optin.capacity}") final int capacity,
+                      @Value("${glacier.optin.window}") final int window,
+                      @Value("${glacier.optin.grace}") final int grace,
+                      @Value("${glacier.optin.parkingSpaces}") final int parkingSpaces) {
+        this(capacity, Duration.ofSeconds(window), Duration.ofSeconds(grace), parkingSpaces, Clock.systemUTC());
+        LOGGER.info("OptInIndex for {} statuses with a window of {}s and a grace of {}s created", capacity, window, grace);
+    }
+
+    /**
+     * Constructs an empty index with an explicit clock.
+     *
+     * @param capacity      the maximum number of remembered statuses
+     * @param window        the time, a status is remembered
+     * @param grace         the time, an event of a hashtag stream waits for its mention
+     * @param parkingSpaces the maximum number of statuses of all hashtag streams, that wait for their mention
+     * @param clock         the clock for the window and the grace period
+     */
+    OptInIndex(final int capacity, final Duration window, final Duration grace, final int parkingSpaces, final Clock clock) {
+        if (parkingSpaces < 1 || window.compareTo(grace) < 0) {
+            throw new IllegalArgumentException("The index needs parking spaces and a window, that is not shorter than the grace period");
+        }
+        this.statuses = new LongWindowSet(capacity);
+        this.recordedAt = new long[capacity];
+        this.parkingSpaces = parkingSpaces;
+        this.windowMillis = window.toMillis();
+        this.graceMillis = grace.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * Remembers a status, that mentions glacier. The parked events of the status are handed back to their streams.
+     *
+     * @param statusId the id of the status
+     * @return true if the status was not known yet
+     */
+    public boolean record(final String statusId) {
+        long key = DeliveredStatuses.key(statusId);
+        long now = clock.millis();
+        Parked waiting;
+        boolean added;
+        synchronized (this) {
+            expire(now);
+            int size = statuses.size();
+            added = statuses.add(key);
+            if (added && size == recordedAt.length) {
+                // The set replaced its oldest key with the new one, the ring follows
+                recordedAt[oldest] = now;
+                oldest = (oldest + 1) % recordedAt.length;
+            } else if (added) {
+                recordedAt[(oldest + size) % recordedAt.length] = now;
+            }
+            waiting = parking.remove(key);
+        }
+        rejoin(waiting);
+        return added;
+    }
+
+    /**
+     * Checks if a status mentions glacier.
+     *
+     * @param statusId the id of the status
+     * @return true if the status is in the index
+     */
+    public boolean contains(final String statusId) {
+        long key = DeliveredStatuses.key(statusId);
+        synchronized (this) {
+            expire(clock.millis());
+            return statuses.contains(key);
+        }
+    }
+
+    /**
+     * Returns if the hashtag streams are joined with the index.
+     *
+     * @return true if the mention stream is open for longer than the grace period
+     */
+    public boolean isJoining() {
+        long from = joinFrom;
+        return from >= 0 && clock.millis() >= from;
+    }
+
+    /**
+     * Joins a created status of a hashtag stream with the index.
+     * If the status is not in the index, the event is parked until its mention arrives or the grace period is over.
+     *
+     * @param statusId the id of the created status
+     * @param event    the event of the hashtag stream
+     * @param rejoin   hands the event back to its stream, when the mention arrives or the mention stream is closed
+     * @return true if the status mentions glacier, false if the event is parked
+     */
+    public boolean join(final String statusId, final WebSocketEvent event, final Consumer<WebSocketEvent> rejoin) {
+        long key = DeliveredStatuses.key(statusId);
+        synchronized (this) {
+            long now = clock.millis();
+            expire(now);
+            if (statuses.contains(key)) {
+                return true;
+            }
+            Parked first = parking.get(key);
+            if (first != null) {
+                parking.put(key, new Parked(first.at, event, rejoin, first));
+            } else {
+                if (parking.size() == parkingSpaces) {
+                    parking.pollFirstEntry();
+                }
+                parking.put(key, new Parked(now, event, rejoin, null));
+            }
+        }
+        parked.increment();
+        return false;
+    }
+
+    /**
+     * Starts the join after the grace period, because the mention stream is open.
+     */
+    public void opened() {
+        joinFrom = clock.millis() + graceMillis;
+        LOGGER.info("The mention stream is open. The hashtag streams are joined with the mentions in {}ms", graceMillis);
+    }
+
+    /**
+     * Stops the join, because the mention stream is closed. The parked events are handed back to their streams,
+     * which check the mentions of the statuses again.
+     */
+    public void closed() {
+        boolean wasJoining = joinFrom >= 0;
+        joinFrom = -1;
+        List<Parked> waiting;
+        synchronized (this) {
+            expire(clock.millis());
+            waiting = new ArrayList<>(parking.values());
+            parking.clear();
+        }
+        if (wasJoining) {
+            LOGGER.warn("The mention stream is closed. {} parked statuses are checked by their mentions", waiting.size());
+        }
+        waiting.forEach(this::rejoin);
+    }
+
+    /**
+     * Returns the number of remembered statuses.
+     *
+     * @return the number of statuses in the window
+     */
+    public synchronized int size() {
+        return statuses.size();
+    }
+
+    /**
+     * Returns the number of events, that were parked because their mention was not known yet.
+     *
+     * @return the number of parked events
+     */
+    public long parked() {
+        return parked.sum();
+    }
+
+    /**
+     * Returns the number of parked events, that were handed back to their streams in the grace period.
+     *
+     * @return the number of joined events
+     */
+    public long joined() {
+        return joined.sum();
+    }
+
+    /**
+     * Hands the chained events of a status back to their streams, the first parked event first.
+     */
+    private void rejoin(final Parked waiting) {
+        if (waiting == null) {
+            return;
+        }
+        rejoin(waiting.next);
+        joined.increment();
+        waiting.rejoin.accept(waiting.event);
+    }
+
+    /**
+     * Drops the statuses, that are older than the window, and the parked events, whose grace period is over.
+     */
+    private void expire(final long now) {
+        while (statuses.size() > 0 && now - recordedAt[oldest] > windowMillis) {
+            statuses.removeOldest();
+            oldest = (oldest + 1) % recordedAt.length;
+        }
+        Map.Entry<Long, Parked> first;
+        while ((first = parking.firstEntry()) != null && now - first.getValue().at > graceMillis) {
+            parking.pollFirstEntry();
+        }
+    }
+
+    /**
+     * A parked event with the action, that hands it back to its stream.
+     *
+     * @param at     the time, the first event of the status was parked. The grace period of all its events starts then.
+     * @param event  the event of the hashtag stream
+     * @param rejoin hands the event back to its stream
+     * @param next   the event of another stream, that was parked before for the same status, or null
+     */
+    private record Parked(long at, WebSocketEvent event, Consumer<WebSocketEvent> rejoin, Parked next) {
+    }
+}
@@ -0,0 +1,101 @@
+package de.seism0saurus.glacier.mastodon;
+
+import de.seism0saurus.glacier.webservice.messaging.messages.StatusCreatedMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The RecentStatusBuffer keeps the last delivered statuses of a hashtag stream in a fixed ring.
+ * <p>
+ * Only statuses, that passed the opt-in and loadability checks, are added. So the buffer can be replayed to a new wall
+ * without any further check. When the ring is full, the oldest status is overwritten. Deleted statuses are removed.
+ */
+public class RecentStatusBuffer {
+
+    private final StatusCreatedMessage[] ring;
+
+    /**
+     * The index of the oldest status.
+     */
+    private int head;
+    private int size;
+
+    /**
+     * Constructs an empty buffer.
+     *
+     * @param capacity the maximal number of statuses
+     */
+    public RecentStatusBuffer(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The buffer needs a capacity of at least one");
+        }
+        this.ring = new StatusCreatedMessage[capacity];
+    }
+
+    /**
+     * Adds a delivered status. A status, that is already buffered, is not added again.
+     *
+     * @param status the status
+     */
+    public synchronized void add(final StatusCreatedMessage status) {
+        if (indexOf(status.getId()) >= 0) {
+            return;
+        }
+        if (size == ring.length) {
+            ring[head] = status;
+            head = (head + 1) % ring.length;
+        } else {
+            ring[(head + size) % ring.length] = status;
+            size++;
+        }
+    }
+
+    /**
+     * Removes a status, e.g. because it was deleted. The newer statuses move up.
+     *
+     * @param statusId the id of the status
+     */
+    public synchronized void remove(final String statusId) {
+        int index = indexOf(statusId);
+        if (index < 0) {
+            return;
+        }
+        for (int i = index; i < size - 1; i++) {
+            ring[(head + i) % ring.length] = ring[(head + i + 1) % ring.length];
+        }
+        ring[(head + size - 1) % ring.length] = null;
+        size--;
+    }
+
+    /**
+     * Returns a copy of the buffered statuses.
+     *
+     * @return the statuses, the oldest first
+     */
+    public synchronized List<StatusCreatedMessage> snapshot() {
+        List<StatusCreatedMessage> statuses = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            statuses.add(ring[(head + i) % ring.length]);
+        }
+        return statuses;
+    }
+
+    /**
+     * Returns the number of buffered statuses.
+     *
+     * @return the number of statuses
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private int indexOf(final String statusId) {
+        for (int i = 0; i < size; i++) {
+            if (ring[(head + i) % ring.length].getId().equals(statusId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
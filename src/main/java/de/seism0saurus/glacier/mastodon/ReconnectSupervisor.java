@@ -0,0 +1,302 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * The ReconnectSupervisor decides, when a failed upstream stream is reconnected.
+ * <p>
+ * Every hashtag is reconnected after a capped exponential backoff with jitter, so that the streams of a failed instance
+ * do not reconnect all at once and in a tight loop. A {@link CircuitBreaker CircuitBreaker} for the upstream instance
+ * and one per hashtag stop the reconnects, while the instance or the stream keeps failing.
+ * A token bucket limits the rate of reconnects across all hashtags.
+ * At most one reconnect per hashtag is pending at any time.
+ */
+@Component
+public class ReconnectSupervisor {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(ReconnectSupervisor.class);
+
+    /**
+     * Runs a task after a delay.
+     */
+    @FunctionalInterface
+    interface Scheduler {
+        void schedule(Runnable task, Duration delay);
+    }
+
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final LongUnaryOperator jitter;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int failureThreshold;
+    private final Duration openDuration;
+
+    /**
+     * The circuit breaker of the upstream instance.
+     */
+    private final CircuitBreaker instanceBreaker;
+
+    /**
+     * The reconnect state of the hashtags, that failed since their last successful connect.
+     */
+    private final Map<String, HashtagState> hashtags = new ConcurrentHashMap<>();
+
+    /**
+     * The token bucket for the reconnects of all hashtags.
+     */
+    private final double ratePerMilli;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Constructs a supervisor with a scheduler thread.
+     *
+     * @param instance         the upstream Mastodon instance, used for logging
+     * @param initialBackoff   the delay in milliseconds before the first reconnect
+     * @param maxBackoff       the maximal delay in milliseconds between two reconnects of a hashtag
+     * @param failureThreshold the number of consecutive failures, that open a circuit breaker
+     * @param openDuration     the time in milliseconds, an open circuit breaker rejects all reconnects
+     * @param ratePerSecond    the maximal number of reconnects per second across all hashtags
+     */
+    @Autowired
+    public ReconnectSupervisor(@Value("${mastodon.instance}") final String instance,
+                               @Value("${glacier.reconnect.initialBackoff}") final long initialBackoff,
+                               @Value("${glacier.reconnect.maxBackoff}") final long maxBackoff,
+                               @Value("${glacier.reconnect.failureThreshold}") final int failureThreshold,
+                               @Value("${glacier.reconnect.openDuration}") final long openDuration,
+                               @Value("${glacier.reconnect.ratePerSecond}") final double ratePerSecond) {
+        this(executorScheduler(), Clock.systemUTC(), bound -> ThreadLocalRandom.current().nextLong(bound + 1),
+                Duration.ofMillis(initialBackoff), Duration.ofMillis(maxBackoff), failureThreshold, Duration.ofMillis(openDuration), ratePerSecond);
+        LOGGER.info("ReconnectSupervisor for mastodon instance {} created", instance);
+    }
+
+    /**
+     * Constructs a supervisor with the given scheduler, clock and jitter.
+     *
+     * @param scheduler        runs the reconnects after their delay
+     * @param clock            the clock for the circuit breakers and the rate limit
+     * @param jitter           returns a random number between zero and the given bound, both inclusive
+     * @param initialBackoff   the delay before the first reconnect
+     * @param maxBackoff       the maximal delay between two reconnects of a hashtag
+     * @param failureThreshold the number of consecutive failures, that open a circuit breaker
+     * @param openDuration     the time, an open circuit breaker rejects all reconnects
+     * @param ratePerSecond    the maximal number of reconnects per second across all hashtags
+     */
+    ReconnectSupervisor(final Scheduler scheduler, final Clock clock, final LongUnaryOperator jitter,
+                        final Duration initialBackoff, final Duration maxBackoff, final int failureThreshold,
+                        final Duration openDuration, final double ratePerSecond) {
+        if (initialBackoff.toMillis() < 1 || maxBackoff.compareTo(initialBackoff) < 0 || ratePerSecond <= 0) {
+            throw new IllegalArgumentException("The backoff must be positive and the rate of reconnects must be greater than zero");
+        }
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.jitter = jitter;
+        this.initialBackoffMillis = initialBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.instanceBreaker = new CircuitBreaker(clock, failureThreshold, openDuration);
+        this.ratePerMilli = ratePerSecond / 1000d;
+        this.burst = Math.max(1d, ratePerSecond);
+        this.tokens = burst;
+        this.lastRefill = clock.millis();
+    }
+
+    /**
+     * Records the failure of a hashtag stream and schedules its reconnect, unless a reconnect is already pending.
+     *
+     * @param hashtag   the canonical hashtag
+     * @param reconnect reconnects the stream
+     * @return the delay of the scheduled reconnect or null, if a reconnect was already pending
+     */
+    public Duration failed(final String hashtag, final Runnable reconnect) {
+        HashtagState state = hashtags.computeIfAbsent(hashtag, h -> new HashtagState(new CircuitBreaker(clock, failureThreshold, openDuration)));
+        Duration delay;
+        synchronized (state) {
+            state.reconnect = reconnect;
+            if (state.pending) {
+                // Further failures of the same outage
+                return null;
+            }
+            state.breaker.recordFailure();
+            if (state.attempts > 0) {
+                // Only failed reconnects count for the instance. A dropped socket fails many healthy streams at once.
+                instanceBreaker.recordFailure();
+            }
+            state.pending = true;
+            delay = backoff(state.attempts++);
+        }
+        LOGGER.info("Reconnecting stream {} in {} ms. Attempt {}", hashtag, delay.toMillis(), state.attempts);
+        scheduler.schedule(() -> attempt(hashtag, state), delay);
+        return delay;
+    }
+
+    /**
+     * Records the successful connect of a hashtag stream. The backoff of the hashtag is reset and the circuit breakers are closed.
+     *
+     * @param hashtag the canonical hashtag
+     */
+    public void connected(final String hashtag) {
+        instanceBreaker.recordSuccess();
+        HashtagState state = hashtags.remove(hashtag);
+        if (state != null) {
+            synchronized (state) {
+                state.pending = false;
+            }
+            LOGGER.info("Stream {} reconnected after {} attempts", hashtag, state.attempts);
+        }
+    }
+
+    /**
+     * Forgets a hashtag, e.g. because its stream was closed. A pending reconnect is dropped.
+     *
+     * @param hashtag the canonical hashtag
+     */
+    public void forget(final String hashtag) {
+        HashtagState state = hashtags.remove(hashtag);
+        if (state != null) {
+            synchronized (state) {
+                state.pending = false;
+            }
+        }
+    }
+
+    /**
+     * Returns the state of the circuit breaker of the upstream instance.
+     *
+     * @return the state
+     */
+    public CircuitBreaker.State instanceState() {
+        return instanceBreaker.state();
+    }
+
+    /**
+     * Returns the state of the circuit breaker of a hashtag.
+     *
+     * @param hashtag the canonical hashtag
+     * @return the state. A hashtag without failures is closed.
+     */
+    public CircuitBreaker.State state(final String hashtag) {
+        HashtagState state = hashtags.get(hashtag);
+        return state == null ? CircuitBreaker.State.CLOSED : state.breaker.state();
+    }
+
+    /**
+     * Returns the number of hashtags, that wait for a reconnect.
+     *
+     * @return the number of pending reconnects
+     */
+    public int pendingReconnects() {
+        return (int) hashtags.values().stream().filter(state -> state.pending).count();
+    }
+
+    /**
+     * Runs the reconnect of a hashtag, if the circuit breakers and the rate limit permit it. Otherwise it is postponed.
+     */
+    private void attempt(final String hashtag, final HashtagState state) {
+        Runnable reconnect;
+        synchronized (state) {
+            if (!state.pending || hashtags.get(hashtag) != state) {
+                // Connected or forgotten in the meantime
+                return;
+            }
+            Duration wait = max(max(instanceBreaker.remainingWait(), state.breaker.remainingWait()), rateLimitWait());
+            if (!wait.isZero() || !instanceBreaker.isPermitted() || !state.breaker.isPermitted()) {
+                // A running trial has no known end, so it is polled with the initial backoff. The jitter spreads the postponed reconnects.
+                Duration postponed = (wait.isZero() ? Duration.ofMillis(initialBackoffMillis) : wait).plusMillis(jitter.applyAsLong(initialBackoffMillis / 2));
+                LOGGER.debug("Reconnect of stream {} postponed by {} ms", hashtag, postponed.toMillis());
+                scheduler.schedule(() -> attempt(hashtag, state), postponed);
+                return;
+            }
+            instanceBreaker.tryAcquire();
+            state.breaker.tryAcquire();
+            takeToken();
+            state.pending = false;
+            reconnect = state.reconnect;
+        }
+        LOGGER.info("Reconnecting stream {}", hashtag);
+        try {
+            reconnect.run();
+        } catch (RuntimeException e) {
+            LOGGER.error("Reconnect of stream {} failed", hashtag, e);
+            failed(hashtag, reconnect);
+        }
+    }
+
+    /**
+     * Calculates the capped exponential backoff with equal jitter: half of the delay is fixed, the other half is random.
+     */
+    Duration backoff(final int attempt) {
+        long delay = initialBackoffMillis << Math.min(attempt, 30);
+        if (delay <= 0 || delay > maxBackoffMillis) {
+            delay = maxBackoffMillis;
+        }
+        long half = delay / 2;
+        return Duration.ofMillis(delay - half + jitter.applyAsLong(half));
+    }
+
+    private synchronized Duration rateLimitWait() {
+        refill();
+        if (tokens >= 1d) {
+            return Duration.ZERO;
+        }
+        return Duration.ofMillis((long) Math.ceil((1d - tokens) / ratePerMilli));
+    }
+
+    private synchronized void takeToken() {
+        refill();
+        tokens -= 1d;
+    }
+
+    private void refill() {
+        long now = clock.millis();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerMilli);
+        lastRefill = now;
+    }
+
+    private static Duration max(final Duration a, final Duration b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    private static Scheduler executorScheduler() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("glacier-reconnect").daemon().factory());
+        return (task, delay) -> executor.schedule(task, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The reconnect state of one hashtag.
+     */
+    private static final class HashtagState {
+
+        private final CircuitBreaker breaker;
+        private Runnable reconnect;
+        private volatile boolean pending;
+        private int attempts;
+
+        private HashtagState(final CircuitBreaker breaker) {
+            this.breaker = breaker;
+        }
+    }
+}
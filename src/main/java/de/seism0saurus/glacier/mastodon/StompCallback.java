@@ -1,23 +1,66 @@
 package de.seism0saurus.glacier.mastodon;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import de.seism0saurus.glacier.webservice.messaging.WallDeduplication;
 import de.seism0saurus.glacier.webservice.messaging.messages.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import social.bigbone.api.entity.Mention;
 import social.bigbone.api.entity.Status;
 import social.bigbone.api.entity.streaming.*;
 import social.bigbone.api.entity.streaming.MastodonApiEvent.GenericMessage;
 
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * The StompCallback class implements the WebSocketCallback interface and is responsible for processing WebSocket events.
+ * <p>
+ * There is one callback per shared upstream stream of a canonical hashtag.
+ * Each event is processed once and then fanned out to the destinations of all subscribed principals.
+ * The message is serialized once per event and the encoded message is sent to every destination.
+ * Each wall has a single destination for the events of all its hashtags. The former three destinations per hashtag
+ * for creations, modifications and deletions are kept for older clients behind the flag {@code glacier.destinations.legacy}.
+ * <p>
+ * The callback remembers the newest status of the stream. After a reconnect, the statuses published in the meantime
+ * are backfilled from the tag timeline. The pages are fetched outside the lane, so the live events keep flowing,
+ * and only the replay of the fetched statuses is enqueued. Statuses, that were already seen live, are not sent twice.
+ * <p>
+ * The last delivered statuses are kept in a {@link RecentStatusBuffer RecentStatusBuffer}, shared by all subscribers,
+ * so that a new wall can start with them. A new stream seeds the buffer with one request to the tag timeline.
+ * <p>
+ * A wall, that follows several hashtags, gets a status only from the first stream, that delivers it.
+ * The {@link DeliveredStatuses DeliveredStatuses} are shared by all callbacks and checked before the loadability check and again at the fan-out.
+ * Modifications and deletions are only sent to the walls, that got the status.
+ * In a cluster, the hashtags of a wall may be streamed by different members. Each member only knows its own deliveries,
+ * so the {@link WallDeduplication WallDeduplication} on the member of the session of the wall drops the second copy of a created status.
+ * <p>
+ * Only statuses, that mention the glacier account, are shown. While the {@link MentionStream MentionStream} is open,
+ * a created status is joined with the {@link OptInIndex OptInIndex} after reading only its id, so that the statuses without
+ * a mention are dropped before they are parsed or checked for loadability. A status, whose mention did not arrive yet, waits in the index.
+ * Otherwise, the mentions of each status are checked.
+ * <p>
+ * The dispatch of an event allocates as little as possible: the destinations of a subscriber are built once when it subscribes,
+ * the subscribers are iterated over an array snapshot, the handle is compared without copies and the per-event logging
+ * is parameterized on the debug level. A cached loadability verdict is applied directly on the lane.
  */
 public class StompCallback implements WebSocketCallback {
 
@@ -29,6 +72,18 @@ public class StompCallback implements WebSocketCallback {
      */
     private final static Logger LOGGER = LoggerFactory.getLogger(StompCallback.class);
 
+    /**
+     * The number of recently created statuses, that are remembered to drop duplicates.
+     */
+    private static final int SEEN_CAPACITY = 1024;
+
+    /**
+     * The completed stage of the events, that need no further processing.
+     */
+    private static final CompletableFuture<Void> PROCESSED = CompletableFuture.completedFuture(null);
+
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
     /**
      * Represents a callback for handling WebSocket events related to subscriptions.
      * This class is used in conjunction with SubscriptionManager to manage hashtag subscriptions on Mastodon.
@@ -43,25 +98,129 @@ public class StompCallback implements WebSocketCallback {
     private final SimpMessagingTemplate simpMessagingTemplate;
 
     /**
-     * The REST template is needed to check the headers of the URLs of the toots for X-FRAME headers.
+     * The client is needed to check the headers of the URLs of the toots for X-FRAME headers.
      */
-    private final RestTemplate restTemplate;
+    private final EmbedCheckClient embedCheckClient;
 
     /**
-     * The principal aka wallId of the subscription this callback.
+     * The cache for the embed policies of the remote servers, shared by all callbacks.
      */
-    private final String principal;
+    private final EmbedPolicyCache embedPolicyCache;
 
     /**
-     * This variable represents the hashtag of subscription of this callback.
+     * The lane of this stream in the {@link EventPipeline EventPipeline}.
+     * The events are processed in this lane and not on the reading thread of the upstream connection.
+     */
+    private final EventPipeline.Lane lane;
+
+    /**
+     * Fetches the statuses, that were missed while the stream was down.
+     */
+    private final TimelineBackfill timelineBackfill;
+
+    /**
+     * The statuses, that were sent to each wall, shared by all callbacks.
+     */
+    private final DeliveredStatuses deliveredStatuses;
+
+    /**
+     * The statuses, that mention the glacier account, shared by all callbacks.
+     */
+    private final OptInIndex optInIndex;
+
+    /**
+     * Hands a created status, that waited for its mention, back to the lane of this stream.
+     */
+    private final Consumer<WebSocketEvent> rejoin;
+
+    /**
+     * True, if the events are sent to the three destinations per hashtag of the former layout
+     * instead of the single destination of the wall.
+     */
+    private final boolean legacyDestinations;
+
+    /**
+     * The canonical hashtag of the upstream stream of this callback.
      */
     private final String hashtag;
 
+    /**
+     * The subscribers of the stream.
+     * The key is the principal aka wallId, the value its subscription with the hashtag as subscribed by the principal and its destinations.
+     * Changes are guarded by the monitor of the map.
+     */
+    private final Map<String, Subscription> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * The subscriptions as array, that is replaced on every change, so that the fan-out iterates without an iterator.
+     */
+    private volatile Subscription[] subscriptions = NO_SUBSCRIPTIONS;
+
+    /**
+     * True after a failure of the stream until it is open again.
+     */
+    private final AtomicBoolean reconnecting = new AtomicBoolean(false);
+
+    /**
+     * The keys of the ids of the recently created statuses of the stream, live or backfilled. The oldest ids are evicted.
+     * The set is guarded by its own monitor.
+     */
+    private final LongWindowSet seen = new LongWindowSet(SEEN_CAPACITY);
+
+    /**
+     * The id of the newest created status of the stream. It is the since_id of the next backfill.
+     */
+    private volatile String lastStatusId;
+
+    /**
+     * The last delivered statuses of the stream.
+     */
+    private final RecentStatusBuffer recentStatuses;
+
+    /**
+     * The number of statuses, that are buffered and fetched by the seed.
+     */
+    private final int recentCapacity;
+
+    /**
+     * True after the buffer was seeded.
+     */
+    private final AtomicBoolean seeded = new AtomicBoolean(false);
+
+    /**
+     * The name of the account of glacier without the server in lower case, e.g. glacier.
+     * It is interned, so that the callbacks of all streams share one instance and compare it without copies.
+     */
     private final String shortHandle;
+
+    /**
+     * The probe of the embed pages, that is passed to the cache on every status.
+     */
+    private final Function<String, CompletableFuture<Boolean>> probe = this::probe;
+
+    /**
+     * The matcher of the frame-ancestors directives for the domain of this instance of glacier.
+     */
+    private final FrameAncestors frameAncestors;
+
     /**
-     * The glacierDomain variable represents the domain used for this instance of glacier.
+     * The metrics of all streams.
      */
-    private final String glacierDomain;
+    private final GlacierMetrics metrics;
+
+    /**
+     * The counters of the received events of this stream by type.
+     */
+    private final Counter createdEvents;
+    private final Counter modifiedEvents;
+    private final Counter deletedEvents;
+    private final Counter technicalEvents;
+    private final Counter unknownEvents;
+
+    /**
+     * The depth and the dropped events of the lane of this stream.
+     */
+    private final Meter[] laneMeters;
 
     /**
      * Initializes a new instance of the StompCallback class.
@@ -69,26 +228,160 @@ public class StompCallback implements WebSocketCallback {
      * It is used in conjunction with the SimpMessagingTemplate class to send messages to websocket destinations.
      *
      * @param simpMessagingTemplate The SimpMessagingTemplate instance used for sending WebSocket messages.
-     * @param restTemplate          The RestTemplate instance used for making HTTP requests, to check headers of the embedded iframes.
-     * @param principal             The principal aka wallId associated with the subscription.
-     * @param hashtag               The hashtag to subscribe to.
-     * @param glacierDomain         The glacier domain for checking if a webpage is loadable as an iframe.
+     * @param embedCheckClient      The EmbedCheckClient instance used for making HTTP requests, to check headers of the embedded iframes.
+     * @param embedPolicyCache      The cache for the embed policies of the remote servers.
+     * @param eventPipeline         The pipeline, that processes the events of the stream in order.
+     * @param timelineBackfill      The backfill for the statuses, that were missed while the stream was down.
+     * @param deliveredStatuses     The statuses, that were sent to each wall.
+     * @param optInIndex            The statuses, that mention the glacier account.
+     * @param metrics               The metrics of the received events, the embed checks and the sent messages.
+     * @param legacyDestinations    True for the three destinations per hashtag, false for the single destination of the wall.
+     * @param recentCapacity        The number of recent statuses, that are buffered for new walls.
+     * @param hashtag               The canonical hashtag of the upstream stream.
+     * @param frameAncestors        The matcher for the glacier domain for checking if a webpage is loadable as an iframe.
      */
     public StompCallback(final SubscriptionManager subscriptionManager,
                          final SimpMessagingTemplate simpMessagingTemplate,
-                         final RestTemplate restTemplate,
-                         final String principal,
+                         final EmbedCheckClient embedCheckClient,
+                         final EmbedPolicyCache embedPolicyCache,
+                         final EventPipeline eventPipeline,
+                         final TimelineBackfill timelineBackfill,
+                         final DeliveredStatuses deliveredStatuses,
+                         final OptInIndex optInIndex,
+                         final GlacierMetrics metrics,
+                         final boolean legacyDestinations,
+                         final int recentCapacity,
                          final String hashtag,
                          final String handle,
-                         final String glacierDomain) {
+                         final FrameAncestors frameAncestors) {
         this.subscriptionManager = subscriptionManager;
         this.simpMessagingTemplate = simpMessagingTemplate;
-        this.restTemplate = restTemplate;
-        this.principal = principal;
+        this.embedCheckClient = embedCheckClient;
+        this.embedPolicyCache = embedPolicyCache;
+        this.lane = eventPipeline.lane(hashtag);
+        this.rejoin = event -> lane.offer(() -> processJoined(event));
+        this.timelineBackfill = timelineBackfill;
+        this.deliveredStatuses = deliveredStatuses;
+        this.optInIndex = optInIndex;
+        this.legacyDestinations = legacyDestinations;
+        this.recentStatuses = new RecentStatusBuffer(recentCapacity);
+        this.recentCapacity = recentCapacity;
         this.hashtag = hashtag;
         this.shortHandle = getShortHandle(handle);
-        this.glacierDomain = glacierDomain;
-        LOGGER.info("StompCallback for {} with hashtag {} created", principal, hashtag);
+        this.frameAncestors = frameAncestors;
+        this.metrics = metrics;
+        this.createdEvents = metrics.upstreamEvents(hashtag, WallEventMessage.CREATION);
+        this.modifiedEvents = metrics.upstreamEvents(hashtag, WallEventMessage.MODIFICATION);
+        this.deletedEvents = metrics.upstreamEvents(hashtag, WallEventMessage.DELETION);
+        this.technicalEvents = metrics.upstreamEvents(hashtag, GlacierMetrics.TECHNICAL);
+        this.unknownEvents = metrics.upstreamEvents(hashtag, GlacierMetrics.UNKNOWN);
+        this.laneMeters = metrics.laneMeters(hashtag, lane);
+        LOGGER.info("StompCallback for hashtag {} created", hashtag);
+    }
+
+    /**
+     * Adds a subscriber to this stream. Events will be sent to the destinations of the subscriber.
+     *
+     * @param principal The principal aka wallId of the subscriber.
+     * @param hashtag   The hashtag as subscribed by the principal.
+     */
+    public void addSubscriber(final String principal, final String hashtag) {
+        synchronized (subscribers) {
+            subscribers.put(principal, subscription(principal, hashtag));
+            subscriptions = subscribers.values().toArray(NO_SUBSCRIPTIONS);
+        }
+    }
+
+    /**
+     * Removes a subscriber from this stream.
+     *
+     * @param principal The principal aka wallId of the subscriber.
+     */
+    public void removeSubscriber(final String principal) {
+        synchronized (subscribers) {
+            if (subscribers.remove(principal) != null) {
+                subscriptions = subscribers.values().toArray(NO_SUBSCRIPTIONS);
+            }
+        }
+    }
+
+    /**
+     * Replaces the subscribers of this stream, e.g. with the subscribers of all members of the cluster.
+     *
+     * @param subscribers The hashtag as subscribed by each principal aka wallId.
+     */
+    public void replaceSubscribers(final Map<String, String> subscribers) {
+        synchronized (this.subscribers) {
+            this.subscribers.keySet().retainAll(subscribers.keySet());
+            subscribers.forEach((principal, hashtag) -> {
+                Subscription subscription = this.subscribers.get(principal);
+                if (subscription == null || !subscription.hashtag().equals(hashtag)) {
+                    this.subscribers.put(principal, subscription(principal, hashtag));
+                }
+            });
+            this.subscriptions = this.subscribers.values().toArray(NO_SUBSCRIPTIONS);
+        }
+    }
+
+    /**
+     * Removes the counters and the meters of the lane of this stream from the metrics, when the stream is dropped.
+     * Events, that are still processed, are not counted anymore.
+     */
+    public void discard() {
+        metrics.removeUpstreamEvents(createdEvents, modifiedEvents, deletedEvents, technicalEvents, unknownEvents);
+        metrics.removeLaneMeters(laneMeters);
+    }
+
+    /**
+     * Returns the number of subscribers of this stream.
+     *
+     * @return the number of subscribers
+     */
+    public int numberOfSubscribers() {
+        return subscribers.size();
+    }
+
+    /**
+     * Returns the last delivered statuses of this stream.
+     *
+     * @return the statuses, the oldest first
+     */
+    public List<StatusCreatedMessage> recentStatuses() {
+        return recentStatuses.snapshot();
+    }
+
+    /**
+     * Seeds the buffer of the recent statuses with one request to the tag timeline. Only the first call of this method
+     * or {@link #seedRecent() seedRecent} has an effect.
+     * The statuses are checked like live statuses and sent to the current subscribers.
+     */
+    public void seed() {
+        if (!seeded.compareAndSet(false, true)) {
+            return;
+        }
+        timelineBackfill.fetchLatest(hashtag, recentCapacity)
+                .thenAccept(statuses -> lane.offer(() -> replay(statuses)))
+                .exceptionally(e -> {
+                    LOGGER.error("Stream {} could not seed the recent statuses", hashtag, e);
+                    return null;
+                });
+    }
+
+    /**
+     * Seeds only the buffer of the recent statuses with one request to the tag timeline, e.g. on a member of a cluster, that does not own the stream.
+     * The statuses are checked like live statuses, but not sent, because the owner sends them to the walls of all members.
+     * Only the first call of this method or {@link #seed() seed} has an effect.
+     */
+    public void seedRecent() {
+        if (!seeded.compareAndSet(false, true)) {
+            return;
+        }
+        timelineBackfill.fetchLatest(hashtag, recentCapacity)
+                .thenAccept(statuses -> lane.offer(() -> buffer(statuses)))
+                .exceptionally(e -> {
+                    LOGGER.error("Stream {} could not seed the recent statuses", hashtag, e);
+                    return null;
+                });
     }
 
     private static @NotNull String getShortHandle(String handle) {
@@ -103,126 +396,264 @@ public class StompCallback implements WebSocketCallback {
         if (!tmpHandle.contains("@")){
             throw new IllegalArgumentException("The mastodon handle does not contain an @ so either the name or the server is missing");
         }
-        return tmpHandle.substring(0, tmpHandle.indexOf('@'));
+        return tmpHandle.substring(0, tmpHandle.indexOf('@')).toLowerCase(Locale.ROOT).intern();
+    }
+
+    /**
+     * Checks if the account of glacier is mentioned. Mastodon compares the names of accounts case-insensitive.
+     *
+     * @param mentions The accts of the mentioned accounts or null.
+     * @return true if glacier is mentioned.
+     */
+    private boolean optedIn(final List<String> mentions) {
+        if (mentions == null) {
+            return false;
+        }
+        for (int i = 0; i < mentions.size(); i++) {
+            String acct = mentions.get(i);
+            if (shortHandle.equalsIgnoreCase(acct)) {
+                return true;
+            }
+        }
+        return false;
     }
 
 
     /**
      * Handles a WebSocket event.
+     * <p>
+     * Status events are only enqueued in the lane of this stream, so that the reading thread of the upstream connection never waits.
+     * Technical events are handled directly, so that a failure restarts the stream even if the lane is full.
      *
      * @param event The WebSocket event to handle.
      */
     @Override
     public void onEvent(@NotNull final WebSocketEvent event) {
-        LOGGER.info(event.toString());
-        String baseDestination = "/topic/hashtags/" + principal + "/" + hashtag;
+        if (event instanceof TechnicalEvent technicalEvent) {
+            technicalEvents.increment();
+            processTechnicalEvent(technicalEvent);
+        } else {
+            lane.offer(() -> process(event));
+        }
+    }
+
+    /**
+     * Processes a WebSocket event in the lane of this stream.
+     *
+     * @param event The WebSocket event to process.
+     * @return A stage, that completes when the event is processed.
+     */
+    private CompletionStage<?> process(final WebSocketEvent event) {
+        LOGGER.debug("Stream {} got {}", hashtag, event);
         switch (event) {
             case MastodonApiEvent.StreamEvent streamEvent -> {
                 switch (streamEvent.getEvent()) {
-                    case ParsedStreamEvent.StatusCreated statusCreatedEvent ->
-                            processStatusCreatedEvent(statusCreatedEvent.getCreatedStatus(), baseDestination);
-                    case ParsedStreamEvent.StatusEdited statusEditedEvent ->
-                            processStatusEditedEvent(statusEditedEvent.getEditedStatus(), baseDestination);
-                    case ParsedStreamEvent.StatusDeleted statusDeletedEvent ->
-                            procesStatusDeletedEvent(statusDeletedEvent.getDeletedStatusId(), baseDestination);
-                    default -> logEvent("got an unknown StreamEvent: %s".formatted(streamEvent.getEvent().getClass()));
+                    case ParsedStreamEvent.StatusCreated statusCreatedEvent -> {
+                        createdEvents.increment();
+                        String statusId = statusCreatedEvent.getCreatedStatus().getId();
+                        if (optInIndex.isJoining() && !optInIndex.join(statusId, streamEvent, rejoin)) {
+                            LOGGER.debug("Stream {} waits for the mention of status {}", hashtag, statusId);
+                            return PROCESSED;
+                        }
+                        return processStatusCreatedEvent(statusCreatedEvent.getCreatedStatus());
+                    }
+                    case ParsedStreamEvent.StatusEdited statusEditedEvent -> {
+                        modifiedEvents.increment();
+                        processStatusEditedEvent(statusEditedEvent.getEditedStatus());
+                    }
+                    case ParsedStreamEvent.StatusDeleted statusDeletedEvent -> {
+                        deletedEvents.increment();
+                        procesStatusDeletedEvent(statusDeletedEvent.getDeletedStatusId());
+                    }
+                    default -> {
+                        unknownEvents.increment();
+                        LOGGER.info("Stream {} got an unknown StreamEvent: {}", hashtag, streamEvent.getEvent().getClass());
+                    }
                 }
             }
-            case TechnicalEvent technicalEvent -> processTechnicalEvent(technicalEvent);
-            case GenericMessage genericMessage -> processGenericEvent(genericMessage, baseDestination);
-            default -> logEvent("got an unknown event: %s".formatted(event.getClass()));
+            case GenericMessage genericMessage -> {
+                return processGenericEvent(genericMessage);
+            }
+            default -> {
+                unknownEvents.increment();
+                LOGGER.info("Stream {} got an unknown event: {}", hashtag, event.getClass());
+            }
         }
+        return PROCESSED;
     }
 
     /**
      * Process a generic event.
      *
      * @param genericMessage The GenericMessage event to process.
-     * @param destination    The destination to send the processed event.
+     * @return A stage, that completes when the event is processed.
      */
-    private void processGenericEvent(GenericMessage genericMessage, String destination) {
-        logEvent("got a GenericMessage event");
+    private CompletionStage<?> processGenericEvent(GenericMessage genericMessage) {
+        LOGGER.debug("Stream {} got a GenericMessage event", hashtag);
         String text = genericMessage.getText();
-        ObjectMapper mapper = new ObjectMapper();
+        boolean joining = optInIndex.isJoining();
         try {
-            GenericMessageContent genericMessageContent = mapper.readValue(text, GenericMessageContent.class);
-            if (genericMessageContent.getStream().contains("hashtag") && "update".equals(genericMessageContent.getEvent())){
-                sendMessage(mapper, StatusCreatedMessage.class, genericMessageContent, destination + "/creation");
-            } else if (genericMessageContent.getStream().contains("hashtag") && "status.update".equals(genericMessageContent.getEvent())) {
-                sendMessage(mapper, StatusUpdatedMessage.class, genericMessageContent, destination + "/modification");
-            } else if (genericMessageContent.getStream().contains("hashtag")
-                    && ("delete".equals(genericMessageContent.getEvent())
-                        || "status.delete".equals(genericMessageContent.getEvent())
+            DecodedGenericMessage message = joining ? GenericMessageDecoder.peek(text) : GenericMessageDecoder.decode(text);
+            boolean hashtagStream = message.getStream() != null && message.getStream().contains("hashtag");
+            if (hashtagStream && "update".equals(message.getEvent()) && message.getId() != null){
+                createdEvents.increment();
+                if (joining) {
+                    if (!optInIndex.join(message.getId(), genericMessage, rejoin)) {
+                        LOGGER.debug("Stream {} waits for the mention of status {}", hashtag, message.getId());
+                        return PROCESSED;
+                    }
+                    message = GenericMessageDecoder.decode(text);
+                }
+                return processCreated(message);
+            } else if (hashtagStream && "status.update".equals(message.getEvent())) {
+                modifiedEvents.increment();
+                return sendMessage(StatusUpdatedMessage.class, message, WallEventMessage.MODIFICATION);
+            } else if (hashtagStream
+                    && ("delete".equals(message.getEvent())
+                        || "status.delete".equals(message.getEvent())
                        )
             ) {
-                procesStatusDeletedEvent(genericMessageContent.getPayload().textValue(), destination);
+                deletedEvents.increment();
+                procesStatusDeletedEvent(message.getId());
             } else {
-                LOGGER.warn("Not an update event for the subscribed hashtag: {}", genericMessageContent);
+                unknownEvents.increment();
+                LOGGER.warn("Not an update event for the subscribed hashtag: {}", message);
             }
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
+            unknownEvents.increment();
             LOGGER.error("Could not parse GenericMessage", e);
         }
+        return PROCESSED;
+    }
+
+    /**
+     * Processes a created status of a generic message, that mentions glacier or is checked by its mentions.
+     *
+     * @param message The decoded message.
+     * @return A stage, that completes when the event is processed.
+     */
+    private CompletionStage<?> processCreated(final DecodedGenericMessage message) {
+        if (!firstSeen(message.getId())) {
+            LOGGER.debug("Stream {} already sent status {}. Ignoring", hashtag, message.getId());
+            return PROCESSED;
+        }
+        return sendMessage(StatusCreatedMessage.class, message, WallEventMessage.CREATION);
     }
 
-    private void sendMessage(ObjectMapper mapper, Class<? extends StatusMessage> statusMessageClass, GenericMessageContent genericMessageContent, String destination ) throws JsonProcessingException {
-        GenericMessageContentPayload payload = mapper.readValue(genericMessageContent.getPayload().textValue(), GenericMessageContentPayload.class);
+    /**
+     * Processes a created status, that waited for its mention. It is processed like a status of a stream without the join.
+     *
+     * @param event The parked event.
+     * @return A stage, that completes when the event is processed.
+     */
+    private CompletionStage<?> processJoined(final WebSocketEvent event) {
+        if (event instanceof GenericMessage genericMessage) {
+            try {
+                return processCreated(GenericMessageDecoder.decode(genericMessage.getText()));
+            } catch (IOException e) {
+                LOGGER.error("Could not parse GenericMessage", e);
+            }
+        } else if (event instanceof MastodonApiEvent.StreamEvent streamEvent
+                && streamEvent.getEvent() instanceof ParsedStreamEvent.StatusCreated statusCreatedEvent) {
+            return processStatusCreatedEvent(statusCreatedEvent.getCreatedStatus());
+        }
+        return PROCESSED;
+    }
 
-        HttpHeaders httpHeaders = this.restTemplate.headForHeaders(payload.getUrl() + "/embed");
-        if (isLoadable(httpHeaders, glacierDomain)) {
-            if (payload.getMentions().stream().map(Mention::getAcct).anyMatch(shortHandle::equals)) {
-                StatusMessage statusEvent = null;
-                if (StatusCreatedMessage.class.equals(statusMessageClass)){
-                    statusEvent = StatusCreatedMessage.builder().id(payload.getId()).url(payload.getUrl() + "/embed").build();
+    private CompletionStage<?> sendMessage(Class<? extends StatusMessage> statusMessageClass, DecodedGenericMessage message, String type) {
+        boolean created = StatusCreatedMessage.class.equals(statusMessageClass);
+        long key = DeliveredStatuses.key(message.getId());
+        if (created ? deliveredToAll(key) : !deliveredToAny(key)) {
+            LOGGER.debug("No wall of stream {} needs status {}. Ignoring", hashtag, message.getId());
+            return PROCESSED;
+        }
+        // An edit is checked by its current mentions, so that removing the mention hides the edit
+        if (!optedIn(message.getMentions()) && !(created && optInIndex.contains(message.getId()))) {
+            metrics.optInRejected();
+            LOGGER.info("No opt in. Ignoring");
+            return PROCESSED;
+        }
+        return whenLoadable(message.getUrl(), loadable -> {
+            if (loadable) {
+                if (created){
+                    StatusCreatedMessage createdEvent = StatusCreatedMessage.builder().id(message.getId()).url(message.getUrl() + "/embed").build();
+                    recentStatuses.add(createdEvent);
+                    sendToSubscribers(type, createdEvent, Recipients.FIRST_DELIVERY, key);
                 } else if (StatusUpdatedMessage.class.equals(statusMessageClass)) {
-                    statusEvent = StatusUpdatedMessage.builder().id(payload.getId()).url(payload.getUrl() + "/embed").editedAt(payload.getEditedAt()).build();
+                    StatusMessage statusEvent = StatusUpdatedMessage.builder().id(message.getId()).url(message.getUrl() + "/embed").editedAt(message.getEditedAt()).build();
+                    sendToSubscribers(type, statusEvent, Recipients.RECEIVED, key);
                 }
-                assert statusEvent != null;
-                this.simpMessagingTemplate.convertAndSend(destination, statusEvent);
-                LOGGER.info("Sending message to {}", destination);
             } else {
-                LOGGER.info("No opt in. Ignoring");
+                LOGGER.info("Toot not loadable by this glacier instance. Ignoring");
             }
-        } else {
-            LOGGER.info("Toot not loadable by this glacier instance. Ignoring");
+        });
+    }
+
+    /**
+     * Checks asynchronously if the embed page of a status is loadable as iframe and passes the verdict to the action.
+     * The verdict is taken from the {@link EmbedPolicyCache EmbedPolicyCache}. Only statuses of unknown servers are checked with a HEAD request.
+     * The stream is not blocked while the check is running. If the check fails, the status is ignored.
+     * A verdict, that is already known, is passed to the action directly, without chaining stages.
+     * The latency of the HEAD requests and the verdicts are recorded in the {@link GlacierMetrics GlacierMetrics}.
+     *
+     * @param statusUrl The URL of the status.
+     * @param action    The action for the verdict. True if the embed page is loadable, false otherwise.
+     * @return A stage, that completes after the action.
+     */
+    private CompletionStage<?> whenLoadable(final String statusUrl, final Consumer<Boolean> action) {
+        CompletableFuture<Boolean> verdict = embedPolicyCache.isLoadable(statusUrl, probe);
+        if (verdict.isDone() && !verdict.isCompletedExceptionally()) {
+            Boolean loadable = verdict.join();
+            metrics.embedVerdict(loadable);
+            try {
+                action.accept(loadable);
+            } catch (RuntimeException e) {
+                LOGGER.error("Stream {} could not check if the status {} is loadable", hashtag, statusUrl, e);
+            }
+            return PROCESSED;
         }
+        return verdict
+                .whenComplete((loadable, e) -> metrics.embedVerdict(e == null ? loadable : null))
+                .thenAccept(action)
+                .exceptionally(e -> {
+                    LOGGER.error("Stream {} could not check if the status {} is loadable", hashtag, statusUrl, e);
+                    return null;
+                });
     }
 
     /**
-     * Checks if a webpage is loadable as iframe based on the provided HttpHeaders and the configured glacierDomain.
+     * Requests the headers of the embed page of a status and checks if it is loadable as iframe.
+     *
+     * @param statusUrl The URL of the status.
+     * @return The future verdict. True if the embed page is loadable, false otherwise.
+     */
+    private CompletableFuture<Boolean> probe(final String statusUrl) {
+        long start = System.nanoTime();
+        return embedCheckClient.fetchHeaders(statusUrl + "/embed")
+                .whenComplete((headers, e) -> metrics.embedChecked(System.nanoTime() - start, e == null))
+                .thenApply(headers -> isLoadable(headers, frameAncestors));
+    }
+
+    /**
+     * Checks if a webpage is loadable as iframe based on the provided HttpHeaders and the origin of glacier.
      * <p>
-     * If a content security policy with a frame-ancestore direvtive exists. That value is used, since it overrules the X-Frame-Options.
+     * If a content security policy with a frame-ancestors directive exists, its value is used, since it overrules the X-Frame-Options.
      * Otherwise, the X-Frame-Options are used.
      * If none of these is set, the browser default (allow) is used.
      *
      * @param httpHeaders   The HttpHeaders of the webpage.
-     * @param glacierDomain The glacier domain.
+     * @param frameAncestors The matcher of the frame-ancestors directives for the origin of glacier.
      * @return true if the webpage is loadable, false otherwise.
      */
-    private static boolean isLoadable(final HttpHeaders httpHeaders, final String glacierDomain) {
+    static boolean isLoadable(final HttpHeaders httpHeaders, final FrameAncestors frameAncestors) {
         List<String> xFrameOptions = httpHeaders.get("X-Frame-Options");
-        List<String> csp = httpHeaders.get("Content-Security-Policy");
+        Boolean frameAncestorsVerdict = frameAncestors.allows(httpHeaders.get("Content-Security-Policy"));
         boolean xFrameExplicitlyNotAllowed = false;
         boolean xFrameExplicitlyAllowed = false;
         boolean xFrameDefaultAllowed = true;
-        boolean frameAncestorsExists = false;
-        boolean frameAncestorsContainsServerOrWildcard = false;
-
-        if (csp != null && !csp.isEmpty()) {
-            // According to http standard, only the first Content-Security Policy is valid. So we take the first element of the Header list.
-            frameAncestorsExists = csp.getFirst().toUpperCase().contains("FRAME-ANCESTORS");
-            if (frameAncestorsExists) {
-                frameAncestorsContainsServerOrWildcard = Stream.of(csp.getFirst().split(";"))
-                        .filter(policy -> policy.toUpperCase().contains("FRAME-ANCESTORS"))
-                        .map(String::trim)
-                        // This is not perfect, but if the site of the too, does not explicitly allow glacier, or all http(s) sites as ancestors, we will most likely not be able to load it.
-                        // So this regex should match either *, http(s):, http(s)://* with or without ports or the glacier domain with or without leading http(s) and with or without ports.
-                        .anyMatch(policy -> policy.toUpperCase().matches(
-                                "FRAME-ANCESTORS (\\S+ )*((HTTPS?:(//)?)|((HTTPS?://)?\\*(:((\\*)|80|443))?)|((HTTPS?://)?"
-                                        + glacierDomain.toUpperCase()
-                                        + "(:((\\*)|80|443))?))( \\S+)*")
-                        );
-            }
-        }
+        boolean frameAncestorsExists = frameAncestorsVerdict != null;
+        boolean frameAncestorsContainsServerOrWildcard = Boolean.TRUE.equals(frameAncestorsVerdict);
+
         if (xFrameOptions != null) {
             xFrameDefaultAllowed = false;
 
@@ -258,75 +689,383 @@ public class StompCallback implements WebSocketCallback {
     }
 
     /**
-     * Processes a StatusCreated event by sending a creation notification to the specified destination.
+     * Processes a StatusCreated event by sending a creation notification to all subscribers.
      *
-     * @param status      The newly created status.
-     * @param destination The destination to send the status event. /creation will be appended to it as a suffix.
+     * @param status The newly created status.
+     * @return A stage, that completes when the event is processed.
      */
-    private void processStatusCreatedEvent(final Status status, final String destination) {
-        logEvent("got a StatusCreated event");
-        HttpHeaders httpHeaders = this.restTemplate.headForHeaders(status.getUrl() + "/embed");
-        if (isLoadable(httpHeaders, glacierDomain)) {
-            StatusMessage statusEvent = StatusCreatedMessage.builder().id(status.getId()).url(status.getUrl() + "/embed").build();
-            this.simpMessagingTemplate.convertAndSend(destination + "/creation", statusEvent);
+    private CompletionStage<?> processStatusCreatedEvent(final Status status) {
+        LOGGER.debug("Stream {} got a StatusCreated event", hashtag);
+        if (!firstSeen(status.getId())) {
+            LOGGER.debug("Stream {} already sent status {}. Ignoring", hashtag, status.getId());
+            return PROCESSED;
         }
+        long key = DeliveredStatuses.key(status.getId());
+        if (deliveredToAll(key)) {
+            LOGGER.debug("All walls of stream {} already got status {}. Ignoring", hashtag, status.getId());
+            return PROCESSED;
+        }
+        return whenLoadable(status.getUrl(), loadable -> {
+            if (loadable) {
+                StatusCreatedMessage statusEvent = StatusCreatedMessage.builder().id(status.getId()).url(status.getUrl() + "/embed").build();
+                recentStatuses.add(statusEvent);
+                sendToSubscribers(WallEventMessage.CREATION, statusEvent, Recipients.FIRST_DELIVERY, key);
+            }
+        });
     }
 
     /**
-     * Process a StatusEdited event by sending a modification notification to the specified destination.
+     * Process a StatusEdited event by sending a modification notification to all subscribers.
      *
-     * @param status      The edited status.
-     * @param destination The destination to send the status event. /modification will be appended to it as a suffix.
+     * @param status The edited status.
      */
-    private void processStatusEditedEvent(final Status status, final String destination) {
-        logEvent("got a StatusEdited event");
+    private void processStatusEditedEvent(final Status status) {
+        LOGGER.debug("Stream {} got a StatusEdited event", hashtag);
         StatusMessage statusEvent = StatusUpdatedMessage.builder().id(status.getId()).url(status.getUrl() + "/embed").build();
-        this.simpMessagingTemplate.convertAndSend(destination + "/modification", statusEvent);
+        sendToSubscribers(WallEventMessage.MODIFICATION, statusEvent, Recipients.RECEIVED, DeliveredStatuses.key(status.getId()));
     }
 
     /**
-     * Processes the StatusDeleted event by sending a deletion notification to the specified destination.
+     * Processes the StatusDeleted event by sending a deletion notification to all subscribers.
      *
-     * @param statusId    The ID of the deleted status.
-     * @param destination The destination to send the deletion notification to. /deletion will be appended to it as a suffix.
+     * @param statusId The ID of the deleted status.
      */
-    private void procesStatusDeletedEvent(final String statusId, final String destination) {
-        logEvent("got a StatusDeleted event");
+    private void procesStatusDeletedEvent(final String statusId) {
+        LOGGER.debug("Stream {} got a StatusDeleted event", hashtag);
+        recentStatuses.remove(statusId);
         StatusMessage statusEvent = StatusDeletedMessage.builder().id(statusId).build();
-        this.simpMessagingTemplate.convertAndSend(destination + "/deletion", statusEvent);
+        sendToSubscribers(WallEventMessage.DELETION, statusEvent, Recipients.RECEIVED, DeliveredStatuses.key(statusId));
+    }
+
+    /**
+     * Sends a status message to the destinations of all subscribers of this stream.
+     *
+     * @param type        The type of the event, e.g. creation.
+     * @param statusEvent The message to send.
+     */
+    private void sendToSubscribers(final String type, final Object statusEvent) {
+        sendToSubscribers(type, statusEvent, Recipients.ALL, 0L);
+    }
+
+    /**
+     * Sends a status message to the destinations of the subscribers of this stream, that need it.
+     * <p>
+     * With the legacy destinations, the message is sent to the destination of its type for the hashtag of the subscriber.
+     * Otherwise, it is wrapped in a {@link WallEventMessage WallEventMessage} and sent to the single destination of the wall.
+     * The envelope is serialized once per spelling of the hashtag, which is usually one, so a map of the encoded messages
+     * is only created for a second spelling.
+     *
+     * @param type        The type of the event, e.g. creation.
+     * @param statusEvent The message to send.
+     * @param recipients  Decides per subscriber, if the message is sent.
+     * @param key         The key of the status in the {@link DeliveredStatuses DeliveredStatuses}. It is ignored for all recipients.
+     */
+    private void sendToSubscribers(final String type, final Object statusEvent, final Recipients recipients, final long key) {
+        Subscription[] current = subscriptions;
+        Message<?> encoded = null;
+        String encodedHashtag = null;
+        Map<String, Message<?>> otherSpellings = null;
+        for (Subscription subscription : current) {
+            if (!needs(subscription, recipients, key)) {
+                LOGGER.debug("Principal {} does not need the message of type {}", subscription.principal(), type);
+                continue;
+            }
+            Message<?> message;
+            if (encoded == null) {
+                encodedHashtag = subscription.hashtag();
+                encoded = encode(type, encodedHashtag, statusEvent);
+                message = encoded;
+            } else if (legacyDestinations || encodedHashtag.equals(subscription.hashtag())) {
+                message = encoded;
+            } else {
+                if (otherSpellings == null) {
+                    otherSpellings = new HashMap<>(2);
+                }
+                message = otherSpellings.computeIfAbsent(subscription.hashtag(), h -> encode(type, h, statusEvent));
+            }
+            String destination = subscription.destination(type);
+            this.simpMessagingTemplate.send(destination, message);
+            metrics.stompSent(type);
+            LOGGER.debug("Sending message to {}", destination);
+        }
+    }
+
+    /**
+     * Decides if a subscriber needs a message. For the first delivery of a status, the delivery is remembered.
+     */
+    private boolean needs(final Subscription subscription, final Recipients recipients, final long key) {
+        return switch (recipients) {
+            case ALL -> true;
+            case FIRST_DELIVERY -> deliveredStatuses.deliver(subscription.principal(), key);
+            case RECEIVED -> deliveredStatuses.wasDelivered(subscription.principal(), key);
+        };
+    }
+
+    /**
+     * Checks if all subscribers already got a status. Then the status needs no further processing.
+     *
+     * @param key The key of the status in the {@link DeliveredStatuses DeliveredStatuses}.
+     * @return true if there is at least one subscriber and every subscriber got the status.
+     */
+    private boolean deliveredToAll(final long key) {
+        Subscription[] current = subscriptions;
+        for (Subscription subscription : current) {
+            if (!deliveredStatuses.wasDelivered(subscription.principal(), key)) {
+                return false;
+            }
+        }
+        return current.length > 0;
+    }
+
+    /**
+     * Checks if any subscriber got a status.
+     *
+     * @param key The key of the status in the {@link DeliveredStatuses DeliveredStatuses}.
+     * @return true if at least one subscriber got the status.
+     */
+    private boolean deliveredToAny(final long key) {
+        for (Subscription subscription : subscriptions) {
+            if (deliveredStatuses.wasDelivered(subscription.principal(), key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the single destination of a wall, that carries the events of all its hashtags.
+     *
+     * @param principal The principal aka wallId.
+     * @return The destination of the wall.
+     */
+    public static String wallDestination(final String principal) {
+        return "/topic/hashtags/" + principal + "/events";
+    }
+
+    /**
+     * Serializes the message of an event for the subscribers of a spelling of the hashtag.
+     * With the legacy destinations the message is sent as it is, otherwise it is wrapped in a {@link WallEventMessage WallEventMessage}.
+     *
+     * @param type        The type of the event, e.g. creation.
+     * @param hashtag     The hashtag as subscribed by the principals.
+     * @param statusEvent The message to send.
+     * @return The encoded message.
+     */
+    private Message<?> encode(final String type, final String hashtag, final Object statusEvent) {
+        String createdId = statusEvent instanceof StatusCreatedMessage created ? created.getId() : null;
+        return encode(legacyDestinations ? statusEvent : WallEventMessage.builder().type(type).hashtag(hashtag).payload(statusEvent).build(), createdId);
+    }
+
+    /**
+     * Serializes a message once for all subscribers with the converter of the messaging template.
+     * The headers of the encoded message are immutable, so the template only adds the destination per subscriber and shares the payload.
+     * The id of a created status is added as header {@value WallDeduplication#CREATED_HEADER}, so that the node of the session of a wall
+     * can drop the copies of the owners of its other hashtags in a cluster.
+     *
+     * @param payload   The message to serialize.
+     * @param createdId The id of the created status or null for the other events.
+     * @return The encoded message.
+     */
+    private Message<?> encode(final Object payload, final String createdId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setLeaveMutable(true);
+        if (createdId != null) {
+            accessor.setNativeHeader(WallDeduplication.CREATED_HEADER, createdId);
+        }
+        Message<?> encoded = simpMessagingTemplate.getMessageConverter().toMessage(payload, accessor.getMessageHeaders());
+        if (encoded == null) {
+            throw new MessageConversionException("Unable to convert payload with type " + payload.getClass().getName());
+        }
+        MessageHeaderAccessor encodedAccessor = MessageHeaderAccessor.getAccessor(encoded, MessageHeaderAccessor.class);
+        if (encodedAccessor != null) {
+            encodedAccessor.setImmutable();
+        }
+        return encoded;
+    }
+
+    /**
+     * Remembers a created status.
+     *
+     * @param statusId The id of the status.
+     * @return true if the status was not seen before, false if it is a duplicate.
+     */
+    private boolean firstSeen(final String statusId) {
+        synchronized (seen) {
+            if (!seen.add(DeliveredStatuses.key(statusId))) {
+                return false;
+            }
+            if (isNewer(statusId, lastStatusId)) {
+                lastStatusId = statusId;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Compares two Mastodon ids. They are numeric strings, that grow with time, so a longer id is newer.
+     */
+    static boolean isNewer(final String id, final String than) {
+        if (than == null) {
+            return true;
+        }
+        if (id.length() != than.length()) {
+            return id.length() > than.length();
+        }
+        return id.compareTo(than) > 0;
+    }
+
+    /**
+     * Fetches the statuses, that were published since the newest seen status, and enqueues their replay.
+     * The fetch may take several pages and runs outside the lane, so the live events of the reconnected stream
+     * are not held back by it. The replay skips the statuses, that arrived live in the meantime.
+     */
+    private void backfill() {
+        String sinceId = lastStatusId;
+        if (sinceId == null) {
+            return;
+        }
+        timelineBackfill.fetchSince(hashtag, sinceId)
+                .thenAccept(statuses -> lane.offer(() -> replay(statuses)))
+                .exceptionally(e -> {
+                    LOGGER.error("Stream {} could not backfill the statuses since {}", hashtag, sinceId, e);
+                    return null;
+                });
+    }
+
+    /**
+     * Replays the backfilled or seeded statuses through the opt-in and loadability checks, one after another.
+     *
+     * @param statuses The fetched statuses, the oldest first.
+     * @return A stage, that completes when all statuses are processed.
+     */
+    private CompletionStage<?> replay(final List<Status> statuses) {
+        CompletionStage<?> replayed = PROCESSED;
+        for (Status status : statuses) {
+            if (firstSeen(status.getId())) {
+                DecodedGenericMessage message = DecodedGenericMessage.builder()
+                        .id(status.getId())
+                        .url(status.getUrl())
+                        .mentions(status.getMentions() == null ? List.of() : status.getMentions().stream().map(Mention::getAcct).toList())
+                        .build();
+                replayed = replayed.thenCompose(v -> sendMessage(StatusCreatedMessage.class, message, WallEventMessage.CREATION));
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Adds the seeded statuses to the buffer of the recent statuses after the opt-in and loadability checks, one after another.
+     * Nothing is sent to the subscribers.
+     *
+     * @param statuses The fetched statuses, the oldest first.
+     * @return A stage, that completes when all statuses are checked.
+     */
+    private CompletionStage<?> buffer(final List<Status> statuses) {
+        CompletionStage<?> buffered = PROCESSED;
+        for (Status status : statuses) {
+            List<String> mentions = status.getMentions() == null ? List.of() : status.getMentions().stream().map(Mention::getAcct).toList();
+            if (optedIn(mentions) || optInIndex.contains(status.getId())) {
+                buffered = buffered.thenCompose(v -> whenLoadable(status.getUrl(), loadable -> {
+                    if (loadable) {
+                        recentStatuses.add(StatusCreatedMessage.builder().id(status.getId()).url(status.getUrl() + "/embed").build());
+                    }
+                }));
+            }
+        }
+        return buffered;
     }
 
     /**
      * Processes a technical WebSocket event.
      * <p>
      * The event is logged as information or error, depending on its class.
-     * No further actions are taken.
+     * On a failure the walls are told, that the stream is reconnecting, and the shared upstream stream is restarted for all subscribers.
+     * The {@link SubscriptionManager SubscriptionManager} decides, when the restart happens.
+     * When the stream is open again, the walls are told, that it is connected, and the missed statuses are backfilled.
      *
      * @param event The event to process.
      */
     private void processTechnicalEvent(final WebSocketEvent event) {
         switch (event) {
-            case TechnicalEvent.Open open ->
-                    logEvent("got an Open event: %s".formatted(open));
+            case TechnicalEvent.Open open -> {
+                LOGGER.info("Stream {} got an Open event: {}", hashtag, open);
+                this.subscriptionManager.hashtagStreamOpened(hashtag);
+                if (reconnecting.compareAndSet(true, false)) {
+                    sendToSubscribers(WallEventMessage.STATE, StreamStateMessage.builder().state(StreamStateMessage.CONNECTED).build());
+                    backfill();
+                }
+            }
             case TechnicalEvent.Closing closing ->
-                    logEvent("got a Closing event: %s".formatted(closing));
+                    LOGGER.info("Stream {} got a Closing event: {}", hashtag, closing);
             case TechnicalEvent.Closed closed ->
-                    logEvent("got a Closed event: %s".formatted(closed));
+                    LOGGER.info("Stream {} got a Closed event: {}", hashtag, closed);
             case TechnicalEvent.Failure failure -> {
-                logEvent("got a Failure event. Restarting subscription. The error is: %s".formatted(failure.getError().getMessage()));
-                this.subscriptionManager.terminateSubscription(principal, hashtag);
-                this.subscriptionManager.subscribeToHashtag(principal, hashtag);
+                LOGGER.info("Stream {} got a Failure event. Restarting subscription. The error is: {}", hashtag, failure.getError().getMessage());
+                if (reconnecting.compareAndSet(false, true)) {
+                    sendToSubscribers(WallEventMessage.STATE, StreamStateMessage.builder().state(StreamStateMessage.RECONNECTING).build());
+                }
+                this.subscriptionManager.restartHashtagStream(hashtag);
             }
-            default -> logEvent("got an unknown WebSocketEvent: %s".formatted(event));
+            default -> LOGGER.info("Stream {} got an unknown WebSocketEvent: {}", hashtag, event);
+        }
+    }
+
+    /**
+     * Builds the subscription of a principal with its destinations.
+     *
+     * @param principal The principal aka wallId.
+     * @param hashtag   The hashtag as subscribed by the principal.
+     * @return The subscription.
+     */
+    private Subscription subscription(final String principal, final String hashtag) {
+        if (!legacyDestinations) {
+            String wall = wallDestination(principal);
+            return new Subscription(principal, hashtag, wall, wall, wall, wall);
         }
+        String base = "/topic/hashtags/" + principal + "/" + hashtag + "/";
+        return new Subscription(principal, hashtag, base + WallEventMessage.CREATION, base + WallEventMessage.MODIFICATION,
+                base + WallEventMessage.DELETION, base + WallEventMessage.STATE);
     }
 
     /**
-     * Logs an event.
+     * A subscriber of the stream with its destinations by type of the event.
+     * Without the legacy destinations, all of them are the single destination of the wall.
      *
-     * @param msg The message to be logged.
+     * @param principal    The principal aka wallId.
+     * @param hashtag      The hashtag as subscribed by the principal.
+     * @param creation     The destination of the creations.
+     * @param modification The destination of the modifications.
+     * @param deletion     The destination of the deletions.
+     * @param state        The destination of the state of the stream.
+     */
+    private record Subscription(String principal, String hashtag, String creation, String modification, String deletion, String state) {
+
+        String destination(final String type) {
+            return switch (type) {
+                case WallEventMessage.CREATION -> creation;
+                case WallEventMessage.MODIFICATION -> modification;
+                case WallEventMessage.DELETION -> deletion;
+                case WallEventMessage.STATE -> state;
+                default -> throw new IllegalArgumentException("Unknown type of event: " + type);
+            };
+        }
+    }
+
+    /**
+     * The subscribers, that get a message.
      */
-    private void logEvent(final String msg) {
-        LOGGER.info("Subscription {} {}", principal, msg);
+    private enum Recipients {
+        /**
+         * Every subscriber, e.g. for the state of the stream.
+         */
+        ALL,
+        /**
+         * The subscribers, that did not get the status yet. The delivery is remembered.
+         */
+        FIRST_DELIVERY,
+        /**
+         * The subscribers, that got the status, e.g. for its modification or deletion.
+         */
+        RECEIVED
     }
 }
@@ -0,0 +1,73 @@
+package de.seism0saurus.glacier.mastodon;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The StreamOwnership coordinates the glacier nodes of a cluster, so that each hashtag is streamed from Mastodon by exactly one node.
+ * <p>
+ * Every node is a member with a lease, that it renews periodically. A member, whose lease ran out, is gone.
+ * The owner of a canonical hashtag is chosen by a {@link ConsistentHashRing ConsistentHashRing} over the live members.
+ * When members join or leave, only the hashtags between them on the ring move to another owner.
+ * <p>
+ * The nodes also share the subscribers of the hashtags. The owner sends the events of a hashtag to the walls of all nodes.
+ * They reach the walls on the other nodes over the external STOMP broker.
+ *
+ * @author seism0saurus
+ */
+public interface StreamOwnership {
+
+    /**
+     * Returns the name of the local member.
+     *
+     * @return the name of this node in the cluster
+     */
+    String localMember();
+
+    /**
+     * Renews the lease of the local member. The local member joins the cluster with its first renewal.
+     *
+     * @return the live members, the local member included
+     */
+    Set<String> renew();
+
+    /**
+     * Gives up the lease of the local member and drops its subscribers, so that the other members take over right away.
+     */
+    void leave();
+
+    /**
+     * Registers a subscriber of the local member for a hashtag.
+     *
+     * @param canonical the canonical hashtag
+     * @param principal the principal aka wallId
+     * @param hashtag   the hashtag as subscribed by the principal
+     */
+    void register(final String canonical, final String principal, final String hashtag);
+
+    /**
+     * Removes a subscriber of the local member from a hashtag.
+     *
+     * @param canonical the canonical hashtag
+     * @param principal the principal aka wallId
+     */
+    void unregister(final String canonical, final String principal);
+
+    /**
+     * Returns the subscribers of all hashtags on all live members with one query.
+     *
+     * @return the subscribers in no particular order
+     */
+    List<Subscriber> subscribers();
+
+    /**
+     * A subscriber of a hashtag on a member of the cluster.
+     *
+     * @param canonical the canonical hashtag
+     * @param principal the principal aka wallId
+     * @param hashtag   the hashtag as subscribed by the principal
+     * @param member    the member, that the wall of the principal is connected to
+     */
+    record Subscriber(String canonical, String principal, String hashtag, String member) {
+    }
+}
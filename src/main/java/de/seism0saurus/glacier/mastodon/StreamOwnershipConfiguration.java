@@ -0,0 +1,88 @@
+package de.seism0saurus.glacier.mastodon;
+
+import com.zaxxer.hikari.HikariDataSource;
+import de.seism0saurus.glacier.webservice.messaging.BrokerRelay;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Configuration class for setting up the {@link StreamOwnership StreamOwnership}.
+ * <p>
+ * In the memory mode the node runs alone and owns every hashtag.
+ * In the jdbc mode the nodes of a cluster share the members and subscribers in the database of the configured DataSource.
+ * The DataSource is only built in the jdbc mode from the spring.datasource properties, so that a single node needs no database.
+ * Therefore, the auto-configuration of the DataSource is excluded in the application.properties.
+ * The JDBC driver of the database has to be on the classpath.
+ * The owner of a hashtag sends the events to the walls of all nodes, so the jdbc mode needs the relay mode of the {@link BrokerRelay BrokerRelay}.
+ */
+@Configuration
+public class StreamOwnershipConfiguration {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(StreamOwnershipConfiguration.class);
+
+    /**
+     * Binds the spring.datasource properties of the shared database in the jdbc mode.
+     *
+     * @return the properties of the shared database
+     */
+    @Bean
+    @ConditionalOnProperty(name = "glacier.cluster.coordination", havingValue = "jdbc")
+    @ConfigurationProperties("spring.datasource")
+    public DataSourceProperties clusterDataSourceProperties() {
+        return new DataSourceProperties();
+    }
+
+    /**
+     * Builds the connection pool of the shared database in the jdbc mode. The pool is configured with the spring.datasource.hikari properties.
+     *
+     * @param clusterDataSourceProperties the properties of the shared database
+     * @return the connection pool of the shared database
+     */
+    @Bean
+    @ConditionalOnProperty(name = "glacier.cluster.coordination", havingValue = "jdbc")
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource clusterDataSource(final DataSourceProperties clusterDataSourceProperties) {
+        return clusterDataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public StreamOwnership streamOwnership(@Value("${glacier.cluster.coordination}") final String coordination,
+                                           @Value("${glacier.cluster.member}") final String member,
+                                           @Value("${glacier.cluster.leaseDuration}") final long leaseDuration,
+                                           @Value("${glacier.broker.mode}") final String brokerMode,
+                                           final ObjectProvider<DataSource> dataSource) {
+        String name = member.isBlank() ? UUID.randomUUID().toString() : member;
+        if ("memory".equals(coordination)) {
+            LOGGER.info("Running as the only member {}", name);
+            return new InMemoryStreamOwnership(name, Duration.ofMillis(leaseDuration), Clock.systemUTC(), new InMemoryStreamOwnership.Cluster());
+        }
+        if (!"jdbc".equals(coordination)) {
+            throw new IllegalArgumentException("Unknown cluster coordination " + coordination + ". Use memory or jdbc");
+        }
+        if (!BrokerRelay.RELAY.equals(brokerMode)) {
+            // With the in-memory broker, the walls on the other nodes would silently get no events of the hashtags, that this node owns
+            throw new IllegalStateException("The jdbc cluster coordination needs the broker mode relay, but it is " + brokerMode);
+        }
+        LOGGER.info("Joining the cluster as member {} with a lease of {} ms", name, leaseDuration);
+        return new JdbcStreamOwnership(new JdbcTemplate(dataSource.getObject()), name, Duration.ofMillis(leaseDuration), Clock.systemUTC());
+    }
+}
@@ -1,5 +1,9 @@
 package de.seism0saurus.glacier.mastodon;
 
+import de.seism0saurus.glacier.webservice.messaging.messages.StatusCreatedMessage;
+
+import java.util.List;
+
 /**
  * The manager handles subscriptions for hashtags on Mastodon.
  * <p>
@@ -24,4 +28,45 @@ public interface SubscriptionManager {
     void terminateSubscription(final String principal, final String hashtag);
 
     void terminateAllSubscriptions(final String principal);
+
+    /**
+     * Restart the shared upstream stream of a hashtag without losing its subscribers.
+     * The restart may be delayed, so that a failing upstream is not hammered with reconnects.
+     *
+     * @param hashtag The hashtag of the stream to restart.
+     */
+    void restartHashtagStream(final String hashtag);
+
+    /**
+     * Confirms, that the shared upstream stream of a hashtag is open. A pending restart is not needed anymore.
+     *
+     * @param hashtag The hashtag of the open stream.
+     */
+    void hashtagStreamOpened(final String hashtag);
+
+    /**
+     * Renews the membership of this node in the cluster.
+     * The upstream streams of the hashtags, that this node owns now, are opened. The others are handed over to their owners.
+     */
+    void rebalanceHashtagStreams();
+
+    /**
+     * Returns the last statuses, that were delivered on the shared upstream stream of a hashtag.
+     * They passed all checks already and can be shown on a new wall right away.
+     * Statuses, that the wall already got from another hashtag, are left out.
+     *
+     * @param principal The principal aka wallId, that gets the statuses.
+     * @param hashtag   The hashtag of the stream.
+     * @return The statuses, the oldest first. Empty, if there is no stream for the hashtag.
+     */
+    List<StatusCreatedMessage> recentStatuses(final String principal, final String hashtag);
+
+    /**
+     * Returns the single destination of a wall, that carries the events of all its hashtags in a
+     * {@link de.seism0saurus.glacier.webservice.messaging.messages.WallEventMessage WallEventMessage}.
+     *
+     * @param principal The principal aka wallId.
+     * @return The destination, or null if the walls get the three destinations per hashtag of the former layout.
+     */
+    String wallDestination(final String principal);
 }
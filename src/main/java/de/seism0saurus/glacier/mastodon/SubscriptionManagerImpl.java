@@ -1,5 +1,7 @@
 package de.seism0saurus.glacier.mastodon;
 
+import de.seism0saurus.glacier.webservice.messaging.messages.StatusCreatedMessage;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -7,17 +9,8 @@ import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
-import social.bigbone.MastodonClient;
-import social.bigbone.api.method.StreamingMethods;
-
-import java.io.Closeable;
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+
+import java.util.List;
 
 /**
  * The SubscriptionManagerImpl class is responsible for managing subscriptions for hashtags on Mastodon.
@@ -38,72 +31,96 @@ public class SubscriptionManagerImpl implements SubscriptionManager {
     private final static Logger LOGGER = LoggerFactory.getLogger(SubscriptionManagerImpl.class);
 
     /**
-     * An ExecutorService instance that utilizes the virtual thread-per-task executor.
-     * It is used to manage and execute tasks asynchronously and efficiently, leveraging virtual threads.
-     * This implementation facilitates lightweight concurrency and scalability for handling multiple tasks.
-     * The executor provides improved performance and resource utilization for threading operations.
-     * It is declared as final to ensure immutability and thread safety in its usage.
+     * The subscriptions of the principals. The registry is safe for concurrent use by the STOMP inbound threads,
+     * the {@link de.seism0saurus.glacier.webservice.messaging.SubscriptionListener SubscriptionListener} and the restarts of the streams.
      */
-    private final static ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor();
+    private final SubscriptionRegistry subscriptions;
 
     /**
-     * The list of subscriptions as list of Futures.
+     * The matcher of the frame-ancestors directives for the domain of the Glacier service. It is built once for all streams.
      */
-    private final Map<String, Map<String, Future<?>>> subscriptions;
+    private final FrameAncestors frameAncestors;
 
     /**
-     * The {@link SimpMessagingTemplate SimpMessagingTemplate} of this class.
-     * The template is passed to the {@link StompCallback StompCallback}, so that the callback can send asynchronous messages via WebSockets.
+     * The registry of the shared upstream streams. There is one upstream stream per canonical hashtag,
+     * no matter how many principals follow it.
      */
-    private final SimpMessagingTemplate simpMessagingTemplate;
+    private final HashtagStreamRegistry streams;
 
     /**
-     * The domain for the Glacier service.
+     * The supervisor, that decides when failed streams are restarted.
      */
-    private final String glacierDomain;
+    private final ReconnectSupervisor reconnectSupervisor;
 
     /**
-     * The mastodon handle of this instance.
+     * The statuses, that were sent to each wall. They are shared by all streams, so that a wall gets a status only once.
      */
-    private final String handle;
+    private final DeliveredStatuses deliveredStatuses;
 
     /**
-     * The {@link RestTemplate RestTemplate} of this class.
-     * The template is passed to the {@link StompCallback StompCallback}, so that the callback can check http headers of urls for iframes.
+     * The notification stream of the glacier account, that feeds the index of the statuses, that mention glacier.
      */
-    private final RestTemplate restTemplate;
+    private final MentionStream mentionStream;
 
-    private final StreamingMethods streaming;
+    /**
+     * True, if the walls get the three destinations per hashtag of the former layout.
+     */
+    private final boolean legacyDestinations;
 
     /**
      * Constructs a SubscriptionManagerImpl instance with the specified configuration values,
-     * client, messaging template, and REST template.
+     * upstream connector, messaging template, embed check client, embed policy cache, event pipeline, reconnect supervisor and timeline backfill.
      *
      * @param instance the Mastodon instance URL
      * @param glacierDomain the domain for Glacier integration
      * @param handle the Mastodon user handle
-     * @param client the Mastodon client used for API interactions
+     * @param recentCapacity the number of recent statuses, that are buffered per hashtag for new walls
+     * @param dedupWindow the number of delivered statuses, that are remembered per wall
+     * @param legacyDestinations true for the three destinations per hashtag, false for the single destination per wall
+     * @param connector the connector, used to open the upstream hashtag streams
      * @param simpMessagingTemplate the messaging template for WebSocket communications
-     * @param restTemplate the REST template for making HTTP requests
+     * @param embedCheckClient the client for checking the headers of the embedded iframes
+     * @param embedPolicyCache the cache for the embed policies of the remote servers
+     * @param eventPipeline the pipeline, that processes the events of the streams
+     * @param reconnectSupervisor the supervisor, that decides when failed streams are restarted
+     * @param timelineBackfill the backfill for the statuses, that were missed while a stream was down
+     * @param streamOwnership the members of the cluster, that decide which member streams a hashtag
+     * @param optInIndex the index of the statuses, that mention the glacier account
+     * @param metrics the metrics of the events of the streams
      */
     public SubscriptionManagerImpl(
             @Value(value = "${mastodon.instance}") String instance,
             @Value(value = "${glacier.domain}") String glacierDomain,
             @Value(value = "${mastodon.handle}") String handle,
-            MastodonClient client,
+            @Value(value = "${glacier.recent.capacity}") int recentCapacity,
+            @Value(value = "${glacier.dedup.window}") int dedupWindow,
+            @Value(value = "${glacier.destinations.legacy}") boolean legacyDestinations,
+            UpstreamConnector connector,
             SimpMessagingTemplate simpMessagingTemplate,
-            RestTemplate restTemplate) {
-        this.glacierDomain = glacierDomain;
-        this.handle = handle;
-        this.restTemplate = restTemplate;
-        this.simpMessagingTemplate = simpMessagingTemplate;
-        this.subscriptions = new HashMap<>();
-        this.streaming = client.streaming();
+            EmbedCheckClient embedCheckClient,
+            EmbedPolicyCache embedPolicyCache,
+            EventPipeline eventPipeline,
+            ReconnectSupervisor reconnectSupervisor,
+            TimelineBackfill timelineBackfill,
+            StreamOwnership streamOwnership,
+            OptInIndex optInIndex,
+            GlacierMetrics metrics) {
+        this.frameAncestors = FrameAncestors.of(glacierDomain);
+        this.subscriptions = new SubscriptionRegistry();
+        this.reconnectSupervisor = reconnectSupervisor;
+        this.deliveredStatuses = new DeliveredStatuses(dedupWindow);
+        this.legacyDestinations = legacyDestinations;
+        this.mentionStream = new MentionStream(connector, optInIndex, reconnectSupervisor);
+        this.streams = new HashtagStreamRegistry(connector,
+                canonical -> new StompCallback(this, simpMessagingTemplate, embedCheckClient, embedPolicyCache, eventPipeline, timelineBackfill, deliveredStatuses, optInIndex, metrics, legacyDestinations, recentCapacity, canonical, handle, frameAncestors),
+                streamOwnership, deliveredStatuses);
         LOGGER.info("StatusInterfaceImpl for mastodon instance {} created", instance);
     }
 
     /**
-     * Subscribes to a specified hashtag on Mastodon and starts a virtual thread for asynchronous listening.
+     * Subscribes to a specified hashtag on Mastodon.
+     * The principal joins the shared upstream stream of the hashtag, which is opened if it does not exist yet.
+     * The first subscription opens the mention stream of the glacier account.
      *
      * @param principal The principal of the user.
      * @param hashtag   The hashtag to subscribe to.
@@ -113,30 +130,17 @@ public class SubscriptionManagerImpl implements SubscriptionManager {
         LOGGER.info("subscribeToHashtag");
         assert principal != null;
         assert hashtag != null;
-        subscriptions.computeIfAbsent(principal, k -> new HashMap<>());
-        Map<String, Future<?>> previousSubscriptions = subscriptions.get(principal);
-        if (previousSubscriptions.get(hashtag) != null) {
+        mentionStream.open();
+        if (!subscriptions.subscribe(principal, hashtag, streams::acquire)) {
             LOGGER.info("A subscription for principal {} with the hashtag {} already exists", principal, hashtag);
-            return;
         }
-        Future<?> future;
-        LOGGER.debug("Submitting asynchronous future task...");
-        future = executorService.submit(() -> {
-            StompCallback stompCallback = new StompCallback(this, simpMessagingTemplate, restTemplate, principal, hashtag, handle, glacierDomain);
-            try (Closeable subscription = streaming.hashtag(hashtag, false, stompCallback)) {
-                LOGGER.info("Asynchronous subscription for {} with the hashtag {} started", principal, hashtag);
-                sleepForever(subscription);
-            } catch (NullPointerException | IOException e) {
-                LOGGER.error("Asynchronous subscription for {} with the hashtag {} had an exception", principal, hashtag, e);
-                throw new RuntimeException(e);
-            }
-        });
-        previousSubscriptions.put(hashtag, future);
-        subscriptions.put(principal, previousSubscriptions);
+        // Outside the lock of the subscriptions, because the cluster may share the subscribers in a database and the upstream waits for its handshake
+        streams.flush();
     }
 
     /**
      * Terminates a subscription for a given principal and hashtag.
+     * The principal leaves the shared upstream stream, which is closed if it was the last subscriber.
      *
      * @param principal The principal associated with the subscription.
      * @param hashtag   The hashtag of the subscription to be terminated.
@@ -144,21 +148,11 @@ public class SubscriptionManagerImpl implements SubscriptionManager {
      */
     @Override
     public void terminateSubscription(final String principal, final String hashtag) {
-        Map<String, Future<?>> subscriptionsOfPrincipal = this.subscriptions.get(principal);
-        if (subscriptionsOfPrincipal == null) {
-            throw new IllegalArgumentException("The provided principal " + principal + " is unknown");
-        }
-        Future<?> subscription = subscriptionsOfPrincipal.get(hashtag);
-        if (subscription == null) {
-            throw new IllegalArgumentException("The provided hashtag " + hashtag + " for principal " + principal + " is unknown");
+        subscriptions.terminate(principal, hashtag, this::release);
+        streams.flush();
+        if (!subscriptions.hasSubscriptions(principal)) {
+            deliveredStatuses.forget(principal);
         }
-        subscriptionsOfPrincipal.remove(hashtag);
-        if (subscriptionsOfPrincipal.isEmpty()) {
-            this.subscriptions.remove(principal);
-        } else {
-            this.subscriptions.put(principal, subscriptionsOfPrincipal);
-        }
-        subscription.cancel(true);
     }
 
     /**
@@ -168,12 +162,76 @@ public class SubscriptionManagerImpl implements SubscriptionManager {
      */
     @Override
     public void terminateAllSubscriptions(String principal) {
-        Map<String, Future<?>> futureMap = this.subscriptions.get(principal);
-        if (futureMap == null) {
-            return;
+        subscriptions.terminateAll(principal, this::release);
+        streams.flush();
+        deliveredStatuses.forget(principal);
+    }
+
+    /**
+     * Restarts the shared upstream stream of a hashtag after a failure.
+     * The {@link ReconnectSupervisor ReconnectSupervisor} delays the restart with backoff and circuit breakers.
+     * The subscribers of the stream are kept.
+     *
+     * @param hashtag The hashtag of the stream to restart.
+     */
+    @Override
+    public void restartHashtagStream(final String hashtag) {
+        String canonical = HashtagStreamRegistry.canonicalize(hashtag);
+        reconnectSupervisor.failed(canonical, () -> streams.restart(canonical));
+    }
+
+    /**
+     * Resets the backoff of the stream of a hashtag, because it is open again.
+     *
+     * @param hashtag The hashtag of the open stream.
+     */
+    @Override
+    public void hashtagStreamOpened(final String hashtag) {
+        reconnectSupervisor.connected(HashtagStreamRegistry.canonicalize(hashtag));
+    }
+
+    /**
+     * Renews the membership of this node in the cluster and moves the upstream streams to their owners.
+     */
+    @Override
+    public void rebalanceHashtagStreams() {
+        streams.rebalance();
+    }
+
+    /**
+     * Returns the last delivered statuses of the shared stream of a hashtag, that the wall did not get yet.
+     * They are remembered as delivered to the wall.
+     *
+     * @param principal The principal aka wallId, that gets the statuses.
+     * @param hashtag   The hashtag of the stream.
+     * @return The statuses, the oldest first.
+     */
+    @Override
+    public List<StatusCreatedMessage> recentStatuses(final String principal, final String hashtag) {
+        return streams.recentStatuses(hashtag).stream()
+                .filter(status -> deliveredStatuses.deliver(principal, status.getId()))
+                .toList();
+    }
+
+    /**
+     * Returns the single destination of a wall for the events of all its hashtags.
+     *
+     * @param principal The principal aka wallId.
+     * @return The destination, or null if the walls get the three destinations per hashtag of the former layout.
+     */
+    @Override
+    public String wallDestination(final String principal) {
+        return legacyDestinations ? null : StompCallback.wallDestination(principal);
+    }
+
+    /**
+     * Leaves the stream of a hashtag. If the stream is closed, a pending restart is dropped.
+     */
+    private void release(final String principal, final String hashtag) {
+        streams.release(principal, hashtag);
+        if (streams.numberOfSubscribers(hashtag) == 0) {
+            reconnectSupervisor.forget(HashtagStreamRegistry.canonicalize(hashtag));
         }
-        futureMap.forEach((tag, future) -> future.cancel(true));
-        this.subscriptions.remove(principal);
     }
 
     /**
@@ -183,7 +241,7 @@ public class SubscriptionManagerImpl implements SubscriptionManager {
      * @return true if the principal is subscribed, otherwise false
      */
     public boolean hasPrincipalSubscriptions(String principal) {
-        return subscriptions.containsKey(principal);
+        return subscriptions.hasSubscriptions(principal);
     }
 
     /**
@@ -194,7 +252,7 @@ public class SubscriptionManagerImpl implements SubscriptionManager {
      * @return true if the principal has subscribed to the specified hashtag, false otherwise.
      */
     public boolean isHashtagSubscribedByPrincipal(String principal, String hashtag) {
-        return subscriptions.containsKey(principal) && subscriptions.get(principal).containsKey(hashtag);
+        return subscriptions.isSubscribed(principal, hashtag);
     }
 
     /**
@@ -204,31 +262,53 @@ public class SubscriptionManagerImpl implements SubscriptionManager {
      * @return the total number of subscriptions associated with the specified principal
      */
     public int numberOfSubscriptions(String principal) {
-        return subscriptions.getOrDefault(principal, new HashMap<>()).size();
-    }
-
-    /**
-     * Suspends the current thread indefinitely until it is interrupted.
-     * <p>
-     * This method continuously sleeps the current thread using the {@link Thread#wait()} method
-     * until the thread is interrupted. If the sleep is interrupted by an {@link InterruptedException},
-     * the method logs the exception and re-interrupts the thread.
-     */
-    private static void sleepForever(Closeable subscription) {
-        try {
-            while (!Thread.currentThread().isInterrupted()) {
-                // DANGER. The Stream is only kept open if we have this sleep.
-                // It closes directly after openening, if this is a wait or other construct. Dont't know why :(
-                Thread.sleep(60_000L);
-            }
-        } catch (InterruptedException e) {
-            LOGGER.info("Sleep interrupted by InterruptedException. Most likely because it was interrupted by a subscription termination", e);
-            try {
-                subscription.close();
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
-            Thread.currentThread().interrupt();
-        }
+        return subscriptions.numberOfSubscriptions(principal);
+    }
+
+    /**
+     * Closes all upstream streams and drops all subscriptions in one orderly step, when the application shuts down.
+     */
+    @PreDestroy
+    public void shutdown() {
+        int subscriptionCount = subscriptions.clear();
+        int streamCount = streams.closeAll();
+        mentionStream.close();
+        LOGGER.info("Shut down {} subscriptions and {} upstream streams", subscriptionCount, streamCount);
+    }
+
+    /**
+     * Returns the number of open upstream streams to Mastodon.
+     *
+     * @return the number of distinct canonical hashtags with at least one subscriber
+     */
+    public int numberOfUpstreamStreams() {
+        return streams.numberOfStreams();
+    }
+
+    /**
+     * Returns the number of walls with at least one subscription.
+     *
+     * @return the number of principals
+     */
+    public int numberOfWalls() {
+        return subscriptions.numberOfPrincipals();
+    }
+
+    /**
+     * Returns the number of subscriptions of all walls.
+     *
+     * @return the number of subscriptions
+     */
+    public int numberOfSubscriptions() {
+        return subscriptions.numberOfSubscriptions();
+    }
+
+    /**
+     * Returns the number of walls, that remember their delivered statuses.
+     *
+     * @return the number of walls with delivered statuses
+     */
+    public int numberOfWallsWithDeliveredStatuses() {
+        return deliveredStatuses.numberOfWalls();
     }
 }
@@ -0,0 +1,221 @@
+package de.seism0saurus.glacier.mastodon;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * The SubscriptionRegistry keeps the subscriptions of the principals to hashtags. It is safe for concurrent use.
+ * <p>
+ * The subscriptions are stored in a {@link ConcurrentHashMap ConcurrentHashMap} by principal.
+ * The fan-out does not need a reverse index here, because each {@link StompCallback StompCallback} keeps the subscribers of its stream.
+ * All changes for one principal are serialized by one of a fixed number of striped locks,
+ * so that subscribe, terminate and terminate-all are atomic, while different principals do not block each other.
+ * <p>
+ * The changes accept an action, that is run under the lock of the principal after the registry was changed.
+ * So the side effects of the changes of one principal, e.g. joining and leaving the upstream streams, happen in the same order as the changes.
+ */
+public class SubscriptionRegistry {
+
+    /**
+     * The default number of lock stripes.
+     */
+    private static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * The subscriptions by principal.
+     * The outer key is the principal, the inner key the canonical hashtag and the value the hashtag as subscribed by the principal.
+     */
+    private final Map<String, Map<String, String>> byPrincipal = new ConcurrentHashMap<>();
+
+    /**
+     * The striped locks for the principals.
+     */
+    private final ReentrantLock[] stripes;
+
+    /**
+     * Constructs a registry with the default number of lock stripes.
+     */
+    public SubscriptionRegistry() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Constructs a registry with the given number of lock stripes.
+     *
+     * @param stripes the number of locks, that the principals are spread over
+     */
+    SubscriptionRegistry(final int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("The registry needs at least one lock stripe");
+        }
+        this.stripes = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Subscribes a principal to a hashtag, if it is not subscribed yet.
+     *
+     * @param principal    the principal aka wallId
+     * @param hashtag      the hashtag as entered by the principal
+     * @param onSubscribed the action for a new subscription. It gets the principal and the hashtag.
+     * @return true if the subscription is new, false if the principal was already subscribed to the hashtag
+     */
+    public boolean subscribe(final String principal, final String hashtag, final BiConsumer<String, String> onSubscribed) {
+        String canonical = HashtagStreamRegistry.canonicalize(hashtag);
+        ReentrantLock lock = lockFor(principal);
+        lock.lock();
+        try {
+            Map<String, String> hashtags = byPrincipal.computeIfAbsent(principal, p -> new ConcurrentHashMap<>());
+            if (hashtags.putIfAbsent(canonical, hashtag) != null) {
+                return false;
+            }
+            try {
+                onSubscribed.accept(principal, hashtag);
+            } catch (RuntimeException e) {
+                // The subscription did not happen, e.g. because the upstream could not be opened
+                hashtags.remove(canonical);
+                if (hashtags.isEmpty()) {
+                    byPrincipal.remove(principal);
+                }
+                throw e;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Terminates the subscription of a principal to a hashtag.
+     *
+     * @param principal    the principal aka wallId
+     * @param hashtag      the hashtag of the subscription
+     * @param onTerminated the action for the terminated subscription. It gets the principal and the hashtag as subscribed.
+     * @return the hashtag as subscribed by the principal
+     * @throws IllegalArgumentException If the provided principal or hashtag is unknown.
+     */
+    public String terminate(final String principal, final String hashtag, final BiConsumer<String, String> onTerminated) {
+        String canonical = HashtagStreamRegistry.canonicalize(hashtag);
+        ReentrantLock lock = lockFor(principal);
+        lock.lock();
+        try {
+            Map<String, String> hashtags = byPrincipal.get(principal);
+            if (hashtags == null) {
+                throw new IllegalArgumentException("The provided principal " + principal + " is unknown");
+            }
+            String subscribed = hashtags.remove(canonical);
+            if (subscribed == null) {
+                throw new IllegalArgumentException("The provided hashtag " + hashtag + " for principal " + principal + " is unknown");
+            }
+            if (hashtags.isEmpty()) {
+                byPrincipal.remove(principal);
+            }
+            onTerminated.accept(principal, subscribed);
+            return subscribed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Terminates all subscriptions of a principal.
+     *
+     * @param principal    the principal aka wallId
+     * @param onTerminated the action for each terminated subscription. It gets the principal and the hashtag as subscribed.
+     * @return the number of terminated subscriptions
+     */
+    public int terminateAll(final String principal, final BiConsumer<String, String> onTerminated) {
+        ReentrantLock lock = lockFor(principal);
+        lock.lock();
+        try {
+            Map<String, String> hashtags = byPrincipal.remove(principal);
+            if (hashtags == null) {
+                return 0;
+            }
+            hashtags.forEach((canonical, subscribed) -> onTerminated.accept(principal, subscribed));
+            return hashtags.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all subscriptions at once without running any actions, e.g. when the application shuts down.
+     * All lock stripes are held meanwhile, so that no change of a principal is lost in between.
+     *
+     * @return the number of removed subscriptions
+     */
+    public int clear() {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+        try {
+            int removed = byPrincipal.values().stream().mapToInt(Map::size).sum();
+            byPrincipal.clear();
+            return removed;
+        } finally {
+            for (ReentrantLock stripe : stripes) {
+                stripe.unlock();
+            }
+        }
+    }
+
+    /**
+     * Checks if the principal has any subscriptions.
+     *
+     * @param principal the principal aka wallId
+     * @return true if the principal has at least one subscription
+     */
+    public boolean hasSubscriptions(final String principal) {
+        return byPrincipal.containsKey(principal);
+    }
+
+    /**
+     * Checks if the principal is subscribed to the hashtag.
+     *
+     * @param principal the principal aka wallId
+     * @param hashtag   the hashtag in any form
+     * @return true if the principal is subscribed to the canonical hashtag
+     */
+    public boolean isSubscribed(final String principal, final String hashtag) {
+        Map<String, String> hashtags = byPrincipal.get(principal);
+        return hashtags != null && hashtags.containsKey(HashtagStreamRegistry.canonicalize(hashtag));
+    }
+
+    /**
+     * Returns the number of subscriptions of a principal.
+     *
+     * @param principal the principal aka wallId
+     * @return the number of subscriptions
+     */
+    public int numberOfSubscriptions(final String principal) {
+        Map<String, String> hashtags = byPrincipal.get(principal);
+        return hashtags == null ? 0 : hashtags.size();
+    }
+
+    /**
+     * Returns the number of principals with at least one subscription.
+     *
+     * @return the number of principals
+     */
+    public int numberOfPrincipals() {
+        return byPrincipal.size();
+    }
+
+    /**
+     * Returns the number of subscriptions of all principals.
+     *
+     * @return the number of subscriptions
+     */
+    public int numberOfSubscriptions() {
+        return byPrincipal.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private ReentrantLock lockFor(final String principal) {
+        return stripes[Math.floorMod(principal.hashCode(), stripes.length)];
+    }
+}
@@ -0,0 +1,125 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import social.bigbone.MastodonClient;
+import social.bigbone.api.Pageable;
+import social.bigbone.api.Range;
+import social.bigbone.api.entity.Status;
+import social.bigbone.api.method.TimelineMethods;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * The TimelineBackfill fetches the statuses of a hashtag, that were published while its stream was down,
+ * and the latest statuses of a new stream.
+ * <p>
+ * It pages {@code GET /api/v1/timelines/tag/:hashtag?since_id=} through the {@link MastodonClient MastodonClient},
+ * from the newest status backwards with {@code max_id}, until it reaches the given status.
+ * The number of pages is limited, so that a very busy hashtag does not keep a stream busy for long.
+ * The requests run on their own threads and never on the reading threads of the streams.
+ */
+@Component
+public class TimelineBackfill {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(TimelineBackfill.class);
+
+    private final TimelineMethods timelines;
+    private final Executor executor;
+    private final int pageSize;
+    private final int maxPages;
+
+    /**
+     * Constructs a backfill with a small pool of threads for the requests.
+     *
+     * @param client   the client of the Mastodon instance
+     * @param pageSize the number of statuses per request. Mastodon returns at most 40
+     * @param maxPages the maximal number of requests per backfill
+     */
+    @Autowired
+    public TimelineBackfill(final MastodonClient client,
+                            @Value("${glacier.backfill.pageSize}") final int pageSize,
+                            @Value("${glacier.backfill.maxPages}") final int maxPages) {
+        this(client.timelines(), Executors.newFixedThreadPool(2, Thread.ofPlatform().name("glacier-backfill-", 0).daemon().factory()), pageSize, maxPages);
+        LOGGER.info("TimelineBackfill with {} pages of {} statuses created", maxPages, pageSize);
+    }
+
+    /**
+     * Constructs a backfill with the given timelines and executor.
+     *
+     * @param timelines the timeline methods of the Mastodon client
+     * @param executor  runs the requests
+     * @param pageSize  the number of statuses per request
+     * @param maxPages  the maximal number of requests per backfill
+     */
+    TimelineBackfill(final TimelineMethods timelines, final Executor executor, final int pageSize, final int maxPages) {
+        if (pageSize < 1 || maxPages < 1) {
+            throw new IllegalArgumentException("A backfill needs at least one page with at least one status");
+        }
+        this.timelines = timelines;
+        this.executor = executor;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Fetches the statuses of a hashtag, that are newer than the given status.
+     *
+     * @param hashtag the canonical hashtag
+     * @param sinceId the id of the last known status
+     * @return the newer statuses, the oldest first. If there are more than fit into the pages, the oldest ones are missing.
+     */
+    public CompletableFuture<List<Status>> fetchSince(final String hashtag, final String sinceId) {
+        return CompletableFuture.supplyAsync(() -> fetch(hashtag, sinceId), executor);
+    }
+
+    /**
+     * Fetches the latest statuses of a hashtag with a single request.
+     *
+     * @param hashtag the canonical hashtag
+     * @param limit   the maximal number of statuses
+     * @return the latest statuses, the oldest first
+     */
+    public CompletableFuture<List<Status>> fetchLatest(final String hashtag, final int limit) {
+        return CompletableFuture.supplyAsync(() -> page(hashtag, new Range(null, null, null, Math.min(limit, pageSize))).reversed(), executor);
+    }
+
+    private List<Status> fetch(final String hashtag, final String sinceId) {
+        List<Status> statuses = new ArrayList<>();
+        String maxId = null;
+        for (int page = 0; page < maxPages; page++) {
+            List<Status> part = page(hashtag, new Range(maxId, null, sinceId, pageSize));
+            statuses.addAll(part);
+            if (part.size() < pageSize) {
+                LOGGER.info("Backfilled {} statuses of stream {} since {}", statuses.size(), hashtag, sinceId);
+                return statuses.reversed();
+            }
+            maxId = part.getLast().getId();
+        }
+        LOGGER.warn("Backfill of stream {} since {} stopped after {} pages. Older statuses are missing", hashtag, sinceId, maxPages);
+        return statuses.reversed();
+    }
+
+    private List<Status> page(final String hashtag, final Range range) {
+        try {
+            Pageable<Status> pageable = timelines.getTagTimeline(hashtag, TimelineMethods.StatusOrigin.LOCAL_AND_REMOTE, range).execute();
+            return pageable == null || pageable.getPart() == null ? List.of() : pageable.getPart();
+        } catch (Exception e) {
+            throw new CompletionException("Could not fetch the timeline of hashtag " + hashtag, e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import social.bigbone.MastodonClient;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+
+/**
+ * Configuration class for setting up the {@link UpstreamConnector UpstreamConnector}.
+ * <p>
+ * In the multiplexed mode all hashtags are streamed over a small pool of WebSockets to the streaming endpoint of the Mastodon instance.
+ * In the per-hashtag mode every hashtag gets its own bigbone streaming connection.
+ */
+@Configuration
+public class UpstreamConfiguration {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(UpstreamConfiguration.class);
+
+    @Bean
+    public UpstreamConnector upstreamConnector(@Value("${mastodon.streaming.mode}") final String mode,
+                                               @Value("${mastodon.streaming.poolSize}") final int poolSize,
+                                               @Value("${mastodon.instance}") final String instance,
+                                               @Value("${mastodon.https}") final boolean https,
+                                               @Value("${mastodon.port}") final int port,
+                                               @Value("${mastodon.accessToken}") final String accessToken,
+                                               @Value("${mastodon.connectTimeout}") final int connectTimeout,
+                                               @Value("${glacier.devmode}") final boolean developmentMode,
+                                               final MastodonClient client) throws GeneralSecurityException {
+        if ("per-hashtag".equals(mode)) {
+            LOGGER.info("Streaming every hashtag over its own connection");
+            return new BigboneUpstreamConnector(client);
+        }
+        if (!"multiplexed".equals(mode)) {
+            throw new IllegalArgumentException("Unknown streaming mode " + mode + ". Use multiplexed or per-hashtag");
+        }
+        URI streamingUri = URI.create((https ? "wss" : "ws") + "://" + instance + ":" + port + "/api/v1/streaming");
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(connectTimeout));
+        if (developmentMode && https) {
+            LOGGER.warn("Starting streaming sockets in development mode trusting all certificates. This is dangerous!");
+            builder.sslContext(trustAllSslContext());
+        }
+        HttpClient httpClient = builder.build();
+        LOGGER.info("Multiplexing all hashtags over {} streaming sockets to {}", poolSize, streamingUri);
+        return new MultiplexedUpstreamConnector(poolSize, listener -> httpClient.newWebSocketBuilder()
+                .header("Authorization", "Bearer " + accessToken)
+                .connectTimeout(Duration.ofSeconds(connectTimeout))
+                .buildAsync(streamingUri, listener));
+    }
+
+    /**
+     * Creates an SSLContext, that trusts all certificates. Only for the development mode.
+     *
+     * @return the SSLContext
+     * @throws GeneralSecurityException if the SSLContext can not be initialized
+     */
+    private static SSLContext trustAllSslContext() throws GeneralSecurityException {
+        TrustManager[] trustAll = new TrustManager[]{new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }};
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustAll, null);
+        return sslContext;
+    }
+}
@@ -0,0 +1,32 @@
+package de.seism0saurus.glacier.mastodon;
+
+import social.bigbone.api.entity.streaming.WebSocketCallback;
+
+import java.io.Closeable;
+
+/**
+ * The connector opens upstream hashtag streams and the notification stream of the glacier account on the Mastodon instance.
+ * <p>
+ * The events of an opened stream are delivered to the given callback until the returned {@link Closeable Closeable} is closed.
+ *
+ * @author seism0saurus
+ */
+public interface UpstreamConnector {
+
+    /**
+     * Opens the upstream stream for a hashtag.
+     *
+     * @param hashtag  The canonical hashtag to stream.
+     * @param callback The callback for the events of the stream.
+     * @return A closeable, that closes the stream.
+     */
+    Closeable open(final String hashtag, final WebSocketCallback callback);
+
+    /**
+     * Opens the notification stream of the glacier account.
+     *
+     * @param callback The callback for the events of the stream.
+     * @return A closeable, that closes the stream.
+     */
+    Closeable openNotifications(final WebSocketCallback callback);
+}
@@ -53,6 +53,8 @@ public class SubscriptionController {
 
     /**
      * Subscribes to a hashtag and returns a SubscriptionAckMessage.
+     * The acknowledgement contains the recent statuses of the hashtag, so that the new wall can show them immediately,
+     * and the destination of the wall for the events of all its hashtags.
      *
      * @param event The SubscriptionMessage containing the hashtag to subscribe to.
      * @return The SubscriptionAckMessage indicating the subscription status.
@@ -76,6 +78,8 @@ public class SubscriptionController {
                 .hashtag(event.getHashtag())
                 .principal(principal)
                 .isSubscribed(true)
+                .recent(this.subscriptionManager.recentStatuses(principal, event.getHashtag()))
+                .destination(this.subscriptionManager.wallDestination(principal))
                 .build();
     }
 
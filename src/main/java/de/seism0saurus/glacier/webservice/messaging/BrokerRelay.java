@@ -0,0 +1,165 @@
+package de.seism0saurus.glacier.webservice.messaging;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.stomp.StompReactorNettyCodec;
+import org.springframework.messaging.tcp.reactor.ReactorNettyTcpClient;
+import org.springframework.stereotype.Component;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.tcp.TcpClient;
+
+import java.time.Duration;
+
+/**
+ * The BrokerRelay decides, which STOMP broker delivers the messages to the walls.
+ * <p>
+ * In the simple mode the in-memory broker of Spring is used. All sessions of the walls have to be connected to the same node.
+ * In the relay mode the messages are relayed to an external STOMP broker like RabbitMQ or ActiveMQ Artemis.
+ * Then several glacier nodes can run behind one hostname. A message, that a node sends to the destination of a wall,
+ * reaches the wall on whichever node its session is connected. The user destinations and the user registry are broadcast
+ * over the broker, so that the acknowledgements also find their session.
+ * <p>
+ * Every session of a wall holds one TCP connection to the broker. The connections are taken from a bounded pool,
+ * that limits the number of relayed sessions per node.
+ */
+@Component
+public class BrokerRelay {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(BrokerRelay.class);
+
+    public static final String SIMPLE = "simple";
+    public static final String RELAY = "relay";
+
+    private final boolean enabled;
+    private final String host;
+    private final int port;
+    private final String clientLogin;
+    private final String clientPasscode;
+    private final String systemLogin;
+    private final String systemPasscode;
+    private final String virtualHost;
+    private final long heartbeatSendInterval;
+    private final long heartbeatReceiveInterval;
+    private final int maxConnections;
+    private final Duration pendingAcquireTimeout;
+
+    /**
+     * The pool of the connections to the broker. Created, when the relay is configured.
+     */
+    private ConnectionProvider connectionProvider;
+
+    /**
+     * Constructs the broker relay with the configuration of the application.
+     *
+     * @param mode                     simple for the in-memory broker, relay for an external STOMP broker
+     * @param host                     the host of the external broker
+     * @param port                     the STOMP port of the external broker
+     * @param clientLogin              the login of the connections of the walls
+     * @param clientPasscode           the passcode of the connections of the walls
+     * @param systemLogin              the login of the shared connection, that sends the messages of this node
+     * @param systemPasscode           the passcode of the shared connection
+     * @param virtualHost              the virtual host of the broker, or empty for the default
+     * @param heartbeatSendInterval    the interval in milliseconds, in which the shared connection sends heartbeats. 0 disables them
+     * @param heartbeatReceiveInterval the interval in milliseconds, in which the shared connection expects heartbeats. 0 disables them
+     * @param maxConnections           the maximal number of connections to the broker
+     * @param pendingAcquireTimeout    the milliseconds a new session waits for a free connection
+     */
+    public BrokerRelay(@Value("${glacier.broker.mode}") final String mode,
+                       @Value("${glacier.broker.relay.host}") final String host,
+                       @Value("${glacier.broker.relay.port}") final int port,
+                       @Value("${glacier.broker.relay.clientLogin}") final String clientLogin,
+                       @Value("${glacier.broker.relay.clientPasscode}") final String clientPasscode,
+                       @Value("${glacier.broker.relay.systemLogin}") final String systemLogin,
+                       @Value("${glacier.broker.relay.systemPasscode}") final String systemPasscode,
+                       @Value("${glacier.broker.relay.virtualHost}") final String virtualHost,
+                       @Value("${glacier.broker.relay.heartbeatSendInterval}") final long heartbeatSendInterval,
+                       @Value("${glacier.broker.relay.heartbeatReceiveInterval}") final long heartbeatReceiveInterval,
+                       @Value("${glacier.broker.relay.maxConnections}") final int maxConnections,
+                       @Value("${glacier.broker.relay.pendingAcquireTimeout}") final long pendingAcquireTimeout) {
+        if (!SIMPLE.equals(mode) && !RELAY.equals(mode)) {
+            throw new IllegalArgumentException("Unknown broker mode " + mode + ". Use simple or relay");
+        }
+        if (RELAY.equals(mode) && maxConnections < 1) {
+            throw new IllegalArgumentException("The relay needs at least one connection to the broker");
+        }
+        this.enabled = RELAY.equals(mode);
+        this.host = host;
+        this.port = port;
+        this.clientLogin = clientLogin;
+        this.clientPasscode = clientPasscode;
+        this.systemLogin = systemLogin;
+        this.systemPasscode = systemPasscode;
+        this.virtualHost = virtualHost;
+        this.heartbeatSendInterval = heartbeatSendInterval;
+        this.heartbeatReceiveInterval = heartbeatReceiveInterval;
+        this.maxConnections = maxConnections;
+        this.pendingAcquireTimeout = Duration.ofMillis(pendingAcquireTimeout);
+    }
+
+    /**
+     * Creates a broker relay in the simple mode, that uses the in-memory broker.
+     *
+     * @return the broker relay
+     */
+    public static BrokerRelay simple() {
+        return new BrokerRelay(SIMPLE, "", 0, "", "", "", "", "", 0, 0, 0, 0);
+    }
+
+    /**
+     * Returns if the messages are relayed to an external broker.
+     *
+     * @return true in the relay mode, false in the simple mode
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables the broker for the given destination prefixes. That is the external broker in the relay mode and the in-memory broker otherwise.
+     *
+     * @param config               the registry of the message broker
+     * @param destinationPrefixes the prefixes of the destinations, that the broker handles
+     */
+    public void configure(final MessageBrokerRegistry config, final String... destinationPrefixes) {
+        if (!enabled) {
+            config.enableSimpleBroker(destinationPrefixes);
+            return;
+        }
+        LOGGER.info("Relaying the messages to the STOMP broker at {}:{} with at most {} connections", host, port, maxConnections);
+        connectionProvider = ConnectionProvider.builder("glacier-broker-relay")
+                .maxConnections(maxConnections)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .build();
+        TcpClient tcpClient = TcpClient.create(connectionProvider).host(host).port(port);
+        config.enableStompBrokerRelay(destinationPrefixes)
+                .setTcpClient(new ReactorNettyTcpClient<>(tcpClient, new StompReactorNettyCodec()))
+                .setClientLogin(clientLogin)
+                .setClientPasscode(clientPasscode)
+                .setSystemLogin(systemLogin)
+                .setSystemPasscode(systemPasscode)
+                .setVirtualHost(virtualHost.isEmpty() ? null : virtualHost)
+                .setSystemHeartbeatSendInterval(heartbeatSendInterval)
+                .setSystemHeartbeatReceiveInterval(heartbeatReceiveInterval)
+                .setUserDestinationBroadcast("/topic/unresolved-user-destination")
+                .setUserRegistryBroadcast("/topic/simp-user-registry");
+    }
+
+    /**
+     * Closes the pool of the connections to the broker.
+     */
+    @PreDestroy
+    public void close() {
+        if (connectionProvider != null) {
+            connectionProvider.dispose();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package de.seism0saurus.glacier.webservice.messaging;
+
+import de.seism0saurus.glacier.mastodon.CircuitBreaker;
+import de.seism0saurus.glacier.mastodon.EmbedCheckClient;
+import de.seism0saurus.glacier.mastodon.EmbedPolicyCache;
+import de.seism0saurus.glacier.mastodon.EventPipeline;
+import de.seism0saurus.glacier.mastodon.LoadabilityCache;
+import de.seism0saurus.glacier.mastodon.OptInIndex;
+import de.seism0saurus.glacier.mastodon.ReconnectSupervisor;
+import de.seism0saurus.glacier.mastodon.SubscriptionManagerImpl;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * The GlacierMeterBinder binds the gauges of the state of the glacier components to the registry of the actuator.
+ * <p>
+ * The gauges read the state, when the metrics are scraped. So the components do not depend on Micrometer.
+ * The events, that pass the components, are counted by the {@link de.seism0saurus.glacier.mastodon.GlacierMetrics GlacierMetrics}.
+ */
+@Component
+public class GlacierMeterBinder implements MeterBinder {
+
+    private final SubscriptionManagerImpl subscriptionManager;
+    private final SubscriptionListener subscriptionListener;
+    private final ResumeBuffer resumeBuffer;
+    private final EventPipeline eventPipeline;
+    private final EmbedPolicyCache embedPolicyCache;
+    private final LoadabilityCache loadabilityCache;
+    private final EmbedCheckClient embedCheckClient;
+    private final ReconnectSupervisor reconnectSupervisor;
+    private final OptInIndex optInIndex;
+
+    /**
+     * The executor of the channel, that sends the messages to the WebSocket sessions.
+     */
+    private final ThreadPoolTaskExecutor clientOutboundChannelExecutor;
+
+    /**
+     * Constructs the binder for the components.
+     *
+     * @param subscriptionManager           the manager of the subscriptions and upstream streams
+     * @param subscriptionListener          the listener with the reconnect deadlines of the disconnected walls
+     * @param resumeBuffer                  the buffer of the messages for the disconnected walls
+     * @param eventPipeline                 the pipeline, that processes the events of the streams
+     * @param embedPolicyCache              the cache for the embed policies of the remote servers
+     * @param loadabilityCache              the cache for the verdicts of the status URLs
+     * @param embedCheckClient              the client for the HEAD requests of the embed pages
+     * @param reconnectSupervisor           the supervisor of the failed streams
+     * @param optInIndex                    the index of the statuses, that mention the glacier account
+     * @param clientOutboundChannelExecutor the executor of the channel to the WebSocket sessions
+     */
+    public GlacierMeterBinder(final SubscriptionManagerImpl subscriptionManager,
+                              final SubscriptionListener subscriptionListener,
+                              final ResumeBuffer resumeBuffer,
+                              final EventPipeline eventPipeline,
+                              final EmbedPolicyCache embedPolicyCache,
+                              final LoadabilityCache loadabilityCache,
+                              final EmbedCheckClient embedCheckClient,
+                              final ReconnectSupervisor reconnectSupervisor,
+                              final OptInIndex optInIndex,
+                              @Qualifier("clientOutboundChannelExecutor") final ThreadPoolTaskExecutor clientOutboundChannelExecutor) {
+        this.subscriptionManager = subscriptionManager;
+        this.subscriptionListener = subscriptionListener;
+        this.resumeBuffer = resumeBuffer;
+        this.eventPipeline = eventPipeline;
+        this.embedPolicyCache = embedPolicyCache;
+        this.loadabilityCache = loadabilityCache;
+        this.embedCheckClient = embedCheckClient;
+        this.reconnectSupervisor = reconnectSupervisor;
+        this.optInIndex = optInIndex;
+        this.clientOutboundChannelExecutor = clientOutboundChannelExecutor;
+    }
+
+    /**
+     * Binds the gauges and counters of the components to the registry.
+     *
+     * @param registry the registry of the actuator
+     */
+    @Override
+    public void bindTo(@NotNull final MeterRegistry registry) {
+        Gauge.builder("glacier.upstream.streams", subscriptionManager, SubscriptionManagerImpl::numberOfUpstreamStreams)
+                .description("Open upstream streams to Mastodon")
+                .register(registry);
+        Gauge.builder("glacier.walls", subscriptionManager, SubscriptionManagerImpl::numberOfWalls)
+                .description("Walls with at least one subscription")
+                .register(registry);
+        Gauge.builder("glacier.subscriptions", subscriptionManager, SubscriptionManagerImpl::numberOfSubscriptions)
+                .description("Subscriptions of all walls. Divided by glacier.walls, it is the average number of hashtags per wall")
+                .register(registry);
+        Gauge.builder("glacier.delivered.walls", subscriptionManager, SubscriptionManagerImpl::numberOfWallsWithDeliveredStatuses)
+                .description("Walls, that remember their delivered statuses")
+                .register(registry);
+
+        Gauge.builder("glacier.disconnects.pending", subscriptionListener, SubscriptionListener::numberOfPendingDisconnects)
+                .description("Disconnected walls, that wait for their reconnect deadline")
+                .register(registry);
+        Gauge.builder("glacier.resume.walls", resumeBuffer, ResumeBuffer::numberOfWalls)
+                .description("Walls with a buffer of messages for a resume")
+                .register(registry);
+        Gauge.builder("glacier.stomp.outbound.queue", clientOutboundChannelExecutor, executor -> executor.getThreadPoolExecutor().getQueue().size())
+                .description("Messages, that wait to be sent to the WebSocket sessions")
+                .register(registry);
+        Gauge.builder("glacier.stomp.outbound.active", clientOutboundChannelExecutor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("Threads, that send messages to the WebSocket sessions")
+                .register(registry);
+
+        Gauge.builder("glacier.pipeline.queued", eventPipeline, EventPipeline::queued)
+                .description("Events, that wait in the lanes of the streams")
+                .register(registry);
+        FunctionCounter.builder("glacier.pipeline.processed", eventPipeline, EventPipeline::processed)
+                .description("Processed events of the streams")
+                .register(registry);
+        FunctionCounter.builder("glacier.pipeline.dropped", eventPipeline, EventPipeline::dropped)
+                .description("Events, that were dropped because their lane was full")
+                .register(registry);
+
+        FunctionCounter.builder("glacier.embed.cache.hits", embedPolicyCache, EmbedPolicyCache::hits)
+                .description("Verdicts, that were taken from the cached embed policies")
+                .register(registry);
+        FunctionCounter.builder("glacier.embed.cache.probes", embedPolicyCache, EmbedPolicyCache::probes)
+                .description("Verdicts, that needed a HEAD request")
+                .register(registry);
+        FunctionCounter.builder("glacier.embed.cache.revalidations", embedPolicyCache, EmbedPolicyCache::revalidations)
+                .description("Cached embed policies, that were checked again")
+                .register(registry);
+        Gauge.builder("glacier.embed.cache.size", embedPolicyCache, EmbedPolicyCache::size)
+                .description("Cached embed policies")
+                .register(registry);
+        FunctionCounter.builder("glacier.loadability.cache.hits", loadabilityCache, LoadabilityCache::hits)
+                .description("Verdicts of status URLs, that were taken from the cache")
+                .register(registry);
+        FunctionCounter.builder("glacier.loadability.cache.misses", loadabilityCache, LoadabilityCache::misses)
+                .description("Status URLs, that needed a check")
+                .register(registry);
+        FunctionCounter.builder("glacier.loadability.cache.coalesced", loadabilityCache, LoadabilityCache::coalesced)
+                .description("Lookups, that awaited the running check for the same status URL")
+                .register(registry);
+        FunctionCounter.builder("glacier.loadability.cache.evictions", loadabilityCache, LoadabilityCache::evictions)
+                .description("Verdicts, that expired or were removed from the full cache")
+                .register(registry);
+        Gauge.builder("glacier.loadability.cache.size", loadabilityCache, LoadabilityCache::size)
+                .description("Cached verdicts of status URLs")
+                .register(registry);
+        Gauge.builder("glacier.embed.requests", embedCheckClient, EmbedCheckClient::numberOfRequests)
+                .description("HEAD requests, that are running or queued")
+                .register(registry);
+
+        Gauge.builder("glacier.opt_in.statuses", optInIndex, OptInIndex::size)
+                .description("Statuses, that mention the glacier account, in the window of the index")
+                .register(registry);
+        FunctionCounter.builder("glacier.opt_in.parked", optInIndex, OptInIndex::parked)
+                .description("Created statuses, that waited for their mention")
+                .register(registry);
+        FunctionCounter.builder("glacier.opt_in.joined", optInIndex, OptInIndex::joined)
+                .description("Waiting statuses, whose mention arrived in the grace period")
+                .register(registry);
+
+        Gauge.builder("glacier.upstream.reconnects.pending", reconnectSupervisor, ReconnectSupervisor::pendingReconnects)
+                .description("Failed streams, that wait for their reconnect")
+                .register(registry);
+        for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+            Gauge.builder("glacier.upstream.breaker", reconnectSupervisor, supervisor -> supervisor.instanceState() == state ? 1 : 0)
+                    .description("1 for the current state of the circuit breaker of the Mastodon instance")
+                    .tag("state", state.name().toLowerCase(Locale.ROOT))
+                    .register(registry);
+        }
+    }
+}
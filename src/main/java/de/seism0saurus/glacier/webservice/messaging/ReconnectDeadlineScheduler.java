@@ -0,0 +1,211 @@
+package de.seism0saurus.glacier.webservice.messaging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ReconnectDeadlineScheduler runs an action for a key, if the deadline of the key expires before it is cancelled.
+ * <p>
+ * It is a hashed timing wheel: the deadlines are spread over a fixed number of buckets by the tick, in which they expire.
+ * Scheduling and cancelling are O(1) operations on concurrent maps, so thousands of walls can disconnect at once
+ * without a thread or task per wall. A single ticker advances the wheel and runs the expired actions.
+ * The time is taken from an injectable {@link Clock Clock}, so that tests can advance the wheel by hand.
+ */
+public class ReconnectDeadlineScheduler implements AutoCloseable {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(ReconnectDeadlineScheduler.class);
+
+    private final Clock clock;
+    private final long tickMillis;
+
+    /**
+     * The buckets of the wheel. A deadline is stored in the bucket of the tick, in which it expires.
+     */
+    private final Set<Deadline>[] wheel;
+
+    /**
+     * The pending deadlines by their key.
+     */
+    private final Map<String, Deadline> deadlines = new ConcurrentHashMap<>();
+
+    /**
+     * The last tick, that was processed.
+     */
+    private volatile long lastTick;
+
+    /**
+     * The ticker, if the wheel advances on its own. Null, if the wheel is advanced by hand.
+     */
+    private final ScheduledExecutorService ticker;
+
+    /**
+     * Constructs a scheduler, that advances itself with a daemon thread every tick.
+     *
+     * @param tick      the resolution of the deadlines
+     * @param wheelSize the number of buckets
+     * @return the started scheduler
+     */
+    public static ReconnectDeadlineScheduler started(final Duration tick, final int wheelSize) {
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("glacier-reconnect-deadlines").daemon().factory());
+        ReconnectDeadlineScheduler scheduler = new ReconnectDeadlineScheduler(Clock.systemUTC(), tick, wheelSize, ticker);
+        ticker.scheduleAtFixedRate(scheduler::advance, tick.toMillis(), tick.toMillis(), TimeUnit.MILLISECONDS);
+        return scheduler;
+    }
+
+    /**
+     * Constructs a scheduler, that is advanced by hand with {@link #advance() advance}.
+     *
+     * @param clock     the clock for the deadlines
+     * @param tick      the resolution of the deadlines
+     * @param wheelSize the number of buckets
+     */
+    ReconnectDeadlineScheduler(final Clock clock, final Duration tick, final int wheelSize) {
+        this(clock, tick, wheelSize, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ReconnectDeadlineScheduler(final Clock clock, final Duration tick, final int wheelSize, final ScheduledExecutorService ticker) {
+        if (tick.toMillis() < 1 || wheelSize < 1) {
+            throw new IllegalArgumentException("The wheel needs a tick of at least one millisecond and at least one bucket");
+        }
+        this.clock = clock;
+        this.tickMillis = tick.toMillis();
+        this.wheel = new Set[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            this.wheel[i] = ConcurrentHashMap.newKeySet();
+        }
+        this.lastTick = clock.millis() / tickMillis;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Schedules the action for the key. A pending deadline of the key is replaced.
+     *
+     * @param key    the key, e.g. the principal
+     * @param delay  the time until the deadline
+     * @param action the action, that runs when the deadline expires
+     */
+    public void schedule(final String key, final Duration delay, final Runnable action) {
+        long expiresAt = clock.millis() + delay.toMillis();
+        // Rounded up, so that a deadline never expires too early. A deadline in a processed tick goes to the next tick.
+        long tick = Math.max(Math.ceilDiv(expiresAt, tickMillis), lastTick + 1);
+        Deadline deadline = new Deadline(key, expiresAt, bucket(tick), action);
+        Deadline previous = deadlines.put(key, deadline);
+        if (previous != null) {
+            previous.bucket.remove(previous);
+        }
+        deadline.bucket.add(deadline);
+    }
+
+    /**
+     * Cancels the pending deadline of the key.
+     *
+     * @param key the key, e.g. the principal
+     * @return true if a deadline was cancelled, false if there was none
+     */
+    public boolean cancel(final String key) {
+        Deadline deadline = deadlines.remove(key);
+        if (deadline == null) {
+            return false;
+        }
+        deadline.bucket.remove(deadline);
+        return true;
+    }
+
+    /**
+     * Checks if the key has a pending deadline.
+     *
+     * @param key the key, e.g. the principal
+     * @return true if there is a pending deadline
+     */
+    public boolean isScheduled(final String key) {
+        return deadlines.containsKey(key);
+    }
+
+    /**
+     * Returns the number of pending deadlines.
+     *
+     * @return the number of pending deadlines
+     */
+    public int pending() {
+        return deadlines.size();
+    }
+
+    /**
+     * Processes all ticks up to now and runs the actions of the expired deadlines.
+     * A deadline, that is cancelled concurrently, is either cancelled or expired, but never both.
+     */
+    public synchronized void advance() {
+        long now = clock.millis();
+        long nowTick = now / tickMillis;
+        // After a full turn of the wheel, every bucket was visited
+        long from = Math.max(lastTick + 1, nowTick - wheel.length + 1);
+        for (long tick = from; tick <= nowTick; tick++) {
+            Set<Deadline> bucket = bucket(tick);
+            for (Deadline deadline : bucket) {
+                if (deadline.expiresAt <= now) {
+                    bucket.remove(deadline);
+                    if (deadlines.remove(deadline.key, deadline)) {
+                        expire(deadline);
+                    }
+                }
+            }
+        }
+        lastTick = Math.max(lastTick, nowTick);
+    }
+
+    /**
+     * Stops the ticker. The pending deadlines do not expire anymore.
+     */
+    @Override
+    public void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    private void expire(final Deadline deadline) {
+        try {
+            deadline.action.run();
+        } catch (RuntimeException e) {
+            LOGGER.error("The action for the expired deadline of {} failed", deadline.key, e);
+        }
+    }
+
+    private Set<Deadline> bucket(final long tick) {
+        return wheel[(int) Math.floorMod(tick, (long) wheel.length)];
+    }
+
+    /**
+     * A pending deadline. It keeps the identity equality, so that a replaced deadline is not mixed up with its successor.
+     */
+    private static final class Deadline {
+
+        private final String key;
+        private final long expiresAt;
+        private final Set<Deadline> bucket;
+        private final Runnable action;
+
+        private Deadline(final String key, final long expiresAt, final Set<Deadline> bucket, final Runnable action) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+            this.bucket = bucket;
+            this.action = action;
+        }
+    }
+}
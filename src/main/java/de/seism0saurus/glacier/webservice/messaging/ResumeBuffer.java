@@ -0,0 +1,370 @@
+package de.seism0saurus.glacier.webservice.messaging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The ResumeBuffer numbers the messages to the destinations of a wall and keeps the last ones,
+ * so that a wall can resume exactly where it lost its connection.
+ * <p>
+ * Every message to {@code /topic/hashtags/{principal}/...} gets the next sequence number of the principal in the STOMP header {@value SEQUENCE_HEADER}.
+ * The number is prefixed with the origin of this buffer, a random id of the node, like {@code 3f9a1c2e:17}.
+ * A resume header of another node or of an earlier run of this node does not match any buffered message and resumes nothing.
+ * The last messages of each principal are kept in a bounded buffer. It also covers the messages, that were sent shortly before a lost connection was noticed.
+ * While a wall is disconnected, the subscriptions keep running for the reconnect timeout of the {@link SubscriptionListener SubscriptionListener},
+ * and their messages are only buffered.
+ * <p>
+ * A reconnecting wall sends the last sequence number it received in the STOMP header {@value RESUME_HEADER} of its CONNECT frame.
+ * Whenever the broker has registered one of its subscriptions again, the buffered messages for that destination with a higher sequence number are sent.
+ * They are sent only for the first subscription to each destination after the CONNECT, so that a later subscription does not get them twice.
+ * They are sent straight to the session of the wall and not through the broker. The relay forwards a subscription asynchronously
+ * on the connection of the session, so a replay through the broker could arrive before the subscription and be lost.
+ * If the wall was away for longer than the buffer reaches back, the oldest messages are missing.
+ * <p>
+ * The messages are numbered on their way to the in-memory broker, so that the messages of a disconnected wall are buffered, too.
+ * In the relay mode the node, that sends a message, is not the node of the session, and the broker does not deliver the messages
+ * of a disconnected wall to any node. The node of the session could not buffer them, so the resume is {@link #disable() disabled} in the relay mode.
+ */
+@Component
+public class ResumeBuffer {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(ResumeBuffer.class);
+
+    /**
+     * The STOMP header with the sequence number of a message.
+     */
+    public static final String SEQUENCE_HEADER = "seq";
+
+    /**
+     * The STOMP header of the CONNECT frame with the last sequence number, the wall received.
+     */
+    public static final String RESUME_HEADER = "resume";
+
+    /**
+     * The prefix of the destinations of the walls. The principal follows the prefix.
+     */
+    private static final String WALL_PREFIX = "/topic/hashtags/";
+
+    /**
+     * The maximal number of buffered messages per principal.
+     */
+    private final int capacity;
+
+    /**
+     * The random id of this node, that prefixes the sequence numbers.
+     */
+    private final String origin;
+
+    /**
+     * The sequences and buffers of the principals.
+     */
+    private final Map<String, Wall> walls = new ConcurrentHashMap<>();
+
+    /**
+     * False, if the messages to the walls are not numbered, e.g. in the relay mode.
+     */
+    private volatile boolean enabled = true;
+
+    /**
+     * Constructs an empty buffer.
+     *
+     * @param capacity the maximal number of buffered messages per principal
+     */
+    @Autowired
+    public ResumeBuffer(@Value("${glacier.resume.capacity}") final int capacity) {
+        this(capacity, HexFormat.of().toHexDigits(ThreadLocalRandom.current().nextInt()));
+    }
+
+    /**
+     * Constructs an empty buffer with a given origin.
+     *
+     * @param capacity the maximal number of buffered messages per principal
+     * @param origin   the id of this node, that prefixes the sequence numbers
+     */
+    ResumeBuffer(final int capacity, final String origin) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The buffer needs a capacity of at least one");
+        }
+        this.capacity = capacity;
+        this.origin = origin;
+        LOGGER.info("ResumeBuffer with {} messages per wall and origin {} created", capacity, origin);
+    }
+
+    /**
+     * Numbers and buffers a message to the destination of a wall. Other messages are returned unchanged.
+     *
+     * @param message the message on its way to the broker
+     * @return the message with the sequence header
+     */
+    public Message<?> sequence(final Message<?> message) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        String principal = principalOf(accessor.getDestination());
+        if (principal == null || accessor.getMessageType() != SimpMessageType.MESSAGE || accessor.getFirstNativeHeader(SEQUENCE_HEADER) != null) {
+            return message;
+        }
+        Wall wall = walls.computeIfAbsent(principal, p -> new Wall());
+        synchronized (wall) {
+            accessor.setNativeHeader(SEQUENCE_HEADER, origin + ':' + ++wall.sequence);
+            Message<?> sequenced = MessageBuilder.createMessage(message.getPayload(), accessor.getMessageHeaders());
+            if (wall.messages.size() == capacity) {
+                wall.messages.removeFirst();
+            }
+            wall.messages.addLast(sequenced);
+            if (!wall.connected) {
+                wall.undelivered++;
+            }
+            return sequenced;
+        }
+    }
+
+    /**
+     * Turns the resume off, because the messages to the walls are not numbered, e.g. in the relay mode.
+     * The connected walls do not get a buffer anymore.
+     */
+    public void disable() {
+        enabled = false;
+        walls.clear();
+        LOGGER.info("Resume is off. The walls do not get the messages, that they missed while they were disconnected");
+    }
+
+    /**
+     * Marks a principal as connected. Nothing happens, if the resume is {@link #disable() disabled}.
+     *
+     * @param principal    the principal aka wallId
+     * @param resumeHeader the last sequence number the wall received, or null for a wall without history
+     */
+    public void connected(final String principal, final String resumeHeader) {
+        if (!enabled) {
+            return;
+        }
+        Long resume = resumeOf(resumeHeader);
+        Wall wall = walls.computeIfAbsent(principal, p -> new Wall());
+        synchronized (wall) {
+            wall.connected = true;
+            wall.resume = resume;
+            wall.replayed.clear();
+            if (resume != null) {
+                LOGGER.info("Principal {} resumes after message {}. {} messages were buffered while it was disconnected", principal, resume, wall.undelivered);
+                if (!wall.messages.isEmpty() && sequenceOf(wall.messages.getFirst()) > resume + 1) {
+                    LOGGER.warn("Principal {} was away too long. The messages {} to {} are missing", principal, resume + 1, sequenceOf(wall.messages.getFirst()) - 1);
+                }
+            }
+            wall.undelivered = 0;
+        }
+    }
+
+    /**
+     * Marks a principal as disconnected. Its messages are still buffered.
+     *
+     * @param principal the principal aka wallId
+     */
+    public void disconnected(final String principal) {
+        Wall wall = walls.get(principal);
+        if (wall != null) {
+            synchronized (wall) {
+                wall.connected = false;
+            }
+        }
+    }
+
+    /**
+     * Drops the sequence and buffer of a principal, that did not come back.
+     *
+     * @param principal the principal aka wallId
+     */
+    public void forget(final String principal) {
+        walls.remove(principal);
+    }
+
+    /**
+     * Returns the buffered messages for a destination, that the principal missed according to its resume header.
+     * The messages of a destination are only returned once per connection. A later subscription to the same destination,
+     * e.g. after the wall removed and added a hashtag, gets the new messages from the broker like any other subscription.
+     *
+     * @param principal   the principal aka wallId
+     * @param destination the subscribed destination
+     * @return the missed messages, the oldest first
+     */
+    public List<Message<?>> missed(final String principal, final String destination) {
+        Wall wall = walls.get(principal);
+        if (wall == null) {
+            return List.of();
+        }
+        synchronized (wall) {
+            if (wall.resume == null || !wall.replayed.add(destination)) {
+                return List.of();
+            }
+            long resume = wall.resume;
+            return wall.messages.stream()
+                    .filter(message -> sequenceOf(message) > resume)
+                    .filter(message -> destination.equals(SimpMessageHeaderAccessor.getDestination(message.getHeaders())))
+                    .toList();
+        }
+    }
+
+    /**
+     * Returns the number of buffered messages of a principal.
+     *
+     * @param principal the principal aka wallId
+     * @return the number of buffered messages
+     */
+    public int numberOfBufferedMessages(final String principal) {
+        Wall wall = walls.get(principal);
+        if (wall == null) {
+            return 0;
+        }
+        synchronized (wall) {
+            return wall.messages.size();
+        }
+    }
+
+    /**
+     * Returns the number of walls with a buffer.
+     *
+     * @return the number of walls
+     */
+    public int numberOfWalls() {
+        return walls.size();
+    }
+
+    /**
+     * Returns the interceptor, that numbers and buffers the messages to the walls.
+     * It belongs on the broker channel of the in-memory broker.
+     *
+     * @return the interceptor
+     */
+    public ChannelInterceptor sequencingInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(final Message<?> message, final MessageChannel channel) {
+                return sequence(message);
+            }
+        };
+    }
+
+    /**
+     * Returns the interceptor for the client inbound channel, that sends the missed messages of a destination
+     * to the session of a reconnected wall, as soon as the broker has handled its subscription.
+     *
+     * @return the interceptor
+     */
+    public ExecutorChannelInterceptor replayInterceptor() {
+        return new ExecutorChannelInterceptor() {
+            @Override
+            public void afterMessageHandled(final Message<?> message, final MessageChannel channel, final MessageHandler handler, final Exception ex) {
+                if (ex != null || !(handler instanceof AbstractBrokerMessageHandler)) {
+                    return;
+                }
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+                String principal = principalOf(accessor.getDestination());
+                if (accessor.getMessageType() != SimpMessageType.SUBSCRIBE || principal == null
+                        || accessor.getUser() == null || !principal.equals(accessor.getUser().getName())) {
+                    return;
+                }
+                List<Message<?>> missed = missed(principal, accessor.getDestination());
+                if (!missed.isEmpty()) {
+                    LOGGER.info("Sending {} missed messages to {}", missed.size(), accessor.getDestination());
+                    MessageChannel clientOutboundChannel = ((AbstractBrokerMessageHandler) handler).getClientOutboundChannel();
+                    missed.forEach(buffered -> clientOutboundChannel.send(toSession(buffered, accessor.getSessionId(), accessor.getSubscriptionId())));
+                }
+            }
+        };
+    }
+
+    /**
+     * Extracts the principal from a destination of a wall.
+     *
+     * @param destination the destination
+     * @return the principal or null, if it is not a destination of a wall
+     */
+    static String principalOf(final String destination) {
+        if (destination == null || !destination.startsWith(WALL_PREFIX)) {
+            return null;
+        }
+        int end = destination.indexOf('/', WALL_PREFIX.length());
+        return end <= WALL_PREFIX.length() ? null : destination.substring(WALL_PREFIX.length(), end);
+    }
+
+    /**
+     * Reads the number of a sequence header of this node.
+     *
+     * @param resumeHeader the resume header of a CONNECT frame
+     * @return the sequence number or null, if the header is missing, invalid or of another node
+     */
+    private Long resumeOf(final String resumeHeader) {
+        if (resumeHeader == null) {
+            return null;
+        }
+        int separator = resumeHeader.lastIndexOf(':');
+        if (separator < 0 || !origin.equals(resumeHeader.substring(0, separator))) {
+            LOGGER.info("Resume header {} is not of this node. Nothing is resumed", resumeHeader);
+            return null;
+        }
+        try {
+            return Long.parseLong(resumeHeader.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Ignoring invalid resume header {}", resumeHeader);
+            return null;
+        }
+    }
+
+    /**
+     * Addresses a buffered message to one subscription of a session, like the broker does for the messages of a destination.
+     *
+     * @param message        the buffered message
+     * @param sessionId      the session of the wall
+     * @param subscriptionId the subscription of the session
+     * @return the message for the client outbound channel
+     */
+    static Message<?> toSession(final Message<?> message, final String sessionId, final String subscriptionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.copyHeadersIfAbsent(message.getHeaders());
+        return MessageBuilder.createMessage(message.getPayload(), accessor.getMessageHeaders());
+    }
+
+    private static long sequenceOf(final Message<?> message) {
+        String sequence = SimpMessageHeaderAccessor.wrap(message).getFirstNativeHeader(SEQUENCE_HEADER);
+        return Long.parseLong(sequence.substring(sequence.lastIndexOf(':') + 1));
+    }
+
+    /**
+     * The sequence and the buffered messages of one principal. Guarded by its own monitor.
+     */
+    private static class Wall {
+        private final ArrayDeque<Message<?>> messages = new ArrayDeque<>();
+        private long sequence;
+        private boolean connected = true;
+        private long undelivered;
+        private Long resume;
+        private final Set<String> replayed = new HashSet<>();
+    }
+}
@@ -1,20 +1,19 @@
 package de.seism0saurus.glacier.webservice.messaging;
 
 import de.seism0saurus.glacier.mastodon.SubscriptionManager;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Service;
 import org.springframework.web.socket.messaging.SessionConnectedEvent;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.time.Duration;
 
 /**
  * SubscriptionListener is responsible for handling WebSocket-related events
@@ -31,6 +30,7 @@ import java.util.concurrent.Future;
  * The primary responsibilities of SubscriptionListener include:
  * - Managing subscription cleanup in disconnect scenarios.
  * - Monitoring and logging client connection and disconnection events.
+ * - Telling the {@link ResumeBuffer ResumeBuffer}, which walls are away and where a reconnected wall resumes.
  */
 @Service
 public class SubscriptionListener {
@@ -44,19 +44,20 @@ public class SubscriptionListener {
     private final static Logger LOGGER = LoggerFactory.getLogger(SubscriptionListener.class);
 
     /**
-     * Represents the time duration, in milliseconds, to wait before an operation times out.
-     * This value is immutable and must be set during initialization.
+     * The resolution of the reconnect deadlines.
+     */
+    private static final Duration TICK = Duration.ofMillis(100);
+
+    /**
+     * The number of buckets of the timing wheel. With the tick of 100 milliseconds, one turn of the wheel takes about 51 seconds.
      */
-    private final long timeout;
+    private static final int WHEEL_SIZE = 512;
 
     /**
-     * An ExecutorService instance that utilizes the virtual thread-per-task executor.
-     * It is used to manage and execute tasks asynchronously and efficiently, leveraging virtual threads.
-     * This implementation facilitates lightweight concurrency and scalability for handling multiple tasks.
-     * The executor provides improved performance and resource utilization for threading operations.
-     * It is declared as final to ensure immutability and thread safety in its usage.
+     * Represents the time duration to wait before an operation times out.
+     * This value is immutable and must be set during initialization.
      */
-    private final static ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor();
+    private final Duration timeout;
 
     /**
      * The private final variable subscriptionManager is an instance of the SubscriptionManager interface.
@@ -78,21 +79,58 @@ public class SubscriptionListener {
     private final SubscriptionManager subscriptionManager;
 
     /**
-     * A map used to store timers for disconnect events.
-     * <p>
-     * The keys are String values representing the unique identifiers for the disconnect events,
-     * and the values are Future objects that represent the timers associated with the events.
+     * The scheduler for the reconnect deadlines of the disconnected principals.
+     * One timing wheel serves all principals, so that a disconnect costs neither a thread nor a task.
      */
-    private final Map<String, Future<?>> disconnectTimer = new HashMap<>();
+    private final ReconnectDeadlineScheduler disconnectTimer;
+
+    /**
+     * The buffer of the messages, that a wall may miss while it is disconnected.
+     */
+    private final ResumeBuffer resumeBuffer;
 
     /**
      * Constructs a new instance of SubscriptionListener with the provided SubscriptionManager.
      *
      * @param subscriptionManager the SubscriptionManager to be used for managing subscriptions
+     * @param resumeBuffer the buffer of the messages, that a disconnected wall misses
+     * @param timeout the time in milliseconds, a client has to reconnect
+     */
+    @Autowired
+    public SubscriptionListener(final SubscriptionManager subscriptionManager, final ResumeBuffer resumeBuffer, @Value("${glacier.timeouts.client_reconnect}") final long timeout) {
+        this(subscriptionManager, resumeBuffer, timeout, ReconnectDeadlineScheduler.started(TICK, WHEEL_SIZE));
+    }
+
+    /**
+     * Constructs a new instance of SubscriptionListener with the given scheduler for the reconnect deadlines.
+     *
+     * @param subscriptionManager the SubscriptionManager to be used for managing subscriptions
+     * @param resumeBuffer the buffer of the messages, that a disconnected wall misses
+     * @param timeout the time in milliseconds, a client has to reconnect
+     * @param disconnectTimer the scheduler for the reconnect deadlines
      */
-    public SubscriptionListener(final SubscriptionManager subscriptionManager, @Value("${glacier.timeouts.client_reconnect}") final long timeout) {
+    SubscriptionListener(final SubscriptionManager subscriptionManager, final ResumeBuffer resumeBuffer, final long timeout, final ReconnectDeadlineScheduler disconnectTimer) {
         this.subscriptionManager = subscriptionManager;
-        this.timeout = timeout;
+        this.resumeBuffer = resumeBuffer;
+        this.timeout = Duration.ofMillis(timeout);
+        this.disconnectTimer = disconnectTimer;
+    }
+
+    /**
+     * Stops the scheduler of the reconnect deadlines.
+     */
+    @PreDestroy
+    public void shutdown() {
+        disconnectTimer.close();
+    }
+
+    /**
+     * Returns the number of disconnected principals, that are waiting for their reconnect deadline.
+     *
+     * @return the number of pending reconnect deadlines
+     */
+    public int numberOfPendingDisconnects() {
+        return disconnectTimer.pending();
     }
 
     /**
@@ -101,7 +139,7 @@ public class SubscriptionListener {
      * @return true if a disconnect timer is currently running for the specified principal, false otherwise
      */
     protected boolean hasRunningDisconnectTimer() {
-        return this.disconnectTimer.containsKey("user1");
+        return this.disconnectTimer.isScheduled("user1");
     }
 
     /**
@@ -110,7 +148,7 @@ public class SubscriptionListener {
      * @return {@code true} if there are active disconnect timers, {@code false} otherwise.
      */
     protected boolean hasRunningDisconnectTimers() {
-        return !this.disconnectTimer.isEmpty();
+        return this.disconnectTimer.pending() > 0;
     }
 
     /**
@@ -119,6 +157,7 @@ public class SubscriptionListener {
      * When a client connects, the timers are checked.
      * If the client was connected shortly before and lost the connection temporarily,
      * the timer is stopped.
+     * The resume header of the CONNECT frame tells the {@link ResumeBuffer ResumeBuffer}, which messages the client missed.
      *
      * @param event The SessionConnectedEvent object containing the event details.
      */
@@ -130,11 +169,23 @@ public class SubscriptionListener {
             return;
         }
         LOGGER.info("Client with session {} and username {} connected", headerAccessor.getSessionId(), event.getUser().getName());
-        Future<?> future = this.disconnectTimer.get(event.getUser().getName());
-        if (future != null) {
-            future.cancel(true);
+        if (this.disconnectTimer.cancel(event.getUser().getName())) {
+            LOGGER.info("Timeout for principal {} was canceled", event.getUser().getName());
+        }
+        this.resumeBuffer.connected(event.getUser().getName(), resumeOf(headerAccessor));
+    }
+
+    /**
+     * Reads the resume header of the CONNECT frame.
+     *
+     * @param headerAccessor The headers of the CONNECT_ACK message, that contain the CONNECT message.
+     * @return the last received sequence number or null, if the client sent none.
+     */
+    private static String resumeOf(final SimpMessageHeaderAccessor headerAccessor) {
+        if (!(headerAccessor.getHeader(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER) instanceof Message<?> connectMessage)) {
+            return null;
         }
-        this.disconnectTimer.remove(event.getUser().getName());
+        return SimpMessageHeaderAccessor.wrap(connectMessage).getFirstNativeHeader(ResumeBuffer.RESUME_HEADER);
     }
 
     /**
@@ -143,6 +194,7 @@ public class SubscriptionListener {
      * To prevent a loss of subscriptions a timer is started on disconnect.
      * If the client does not come back after the defined time (5 minutes) the subscriptions are terminated.
      * Otherwise, the timer is stopped and the old subscriptions can be accessed through the known endpoints.
+     * Until then, the messages of the subscriptions are buffered for the client.
      *
      * @param event The SessionDisconnectEvent object containing the event details.
      */
@@ -154,18 +206,12 @@ public class SubscriptionListener {
             return;
         }
         LOGGER.info("Client with session {} and username {} disconnected. Starting timer to wait for reconnection", headerAccessor.getSessionId(), event.getUser().getName());
-        Future<?> future = executorService.submit(() -> {
-            LOGGER.info("Timer for principal {} started", event.getUser().getName());
-            try {
-                Thread.sleep(timeout);
-            } catch (InterruptedException e) {
-                LOGGER.info("Timeout for principal {} was canceled", event.getUser().getName());
-                return;
-            }
-            LOGGER.info("Connection for principal {} timed out. Terminating all subscriptions.", event.getUser().getName());
-            this.subscriptionManager.terminateAllSubscriptions(event.getUser().getName());
-            this.disconnectTimer.remove(event.getUser().getName());
+        String principal = event.getUser().getName();
+        this.resumeBuffer.disconnected(principal);
+        this.disconnectTimer.schedule(principal, timeout, () -> {
+            LOGGER.info("Connection for principal {} timed out. Terminating all subscriptions.", principal);
+            this.subscriptionManager.terminateAllSubscriptions(principal);
+            this.resumeBuffer.forget(principal);
         });
-        this.disconnectTimer.put(event.getUser().getName(), future);
     }
 }
@@ -0,0 +1,107 @@
+package de.seism0saurus.glacier.webservice.messaging;
+
+import de.seism0saurus.glacier.mastodon.DeliveredStatuses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+/**
+ * The WallDeduplication drops the second copy of a created status on its way to the session of a wall.
+ * <p>
+ * In a cluster, the hashtags of a wall may be streamed by different members. Every member only knows, which statuses it sent,
+ * so a status tagged with two hashtags of different owners is sent twice. The owners add the id of a created status
+ * in the STOMP header {@value CREATED_HEADER}. In the relay mode the messages from the broker to the sessions of this member pass this interceptor,
+ * which remembers the created statuses per session in {@link DeliveredStatuses DeliveredStatuses} and drops the copies.
+ * With the in-memory broker a single member sends all messages and the streams already send a status only once per wall.
+ */
+@Component
+public class WallDeduplication {
+
+    /**
+     * The {@link Logger Logger} for this class.
+     * The logger is used for logging as configured for the application.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(WallDeduplication.class);
+
+    /**
+     * The STOMP header with the id of a created status.
+     */
+    public static final String CREATED_HEADER = "created";
+
+    /**
+     * The created statuses, that were sent to each session.
+     */
+    private final DeliveredStatuses deliveredStatuses;
+
+    /**
+     * Constructs the deduplication without any sessions.
+     *
+     * @param window the number of created statuses, that are remembered per session
+     */
+    public WallDeduplication(@Value("${glacier.dedup.window}") final int window) {
+        this.deliveredStatuses = new DeliveredStatuses(window);
+    }
+
+    /**
+     * Drops a created status, that the session of a wall already got. Other messages are returned unchanged.
+     *
+     * @param message the message on its way to a session
+     * @return the message or null, if it is a copy
+     */
+    public Message<?> deduplicate(final Message<?> message) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        String statusId = accessor.getFirstNativeHeader(CREATED_HEADER);
+        if (statusId == null || accessor.getMessageType() != SimpMessageType.MESSAGE || accessor.getSessionId() == null
+                || ResumeBuffer.principalOf(accessor.getDestination()) == null) {
+            return message;
+        }
+        if (deliveredStatuses.deliver(accessor.getSessionId(), statusId)) {
+            return message;
+        }
+        LOGGER.debug("Session {} already got status {}. Dropping the copy", accessor.getSessionId(), statusId);
+        return null;
+    }
+
+    /**
+     * Forgets the statuses of a closed session.
+     *
+     * @param event the event of the closed session
+     */
+    @EventListener
+    public void onDisconnectEvent(final SessionDisconnectEvent event) {
+        deliveredStatuses.forget(event.getSessionId());
+    }
+
+    /**
+     * Returns the number of sessions, that remember their created statuses.
+     *
+     * @return the number of sessions
+     */
+    public int numberOfSessions() {
+        return deliveredStatuses.numberOfWalls();
+    }
+
+    /**
+     * Returns the interceptor, that drops the copies of created statuses. It belongs on the client outbound channel in the relay mode.
+     *
+     * @return the interceptor
+     */
+    public ChannelInterceptor deduplicatingInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(final Message<?> message, final MessageChannel channel) {
+                return deduplicate(message);
+            }
+        };
+    }
+}
@@ -2,6 +2,7 @@ package de.seism0saurus.glacier.webservice.messaging;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
@@ -16,21 +17,77 @@ public class WebSocketConfiguration implements WebSocketMessageBrokerConfigurer
 
     private final String glacierDomain;
 
-    public WebSocketConfiguration(@Value(value = "${glacier.domain}") String glacierDomain){
+    /**
+     * Numbers the messages to the walls and replays the missed ones after a reconnect.
+     */
+    private final ResumeBuffer resumeBuffer;
+
+    /**
+     * The in-memory broker or the relay to an external STOMP broker.
+     */
+    private final BrokerRelay brokerRelay;
+
+    /**
+     * Drops the copies of created statuses, that the owners of different hashtags of a wall send in a cluster.
+     */
+    private final WallDeduplication wallDeduplication;
+
+    public WebSocketConfiguration(@Value(value = "${glacier.domain}") String glacierDomain, ResumeBuffer resumeBuffer, BrokerRelay brokerRelay, WallDeduplication wallDeduplication){
         this.glacierDomain = glacierDomain;
+        this.resumeBuffer = resumeBuffer;
+        this.brokerRelay = brokerRelay;
+        this.wallDeduplication = wallDeduplication;
     }
     /**
      * Configures the message broker for WebSocket communication.
      * <p>
      * The application is called glacier.
      * The destination prefix ist topic.
+     * The {@link BrokerRelay BrokerRelay} enables the in-memory broker or relays the messages to an external STOMP broker.
+     * With the in-memory broker, the messages to the broker pass the {@link ResumeBuffer ResumeBuffer}, that numbers and buffers the messages to the walls.
+     * In the relay mode the broker drops the messages of a disconnected wall, so the resume is disabled.
      *
      * @param config the MessageBrokerRegistry object used for configuring the message broker
      */
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic");
+        brokerRelay.configure(config, "/topic");
         config.setApplicationDestinationPrefixes("/glacier");
+        if (brokerRelay.isEnabled()) {
+            resumeBuffer.disable();
+        } else {
+            config.configureBrokerChannel().interceptors(resumeBuffer.sequencingInterceptor());
+        }
+    }
+
+    /**
+     * Configures the channel for the messages from the clients.
+     * <p>
+     * After the broker registered a subscription of a reconnected wall, the {@link ResumeBuffer ResumeBuffer} sends the missed messages.
+     * In the relay mode there are no missed messages to send.
+     *
+     * @param registration the registration of the client inbound channel
+     */
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        if (!brokerRelay.isEnabled()) {
+            registration.interceptors(resumeBuffer.replayInterceptor());
+        }
+    }
+
+    /**
+     * Configures the channel for the messages to the clients.
+     * <p>
+     * In the relay mode, the messages from the broker to the sessions of this node pass the {@link WallDeduplication WallDeduplication},
+     * that drops the copies of created statuses, that several nodes sent to the wall.
+     *
+     * @param registration the registration of the client outbound channel
+     */
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        if (brokerRelay.isEnabled()) {
+            registration.interceptors(wallDeduplication.deduplicatingInterceptor());
+        }
     }
 
     /**
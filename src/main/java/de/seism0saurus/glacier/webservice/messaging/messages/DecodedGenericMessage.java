@@ -0,0 +1,35 @@
+package de.seism0saurus.glacier.webservice.messaging.messages;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * The DecodedGenericMessage class holds the few fields of a generic streaming message, that glacier needs.
+ * <p>
+ * It is the flat result of a single pass over the message and its payload. The rest of the status is skipped.
+ * <p>
+ * Fields:
+ * - `stream`: The streams of the message, e.g. ["hashtag","devoxx"].
+ * - `event`: The type of the event, e.g. "update" or "delete".
+ * - `id`: The id of the status. For delete events, this is the whole payload.
+ * - `url`: The URL of the status.
+ * - `editedAt`: The time of the last edit of the status.
+ * - `mentions`: The accounts (acct) mentioned in the status.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DecodedGenericMessage {
+
+    private List<String> stream;
+    private String event;
+    private String id;
+    private String url;
+    private String editedAt;
+    private List<String> mentions;
+}
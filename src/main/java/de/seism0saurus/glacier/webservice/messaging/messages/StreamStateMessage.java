@@ -0,0 +1,24 @@
+package de.seism0saurus.glacier.webservice.messaging.messages;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * StreamStateMessage informs a wall about the state of the upstream stream of its hashtag.
+ * <p>
+ * Fields:
+ * - `state`: The state of the stream. "reconnecting" after a failure, "connected" after the stream is back.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StreamStateMessage {
+
+    public static final String RECONNECTING = "reconnecting";
+    public static final String CONNECTED = "connected";
+
+    private String state;
+}
@@ -5,9 +5,14 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+
 /**
  * SubscriptionAckMessage represents a message indicating the subscription status for a hashtag.
  * It contains the hashtag, subscription ID, and whether the subscription is successful.
+ * A successful acknowledgement also contains the recent statuses of the hashtag, so that the wall does not start empty,
+ * and the single destination of the wall for the events of all its hashtags. Without a destination,
+ * the wall subscribes to the three destinations per hashtag of the former layout.
  */
 @Data
 @Builder
@@ -18,4 +23,6 @@ public class SubscriptionAckMessage {
     private String hashtag;
     private String principal;
     private boolean isSubscribed;
+    private List<StatusCreatedMessage> recent;
+    private String destination;
 }
@@ -0,0 +1,33 @@
+package de.seism0saurus.glacier.webservice.messaging.messages;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * WallEventMessage is the envelope of all events on the single destination of a wall.
+ * <p>
+ * Fields:
+ * - `type`: The type of the event. One of "creation", "modification", "deletion" and "state".
+ * - `hashtag`: The hashtag as subscribed by the wall, whose stream delivered the event.
+ * - `payload`: The event itself, e.g. a {@link StatusCreatedMessage StatusCreatedMessage}.
+ * <p>
+ * The sequence number of the event is not part of the envelope. It is sent in the STOMP header "seq",
+ * so that the same serialized envelope can be sent to all walls, that subscribed the hashtag with the same spelling.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WallEventMessage {
+
+    public static final String CREATION = "creation";
+    public static final String MODIFICATION = "modification";
+    public static final String DELETION = "deletion";
+    public static final String STATE = "state";
+
+    private String type;
+    private String hashtag;
+    private Object payload;
+}
@@ -0,0 +1,392 @@
+package de.seism0saurus.glacier.load;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A fake Mastodon instance for the load test. It runs offline on the loopback addresses 127.0.0.1 up to 127.0.0.n with one port.
+ * There is one server socket per address, so that nothing listens on the other network interfaces.
+ * <p>
+ * It understands just enough HTTP/1.1 and WebSocket (RFC 6455):
+ * <ul>
+ *     <li>{@code /api/v1/streaming} accepts the subscribe and unsubscribe frames of the multiplexed connector
+ *     and emits update events for the subscribed hashtags with a fixed rate.
+ *     A connection, that subscribed to the notification stream, gets the mention notification of every status first.</li>
+ *     <li>{@code HEAD .../embed} answers after a configurable latency with the configured headers.</li>
+ *     <li>{@code GET /api/v1/timelines/tag/...} returns an empty timeline.</li>
+ * </ul>
+ * The statuses link to 127.0.0.1 up to 127.0.0.n, so that the embed checks are spread over n remote servers.
+ * Every status mentions the glacier account, so that it passes the opt-in check.
+ * The emit time of every status is remembered, so that the walls can measure the latency from the emit to the receive.
+ */
+class FakeMastodon implements AutoCloseable {
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final Pattern TAG = Pattern.compile("\"tag\"\\s*:\\s*\"([^\"]+)\"");
+
+    private final List<ServerSocket> serverSockets;
+    private final int servers;
+    private final Duration embedLatency;
+    private final Map<String, String> embedHeaders;
+    private final String mention;
+    private final List<StreamingConnection> connections = new CopyOnWriteArrayList<>();
+    private final Map<Long, Long> emitted = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(113_000_000_000_000_000L);
+    private final AtomicLong embedRequests = new AtomicLong();
+    private volatile boolean closed;
+
+    private FakeMastodon(final List<ServerSocket> serverSockets, final int servers, final Duration embedLatency, final Map<String, String> embedHeaders, final String mention) {
+        this.serverSockets = serverSockets;
+        this.servers = servers;
+        this.embedLatency = embedLatency;
+        this.embedHeaders = embedHeaders;
+        this.mention = mention;
+    }
+
+    /**
+     * Starts the fake instance on a free port of the loopback addresses 127.0.0.1 up to 127.0.0.n.
+     *
+     * @param servers      the number of remote servers, that the statuses link to
+     * @param embedLatency the latency of the answers to the HEAD requests of the embed pages
+     * @param embedHeaders the headers of the embed pages
+     * @param mention      the acct of the glacier account, that every status mentions
+     * @return the started instance
+     */
+    static FakeMastodon start(final int servers, final Duration embedLatency, final Map<String, String> embedHeaders, final String mention) {
+        List<ServerSocket> serverSockets = new ArrayList<>();
+        try {
+            serverSockets.add(new ServerSocket(0, 1024, InetAddress.getByName("127.0.0.1")));
+            int port = serverSockets.getFirst().getLocalPort();
+            for (int server = 2; server <= servers; server++) {
+                serverSockets.add(new ServerSocket(port, 1024, InetAddress.getByName("127.0.0." + server)));
+            }
+        } catch (IOException e) {
+            for (ServerSocket serverSocket : serverSockets) {
+                try {
+                    serverSocket.close();
+                } catch (IOException ignored) {
+                    // The start failed anyway
+                }
+            }
+            throw new IllegalStateException("Could not start the fake Mastodon", e);
+        }
+        FakeMastodon mastodon = new FakeMastodon(serverSockets, servers, embedLatency, embedHeaders, mention);
+        for (ServerSocket serverSocket : serverSockets) {
+            Thread.ofVirtual().name("fake-mastodon-" + serverSocket.getInetAddress().getHostAddress()).start(() -> mastodon.accept(serverSocket));
+        }
+        return mastodon;
+    }
+
+    int port() {
+        return serverSockets.getFirst().getLocalPort();
+    }
+
+    /**
+     * Returns the hashtags, that glacier subscribed on any streaming connection.
+     */
+    Set<String> subscribedHashtags() {
+        Set<String> hashtags = ConcurrentHashMap.newKeySet();
+        connections.forEach(connection -> hashtags.addAll(connection.hashtags));
+        return hashtags;
+    }
+
+    /**
+     * Returns the emit time of a status in nanoseconds of {@link System#nanoTime()} or null, if this instance did not emit it.
+     */
+    Long emittedAt(final long statusId) {
+        return emitted.get(statusId);
+    }
+
+    long numberOfEmittedStatuses() {
+        return emitted.size();
+    }
+
+    long numberOfEmbedRequests() {
+        return embedRequests.get();
+    }
+
+    /**
+     * Emits new statuses for a hashtag with a fixed rate on the calling thread.
+     *
+     * @param hashtag the hashtag
+     * @param rate    the statuses per second
+     * @param until   the end of the emission in nanoseconds of {@link System#nanoTime()}
+     * @return the number of emitted statuses
+     */
+    long emit(final String hashtag, final double rate, final long until) {
+        long interval = (long) (1_000_000_000L / rate);
+        long next = System.nanoTime();
+        long count = 0;
+        while (!closed && next < until) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            long id = nextId.incrementAndGet();
+            String server = "127.0.0." + (1 + id % servers);
+            String payload = "{\"id\":\"" + id + "\",\"created_at\":\"2024-10-07T09:12:44.000Z\",\"visibility\":\"public\","
+                    + "\"url\":\"http://" + server + ":" + port() + "/@alice/" + id + "\","
+                    + "\"content\":\"<p>Load test for #" + hashtag + "</p>\","
+                    + "\"account\":{\"id\":\"1\",\"username\":\"alice\",\"acct\":\"alice\"},"
+                    + "\"mentions\":[{\"id\":\"2\",\"username\":\"glacier\",\"acct\":\"" + mention + "\"}],"
+                    + "\"tags\":[{\"name\":\"" + hashtag + "\"}]}";
+            String message = "{\"stream\":[\"hashtag\",\"" + hashtag + "\"],\"event\":\"update\",\"payload\":\""
+                    + payload.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+            String notification = "{\"stream\":[\"user:notification\"],\"event\":\"notification\",\"payload\":\""
+                    + ("{\"id\":\"" + id + "\",\"type\":\"mention\",\"status\":" + payload + "}").replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+            emitted.put(id, System.nanoTime());
+            for (StreamingConnection connection : connections) {
+                if (connection.notifications) {
+                    connection.send(notification);
+                }
+            }
+            for (StreamingConnection connection : connections) {
+                if (connection.hashtags.contains(hashtag)) {
+                    connection.send(message);
+                }
+            }
+            count++;
+            next += interval;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (ServerSocket serverSocket : serverSockets) {
+            serverSocket.close();
+        }
+        for (StreamingConnection connection : connections) {
+            connection.socket.close();
+        }
+    }
+
+    private void accept(final ServerSocket serverSocket) {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread.ofVirtual().name("fake-mastodon-connection").start(() -> serve(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Serves the HTTP requests of a keep-alive connection, until it is upgraded to a WebSocket or closed.
+     */
+    private void serve(final Socket socket) {
+        try (socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (!closed) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    return;
+                }
+                Map<String, String> headers = new HashMap<>();
+                for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                    int colon = line.indexOf(':');
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+                }
+                String[] parts = requestLine.split(" ");
+                String method = parts[0];
+                String path = parts[1];
+                if ("websocket".equalsIgnoreCase(headers.get("upgrade")) && path.startsWith("/api/v1/streaming")) {
+                    upgrade(socket, in, out, headers.get("sec-websocket-key"));
+                    return;
+                }
+                skipBody(in, headers);
+                if ("HEAD".equals(method) && path.endsWith("/embed")) {
+                    embedRequests.incrementAndGet();
+                    LockSupport.parkNanos(embedLatency.toNanos());
+                    StringBuilder response = new StringBuilder("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nContent-Length: 0\r\n");
+                    embedHeaders.forEach((name, value) -> response.append(name).append(": ").append(value).append("\r\n"));
+                    respond(out, response.append("\r\n").toString(), "");
+                } else if ("GET".equals(method) && path.startsWith("/api/v1/timelines/tag/")) {
+                    respond(out, "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: 2\r\n\r\n", "[]");
+                } else {
+                    respond(out, "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n", "");
+                }
+            }
+        } catch (IOException e) {
+            // The client closed the connection
+        }
+    }
+
+    private void upgrade(final Socket socket, final InputStream in, final OutputStream out, final String key) throws IOException {
+        String accept;
+        try {
+            accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1")
+                    .digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        respond(out, "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: " + accept + "\r\n\r\n", "");
+        StreamingConnection connection = new StreamingConnection(socket, out);
+        connections.add(connection);
+        try {
+            connection.read(in);
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    private static void respond(final OutputStream out, final String head, final String body) throws IOException {
+        out.write((head + body).getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void skipBody(final InputStream in, final Map<String, String> headers) throws IOException {
+        String length = headers.get("content-length");
+        if (length != null) {
+            in.readNBytes(Integer.parseInt(length));
+        }
+    }
+
+    private static String readLine(final InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                String text = line.toString(StandardCharsets.US_ASCII);
+                return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+            }
+            line.write(b);
+        }
+        return line.size() == 0 ? null : line.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A streaming WebSocket of glacier with its subscribed hashtags.
+     */
+    private static final class StreamingConnection {
+
+        private final Socket socket;
+        private final OutputStream out;
+        private final Set<String> hashtags = ConcurrentHashMap.newKeySet();
+        private volatile boolean notifications;
+
+        private StreamingConnection(final Socket socket, final OutputStream out) {
+            this.socket = socket;
+            this.out = out;
+        }
+
+        /**
+         * Reads the masked frames of the client, until it closes the connection.
+         */
+        private void read(final InputStream in) throws IOException {
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            while (true) {
+                int first = in.read();
+                int second = in.read();
+                if (first < 0 || second < 0) {
+                    return;
+                }
+                int opcode = first & 0x0F;
+                long length = second & 0x7F;
+                if (length == 126) {
+                    length = (in.read() << 8) | in.read();
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) {
+                        length = (length << 8) | in.read();
+                    }
+                }
+                byte[] mask = (second & 0x80) != 0 ? in.readNBytes(4) : null;
+                byte[] payload = in.readNBytes((int) length);
+                if (mask != null) {
+                    for (int i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i % 4];
+                    }
+                }
+                switch (opcode) {
+                    case 0x0, 0x1 -> {
+                        message.write(payload);
+                        if ((first & 0x80) != 0) {
+                            handle(message.toString(StandardCharsets.UTF_8));
+                            message.reset();
+                        }
+                    }
+                    case 0x8 -> {
+                        frame(0x8, payload);
+                        return;
+                    }
+                    case 0x9 -> frame(0xA, payload);
+                    default -> {
+                        // Pongs and binary frames are ignored
+                    }
+                }
+            }
+        }
+
+        private void handle(final String text) {
+            if (text.contains("\"user:notification\"")) {
+                notifications = !text.contains("\"unsubscribe\"");
+                return;
+            }
+            Matcher tag = TAG.matcher(text);
+            if (!tag.find()) {
+                return;
+            }
+            if (text.contains("\"unsubscribe\"")) {
+                hashtags.remove(tag.group(1));
+            } else if (text.contains("\"subscribe\"")) {
+                hashtags.add(tag.group(1));
+            }
+        }
+
+        private void send(final String text) {
+            try {
+                frame(0x1, text.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                // The connection is closed. Glacier reconnects and subscribes again
+            }
+        }
+
+        /**
+         * Writes an unmasked frame. The emitters of all hashtags share the connection, so the frames are written one after another.
+         */
+        private synchronized void frame(final int opcode, final byte[] payload) throws IOException {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 10);
+            frame.write(0x80 | opcode);
+            if (payload.length < 126) {
+                frame.write(payload.length);
+            } else if (payload.length < 65_536) {
+                frame.write(126);
+                frame.write(payload.length >>> 8);
+                frame.write(payload.length);
+            } else {
+                frame.write(127);
+                for (int i = 7; i >= 0; i--) {
+                    frame.write((int) ((long) payload.length >>> (8 * i)));
+                }
+            }
+            frame.write(payload);
+            out.write(frame.toByteArray());
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package de.seism0saurus.glacier.load;
+
+import de.seism0saurus.glacier.mastodon.SubscriptionManagerImpl;
+import de.seism0saurus.glacier.mastodon.TimelineBackfill;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.awaitility.core.ConditionTimeoutException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.converter.SimpleMessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import social.bigbone.MastodonClient;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * End-to-end load test of glacier. It runs offline in one JVM on one box.
+ * <p>
+ * A {@link FakeMastodon} emits statuses for a number of hashtags with a fixed rate and answers the HEAD requests of the embed pages.
+ * The simulated walls connect over STOMP to /websocket, each follows one hashtag and measures the latency from the emit of a status
+ * by the fake Mastodon until its receive. The report contains the latency percentiles, the throughput, the heap and the threads.
+ * The walls run in the same JVM, so the heap and the threads include the clients.
+ * <p>
+ * The simulation is neither a unit test nor an integration test. It runs with the LoadTest profile, e.g.
+ * {@code ./mvnw -P LoadTest verify -Dload.walls=5000 -Dload.rate=20}. The parameters are system properties:
+ * <ul>
+ *     <li>load.walls: the number of simulated walls, default 1000</li>
+ *     <li>load.hashtags: the number of hashtags, the walls are spread evenly over them, default 10</li>
+ *     <li>load.rate: the statuses per second and hashtag, default 10</li>
+ *     <li>load.duration: the duration of the emission in seconds, default 30</li>
+ *     <li>load.servers: the number of remote servers of the statuses, default 16</li>
+ *     <li>load.embedLatency: the latency of the embed pages in milliseconds, default 20</li>
+ *     <li>load.embedHeaders: the headers of the embed pages, separated by |, default a frame-ancestors policy, that allows glacier</li>
+ *     <li>load.minDeliveryRatio: the ratio of the expected messages, that must reach the walls, default 0.99</li>
+ * </ul>
+ * The report is written to target/load-test-report.txt.
+ */
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "mastodon.https=false",
+                "mastodon.instance=127.0.0.1",
+                "mastodon.handle=glacier@glacier.example",
+                "mastodon.streaming.mode=multiplexed",
+                "glacier.domain=glacier.example",
+                "logging.level.de.seism0saurus.glacier=WARN",
+                "logging.level.de.seism0saurus.glacier.load=INFO"
+        }
+)
+class WallLoadSimulation {
+
+    /**
+     * The logger of this class.
+     *
+     * @see "src/main/ressources/logback.xml"
+     */
+    private final static Logger LOGGER = LoggerFactory.getLogger(WallLoadSimulation.class);
+
+    private static final int WALLS = Integer.getInteger("load.walls", 1000);
+    private static final int HASHTAGS = Integer.getInteger("load.hashtags", 10);
+    private static final double RATE = Double.parseDouble(System.getProperty("load.rate", "10"));
+    private static final Duration DURATION = Duration.ofSeconds(Long.getLong("load.duration", 30));
+    private static final int SERVERS = Integer.getInteger("load.servers", 16);
+    private static final Duration EMBED_LATENCY = Duration.ofMillis(Long.getLong("load.embedLatency", 20));
+    private static final String EMBED_HEADERS = System.getProperty("load.embedHeaders", "Content-Security-Policy: default-src 'none'; frame-ancestors 'self' https://glacier.example");
+    private static final double MIN_DELIVERY_RATIO = Double.parseDouble(System.getProperty("load.minDeliveryRatio", "0.99"));
+    private static final int CONNECT_BATCH = 100;
+
+    private static final FakeMastodon MASTODON = FakeMastodon.start(SERVERS, EMBED_LATENCY, embedHeaders(), "glacier");
+
+    /**
+     * MastodonClient needs to be mocked because it directly tests the connection to a nonexistent webservice.
+     */
+    @SuppressWarnings("unused")
+    @MockitoBean
+    MastodonClient client;
+
+    /**
+     * The backfill uses the client, so the timelines are empty.
+     */
+    @MockitoBean
+    TimelineBackfill timelineBackfill;
+
+    @Autowired
+    private SubscriptionManagerImpl subscriptionManager;
+
+    @LocalServerPort
+    private int port;
+
+    private final WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+    private final List<StompSession> sessions = new ArrayList<>();
+    private final Timer latency = Timer.builder("load.latency")
+            .publishPercentiles(0.5, 0.9, 0.99, 0.999)
+            .distributionStatisticExpiry(Duration.ofDays(1))
+            .distributionStatisticBufferLength(1)
+            .register(new SimpleMeterRegistry());
+    private final LongAdder received = new LongAdder();
+    private final LongAdder unknown = new LongAdder();
+    private final AtomicLong maxHeap = new AtomicLong();
+    private final AtomicInteger maxThreads = new AtomicInteger();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+
+    @DynamicPropertySource
+    static void mastodonProperties(final DynamicPropertyRegistry registry) {
+        registry.add("mastodon.port", MASTODON::port);
+    }
+
+    @BeforeEach
+    void setUp() {
+        when(timelineBackfill.fetchLatest(anyString(), anyInt())).thenReturn(CompletableFuture.completedFuture(List.of()));
+        when(timelineBackfill.fetchSince(anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(List.of()));
+        stompClient.setMessageConverter(new SimpleMessageConverter());
+        sampler.scheduleAtFixedRate(this::sample, 0, 250, TimeUnit.MILLISECONDS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sessions.forEach(StompSession::disconnect);
+        stompClient.stop();
+        sampler.shutdownNow();
+    }
+
+    @AfterAll
+    static void stopMastodon() throws IOException {
+        MASTODON.close();
+    }
+
+    @Test
+    void walls_receiveTheStatusesOfTheirHashtags() throws Exception {
+        // Setup: The walls connect in batches and follow one hashtag each
+        long connectStart = System.nanoTime();
+        int[] wallsPerHashtag = new int[HASHTAGS];
+        for (int batch = 0; batch < WALLS; batch += CONNECT_BATCH) {
+            List<CompletableFuture<StompSession>> connects = new ArrayList<>();
+            for (int wall = batch; wall < Math.min(WALLS, batch + CONNECT_BATCH); wall++) {
+                wallsPerHashtag[wall % HASHTAGS]++;
+                connects.add(connect("loadtest" + (wall % HASHTAGS)));
+            }
+            for (CompletableFuture<StompSession> connect : connects) {
+                sessions.add(connect.get(30, TimeUnit.SECONDS));
+            }
+        }
+        await().atMost(Duration.ofSeconds(60)).until(() -> subscriptionManager.numberOfSubscriptions() == WALLS
+                && MASTODON.subscribedHashtags().size() == HASHTAGS);
+        Duration connectDuration = Duration.ofNanos(System.nanoTime() - connectStart);
+
+        // Execute: Every hashtag is emitted by its own thread
+        long emitStart = System.nanoTime();
+        long until = emitStart + DURATION.toNanos();
+        List<CompletableFuture<Long>> emitters = new ArrayList<>();
+        for (int hashtag = 0; hashtag < HASHTAGS; hashtag++) {
+            String tag = "loadtest" + hashtag;
+            emitters.add(CompletableFuture.supplyAsync(() -> MASTODON.emit(tag, RATE, until), Thread.ofVirtual()::start));
+        }
+        long expected = 0;
+        for (int hashtag = 0; hashtag < HASHTAGS; hashtag++) {
+            expected += emitters.get(hashtag).get() * wallsPerHashtag[hashtag];
+        }
+        long target = expected;
+        try {
+            await().atMost(Duration.ofSeconds(30)).pollInterval(Duration.ofMillis(100)).until(() -> received.sum() >= target);
+        } catch (ConditionTimeoutException e) {
+            LOGGER.warn("Not all messages reached the walls");
+        }
+        Duration emitDuration = Duration.ofNanos(System.nanoTime() - emitStart);
+        sample();
+
+        // Verify
+        String report = report(connectDuration, emitDuration, expected);
+        LOGGER.info("\n{}", report);
+        Files.writeString(Path.of("target", "load-test-report.txt"), report);
+        assertThat(received.sum()).isGreaterThanOrEqualTo((long) (expected * MIN_DELIVERY_RATIO));
+    }
+
+    private CompletableFuture<StompSession> connect(final String hashtag) {
+        WebSocketHttpHeaders handshakeHeaders = new WebSocketHttpHeaders();
+        handshakeHeaders.add("Cookie", "wallId=" + UUID.randomUUID());
+        return stompClient.connectAsync("ws://localhost:" + port + "/websocket", handshakeHeaders, new StompSessionHandlerAdapter() {
+        }).thenApply(session -> {
+            String wallId = handshakeHeaders.getFirst("Cookie").substring("wallId=".length());
+            session.subscribe("/topic/hashtags/" + wallId + "/events", new WallFrameHandler());
+            StompHeaders headers = new StompHeaders();
+            headers.setDestination("/glacier/subscription");
+            headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            session.send(headers, ("{\"hashtag\":\"" + hashtag + "\"}").getBytes(StandardCharsets.UTF_8));
+            return session;
+        });
+    }
+
+    private void sample() {
+        maxHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+        maxThreads.accumulateAndGet(threads.getThreadCount(), Math::max);
+    }
+
+    private String report(final Duration connectDuration, final Duration emitDuration, final long expected) {
+        HistogramSnapshot snapshot = latency.takeSnapshot();
+        Map<String, Object> lines = new LinkedHashMap<>();
+        lines.put("walls", WALLS);
+        lines.put("hashtags", HASHTAGS);
+        lines.put("rate per hashtag [1/s]", RATE);
+        lines.put("embed latency [ms]", EMBED_LATENCY.toMillis());
+        lines.put("connect and subscribe [ms]", connectDuration.toMillis());
+        lines.put("emitted statuses", MASTODON.numberOfEmittedStatuses());
+        lines.put("embed requests", MASTODON.numberOfEmbedRequests());
+        lines.put("expected messages", expected);
+        lines.put("received messages", received.sum());
+        lines.put("messages without known status", unknown.sum());
+        lines.put("throughput [messages/s]", String.format("%.1f", received.sum() / (emitDuration.toNanos() / 1e9)));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            lines.put("latency p" + BigDecimal.valueOf(percentile.percentile() * 100).stripTrailingZeros().toPlainString() + " [ms]", String.format("%.2f", percentile.value(TimeUnit.MILLISECONDS)));
+        }
+        lines.put("latency mean [ms]", String.format("%.2f", snapshot.mean(TimeUnit.MILLISECONDS)));
+        lines.put("latency max [ms]", String.format("%.2f", snapshot.max(TimeUnit.MILLISECONDS)));
+        lines.put("max heap used [MiB]", maxHeap.get() / (1024 * 1024));
+        lines.put("max live threads", maxThreads.get());
+        lines.put("peak threads", threads.getPeakThreadCount());
+        StringBuilder report = new StringBuilder();
+        lines.forEach((name, value) -> report.append(String.format("%-32s %s%n", name, value)));
+        return report.toString();
+    }
+
+    private static Map<String, String> embedHeaders() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (String header : EMBED_HEADERS.split("\\|")) {
+            int colon = header.indexOf(':');
+            if (colon > 0) {
+                headers.put(header.substring(0, colon).trim(), header.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Measures the latency of the statuses, that reach a wall.
+     */
+    private final class WallFrameHandler implements StompFrameHandler {
+
+        private static final byte[] ID = "\"id\":\"".getBytes(StandardCharsets.US_ASCII);
+
+        @Override
+        public Type getPayloadType(final StompHeaders headers) {
+            return byte[].class;
+        }
+
+        @Override
+        public void handleFrame(final StompHeaders headers, final Object payload) {
+            long now = System.nanoTime();
+            Long emittedAt = MASTODON.emittedAt(statusId((byte[]) payload));
+            received.increment();
+            if (emittedAt == null) {
+                unknown.increment();
+            } else {
+                latency.record(now - emittedAt, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Reads the first id of the message, that is the id of the status in the payload.
+         */
+        private static long statusId(final byte[] body) {
+            outer:
+            for (int i = 0; i <= body.length - ID.length; i++) {
+                for (int j = 0; j < ID.length; j++) {
+                    if (body[i + j] != ID[j]) {
+                        continue outer;
+                    }
+                }
+                long id = 0;
+                for (int k = i + ID.length; k < body.length && body[k] >= '0' && body[k] <= '9'; k++) {
+                    id = id * 10 + (body[k] - '0');
+                }
+                return id;
+            }
+            return -1;
+        }
+    }
+}
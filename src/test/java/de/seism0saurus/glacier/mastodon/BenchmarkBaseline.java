@@ -0,0 +1,39 @@
+package de.seism0saurus.glacier.mastodon;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Turns the JSON result of a JMH run into the baseline, that is committed in benchmarks/baseline.json.
+ * <p>
+ * The fields, that only describe the machine of the run, are removed, e.g. the path of the JVM.
+ * So a new baseline only differs from the old one in its results and its JDK version.
+ * The profile {@code Benchmarks} runs it after the benchmarks.
+ */
+public class BenchmarkBaseline {
+
+    /**
+     * The fields of a JMH result, that only describe the machine of the run.
+     */
+    private static final List<String> MACHINE_FIELDS = List.of("jvm", "jvmArgs");
+
+    /**
+     * Writes the baseline.
+     *
+     * @param args the JSON result of JMH and the file of the baseline
+     * @throws IOException if a file can not be read or written
+     */
+    public static void main(final String[] args) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode results = mapper.readTree(new File(args[0]));
+        for (JsonNode result : results) {
+            ((ObjectNode) result).remove(MACHINE_FIELDS);
+        }
+        mapper.writerWithDefaultPrettyPrinter().writeValue(new File(args[1]), results);
+    }
+}
@@ -0,0 +1,70 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsistentHashRingTest {
+
+    @Test
+    void ownerOf_independentOfTheOrderOfTheMembers() {
+        // Setup
+        ConsistentHashRing ring1 = new ConsistentHashRing(List.of("node1", "node2", "node3"), 128);
+        ConsistentHashRing ring2 = new ConsistentHashRing(List.of("node3", "node1", "node2"), 128);
+
+        // Execute & Verify
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(ring1.ownerOf("hashtag" + i), ring2.ownerOf("hashtag" + i));
+        }
+    }
+
+    @Test
+    void ownerOf_spreadsTheHashtagsOverAllMembers() {
+        // Setup
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("node1", "node2", "node3"), 128);
+        Map<String, Integer> owned = new HashMap<>();
+
+        // Execute
+        for (int i = 0; i < 3000; i++) {
+            owned.merge(ring.ownerOf("hashtag" + i), 1, Integer::sum);
+        }
+
+        // Verify
+        assertEquals(3, owned.size());
+        owned.values().forEach(count -> assertTrue(count > 700 && count < 1300, "unbalanced: " + owned));
+    }
+
+    @Test
+    void ownerOf_newMemberTakesOnlyItsShare() {
+        // Setup
+        ConsistentHashRing before = new ConsistentHashRing(List.of("node1", "node2", "node3"), 128);
+        ConsistentHashRing after = new ConsistentHashRing(List.of("node1", "node2", "node3", "node4"), 128);
+        int moved = 0;
+
+        // Execute
+        for (int i = 0; i < 4000; i++) {
+            String owner = after.ownerOf("hashtag" + i);
+            if (!owner.equals(before.ownerOf("hashtag" + i))) {
+                assertEquals("node4", owner);
+                moved++;
+            }
+        }
+
+        // Verify
+        assertTrue(moved > 700 && moved < 1300, "moved: " + moved);
+    }
+
+    @Test
+    void ownerOf_emptyRing() {
+        assertNull(new ConsistentHashRing(List.of(), 128).ownerOf("devoxx"));
+    }
+
+    @Test
+    void constructor_invalidVirtualNodes() {
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(List.of("node1"), 0));
+    }
+}
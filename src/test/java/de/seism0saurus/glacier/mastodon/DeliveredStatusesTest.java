@@ -0,0 +1,41 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeliveredStatusesTest {
+
+    private final DeliveredStatuses deliveredStatuses = new DeliveredStatuses(10);
+
+    @Test
+    void deliver_oncePerWall() {
+        // Execute & Verify
+        assertTrue(deliveredStatuses.deliver("wall1", "113000000000000001"));
+        assertFalse(deliveredStatuses.deliver("wall1", "113000000000000001"));
+        assertTrue(deliveredStatuses.deliver("wall2", "113000000000000001"));
+        assertTrue(deliveredStatuses.wasDelivered("wall1", "113000000000000001"));
+        assertFalse(deliveredStatuses.wasDelivered("wall3", "113000000000000001"));
+    }
+
+    @Test
+    void forget_dropsTheWindowOfAWall() {
+        // Setup
+        deliveredStatuses.deliver("wall1", "101");
+
+        // Execute
+        deliveredStatuses.forget("wall1");
+
+        // Verify
+        assertFalse(deliveredStatuses.wasDelivered("wall1", "101"));
+        assertEquals(0, deliveredStatuses.numberOfWalls());
+    }
+
+    @Test
+    void key_numericIdsAreParsedOthersHashed() {
+        assertEquals(113_000_000_000_000_001L, DeliveredStatuses.key("113000000000000001"));
+        assertEquals(DeliveredStatuses.key("9zKJ3xQ"), DeliveredStatuses.key("9zKJ3xQ"));
+        assertNotEquals(DeliveredStatuses.key("9zKJ3xQ"), DeliveredStatuses.key("9zKJ3xR"));
+        assertNotEquals(DeliveredStatuses.key("-1"), -1L);
+    }
+}
@@ -0,0 +1,180 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EmbedCheckClientTest {
+
+    private final List<HttpRequest> requests = new ArrayList<>();
+    private final List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>();
+    private final EmbedCheckClient client = new EmbedCheckClient(request -> {
+        CompletableFuture<HttpResponse<Void>> response = new CompletableFuture<>();
+        requests.add(request);
+        responses.add(response);
+        return response;
+    }, Duration.ofSeconds(3), 2, 3);
+
+    @Test
+    void fetchHeaders_headRequestWithTimeout() {
+        // Execute
+        CompletableFuture<HttpHeaders> headers = client.fetchHeaders("https://mastodon.social/@alice/1/embed");
+        responses.getFirst().complete(response(200, Map.of("x-frame-options", List.of("ALLOWALL"))));
+
+        // Verify
+        HttpRequest request = requests.getFirst();
+        assertEquals("HEAD", request.method());
+        assertEquals("https://mastodon.social/@alice/1/embed", request.uri().toString());
+        assertEquals(Duration.ofSeconds(3), request.timeout().orElseThrow());
+        assertEquals(List.of("ALLOWALL"), headers.join().get("X-Frame-Options"));
+    }
+
+    @Test
+    void fetchHeaders_unsuccessfulStatusFails() {
+        // Execute
+        CompletableFuture<HttpHeaders> headers = client.fetchHeaders("https://mastodon.social/@alice/1/embed");
+        responses.getFirst().complete(response(404, Map.of()));
+
+        // Verify
+        CompletionException exception = assertThrows(CompletionException.class, headers::join);
+        assertInstanceOf(IOException.class, exception.getCause());
+    }
+
+    @Test
+    void fetchHeaders_redirectReturnsItsHeaders() {
+        // Execute
+        CompletableFuture<HttpHeaders> moved = client.fetchHeaders("https://mastodon.social/@alice/1/embed");
+        CompletableFuture<HttpHeaders> found = client.fetchHeaders("https://mastodon.social/@alice/2/embed");
+        responses.get(0).complete(response(301, Map.of("location", List.of("https://example.com/1/embed"), "x-frame-options", List.of("DENY"))));
+        responses.get(1).complete(response(302, Map.of("location", List.of("https://example.com/2/embed"))));
+
+        // Verify: the redirect is not followed and its headers are judged
+        assertEquals(2, requests.size());
+        assertEquals(List.of("DENY"), moved.join().get("X-Frame-Options"));
+        assertEquals(List.of("https://example.com/2/embed"), found.join().get("Location"));
+    }
+
+    @Test
+    void fetchHeaders_invalidUrlFails() {
+        assertTrue(client.fetchHeaders("not a url").isCompletedExceptionally());
+        assertTrue(client.fetchHeaders("ftp://mastodon.social/1").isCompletedExceptionally());
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    void fetchHeaders_requestsPerHostAreLimited() {
+        // Execute
+        client.fetchHeaders("https://slow.example/1/embed");
+        client.fetchHeaders("https://slow.example/2/embed");
+        CompletableFuture<HttpHeaders> queued = client.fetchHeaders("https://slow.example/3/embed");
+        client.fetchHeaders("https://fast.example/1/embed");
+
+        // Verify
+        assertEquals(List.of("https://slow.example/1/embed", "https://slow.example/2/embed", "https://fast.example/1/embed"),
+                requests.stream().map(request -> request.uri().toString()).toList());
+        assertEquals(4, client.numberOfRequests());
+
+        // Execute
+        responses.getFirst().complete(response(200, Map.of()));
+
+        // Verify
+        assertEquals("https://slow.example/3/embed", requests.getLast().uri().toString());
+        assertFalse(queued.isDone());
+        assertEquals(3, client.numberOfRequests());
+    }
+
+    @Test
+    void fetchHeaders_requestsInTotalAreLimited() {
+        // Execute
+        client.fetchHeaders("https://a.example/1/embed");
+        client.fetchHeaders("https://b.example/1/embed");
+        client.fetchHeaders("https://c.example/1/embed");
+        client.fetchHeaders("https://d.example/1/embed");
+
+        // Verify
+        assertEquals(3, requests.size());
+
+        // Execute
+        responses.get(1).completeExceptionally(new IOException("Connection reset"));
+
+        // Verify
+        assertEquals(4, requests.size());
+        assertEquals("https://d.example/1/embed", requests.getLast().uri().toString());
+    }
+
+    @Test
+    void fetchHeaders_idleHostLimitersAreRemoved() {
+        // Execute
+        CompletableFuture<HttpHeaders> first = client.fetchHeaders("https://a.example/1/embed");
+        client.fetchHeaders("https://a.example/2/embed");
+        client.fetchHeaders("https://b.example/1/embed");
+
+        // Verify
+        assertEquals(2, client.numberOfHosts());
+
+        // Execute
+        responses.get(0).complete(response(200, Map.of()));
+        responses.get(2).completeExceptionally(new IOException("Connection reset"));
+
+        // Verify: a.example still has a running request
+        assertTrue(first.isDone());
+        assertEquals(1, client.numberOfHosts());
+        assertEquals(1, client.numberOfRequests());
+
+        // Execute
+        responses.get(1).complete(response(200, Map.of()));
+
+        // Verify
+        assertEquals(0, client.numberOfHosts());
+        assertEquals(0, client.numberOfRequests());
+    }
+
+    @Test
+    void fetchHeaders_longQueueOfSynchronousFailuresDoesNotOverflowTheStack() {
+        // Setup: the first request hangs, all others fail before they are sent
+        CompletableFuture<HttpResponse<Void>> hanging = new CompletableFuture<>();
+        EmbedCheckClient failing = new EmbedCheckClient(request -> request.uri().getPath().equals("/0/embed")
+                ? hanging
+                : CompletableFuture.failedFuture(new IOException("Connection refused")), Duration.ofSeconds(3), 1, 3);
+        List<CompletableFuture<HttpHeaders>> queued = new ArrayList<>();
+        failing.fetchHeaders("https://down.example/0/embed");
+        for (int i = 1; i <= 10_000; i++) {
+            queued.add(failing.fetchHeaders("https://down.example/" + i + "/embed"));
+        }
+
+        // Execute
+        hanging.complete(response(200, Map.of()));
+
+        // Verify
+        assertTrue(queued.stream().allMatch(CompletableFuture::isCompletedExceptionally));
+        assertEquals(0, failing.numberOfRequests());
+        assertEquals(0, failing.numberOfHosts());
+    }
+
+    @Test
+    void constructor_noRequestsAllowed() {
+        assertThrows(IllegalArgumentException.class, () -> new EmbedCheckClient(request -> null, Duration.ZERO, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new EmbedCheckClient(request -> null, Duration.ZERO, 1, 0));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpResponse<Void> response(final int status, final Map<String, List<String>> headers) {
+        HttpResponse<Void> response = mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(status);
+        when(response.headers()).thenReturn(java.net.http.HttpHeaders.of(headers, (name, value) -> true));
+        return response;
+    }
+}
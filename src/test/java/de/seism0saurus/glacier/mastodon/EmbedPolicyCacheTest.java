@@ -0,0 +1,181 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbedPolicyCacheTest {
+
+    private final TestClock clock = new TestClock();
+    private final List<CompletableFuture<Boolean>> pendingProbes = new ArrayList<>();
+    private final List<String> probedUrls = new ArrayList<>();
+    private final EmbedPolicyCache cache = new EmbedPolicyCache(
+            new LoadabilityCache(100, Duration.ofMinutes(10), Duration.ofMinutes(1), clock),
+            2, Duration.ofHours(1), Duration.ofDays(1), clock);
+
+    @Test
+    void isLoadable_statusesOfAKnownServerNeedNoProbe() {
+        // Execute
+        assertTrue(cache.isLoadable("https://mastodon.social/@alice/1", this::allow).join());
+        assertTrue(cache.isLoadable("https://mastodon.social/@bob/2", this::allow).join());
+        assertTrue(cache.isLoadable("https://MASTODON.social:443/@carol/3", this::allow).join());
+
+        // Verify
+        assertEquals(List.of("https://mastodon.social/@alice/1"), probedUrls);
+        assertEquals(1, cache.probes());
+        assertEquals(2, cache.hits());
+    }
+
+    @Test
+    void isLoadable_serversAreCachedSeparately() {
+        // Execute
+        assertTrue(cache.isLoadable("https://mastodon.social/@alice/1", this::allow).join());
+        assertFalse(cache.isLoadable("https://chaos.social/@bob/2", this::deny).join());
+        assertFalse(cache.isLoadable("https://chaos.social/@carol/3", this::allow).join());
+
+        // Verify
+        assertEquals(2, cache.probes());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void isLoadable_stalePolicyIsUsedAndRevalidated() {
+        // Setup
+        cache.isLoadable("https://mastodon.social/@alice/1", this::allow).join();
+        clock.advance(Duration.ofHours(1));
+
+        // Execute
+        assertTrue(cache.isLoadable("https://mastodon.social/@alice/2", this::pending).join());
+        assertTrue(cache.isLoadable("https://mastodon.social/@alice/3", this::pending).join());
+
+        // Verify
+        assertEquals(1, pendingProbes.size());
+        assertEquals(1, cache.revalidations());
+        assertEquals("https://mastodon.social/@alice/2", probedUrls.getLast());
+        pendingProbes.getFirst().complete(false);
+        assertFalse(cache.isLoadable("https://mastodon.social/@alice/4", this::allow).join());
+        assertEquals(1, pendingProbes.size());
+    }
+
+    @Test
+    void isLoadable_failedRevalidationKeepsPolicy() {
+        // Setup
+        cache.isLoadable("https://mastodon.social/@alice/1", this::allow).join();
+        clock.advance(Duration.ofHours(1));
+        cache.isLoadable("https://mastodon.social/@alice/2", this::pending).join();
+
+        // Execute
+        pendingProbes.getFirst().completeExceptionally(new IllegalStateException("HEAD failed"));
+
+        // Verify
+        assertTrue(cache.isLoadable("https://mastodon.social/@alice/3", this::pending).join());
+        assertEquals(2, pendingProbes.size());
+    }
+
+    @Test
+    void isLoadable_expiredPolicyIsProbedAgain() {
+        // Setup
+        cache.isLoadable("https://mastodon.social/@alice/1", this::allow).join();
+        clock.advance(Duration.ofDays(1));
+
+        // Execute
+        assertFalse(cache.isLoadable("https://mastodon.social/@alice/2", this::deny).join());
+
+        // Verify
+        assertEquals(2, cache.probes());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void isLoadable_leastRecentlyUsedServerIsDropped() {
+        // Setup
+        cache.isLoadable("https://a.example/1", this::allow).join();
+        cache.isLoadable("https://b.example/1", this::allow).join();
+        cache.isLoadable("https://a.example/2", this::allow).join();
+
+        // Execute
+        cache.isLoadable("https://c.example/1", this::allow).join();
+        cache.isLoadable("https://b.example/2", this::allow).join();
+
+        // Verify
+        assertEquals(4, cache.probes());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void isLoadable_urlWithoutHostIsProbed() {
+        // Execute
+        assertTrue(cache.isLoadable("not a url", this::allow).join());
+
+        // Verify
+        assertEquals(0, cache.size());
+        assertEquals(List.of("not a url"), probedUrls);
+    }
+
+    @Test
+    void origin() {
+        assertEquals("https://mastodon.social:443", EmbedPolicyCache.origin("https://Mastodon.Social/@alice/1"));
+        assertEquals("http://localhost:8080", EmbedPolicyCache.origin("http://localhost:8080/@alice/1"));
+        assertEquals("http://localhost:80", EmbedPolicyCache.origin("http://localhost/@alice/1"));
+        assertNull(EmbedPolicyCache.origin("/@alice/1"));
+    }
+
+    @Test
+    void constructor_maxAgeShorterThanRevalidation() {
+        assertThrows(IllegalArgumentException.class, () -> new EmbedPolicyCache(
+                new LoadabilityCache(1, Duration.ZERO, Duration.ZERO, clock), 1, Duration.ofHours(2), Duration.ofHours(1), clock));
+    }
+
+    private CompletableFuture<Boolean> allow(final String url) {
+        probedUrls.add(url);
+        return CompletableFuture.completedFuture(true);
+    }
+
+    private CompletableFuture<Boolean> deny(final String url) {
+        probedUrls.add(url);
+        return CompletableFuture.completedFuture(false);
+    }
+
+    private CompletableFuture<Boolean> pending(final String url) {
+        probedUrls.add(url);
+        CompletableFuture<Boolean> probe = new CompletableFuture<>();
+        pendingProbes.add(probe);
+        return probe;
+    }
+
+    /**
+     * A clock, that only moves when the test advances it.
+     */
+    private static class TestClock extends Clock {
+
+        private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+        void advance(final Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
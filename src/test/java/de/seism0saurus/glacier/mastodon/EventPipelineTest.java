@@ -0,0 +1,190 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventPipelineTest {
+
+    private final List<Runnable> workers = new ArrayList<>();
+    private final EventPipeline pipeline = new EventPipeline(workers::add, 3);
+    private final List<String> processed = new ArrayList<>();
+
+    @Test
+    void offer_processedByWorkerInOrder() {
+        // Setup
+        EventPipeline.Lane lane = pipeline.lane("devoxx");
+
+        // Execute
+        lane.offer(() -> record("create"));
+        lane.offer(() -> record("delete"));
+
+        // Verify
+        assertTrue(processed.isEmpty());
+        assertEquals(1, workers.size());
+        assertEquals(2, pipeline.queued());
+        runWorkers();
+        assertEquals(List.of("create", "delete"), processed);
+        assertEquals(0, pipeline.queued());
+        assertEquals(2, pipeline.processed());
+    }
+
+    @Test
+    void offer_fullLaneDropsEvents() {
+        // Setup
+        EventPipeline.Lane lane = pipeline.lane("devoxx");
+        EventPipeline.Lane other = pipeline.lane("java");
+
+        // Execute
+        for (int i = 0; i < 5; i++) {
+            lane.offer(() -> record("event"));
+        }
+        boolean accepted = other.offer(() -> record("other"));
+
+        // Verify
+        assertTrue(accepted);
+        assertEquals(3, lane.depth());
+        assertEquals(2, lane.dropped());
+        assertEquals(0, other.dropped());
+        assertEquals(2, pipeline.dropped());
+        runWorkers();
+        assertEquals(4, processed.size());
+    }
+
+    @Test
+    void offer_asynchronousEventBlocksItsLaneOnly() {
+        // Setup
+        EventPipeline.Lane lane = pipeline.lane("devoxx");
+        EventPipeline.Lane other = pipeline.lane("java");
+        CompletableFuture<Void> check = new CompletableFuture<>();
+
+        // Execute
+        lane.offer(() -> check.thenRun(() -> processed.add("create")));
+        lane.offer(() -> record("delete"));
+        other.offer(() -> record("other"));
+        runWorkers();
+
+        // Verify
+        assertEquals(List.of("other"), processed);
+        assertEquals(1, lane.depth());
+        check.complete(null);
+        runWorkers();
+        assertEquals(List.of("other", "create", "delete"), processed);
+    }
+
+    @Test
+    void offer_failedEventDoesNotStopTheLane() {
+        // Setup
+        EventPipeline.Lane lane = pipeline.lane("devoxx");
+
+        // Execute
+        lane.offer(() -> {
+            throw new IllegalStateException("Broken event");
+        });
+        lane.offer(() -> CompletableFuture.failedFuture(new IllegalStateException("Broken check")));
+        lane.offer(() -> record("next"));
+        runWorkers();
+
+        // Verify
+        assertEquals(List.of("next"), processed);
+        assertEquals(3, pipeline.processed());
+    }
+
+    @Test
+    void offer_orderIsKeptWithConcurrentWorkers() throws InterruptedException {
+        // Setup
+        int lanes = 8;
+        int events = 2000;
+        List<List<Integer>> results = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(lanes * events);
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            EventPipeline pipeline = new EventPipeline(executor, events);
+            List<EventPipeline.Lane> pipelineLanes = new ArrayList<>();
+            for (int l = 0; l < lanes; l++) {
+                results.add(Collections.synchronizedList(new ArrayList<>()));
+                pipelineLanes.add(pipeline.lane("lane" + l));
+            }
+
+            // Execute
+            for (int i = 0; i < events; i++) {
+                for (int l = 0; l < lanes; l++) {
+                    List<Integer> result = results.get(l);
+                    int event = i;
+                    pipelineLanes.get(l).offer(() -> {
+                        result.add(event);
+                        done.countDown();
+                        return CompletableFuture.completedFuture(null);
+                    });
+                }
+            }
+
+            // Verify
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+        for (List<Integer> result : results) {
+            for (int i = 0; i < events; i++) {
+                assertEquals(i, result.get(i));
+            }
+        }
+    }
+
+    @Test
+    void shutdown_processesTheQueuedEventsAndStopsTheWorkers() throws InterruptedException {
+        // Setup
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        EventPipeline pipeline = new EventPipeline(executor, 100);
+        EventPipeline.Lane lane = pipeline.lane("devoxx");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        List<String> results = Collections.synchronizedList(new ArrayList<>());
+        lane.offer(() -> {
+            started.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            results.add("create");
+            return CompletableFuture.completedFuture(null);
+        });
+        lane.offer(() -> {
+            results.add("delete");
+            return CompletableFuture.completedFuture(null);
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // Execute
+        proceed.countDown();
+        pipeline.shutdown();
+
+        // Verify
+        assertTrue(executor.isTerminated());
+        assertEquals(List.of("create", "delete"), results);
+        assertDoesNotThrow(() -> lane.offer(() -> CompletableFuture.completedFuture(null)));
+    }
+
+    @Test
+    void constructor_emptyLanes() {
+        assertThrows(IllegalArgumentException.class, () -> new EventPipeline(Runnable::run, 0));
+    }
+
+    private CompletableFuture<Void> record(final String event) {
+        processed.add(event);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private void runWorkers() {
+        while (!workers.isEmpty()) {
+            workers.removeFirst().run();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameAncestorsTest {
+
+    private final FrameAncestors frameAncestors = FrameAncestors.of("glacier.example");
+
+    /**
+     * Source expressions and if they allow glacier.example.
+     */
+    private static final Object[][] SOURCES = {
+            {"*", true},
+            {"https:", true},
+            {"http:", true},
+            {"wss:", false},
+            {"data:", false},
+            {"'self'", false},
+            {"'none'", false},
+            {"'unsafe-inline'", false},
+            {"glacier.example", true},
+            {"glacier.example:443", true},
+            {"glacier.example:80", true},
+            {"glacier.example:8443", false},
+            {"glacier.example:*", true},
+            {"https://glacier.example", true},
+            {"https://glacier.example:443", true},
+            {"https://glacier.example:80", false},
+            {"http://glacier.example", true},
+            {"http://glacier.example:443", true},
+            {"https://glacier.example/walls/", true},
+            {"ftp://glacier.example", false},
+            {"*.example", true},
+            {"https://*.example", true},
+            {"*.glacier.example", false},
+            {"*.other.example", false},
+            {"https://*", true},
+            {"*:443", true},
+            {"other.example", false},
+            {"glacierXexample", false},
+            {"glacier.example.evil", false},
+            {"evil-glacier.example", false},
+            {"example", false},
+            {"glacier.example:99999999999", false},
+            {"glacier.example:", false},
+    };
+
+    private static final String[] OTHER_DIRECTIVES = {
+            "default-src 'none'", "img-src 'self' data: https://cdn.example", "frame-src 'self' https:", "script-src 'self' 'wasm-unsafe-eval'",
+            "upgrade-insecure-requests", "frame-ancestors-extra glacier.example", "base-uri 'none'"
+    };
+
+    @ParameterizedTest
+    @MethodSource("policies")
+    void allows_policies(final List<String> policies, final Boolean expected) {
+        assertEquals(expected, frameAncestors.allows(policies));
+    }
+
+    public static Stream<Arguments> policies() {
+        return Stream.of(
+                Arguments.of(null, null) // No header
+                , Arguments.of(List.of(), null) // No header
+                , Arguments.of(List.of(""), null) // Empty header
+                , Arguments.of(List.of("default-src 'self'; img-src *"), null) // No frame-ancestors
+                , Arguments.of(List.of("frame-ancestors"), false) // Empty directive
+                , Arguments.of(List.of("frame-ancestors;"), false) // Empty directive
+                , Arguments.of(List.of("frame-ancestors 'none'"), false)
+                , Arguments.of(List.of("frame-ancestors 'none' glacier.example"), true) // 'none' with other sources is ignored
+                , Arguments.of(List.of("  Frame-Ancestors\t'self'\tGLACIER.example  ; default-src 'none'"), true) // Case and whitespace
+                , Arguments.of(List.of("frame-ancestors glacier.example; frame-ancestors 'none'"), true) // The first directive counts
+                , Arguments.of(List.of("frame-ancestors 'none'; frame-ancestors glacier.example"), false) // The first directive counts
+                , Arguments.of(List.of("frame-ancestors *, frame-ancestors 'self'"), false) // Every policy of a header must allow
+                , Arguments.of(List.of("frame-ancestors *", "frame-ancestors 'self'"), false) // Every header must allow
+                , Arguments.of(List.of("frame-ancestors *", "default-src 'none'"), true) // A policy without frame-ancestors does not restrict
+                , Arguments.of(List.of("default-src 'none', frame-ancestors https:"), true)
+                , Arguments.of(List.of("frame-ancestors-extra *"), null) // Another directive with the same prefix
+        );
+    }
+
+    @Test
+    void allows_explicitPortOfGlacier() {
+        // Setup
+        FrameAncestors local = FrameAncestors.of("Glacier.Example:8443");
+
+        // Execute & Verify
+        assertTrue(local.allows(List.of("frame-ancestors glacier.example:8443")));
+        assertTrue(local.allows(List.of("frame-ancestors https://glacier.example:*")));
+        assertTrue(local.allows(List.of("frame-ancestors *")));
+        assertFalse(local.allows(List.of("frame-ancestors glacier.example")));
+        assertFalse(local.allows(List.of("frame-ancestors glacier.example:443")));
+        assertTrue(FrameAncestors.of("glacier.example:443").allows(List.of("frame-ancestors https://glacier.example")));
+    }
+
+    @Test
+    void of_domainIsNeeded() {
+        assertThrows(IllegalArgumentException.class, () -> FrameAncestors.of(" "));
+        assertThrows(IllegalArgumentException.class, () -> FrameAncestors.of(null));
+    }
+
+    @Test
+    void allows_directiveAllowsIfAnySourceAllows() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            // Setup: a random policy with a random source list between other directives
+            boolean expected = false;
+            List<String> sources = new ArrayList<>();
+            for (int j = random.nextInt(5); j > 0; j--) {
+                Object[] source = SOURCES[random.nextInt(SOURCES.length)];
+                expected |= (Boolean) source[1];
+                sources.add(randomCase(random, (String) source[0]));
+            }
+            String policy = policy(random, randomCase(random, "frame-ancestors") + whitespace(random) + String.join(whitespace(random), sources));
+
+            // Execute & Verify
+            assertEquals(expected, frameAncestors.allows(List.of(policy)), policy);
+        }
+    }
+
+    @Test
+    void allows_everyPolicyMustAllow() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            // Setup: random policies with and without a frame-ancestors directive, in one or several headers
+            Boolean expected = null;
+            List<String> policies = new ArrayList<>();
+            for (int j = 1 + random.nextInt(4); j > 0; j--) {
+                if (random.nextBoolean()) {
+                    Object[] source = SOURCES[random.nextInt(SOURCES.length)];
+                    expected = (expected == null || expected) && (Boolean) source[1];
+                    policies.add(policy(random, "frame-ancestors " + source[0]));
+                } else {
+                    policies.add(OTHER_DIRECTIVES[random.nextInt(OTHER_DIRECTIVES.length)]);
+                }
+            }
+            List<String> headers = random.nextBoolean() ? policies : List.of(String.join(random.nextBoolean() ? "," : " , ", policies));
+
+            // Execute & Verify
+            assertEquals(expected, frameAncestors.allows(headers), headers.toString());
+        }
+    }
+
+    /**
+     * Places the directive between random other directives.
+     */
+    private static String policy(final Random random, final String directive) {
+        List<String> directives = new ArrayList<>();
+        for (int i = random.nextInt(3); i > 0; i--) {
+            directives.add(OTHER_DIRECTIVES[random.nextInt(OTHER_DIRECTIVES.length)]);
+        }
+        directives.add(random.nextInt(directives.size() + 1), directive);
+        return String.join(random.nextBoolean() ? "; " : ";", directives) + (random.nextBoolean() ? ";" : "");
+    }
+
+    private static String whitespace(final Random random) {
+        return random.nextBoolean() ? " " : random.nextBoolean() ? "\t" : "  ";
+    }
+
+    private static String randomCase(final Random random, final String value) {
+        return random.nextBoolean() ? value : value.toUpperCase(Locale.ROOT);
+    }
+}
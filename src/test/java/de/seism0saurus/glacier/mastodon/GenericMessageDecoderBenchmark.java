@@ -0,0 +1,88 @@
+package de.seism0saurus.glacier.mastodon;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.seism0saurus.glacier.webservice.messaging.messages.DecodedGenericMessage;
+import de.seism0saurus.glacier.webservice.messaging.messages.GenericMessageContent;
+import de.seism0saurus.glacier.webservice.messaging.messages.GenericMessageContentPayload;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the decoding of a generic update message by the {@link GenericMessageDecoder GenericMessageDecoder}
+ * with the former path: a new ObjectMapper per event, a tree for the message and a second pass over the payload.
+ * <p>
+ * Run it with {@link #main(String[]) main} from the test classpath. The gc profiler reports the allocations per event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class GenericMessageDecoderBenchmark {
+
+    /**
+     * A status with the usual size of a status from the hashtag stream of mastodon.social.
+     */
+    private static final String PAYLOAD = "{\"id\":\"113456789012345678\",\"created_at\":\"2024-10-07T09:12:44.000Z\","
+            + "\"in_reply_to_id\":null,\"in_reply_to_account_id\":null,\"sensitive\":false,\"spoiler_text\":\"\","
+            + "\"visibility\":\"public\",\"language\":\"en\",\"uri\":\"https://mastodon.social/users/alice/statuses/113456789012345678\","
+            + "\"url\":\"https://mastodon.social/@alice/113456789012345678\",\"replies_count\":0,\"reblogs_count\":3,"
+            + "\"favourites_count\":12,\"edited_at\":null,\"content\":\"<p>Great talk at <a href=\\\"https://mastodon.social/tags/devoxx\\\" "
+            + "class=\\\"mention hashtag\\\" rel=\\\"tag\\\">#<span>devoxx</span></a> about virtual threads. "
+            + "<span class=\\\"h-card\\\"><a href=\\\"https://glacier.example/@glacier\\\" class=\\\"u-url mention\\\">@<span>glacier</span></a></span></p>\","
+            + "\"reblog\":null,\"application\":{\"name\":\"Web\",\"website\":null},"
+            + "\"account\":{\"id\":\"109876543210\",\"username\":\"alice\",\"acct\":\"alice\",\"display_name\":\"Alice\","
+            + "\"locked\":false,\"bot\":false,\"discoverable\":true,\"group\":false,\"created_at\":\"2022-11-05T00:00:00.000Z\","
+            + "\"note\":\"<p>Java developer</p>\",\"url\":\"https://mastodon.social/@alice\",\"avatar\":\"https://files.mastodon.social/avatar.png\","
+            + "\"avatar_static\":\"https://files.mastodon.social/avatar.png\",\"header\":\"https://files.mastodon.social/header.png\","
+            + "\"header_static\":\"https://files.mastodon.social/header.png\",\"followers_count\":420,\"following_count\":210,"
+            + "\"statuses_count\":1337,\"last_status_at\":\"2024-10-07\",\"emojis\":[],\"fields\":[{\"name\":\"Blog\",\"value\":\"alice.example\",\"verified_at\":null}]},"
+            + "\"media_attachments\":[],\"mentions\":[{\"id\":\"110000000000\",\"username\":\"glacier\",\"url\":\"https://glacier.example/@glacier\",\"acct\":\"glacier@glacier.example\"}],"
+            + "\"tags\":[{\"name\":\"devoxx\",\"url\":\"https://mastodon.social/tags/devoxx\"}],\"emojis\":[],\"card\":null,\"poll\":null}";
+
+    private String text;
+
+    @Setup
+    public void setup() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        text = "{\"stream\":[\"hashtag\",\"devoxx\"],\"event\":\"update\",\"payload\":" + mapper.writeValueAsString(PAYLOAD) + "}";
+    }
+
+    /**
+     * The former path of the StompCallback.
+     */
+    @Benchmark
+    public GenericMessageContentPayload objectMapperPerEvent() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        GenericMessageContent content = mapper.readValue(text, GenericMessageContent.class);
+        return mapper.readValue(content.getPayload().textValue(), GenericMessageContentPayload.class);
+    }
+
+    /**
+     * The former path with a shared mapper, to separate the cost of the mapper from the cost of the two passes.
+     */
+    @Benchmark
+    public GenericMessageContentPayload sharedObjectMapper() throws IOException {
+        GenericMessageContent content = GenericMessageDecoder.MAPPER.readValue(text, GenericMessageContent.class);
+        return GenericMessageDecoder.MAPPER.readValue(content.getPayload().textValue(), GenericMessageContentPayload.class);
+    }
+
+    @Benchmark
+    public DecodedGenericMessage streamingDecoder() throws IOException {
+        return GenericMessageDecoder.decode(text);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(GenericMessageDecoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,136 @@
+package de.seism0saurus.glacier.mastodon;
+
+import de.seism0saurus.glacier.webservice.messaging.messages.DecodedGenericMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GenericMessageDecoderTest {
+
+    private static final String STATUS = "{\\\"id\\\":\\\"1\\\",\\\"created_at\\\":\\\"2024-01-01T00:00:00Z\\\","
+            + "\\\"url\\\":\\\"https://mastodon.social/@alice/1\\\",\\\"edited_at\\\":\\\"2024-01-02T00:00:00Z\\\","
+            + "\\\"account\\\":{\\\"id\\\":\\\"2\\\",\\\"acct\\\":\\\"alice\\\",\\\"url\\\":\\\"https://mastodon.social/@alice\\\"},"
+            + "\\\"reblog\\\":{\\\"id\\\":\\\"3\\\",\\\"url\\\":\\\"https://other.example/3\\\",\\\"mentions\\\":[{\\\"acct\\\":\\\"mallory\\\"}]},"
+            + "\\\"tags\\\":[{\\\"name\\\":\\\"devoxx\\\"}],"
+            + "\\\"mentions\\\":[{\\\"id\\\":\\\"4\\\",\\\"acct\\\":\\\"glacier\\\"},{\\\"acct\\\":\\\"bob@other.example\\\",\\\"url\\\":\\\"https://other.example/@bob\\\"}]}";
+
+    @Test
+    void decode_update() throws IOException {
+        // Setup
+        String text = "{\"stream\":[\"hashtag\",\"devoxx\"],\"event\":\"update\",\"payload\":\"" + STATUS + "\"}";
+
+        // Execute
+        DecodedGenericMessage message = GenericMessageDecoder.decode(text);
+
+        // Verify
+        assertEquals(List.of("hashtag", "devoxx"), message.getStream());
+        assertEquals("update", message.getEvent());
+        assertEquals("1", message.getId());
+        assertEquals("https://mastodon.social/@alice/1", message.getUrl());
+        assertEquals("2024-01-02T00:00:00Z", message.getEditedAt());
+        assertEquals(List.of("glacier", "bob@other.example"), message.getMentions());
+    }
+
+    @Test
+    void decode_payloadBeforeEvent() throws IOException {
+        // Setup
+        String text = "{\"payload\":\"" + STATUS + "\",\"event\":\"status.update\",\"stream\":[\"hashtag\",\"devoxx\"]}";
+
+        // Execute
+        DecodedGenericMessage message = GenericMessageDecoder.decode(text);
+
+        // Verify
+        assertEquals("status.update", message.getEvent());
+        assertEquals("1", message.getId());
+        assertEquals(List.of("glacier", "bob@other.example"), message.getMentions());
+    }
+
+    @Test
+    void decode_deletePayloadIsTheId() throws IOException {
+        // Setup
+        String text = "{\"stream\":[\"hashtag\",\"devoxx\"],\"event\":\"delete\",\"payload\":\"12345\"}";
+
+        // Execute
+        DecodedGenericMessage message = GenericMessageDecoder.decode(text);
+
+        // Verify
+        assertEquals("delete", message.getEvent());
+        assertEquals("12345", message.getId());
+        assertNull(message.getUrl());
+        assertNull(message.getMentions());
+    }
+
+    @Test
+    void decode_nullMentionsAndUnknownEvent() throws IOException {
+        // Execute
+        DecodedGenericMessage update = GenericMessageDecoder.decode(
+                "{\"stream\":[\"hashtag\"],\"event\":\"update\",\"payload\":\"{\\\"id\\\":\\\"1\\\",\\\"mentions\\\":null}\"}");
+        DecodedGenericMessage notification = GenericMessageDecoder.decode(
+                "{\"stream\":[\"user\"],\"event\":\"notification\",\"payload\":\"{\\\"id\\\":\\\"1\\\"}\"}");
+
+        // Verify
+        assertEquals(List.of(), update.getMentions());
+        assertEquals("notification", notification.getEvent());
+        assertNull(notification.getId());
+    }
+
+    @Test
+    void decode_invalidMessageFails() {
+        assertThrows(IOException.class, () -> GenericMessageDecoder.decode("[\"hashtag\"]"));
+        assertThrows(IOException.class, () -> GenericMessageDecoder.decode("{\"event\":"));
+        assertThrows(IOException.class, () -> GenericMessageDecoder.decode("{\"event\":\"update\",\"payload\":\"{\\\"id\\\":\"}"));
+    }
+
+    @Test
+    void readStream_stopsAtTheStream() throws IOException {
+        assertEquals(List.of("hashtag", "devoxx"), GenericMessageDecoder.readStream("{\"event\":\"update\",\"stream\":[\"hashtag\",\"devoxx\"],\"payload\":"));
+        assertNull(GenericMessageDecoder.readStream("{\"event\":\"update\"}"));
+    }
+
+    @Test
+    void peek_updateStopsAtTheId() throws IOException {
+        // Setup
+        String text = "{\"stream\":[\"hashtag\",\"devoxx\"],\"event\":\"update\",\"payload\":\"" + STATUS + "\"}";
+
+        // Execute
+        DecodedGenericMessage message = GenericMessageDecoder.peek(text);
+
+        // Verify
+        assertEquals("update", message.getEvent());
+        assertEquals("1", message.getId());
+        assertNull(message.getUrl());
+        assertNull(message.getMentions());
+    }
+
+    @Test
+    void peek_editIsDecodedFully() throws IOException {
+        // Setup
+        String text = "{\"stream\":[\"hashtag\",\"devoxx\"],\"event\":\"status.update\",\"payload\":\"" + STATUS + "\"}";
+
+        // Execute
+        DecodedGenericMessage message = GenericMessageDecoder.peek(text);
+
+        // Verify
+        assertEquals("1", message.getId());
+        assertEquals("https://mastodon.social/@alice/1", message.getUrl());
+        assertEquals(List.of("glacier", "bob@other.example"), message.getMentions());
+    }
+
+    @Test
+    void readMentionedStatusId_onlyMentions() throws IOException {
+        // Setup
+        String mention = "{\"stream\":[\"user:notification\"],\"event\":\"notification\",\"payload\":\""
+                + "{\\\"id\\\":\\\"9\\\",\\\"account\\\":{\\\"id\\\":\\\"2\\\"},\\\"status\\\":" + STATUS + ",\\\"type\\\":\\\"mention\\\"}\"}";
+        String favourite = "{\"stream\":[\"user:notification\"],\"event\":\"notification\",\"payload\":\""
+                + "{\\\"id\\\":\\\"9\\\",\\\"type\\\":\\\"favourite\\\",\\\"status\\\":" + STATUS + "}\"}";
+        String update = "{\"stream\":[\"hashtag\",\"devoxx\"],\"event\":\"update\",\"payload\":\"" + STATUS + "\"}";
+
+        // Execute & Verify
+        assertEquals("1", GenericMessageDecoder.readMentionedStatusId(mention));
+        assertNull(GenericMessageDecoder.readMentionedStatusId(favourite));
+        assertNull(GenericMessageDecoder.readMentionedStatusId(update));
+    }
+}
@@ -0,0 +1,244 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class HashtagStreamRegistryTest {
+
+    private final Clock clock = mock(Clock.class);
+    private final UpstreamConnector connector1 = mock(UpstreamConnector.class);
+    private final UpstreamConnector connector2 = mock(UpstreamConnector.class);
+    private final Closeable upstream = mock(Closeable.class);
+    private StompCallback callback1;
+    private StompCallback callback2;
+    private final DeliveredStatuses deliveredStatuses = new DeliveredStatuses(10);
+    private StreamOwnership ownership1;
+    private HashtagStreamRegistry registry1;
+    private HashtagStreamRegistry registry2;
+
+    @BeforeEach
+    void setUp() {
+        when(clock.millis()).thenReturn(1_000L);
+        when(connector1.open(any(), any())).thenReturn(upstream);
+        when(connector2.open(any(), any())).thenReturn(upstream);
+        callback1 = mock(StompCallback.class);
+        callback2 = mock(StompCallback.class);
+        InMemoryStreamOwnership.Cluster cluster = new InMemoryStreamOwnership.Cluster();
+        ownership1 = new InMemoryStreamOwnership("node1", Duration.ofSeconds(15), clock, cluster);
+        registry1 = new HashtagStreamRegistry(connector1, tag -> callback1, ownership1, deliveredStatuses);
+        registry2 = new HashtagStreamRegistry(connector2, tag -> callback2, new InMemoryStreamOwnership("node2", Duration.ofSeconds(15), clock, cluster), new DeliveredStatuses(10));
+        registry1.rebalance();
+    }
+
+    @Test
+    void acquire_onlyTheOwnerOpensTheStream() {
+        // Setup
+        String hashtag = hashtagOwnedBy("node1");
+
+        // Execute
+        registry1.acquire("wall1", hashtag);
+        registry2.acquire("wall2", hashtag);
+        registry2.flush();
+        registry1.rebalance();
+
+        // Verify
+        verify(connector1).open(eq(hashtag), any());
+        verifyNoInteractions(connector2);
+        verify(callback1).replaceSubscribers(Map.of("wall1", hashtag, "wall2", hashtag));
+        verify(callback2).seedRecent();
+        verify(callback2, never()).seed();
+        assertEquals(1, registry1.numberOfStreams());
+        assertEquals(0, registry2.numberOfStreams());
+    }
+
+    @Test
+    void acquire_opensTheUpstreamOutsideOfTheLockOnFlush() {
+        // Setup
+        String hashtag = hashtagOwnedBy("node1");
+
+        // Execute
+        registry1.acquire("wall1", hashtag);
+
+        // Verify: the stream counts as open, but is connected by the flush
+        verifyNoInteractions(connector1);
+        assertEquals(1, registry1.numberOfStreams());
+
+        // Execute
+        registry1.flush();
+
+        // Verify
+        verify(connector1).open(eq(hashtag), any());
+        verify(callback1).seed();
+    }
+
+    @Test
+    void release_beforeTheFlushClosesTheLateUpstream() throws Exception {
+        // Setup
+        String hashtag = hashtagOwnedBy("node1");
+        registry1.acquire("wall1", hashtag);
+        when(callback1.numberOfSubscribers()).thenReturn(0);
+
+        // Execute
+        registry1.release("wall1", hashtag);
+        registry1.flush();
+
+        // Verify
+        verify(connector1).open(eq(hashtag), any());
+        verify(upstream).close();
+        verify(callback1, never()).seed();
+        assertEquals(0, registry1.numberOfStreams());
+    }
+
+    @Test
+    void rebalance_otherMemberTakesOverAfterLeave() {
+        // Setup
+        String hashtag = hashtagOwnedBy("node1");
+        registry1.acquire("wall1", hashtag);
+        registry2.acquire("wall2", hashtag);
+
+        // Execute
+        ownership1.leave();
+        registry2.rebalance();
+
+        // Verify
+        verify(connector2).open(eq(hashtag), any());
+        verify(callback2).replaceSubscribers(Map.of("wall2", hashtag));
+        verify(callback2).seed();
+        assertEquals(1, registry2.numberOfStreams());
+    }
+
+    @Test
+    void rebalance_otherMemberTakesOverAfterTheLeaseRanOut() {
+        // Setup
+        String hashtag = hashtagOwnedBy("node1");
+        registry1.acquire("wall1", hashtag);
+        registry2.acquire("wall2", hashtag);
+
+        // Execute
+        when(clock.millis()).thenReturn(20_000L);
+        registry2.rebalance();
+
+        // Verify
+        verify(connector2).open(eq(hashtag), any());
+        assertEquals(1, registry2.numberOfStreams());
+    }
+
+    @Test
+    void rebalance_formerOwnerHandsOverAndKeepsItsSubscribers() throws Exception {
+        // Setup: node1 is alone and owns every hashtag, until node2 joins
+        String hashtag = hashtagOwnedBy("node2");
+        InMemoryStreamOwnership.Cluster cluster = new InMemoryStreamOwnership.Cluster();
+        HashtagStreamRegistry alone = new HashtagStreamRegistry(connector1, tag -> callback1, new InMemoryStreamOwnership("node1", Duration.ofSeconds(15), clock, cluster), new DeliveredStatuses(10));
+        alone.acquire("wall1", hashtag);
+        alone.flush();
+        verify(connector1).open(eq(hashtag), any());
+
+        // Execute
+        HashtagStreamRegistry joined = new HashtagStreamRegistry(connector2, tag -> callback2, new InMemoryStreamOwnership("node2", Duration.ofSeconds(15), clock, cluster), new DeliveredStatuses(10));
+        alone.rebalance();
+        joined.rebalance();
+
+        // Verify
+        verify(upstream).close();
+        verify(callback1).replaceSubscribers(Map.of("wall1", hashtag));
+        verify(connector2).open(eq(hashtag), any());
+        verify(callback2).replaceSubscribers(Map.of("wall1", hashtag));
+        assertEquals(0, alone.numberOfStreams());
+        assertEquals(1, joined.numberOfStreams());
+    }
+
+    @Test
+    void flush_sharesTheQueuedSubscribersWithTheCluster() {
+        // Setup
+        String hashtag = hashtagOwnedBy("node1");
+        registry1.acquire("wall1", hashtag);
+        registry1.acquire("wall2", hashtag);
+        registry1.release("wall2", hashtag);
+        assertEquals(List.of(), ownership1.subscribers());
+
+        // Execute
+        registry1.flush();
+
+        // Verify
+        assertEquals(List.of(new StreamOwnership.Subscriber(hashtag, "wall1", hashtag, "node1")), ownership1.subscribers());
+    }
+
+    @Test
+    void rebalance_repairsTheSubscribersOfThisMember() {
+        // Setup: the row of wall1 was lost and the row of wall2 was left over
+        String hashtag = hashtagOwnedBy("node1");
+        registry1.acquire("wall1", hashtag);
+        registry1.flush();
+        ownership1.unregister(hashtag, "wall1");
+        ownership1.register(hashtag, "wall2", hashtag);
+
+        // Execute
+        registry1.rebalance();
+
+        // Verify
+        assertEquals(List.of(new StreamOwnership.Subscriber(hashtag, "wall1", hashtag, "node1")), ownership1.subscribers());
+        verify(callback1).replaceSubscribers(Map.of("wall1", hashtag));
+    }
+
+    @Test
+    void rebalance_ownerForgetsTheDeliveredStatusesOfADroppedRemoteWall() {
+        // Setup: node1 owns the hashtag and delivered a status to wall2 of node2
+        String hashtag = hashtagOwnedBy("node1");
+        registry1.acquire("wall1", hashtag);
+        registry2.acquire("wall2", hashtag);
+        registry2.flush();
+        registry1.rebalance();
+        deliveredStatuses.deliver("wall2", "101");
+        assertEquals(1, deliveredStatuses.numberOfWalls());
+
+        // Execute
+        registry2.release("wall2", hashtag);
+        registry2.flush();
+        registry1.rebalance();
+
+        // Verify
+        verify(callback1).replaceSubscribers(Map.of("wall1", hashtag));
+        assertEquals(0, deliveredStatuses.numberOfWalls());
+    }
+
+    @Test
+    void release_lastSubscriberDiscardsTheStream() throws Exception {
+        // Setup
+        String hashtag = hashtagOwnedBy("node1");
+        registry1.acquire("wall1", hashtag);
+        registry1.flush();
+        when(callback1.numberOfSubscribers()).thenReturn(0);
+
+        // Execute
+        registry1.release("wall1", hashtag);
+        registry1.flush();
+
+        // Verify
+        verify(upstream).close();
+        verify(callback1).discard();
+        assertEquals(0, registry1.numberOfStreams());
+    }
+
+    /**
+     * Finds a hashtag, that the given member owns on the ring of both members.
+     */
+    private static String hashtagOwnedBy(final String member) {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("node1", "node2"), 128);
+        for (int i = 0; ; i++) {
+            if (member.equals(ring.ownerOf("hashtag" + i))) {
+                return "hashtag" + i;
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class InMemoryStreamOwnershipTest {
+
+    private final Clock clock = mock(Clock.class);
+    private StreamOwnership node1;
+    private StreamOwnership node2;
+
+    @BeforeEach
+    void setUp() {
+        InMemoryStreamOwnership.Cluster cluster = new InMemoryStreamOwnership.Cluster();
+        node1 = new InMemoryStreamOwnership("node1", Duration.ofSeconds(15), clock, cluster);
+        node2 = new InMemoryStreamOwnership("node2", Duration.ofSeconds(15), clock, cluster);
+        when(clock.millis()).thenReturn(1_000L);
+    }
+
+    @Test
+    void renew_returnsTheLiveMembers() {
+        // Execute
+        node1.renew();
+        Set<String> members = node2.renew();
+
+        // Verify
+        assertEquals(Set.of("node1", "node2"), members);
+    }
+
+    @Test
+    void subscribers_ofAllLiveMembers() {
+        // Setup
+        node1.renew();
+        node2.renew();
+
+        // Execute
+        node1.register("devoxx", "wall1", "Devoxx");
+        node2.register("devoxx", "wall2", "devoxx");
+        node2.register("java", "wall2", "java");
+
+        // Verify
+        assertEquals(Set.of(
+                new StreamOwnership.Subscriber("devoxx", "wall1", "Devoxx", "node1"),
+                new StreamOwnership.Subscriber("devoxx", "wall2", "devoxx", "node2"),
+                new StreamOwnership.Subscriber("java", "wall2", "java", "node2")), Set.copyOf(node1.subscribers()));
+    }
+
+    @Test
+    void renew_expiredMemberAndItsSubscribersAreGone() {
+        // Setup
+        node1.renew();
+        node1.register("devoxx", "wall1", "devoxx");
+        when(clock.millis()).thenReturn(10_000L);
+        node2.renew();
+        node2.register("devoxx", "wall2", "devoxx");
+        when(clock.millis()).thenReturn(16_000L);
+
+        // Execute & Verify
+        assertEquals(List.of(new StreamOwnership.Subscriber("devoxx", "wall2", "devoxx", "node2")), node2.subscribers());
+        assertEquals(Set.of("node2"), node2.renew());
+        assertEquals(Set.of("node1", "node2"), node1.renew());
+        assertEquals(List.of(new StreamOwnership.Subscriber("devoxx", "wall2", "devoxx", "node2")), node1.subscribers());
+    }
+
+    @Test
+    void leave_removesTheMemberAndItsSubscribers() {
+        // Setup
+        node1.renew();
+        node2.renew();
+        node1.register("devoxx", "wall1", "devoxx");
+
+        // Execute
+        node1.leave();
+
+        // Verify
+        assertEquals(Set.of("node2"), node2.renew());
+        assertTrue(node2.subscribers().isEmpty());
+    }
+
+    @Test
+    void unregister_removesTheSubscriber() {
+        // Setup
+        node1.renew();
+        node1.register("devoxx", "wall1", "devoxx");
+
+        // Execute
+        node1.unregister("devoxx", "wall1");
+
+        // Verify
+        assertTrue(node1.subscribers().isEmpty());
+    }
+}
@@ -0,0 +1,137 @@
+package de.seism0saurus.glacier.mastodon;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the check of the headers of an embed page, if it is loadable as iframe by glacier.
+ * <p>
+ * One operation checks the whole corpus. The corpus contains the headers, that the embed pages of the usual servers return:
+ * Mastodon with its long content security policy, servers, that deny or allow all frames, and servers without any header.
+ * <p>
+ * {@link #legacyRegex() legacyRegex} measures the former check with a regex per policy as comparison for the parser of {@link FrameAncestors}.
+ * <p>
+ * Run it with {@link #main(String[]) main} from the test classpath or with the Benchmarks profile. The gc profiler reports the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class IsLoadableBenchmark {
+
+    private static final String GLACIER_DOMAIN = "glacier.example";
+    private static final FrameAncestors FRAME_ANCESTORS = FrameAncestors.of(GLACIER_DOMAIN);
+
+    /**
+     * The Content-Security-Policy and X-Frame-Options of the corpus. Null, if the server does not send the header.
+     */
+    private static final String[][] CORPUS = {
+            // Mastodon 4.x embed page
+            {"base-uri 'none'; default-src 'none'; frame-ancestors *; font-src 'self' https://files.mastodon.social; "
+                    + "img-src 'self' data: blob: https://files.mastodon.social; style-src 'self' https://files.mastodon.social 'nonce-8kU0kZ1bqG2n7eT5Wm1x3A=='; "
+                    + "media-src 'self' data: https://files.mastodon.social; manifest-src 'self' https://files.mastodon.social; form-action 'self'; "
+                    + "child-src 'self' blob: https://files.mastodon.social; worker-src 'self' blob: https://files.mastodon.social; "
+                    + "connect-src 'self' data: blob: https://files.mastodon.social wss://streaming.mastodon.social; "
+                    + "script-src 'self' https://files.mastodon.social 'wasm-unsafe-eval'; frame-src 'self' https:; upgrade-insecure-requests", null},
+            // Mastodon page, that is not an embed page
+            {"base-uri 'none'; default-src 'none'; frame-ancestors 'none'; font-src 'self' https://cdn.example; img-src 'self' data: blob: https://cdn.example; "
+                    + "script-src 'self' https://cdn.example 'wasm-unsafe-eval'; form-action 'self'; upgrade-insecure-requests", "DENY"},
+            // A server, that allows only itself and glacier
+            {"default-src 'self'; frame-ancestors 'self' https://glacier.example", null},
+            // A server, that allows every https site
+            {"default-src 'self'; frame-ancestors https:", null},
+            // A server with a policy without frame-ancestors
+            {"default-src 'self'; img-src *; media-src *", "SAMEORIGIN"},
+            // Servers with only X-Frame-Options
+            {null, "DENY"},
+            {null, "SAMEORIGIN"},
+            {null, "ALLOWALL"},
+            {null, "ALLOW-FROM https://glacier.example"},
+            // A server without any header
+            {null, null},
+    };
+
+    private HttpHeaders[] headers;
+
+    @Setup
+    public void setup() {
+        // The benchmark measures the check and not the console appender
+        ((Logger) LoggerFactory.getLogger(StompCallback.class)).setLevel(Level.ERROR);
+        headers = new HttpHeaders[CORPUS.length];
+        for (int i = 0; i < CORPUS.length; i++) {
+            headers[i] = new HttpHeaders();
+            if (CORPUS[i][0] != null) {
+                headers[i].add("Content-Security-Policy", CORPUS[i][0]);
+            }
+            if (CORPUS[i][1] != null) {
+                headers[i].add("X-Frame-Options", CORPUS[i][1]);
+            }
+        }
+    }
+
+    @Benchmark
+    public int isLoadable() {
+        int loadable = 0;
+        for (HttpHeaders header : headers) {
+            if (StompCallback.isLoadable(header, FRAME_ANCESTORS)) {
+                loadable++;
+            }
+        }
+        return loadable;
+    }
+
+    @Benchmark
+    public int legacyRegex() {
+        int loadable = 0;
+        for (HttpHeaders header : headers) {
+            if (legacyIsLoadable(header)) {
+                loadable++;
+            }
+        }
+        return loadable;
+    }
+
+    /**
+     * The former check, that uppercases and splits the first policy and compiles a regex with the domain for each frame-ancestors directive.
+     */
+    private static boolean legacyIsLoadable(final HttpHeaders httpHeaders) {
+        List<String> xFrameOptions = httpHeaders.get("X-Frame-Options");
+        List<String> csp = httpHeaders.get("Content-Security-Policy");
+        if (csp != null && !csp.isEmpty() && csp.getFirst().toUpperCase().contains("FRAME-ANCESTORS")) {
+            return Stream.of(csp.getFirst().split(";"))
+                    .filter(policy -> policy.toUpperCase().contains("FRAME-ANCESTORS"))
+                    .map(String::trim)
+                    .anyMatch(policy -> policy.toUpperCase().matches(
+                            "FRAME-ANCESTORS (\\S+ )*((HTTPS?:(//)?)|((HTTPS?://)?\\*(:((\\*)|80|443))?)|((HTTPS?://)?"
+                                    + GLACIER_DOMAIN.toUpperCase()
+                                    + "(:((\\*)|80|443))?))( \\S+)*"));
+        }
+        if (xFrameOptions == null) {
+            return true;
+        }
+        if (xFrameOptions.stream().anyMatch(option -> option.equalsIgnoreCase("DENY") || option.equalsIgnoreCase("SAMEORIGIN"))) {
+            return false;
+        }
+        return xFrameOptions.stream().anyMatch(option -> option.equalsIgnoreCase("ALLOWALL"));
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(IsLoadableBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,216 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadabilityCacheTest {
+
+    private final TestClock clock = new TestClock();
+    private final LoadabilityCache cache = new LoadabilityCache(2, Duration.ofMinutes(10), Duration.ofMinutes(1), clock);
+    private final AtomicInteger checks = new AtomicInteger();
+
+    @Test
+    void isLoadable_cachedVerdictIsAHit() {
+        // Execute
+        assertTrue(cache.isLoadable("https://example.com/1", this::allow).join());
+        assertTrue(cache.isLoadable("https://example.com/1", this::allow).join());
+
+        // Verify
+        assertEquals(1, checks.get());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void isLoadable_positiveVerdictExpires() {
+        // Setup
+        cache.isLoadable("https://example.com/1", this::allow).join();
+
+        // Execute
+        clock.advance(Duration.ofMinutes(9));
+        cache.isLoadable("https://example.com/1", this::allow).join();
+        clock.advance(Duration.ofMinutes(1));
+        cache.isLoadable("https://example.com/1", this::allow).join();
+
+        // Verify
+        assertEquals(2, checks.get());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    void isLoadable_negativeVerdictExpiresEarlier() {
+        // Setup
+        assertFalse(cache.isLoadable("https://example.com/1", this::deny).join());
+
+        // Execute
+        clock.advance(Duration.ofSeconds(59));
+        assertFalse(cache.isLoadable("https://example.com/1", this::deny).join());
+        clock.advance(Duration.ofSeconds(1));
+        assertTrue(cache.isLoadable("https://example.com/1", this::allow).join());
+
+        // Verify
+        assertEquals(2, checks.get());
+    }
+
+    @Test
+    void isLoadable_leastRecentlyUsedIsEvicted() {
+        // Setup
+        cache.isLoadable("https://example.com/1", this::allow).join();
+        cache.isLoadable("https://example.com/2", this::allow).join();
+        cache.isLoadable("https://example.com/1", this::allow).join();
+
+        // Execute
+        cache.isLoadable("https://example.com/3", this::allow).join();
+
+        // Verify
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        cache.isLoadable("https://example.com/1", this::allow).join();
+        assertEquals(3, checks.get());
+        cache.isLoadable("https://example.com/2", this::allow).join();
+        assertEquals(4, checks.get());
+    }
+
+    @Test
+    void isLoadable_failedCheckIsNotCached() {
+        // Execute
+        CompletableFuture<Boolean> verdict = cache.isLoadable("https://example.com/1",
+                url -> CompletableFuture.failedFuture(new IllegalStateException("HEAD failed")));
+
+        // Verify
+        CompletionException exception = assertThrows(CompletionException.class, verdict::join);
+        assertInstanceOf(IllegalStateException.class, exception.getCause());
+        assertEquals(0, cache.size());
+        assertTrue(cache.isLoadable("https://example.com/1", this::allow).join());
+    }
+
+    @Test
+    void isLoadable_throwingCheckFailsTheVerdict() {
+        // Execute
+        CompletableFuture<Boolean> verdict = cache.isLoadable("https://example.com/1", url -> {
+            throw new IllegalStateException("Invalid URL");
+        });
+
+        // Verify
+        assertTrue(verdict.isCompletedExceptionally());
+        assertTrue(cache.isLoadable("https://example.com/1", this::allow).join());
+    }
+
+    @Test
+    void isLoadable_concurrentLookupsShareOneCheck() {
+        // Setup
+        CompletableFuture<Boolean> running = new CompletableFuture<>();
+        List<CompletableFuture<Boolean>> verdicts = new ArrayList<>();
+
+        // Execute
+        verdicts.add(cache.isLoadable("https://example.com/1", url -> {
+            checks.incrementAndGet();
+            return running;
+        }));
+        for (int i = 0; i < 7; i++) {
+            verdicts.add(cache.isLoadable("https://example.com/1", this::allow));
+        }
+        running.complete(false);
+
+        // Verify
+        verdicts.forEach(verdict -> assertFalse(verdict.join()));
+        assertEquals(1, checks.get());
+        assertEquals(1, cache.misses());
+        assertEquals(7, cache.coalesced());
+        assertFalse(cache.isLoadable("https://example.com/1", this::allow).join());
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    void isLoadable_concurrentThreadsShareOneCheck() throws Exception {
+        // Setup
+        LoadabilityCache cache = new LoadabilityCache(100, Duration.ofMinutes(10), Duration.ofMinutes(1), clock);
+        CompletableFuture<Boolean> running = new CompletableFuture<>();
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<CompletableFuture<Boolean>>> results = new ArrayList<>();
+
+        // Execute
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return cache.isLoadable("https://example.com/1", url -> {
+                        checks.incrementAndGet();
+                        return running;
+                    });
+                }));
+            }
+            start.countDown();
+            List<CompletableFuture<Boolean>> verdicts = new ArrayList<>();
+            for (Future<CompletableFuture<Boolean>> result : results) {
+                verdicts.add(result.get(5, TimeUnit.SECONDS));
+            }
+            running.complete(true);
+
+            // Verify
+            verdicts.forEach(verdict -> assertTrue(verdict.join()));
+        }
+        assertEquals(1, checks.get());
+        assertEquals(threads, cache.misses() + cache.coalesced());
+    }
+
+    @Test
+    void constructor_emptyCache() {
+        assertThrows(IllegalArgumentException.class, () -> new LoadabilityCache(0, Duration.ZERO, Duration.ZERO, clock));
+    }
+
+    private CompletableFuture<Boolean> allow(final String url) {
+        checks.incrementAndGet();
+        return CompletableFuture.completedFuture(true);
+    }
+
+    private CompletableFuture<Boolean> deny(final String url) {
+        checks.incrementAndGet();
+        return CompletableFuture.completedFuture(false);
+    }
+
+    /**
+     * A clock, that only moves when the test advances it.
+     */
+    private static class TestClock extends Clock {
+
+        private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+        void advance(final Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongWindowSetTest {
+
+    @Test
+    void add_duplicateIsRejected() {
+        // Setup
+        LongWindowSet set = new LongWindowSet(4);
+
+        // Execute & Verify
+        assertTrue(set.add(113_000_000_000_000_001L));
+        assertFalse(set.add(113_000_000_000_000_001L));
+        assertTrue(set.contains(113_000_000_000_000_001L));
+        assertFalse(set.contains(113_000_000_000_000_002L));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void add_fullWindowEvictsTheOldestKey() {
+        // Setup
+        LongWindowSet set = new LongWindowSet(3);
+
+        // Execute
+        for (long id = 1; id <= 4; id++) {
+            set.add(id);
+        }
+
+        // Verify
+        assertFalse(set.contains(1));
+        assertTrue(set.contains(2));
+        assertTrue(set.contains(3));
+        assertTrue(set.contains(4));
+        assertEquals(3, set.size());
+    }
+
+    @Test
+    void add_zeroIsAKeyLikeAnyOther() {
+        // Setup
+        LongWindowSet set = new LongWindowSet(2);
+
+        // Execute & Verify
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        set.add(1);
+        set.add(2);
+        assertFalse(set.contains(0));
+    }
+
+    @Test
+    void add_behavesLikeABoundedInsertionOrderedSet() {
+        // Setup: few distinct keys, so that there are many duplicates, collisions and evictions
+        LongWindowSet set = new LongWindowSet(64);
+        Set<Long> expected = new HashSet<>();
+        ArrayDeque<Long> order = new ArrayDeque<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; i++) {
+            long key = 113_000_000_000_000_000L + random.nextInt(256) * 65_536L;
+
+            // Execute
+            boolean added = set.add(key);
+
+            // Verify
+            assertEquals(expected.add(key), added);
+            if (added) {
+                order.addLast(key);
+                if (order.size() > 64) {
+                    expected.remove(order.removeFirst());
+                }
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (long key : expected) {
+            assertTrue(set.contains(key));
+        }
+    }
+
+    @Test
+    void constructor_invalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new LongWindowSet(0));
+    }
+}
@@ -0,0 +1,190 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import social.bigbone.api.entity.streaming.MastodonApiEvent;
+import social.bigbone.api.entity.streaming.TechnicalEvent;
+import social.bigbone.api.entity.streaming.WebSocketCallback;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.http.WebSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class MultiplexedUpstreamConnectorTest {
+
+    private final List<WebSocket.Listener> listeners = new ArrayList<>();
+    private final List<WebSocket> webSockets = new ArrayList<>();
+    private MultiplexedUpstreamConnector connector;
+
+    @BeforeEach
+    void setUp() {
+        connector = new MultiplexedUpstreamConnector(2, listener -> {
+            WebSocket webSocket = mock(WebSocket.class);
+            when(webSocket.sendText(anyString(), anyBoolean())).thenReturn(CompletableFuture.completedFuture(webSocket));
+            listeners.add(listener);
+            webSockets.add(webSocket);
+            return CompletableFuture.completedFuture(webSocket);
+        });
+    }
+
+    @Test
+    void open_sendsSubscribeFrameOnLeastLoadedSocket() {
+        // Execute
+        connector.open("devoxx", mock(WebSocketCallback.class));
+        connector.open("java", mock(WebSocketCallback.class));
+        connector.open("kotlin", mock(WebSocketCallback.class));
+
+        // Verify
+        assertEquals(2, webSockets.size());
+        assertEquals(2, connector.numberOfConnectedSockets());
+        verify(webSockets.get(0)).sendText(MultiplexedUpstreamConnector.frame("subscribe", "devoxx"), true);
+        verify(webSockets.get(1)).sendText(MultiplexedUpstreamConnector.frame("subscribe", "java"), true);
+        verify(webSockets.get(0)).sendText(MultiplexedUpstreamConnector.frame("subscribe", "kotlin"), true);
+    }
+
+    @Test
+    void open_emitsOpenEventWhenSubscribedOnConnectedSocket() {
+        // Setup
+        WebSocketCallback devoxx = mock(WebSocketCallback.class);
+        WebSocketCallback java = mock(WebSocketCallback.class);
+        connector.open("devoxx", devoxx);
+
+        // Execute
+        listeners.getFirst().onError(webSockets.getFirst(), new IOException("Connection reset"));
+        connector.open("devoxx", devoxx);
+        connector.open("java", java);
+
+        // Verify
+        verify(devoxx, times(2)).onEvent(any(TechnicalEvent.Open.class));
+        verify(java).onEvent(any(TechnicalEvent.Open.class));
+    }
+
+    @Test
+    void close_sendsUnsubscribeFrame() throws IOException {
+        // Setup
+        Closeable stream = connector.open("devoxx", mock(WebSocketCallback.class));
+
+        // Execute
+        stream.close();
+
+        // Verify
+        verify(webSockets.getFirst()).sendText(MultiplexedUpstreamConnector.frame("unsubscribe", "devoxx"), true);
+    }
+
+    @Test
+    void frame_hashtagSubscription() {
+        // Execute
+        String frame = MultiplexedUpstreamConnector.frame("subscribe", "devoxx");
+
+        // Verify
+        assertEquals("{\"type\":\"subscribe\",\"stream\":\"hashtag\",\"tag\":\"devoxx\"}", frame);
+    }
+
+    @Test
+    void onText_routesByStream() {
+        // Setup
+        WebSocketCallback devoxx = mock(WebSocketCallback.class);
+        WebSocketCallback java = mock(WebSocketCallback.class);
+        connector.open("devoxx", devoxx);
+        connector.open("java", java);
+        String message = "{\"stream\":[\"hashtag\",\"Devoxx\"],\"event\":\"delete\",\"payload\":\"123\"}";
+
+        // Execute
+        listeners.getFirst().onText(webSockets.getFirst(), message.substring(0, 10), false);
+        listeners.getFirst().onText(webSockets.getFirst(), message.substring(10), true);
+
+        // Verify
+        ArgumentCaptor<MastodonApiEvent.GenericMessage> captor = ArgumentCaptor.forClass(MastodonApiEvent.GenericMessage.class);
+        verify(devoxx).onEvent(captor.capture());
+        assertEquals(message, captor.getValue().getText());
+        verify(java, never()).onEvent(any(MastodonApiEvent.GenericMessage.class));
+    }
+
+    @Test
+    void openNotifications_subscribesAndRoutesTheNotifications() {
+        // Setup
+        WebSocketCallback devoxx = mock(WebSocketCallback.class);
+        WebSocketCallback mentions = mock(WebSocketCallback.class);
+        connector.open("devoxx", devoxx);
+        String message = "{\"stream\":[\"user:notification\"],\"event\":\"notification\",\"payload\":\"{}\"}";
+
+        // Execute
+        connector.openNotifications(mentions);
+        connector.route(message);
+
+        // Verify
+        verify(webSockets.get(1)).sendText("{\"type\":\"subscribe\",\"stream\":\"user:notification\"}", true);
+        ArgumentCaptor<MastodonApiEvent.GenericMessage> captor = ArgumentCaptor.forClass(MastodonApiEvent.GenericMessage.class);
+        verify(mentions).onEvent(captor.capture());
+        assertEquals(message, captor.getValue().getText());
+        verify(devoxx, never()).onEvent(any(MastodonApiEvent.GenericMessage.class));
+    }
+
+    @Test
+    void route_unknownOrInvalidMessagesAreIgnored() {
+        // Setup
+        WebSocketCallback devoxx = mock(WebSocketCallback.class);
+        connector.open("devoxx", devoxx);
+
+        // Execute
+        connector.route("{\"stream\":[\"hashtag\",\"java\"],\"event\":\"delete\",\"payload\":\"123\"}");
+        connector.route("{\"stream\":[\"user\"],\"event\":\"delete\",\"payload\":\"123\"}");
+        connector.route("not json");
+
+        // Verify
+        verify(devoxx, never()).onEvent(any(MastodonApiEvent.GenericMessage.class));
+    }
+
+    @Test
+    void onError_failsAllStreamsOfTheSocketAndReconnects() {
+        // Setup
+        WebSocketCallback devoxx = mock(WebSocketCallback.class);
+        WebSocketCallback java = mock(WebSocketCallback.class);
+        connector.open("devoxx", devoxx);
+        connector.open("java", java);
+
+        // Execute
+        listeners.getFirst().onError(webSockets.getFirst(), new IOException("Connection reset"));
+
+        // Verify
+        verify(devoxx).onEvent(any(TechnicalEvent.Failure.class));
+        verify(java, never()).onEvent(any(TechnicalEvent.Failure.class));
+        assertEquals(1, connector.numberOfConnectedSockets());
+
+        // Execute
+        connector.open("devoxx", devoxx);
+
+        // Verify
+        assertEquals(3, webSockets.size());
+        verify(webSockets.get(2)).sendText(MultiplexedUpstreamConnector.frame("subscribe", "devoxx"), true);
+    }
+
+    @Test
+    void connectionFailure_failsAllStreams() {
+        // Setup
+        connector = new MultiplexedUpstreamConnector(1, listener -> CompletableFuture.failedFuture(new IOException("Connection refused")));
+        WebSocketCallback devoxx = mock(WebSocketCallback.class);
+
+        // Execute
+        connector.open("devoxx", devoxx);
+
+        // Verify
+        verify(devoxx).onEvent(any(TechnicalEvent.Failure.class));
+        assertEquals(0, connector.numberOfConnectedSockets());
+    }
+
+    @Test
+    void constructor_emptyPool() {
+        assertThrows(IllegalArgumentException.class, () -> new MultiplexedUpstreamConnector(0, listener -> null));
+    }
+}
@@ -0,0 +1,191 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.Test;
+import social.bigbone.api.entity.streaming.TechnicalEvent;
+import social.bigbone.api.entity.streaming.WebSocketEvent;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OptInIndexTest {
+
+    private final TestClock clock = new TestClock();
+    private final OptInIndex optInIndex = new OptInIndex(3, Duration.ofMinutes(15), Duration.ofSeconds(30), 2, clock);
+    private final List<WebSocketEvent> rejoined = new ArrayList<>();
+
+    @Test
+    void record_remembersTheStatusForTheWindow() {
+        // Execute
+        assertTrue(optInIndex.record("113000000000000001"));
+        assertFalse(optInIndex.record("113000000000000001"));
+        clock.advance(Duration.ofMinutes(10));
+        optInIndex.record("113000000000000002");
+
+        // Verify
+        assertTrue(optInIndex.contains("113000000000000001"));
+        assertFalse(optInIndex.contains("113000000000000003"));
+        clock.advance(Duration.ofMinutes(6));
+        assertFalse(optInIndex.contains("113000000000000001"));
+        assertTrue(optInIndex.contains("113000000000000002"));
+        assertEquals(1, optInIndex.size());
+    }
+
+    @Test
+    void record_capacityBoundsTheIndex() {
+        // Execute
+        for (int i = 1; i <= 5; i++) {
+            optInIndex.record(String.valueOf(i));
+            clock.advance(Duration.ofMinutes(1));
+        }
+
+        // Verify
+        assertEquals(3, optInIndex.size());
+        assertFalse(optInIndex.contains("2"));
+        assertTrue(optInIndex.contains("3"));
+        clock.advance(Duration.ofMinutes(13));
+        assertFalse(optInIndex.contains("3"));
+        assertTrue(optInIndex.contains("5"));
+        assertEquals(2, optInIndex.size());
+    }
+
+    @Test
+    void isJoining_afterTheGracePeriodOfTheOpenStream() {
+        // Execute & Verify
+        assertFalse(optInIndex.isJoining());
+        optInIndex.opened();
+        assertFalse(optInIndex.isJoining());
+        clock.advance(Duration.ofSeconds(30));
+        assertTrue(optInIndex.isJoining());
+        optInIndex.closed();
+        assertFalse(optInIndex.isJoining());
+    }
+
+    @Test
+    void join_parkedEventRejoinsWithItsMention() {
+        // Setup
+        WebSocketEvent event = new TechnicalEvent.Open();
+        optInIndex.record("1");
+
+        // Execute
+        assertTrue(optInIndex.join("1", new TechnicalEvent.Open(), rejoined::add));
+        assertFalse(optInIndex.join("2", event, rejoined::add));
+        clock.advance(Duration.ofSeconds(10));
+        optInIndex.record("2");
+
+        // Verify
+        assertEquals(List.of(event), rejoined);
+        assertEquals(1, optInIndex.parked());
+        assertEquals(1, optInIndex.joined());
+    }
+
+    @Test
+    void join_lateMentionDoesNotRejoin() {
+        // Setup
+        optInIndex.join("1", new TechnicalEvent.Open(), rejoined::add);
+        clock.advance(Duration.ofSeconds(20));
+        optInIndex.join("2", new TechnicalEvent.Open(), rejoined::add);
+
+        // Execute
+        clock.advance(Duration.ofSeconds(11));
+        optInIndex.record("1");
+
+        // Verify: the grace period of 1 is over, the one of 2 is not
+        assertEquals(List.of(), rejoined);
+        optInIndex.record("2");
+        assertEquals(1, rejoined.size());
+        assertEquals(1, optInIndex.joined());
+    }
+
+    @Test
+    void join_fullParkingDropsTheFirstParkedStatus() {
+        // Setup
+        WebSocketEvent second = new TechnicalEvent.Open();
+        WebSocketEvent third = new TechnicalEvent.Open();
+        optInIndex.join("1", new TechnicalEvent.Open(), rejoined::add);
+        optInIndex.join("2", second, rejoined::add);
+        optInIndex.join("3", third, rejoined::add);
+
+        // Execute
+        optInIndex.record("1");
+        optInIndex.record("3");
+        optInIndex.record("2");
+
+        // Verify
+        assertEquals(List.of(third, second), rejoined);
+        assertEquals(3, optInIndex.parked());
+        assertEquals(2, optInIndex.joined());
+    }
+
+    @Test
+    void join_eventsOfSeveralStreamsRejoinWithTheirMention() {
+        // Setup
+        WebSocketEvent devoxx = new TechnicalEvent.Open();
+        WebSocketEvent java = new TechnicalEvent.Open();
+        List<WebSocketEvent> rejoinedJava = new ArrayList<>();
+        optInIndex.join("1", devoxx, rejoined::add);
+        optInIndex.join("1", java, rejoinedJava::add);
+
+        // Execute
+        optInIndex.record("1");
+
+        // Verify
+        assertEquals(List.of(devoxx), rejoined);
+        assertEquals(List.of(java), rejoinedJava);
+        assertEquals(2, optInIndex.joined());
+    }
+
+    @Test
+    void closed_releasesTheParkedEvents() {
+        // Setup
+        WebSocketEvent event = new TechnicalEvent.Open();
+        optInIndex.opened();
+        optInIndex.join("1", event, rejoined::add);
+
+        // Execute
+        optInIndex.closed();
+        optInIndex.record("1");
+
+        // Verify
+        assertEquals(List.of(event), rejoined);
+    }
+
+    @Test
+    void constructor_windowMustCoverTheGracePeriod() {
+        assertThrows(IllegalArgumentException.class, () -> new OptInIndex(3, Duration.ofSeconds(10), Duration.ofSeconds(30), 2, clock));
+        assertThrows(IllegalArgumentException.class, () -> new OptInIndex(3, Duration.ofMinutes(15), Duration.ofSeconds(30), 0, clock));
+    }
+
+    /**
+     * A clock, that only moves when the test advances it.
+     */
+    private static class TestClock extends Clock {
+
+        private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+        void advance(final Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package de.seism0saurus.glacier.mastodon;
+
+import de.seism0saurus.glacier.webservice.messaging.messages.StatusCreatedMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecentStatusBufferTest {
+
+    private final RecentStatusBuffer buffer = new RecentStatusBuffer(3);
+
+    @Test
+    void add_oldestIsOverwrittenWhenFull() {
+        // Execute
+        for (int id = 1; id <= 5; id++) {
+            buffer.add(status(String.valueOf(id)));
+        }
+
+        // Verify
+        assertEquals(List.of("3", "4", "5"), ids());
+        assertEquals(3, buffer.size());
+    }
+
+    @Test
+    void add_duplicateIsIgnored() {
+        // Execute
+        buffer.add(status("1"));
+        buffer.add(status("1"));
+
+        // Verify
+        assertEquals(List.of("1"), ids());
+    }
+
+    @Test
+    void remove_newerStatusesMoveUp() {
+        // Setup
+        for (int id = 1; id <= 5; id++) {
+            buffer.add(status(String.valueOf(id)));
+        }
+
+        // Execute
+        buffer.remove("4");
+        buffer.remove("unknown");
+        buffer.add(status("6"));
+
+        // Verify
+        assertEquals(List.of("3", "5", "6"), ids());
+    }
+
+    @Test
+    void snapshot_isACopy() {
+        // Setup
+        buffer.add(status("1"));
+        List<StatusCreatedMessage> snapshot = buffer.snapshot();
+
+        // Execute
+        buffer.add(status("2"));
+
+        // Verify
+        assertEquals(1, snapshot.size());
+    }
+
+    @Test
+    void constructor_invalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new RecentStatusBuffer(0));
+    }
+
+    private List<String> ids() {
+        return buffer.snapshot().stream().map(StatusCreatedMessage::getId).toList();
+    }
+
+    private static StatusCreatedMessage status(final String id) {
+        return StatusCreatedMessage.builder().id(id).url("https://example.com/" + id + "/embed").build();
+    }
+}
@@ -0,0 +1,90 @@
+package de.seism0saurus.glacier.mastodon;
+
+import com.github.tomakehurst.wiremock.http.Fault;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.wiremock.spring.EnableWireMock;
+import social.bigbone.api.entity.streaming.TechnicalEvent;
+import social.bigbone.api.entity.streaming.WebSocketCallback;
+import social.bigbone.api.entity.streaming.WebSocketEvent;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * Reconnects a hashtag stream against a WireMock stand-in for Mastodon, that drops every streaming connection.
+ */
+@SpringBootTest(
+        classes = ReconnectSupervisorIT.TestConfiguration.class,
+        properties = "spring.main.allow-bean-definition-overriding=true"
+)
+@EnableWireMock
+public class ReconnectSupervisorIT {
+
+    @Value("${wiremock.server.port}")
+    private int port;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        httpClient.close();
+    }
+
+    @Test
+    void droppedConnections_reconnectWithBackoffUntilTheBreakerOpens() {
+        // Arrange: WireMock
+        stubFor(get(urlPathEqualTo("/api/v1/streaming"))
+                .willReturn(aResponse().withFault(Fault.CONNECTION_RESET_BY_PEER)));
+
+        ReconnectSupervisor supervisor = new ReconnectSupervisor(
+                (task, delay) -> executor.schedule(task, delay.toMillis(), TimeUnit.MILLISECONDS),
+                Clock.systemUTC(), bound -> ThreadLocalRandom.current().nextLong(bound + 1),
+                Duration.ofMillis(50), Duration.ofMillis(400), 3, Duration.ofMinutes(1), 100);
+        MultiplexedUpstreamConnector connector = new MultiplexedUpstreamConnector(1, listener -> httpClient.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:" + port + "/api/v1/streaming"), listener));
+        List<Long> failures = new CopyOnWriteArrayList<>();
+        WebSocketCallback callback = new WebSocketCallback() {
+            @Override
+            public void onEvent(final WebSocketEvent event) {
+                if (event instanceof TechnicalEvent.Failure) {
+                    failures.add(System.nanoTime());
+                    supervisor.failed("devoxx", () -> connector.open("devoxx", this));
+                } else if (event instanceof TechnicalEvent.Open) {
+                    supervisor.connected("devoxx");
+                }
+            }
+        };
+
+        // Act: Open the stream
+        connector.open("devoxx", callback);
+
+        // Assert: The third failure opens the breaker of the hashtag and stops the reconnects
+        await().atMost(Duration.ofSeconds(10)).until(() -> supervisor.state("devoxx") == CircuitBreaker.State.OPEN);
+        int requests = findAll(getRequestedFor(urlPathEqualTo("/api/v1/streaming"))).size();
+        await().during(Duration.ofMillis(500)).atMost(Duration.ofSeconds(2)).until(() -> failures.size() == 3);
+        // The JDK client may retry a reset request once, so only the silence after the third failure is counted
+        assertThat(findAll(getRequestedFor(urlPathEqualTo("/api/v1/streaming")))).hasSize(requests);
+        assertThat(failures.get(2) - failures.get(1)).isGreaterThanOrEqualTo(failures.get(1) - failures.get(0) - TimeUnit.MILLISECONDS.toNanos(10));
+        assertThat(supervisor.pendingReconnects()).isEqualTo(1);
+        assertThat(connector.numberOfConnectedSockets()).isZero();
+    }
+
+    static class TestConfiguration {}
+}
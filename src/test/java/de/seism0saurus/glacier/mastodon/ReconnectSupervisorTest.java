@@ -0,0 +1,223 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReconnectSupervisorTest {
+
+    private final TestClock clock = new TestClock();
+    private final List<Scheduled> scheduled = new ArrayList<>();
+    private final List<String> reconnected = new ArrayList<>();
+    private final ReconnectSupervisor supervisor = new ReconnectSupervisor((task, delay) -> scheduled.add(new Scheduled(task, delay)), clock,
+            bound -> bound, Duration.ofSeconds(1), Duration.ofSeconds(10), 3, Duration.ofSeconds(30), 2);
+
+    @Test
+    void failed_exponentialBackoffIsCapped() {
+        // Setup
+        ReconnectSupervisor patient = new ReconnectSupervisor((task, delay) -> scheduled.add(new Scheduled(task, delay)), clock,
+                bound -> bound, Duration.ofSeconds(1), Duration.ofSeconds(10), 10, Duration.ofSeconds(30), 2);
+
+        // Execute
+        List<Duration> delays = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            delays.add(patient.failed("devoxx", () -> reconnected.add("devoxx")));
+            runNext();
+            clock.advance(Duration.ofMinutes(1));
+        }
+
+        // Verify
+        assertEquals(List.of(1, 2, 4, 8, 10, 10), delays.stream().map(delay -> (int) delay.toSeconds()).toList());
+    }
+
+    @Test
+    void backoff_equalJitter() {
+        // Setup
+        ReconnectSupervisor noJitter = new ReconnectSupervisor((task, delay) -> {}, clock, bound -> 0,
+                Duration.ofSeconds(1), Duration.ofSeconds(10), 3, Duration.ofSeconds(30), 2);
+
+        // Verify
+        assertEquals(Duration.ofMillis(500), noJitter.backoff(0));
+        assertEquals(Duration.ofSeconds(2), noJitter.backoff(2));
+        assertEquals(Duration.ofSeconds(5), noJitter.backoff(40));
+    }
+
+    @Test
+    void failed_onlyOneReconnectPending() {
+        // Execute
+        Duration first = supervisor.failed("devoxx", () -> reconnected.add("first"));
+        Duration second = supervisor.failed("devoxx", () -> reconnected.add("second"));
+
+        // Verify
+        assertNotNull(first);
+        assertNull(second);
+        assertEquals(1, scheduled.size());
+        assertEquals(1, supervisor.pendingReconnects());
+        runNext();
+        assertEquals(List.of("second"), reconnected);
+        assertEquals(0, supervisor.pendingReconnects());
+    }
+
+    @Test
+    void connected_resetsBackoff() {
+        // Setup
+        supervisor.failed("devoxx", () -> reconnected.add("devoxx"));
+        runNext();
+        supervisor.failed("devoxx", () -> reconnected.add("devoxx"));
+        runNext();
+
+        // Execute
+        supervisor.connected("devoxx");
+        Duration delay = supervisor.failed("devoxx", () -> reconnected.add("devoxx"));
+
+        // Verify
+        assertEquals(Duration.ofSeconds(1), delay);
+    }
+
+    @Test
+    void forget_dropsPendingReconnect() {
+        // Setup
+        supervisor.failed("devoxx", () -> reconnected.add("devoxx"));
+
+        // Execute
+        supervisor.forget("devoxx");
+        runNext();
+
+        // Verify
+        assertTrue(reconnected.isEmpty());
+        assertEquals(0, supervisor.pendingReconnects());
+    }
+
+    @Test
+    void failed_hashtagBreakerOpensAndPostponesReconnects() {
+        // Execute: the first failure, a failed reconnect and the third failure, that opens the breaker
+        for (int i = 0; i < 2; i++) {
+            supervisor.failed("devoxx", () -> reconnected.add("devoxx"));
+            clock.advance(Duration.ofMinutes(1));
+            runNext();
+        }
+        supervisor.failed("devoxx", () -> reconnected.add("devoxx"));
+        runNext();
+
+        // Verify
+        assertEquals(CircuitBreaker.State.OPEN, supervisor.state("devoxx"));
+        assertEquals(2, reconnected.size());
+        Scheduled postponed = scheduled.getFirst();
+        assertEquals(Duration.ofMillis(30_500), postponed.delay);
+
+        // Execute
+        clock.advance(Duration.ofSeconds(30));
+        runNext();
+
+        // Verify
+        assertEquals(3, reconnected.size());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, supervisor.state("devoxx"));
+    }
+
+    @Test
+    void failed_instanceBreakerStopsAllHashtags() {
+        // Setup: three failed reconnects of different hashtags
+        for (String hashtag : List.of("devoxx", "java", "kotlin")) {
+            supervisor.failed(hashtag, () -> reconnected.add(hashtag));
+            clock.advance(Duration.ofMinutes(1));
+            scheduled.removeLast().task.run();
+            supervisor.failed(hashtag, () -> reconnected.add(hashtag));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, supervisor.instanceState());
+        reconnected.clear();
+
+        // Execute
+        supervisor.failed("spring", () -> reconnected.add("spring"));
+        for (int i = 0; i < 4; i++) {
+            runNext();
+        }
+
+        // Verify
+        assertTrue(reconnected.isEmpty());
+        assertEquals(4, scheduled.size());
+        assertTrue(scheduled.stream().allMatch(postponed -> postponed.delay.equals(Duration.ofMillis(30_500))));
+        assertEquals(4, supervisor.pendingReconnects());
+    }
+
+    @Test
+    void attempt_sharedRateLimit() {
+        // Setup
+        for (String hashtag : List.of("devoxx", "java", "kotlin")) {
+            supervisor.failed(hashtag, () -> reconnected.add(hashtag));
+        }
+
+        // Execute
+        runNext();
+        runNext();
+        runNext();
+
+        // Verify
+        assertEquals(List.of("devoxx", "java"), reconnected);
+        assertEquals(Duration.ofMillis(1_000), scheduled.getFirst().delay);
+        clock.advance(Duration.ofMillis(500));
+        runNext();
+        assertEquals(List.of("devoxx", "java", "kotlin"), reconnected);
+    }
+
+    @Test
+    void attempt_failedReconnectIsRetried() {
+        // Setup
+        supervisor.failed("devoxx", () -> {
+            throw new IllegalStateException("Connector broken");
+        });
+
+        // Execute
+        runNext();
+
+        // Verify
+        assertEquals(1, supervisor.pendingReconnects());
+        assertEquals(Duration.ofSeconds(2), scheduled.getFirst().delay);
+    }
+
+    @Test
+    void constructor_invalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new ReconnectSupervisor((task, delay) -> {}, clock, bound -> 0,
+                Duration.ZERO, Duration.ofSeconds(10), 3, Duration.ofSeconds(30), 2));
+        assertThrows(IllegalArgumentException.class, () -> new ReconnectSupervisor((task, delay) -> {}, clock, bound -> 0,
+                Duration.ofSeconds(1), Duration.ofSeconds(10), 3, Duration.ofSeconds(30), 0));
+    }
+
+    private void runNext() {
+        scheduled.removeFirst().task.run();
+    }
+
+    private record Scheduled(Runnable task, Duration delay) {
+    }
+
+    static class TestClock extends Clock {
+
+        private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+        void advance(final Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
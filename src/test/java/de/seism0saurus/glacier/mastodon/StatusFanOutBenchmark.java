@@ -0,0 +1,89 @@
+package de.seism0saurus.glacier.mastodon;
+
+import de.seism0saurus.glacier.webservice.messaging.messages.StatusCreatedMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the fan out of a created status to all walls of a hashtag.
+ * The former path converted the message per destination. The {@link StompCallback StompCallback} serializes it once
+ * and sends the same payload to every destination.
+ * <p>
+ * Run it with {@link #main(String[]) main} from the test classpath. The gc profiler reports the allocations per status.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class StatusFanOutBenchmark {
+
+    @Param({"1", "100", "1000"})
+    private int subscribers;
+
+    private String[] destinations;
+    private StatusCreatedMessage status;
+    private SimpMessagingTemplate template;
+
+    @Setup
+    public void setup() {
+        Blackhole blackhole = new Blackhole("Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+        MessageChannel channel = (message, timeout) -> {
+            blackhole.consume(message);
+            return true;
+        };
+        template = new SimpMessagingTemplate(channel);
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        destinations = new String[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            destinations[i] = "/topic/hashtags/" + UUID.randomUUID() + "/devoxx/creation";
+        }
+        status = StatusCreatedMessage.builder()
+                .id("113456789012345678")
+                .url("https://mastodon.social/@alice/113456789012345678")
+                .build();
+    }
+
+    /**
+     * The former path of the StompCallback.
+     */
+    @Benchmark
+    public void convertPerSubscriber() {
+        for (String destination : destinations) {
+            template.convertAndSend(destination, status);
+        }
+    }
+
+    @Benchmark
+    public void encodeOnce() {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setLeaveMutable(true);
+        Message<?> encoded = template.getMessageConverter().toMessage(status, accessor.getMessageHeaders());
+        MessageHeaderAccessor.getAccessor(encoded, MessageHeaderAccessor.class).setImmutable();
+        for (String destination : destinations) {
+            template.send(destination, encoded);
+        }
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(StatusFanOutBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
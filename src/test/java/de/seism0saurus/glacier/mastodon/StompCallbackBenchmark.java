@@ -0,0 +1,131 @@
+package de.seism0saurus.glacier.mastodon;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import social.bigbone.api.entity.Status;
+import social.bigbone.api.entity.streaming.MastodonApiEvent;
+import social.bigbone.api.entity.streaming.ParsedStreamEvent;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures the processing of a created status by {@link StompCallback#onEvent StompCallback.onEvent}:
+ * decoding, deduplication, the cached loadability verdict, the opt-in check and the fan out to the walls.
+ * <p>
+ * The events are recorded in the formats of both upstream connectors: the raw {@code GenericMessage} of the multiplexed
+ * connector and the parsed {@code StreamEvent} of bigbone. Every operation processes a status with a new id,
+ * so that no status is dropped as duplicate. The pipeline runs on the calling thread.
+ * The statuses of bigbone are stub-only mocks, because bigbone has no public constructor for them.
+ * <p>
+ * Run it with {@link #main(String[]) main} from the test classpath or with the Benchmarks profile. The gc profiler reports the allocations per status.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class StompCallbackBenchmark {
+
+    /**
+     * The number of recorded statuses. It is larger than the windows of the deduplication, so the statuses can be replayed in a loop.
+     */
+    private static final int STATUSES = 4096;
+
+    @Param({"10"})
+    private int subscribers;
+
+    private StompCallback callback;
+    private MastodonApiEvent.GenericMessage[] genericMessages;
+    private MastodonApiEvent.StreamEvent[] streamEvents;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        // The benchmark measures the processing and not the console appender
+        ((Logger) LoggerFactory.getLogger("de.seism0saurus.glacier")).setLevel(Level.ERROR);
+        Blackhole blackhole = new Blackhole("Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+        MessageChannel channel = (message, timeout) -> {
+            blackhole.consume(message);
+            return true;
+        };
+        SimpMessagingTemplate template = new SimpMessagingTemplate(channel);
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("Content-Security-Policy", "default-src 'none'; frame-ancestors *");
+        EmbedCheckClient embedCheckClient = mock(EmbedCheckClient.class, withSettings().stubOnly());
+        when(embedCheckClient.fetchHeaders(anyString())).thenReturn(CompletableFuture.completedFuture(headers));
+        TimelineBackfill timelineBackfill = mock(TimelineBackfill.class, withSettings().stubOnly());
+
+        callback = new StompCallback(mock(SubscriptionManager.class, withSettings().stubOnly()), template, embedCheckClient,
+                new EmbedPolicyCache(new LoadabilityCache(100, 600, 60), 100, 3600, 86400),
+                new EventPipeline(Runnable::run, 100), timelineBackfill, new DeliveredStatuses(100), new OptInIndex(100, 900, 30, 100),
+                new GlacierMetrics(new SimpleMeterRegistry()), false, 20, "devoxx", "glacier@glacier.example", FrameAncestors.of("glacier.example"));
+        for (int i = 0; i < subscribers; i++) {
+            callback.addSubscriber(UUID.randomUUID().toString(), "devoxx");
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        genericMessages = new MastodonApiEvent.GenericMessage[STATUSES];
+        streamEvents = new MastodonApiEvent.StreamEvent[STATUSES];
+        for (int i = 0; i < STATUSES; i++) {
+            String id = Long.toString(113_456_789_012_345_678L + i);
+            String url = "https://mastodon.social/@alice/" + id;
+            String payload = "{\"id\":\"" + id + "\",\"created_at\":\"2024-10-07T09:12:44.000Z\",\"visibility\":\"public\",\"language\":\"en\","
+                    + "\"uri\":\"https://mastodon.social/users/alice/statuses/" + id + "\",\"url\":\"" + url + "\","
+                    + "\"content\":\"<p>Great talk at #devoxx about virtual threads. @glacier</p>\","
+                    + "\"account\":{\"id\":\"109876543210\",\"username\":\"alice\",\"acct\":\"alice\",\"display_name\":\"Alice\"},"
+                    + "\"mentions\":[{\"id\":\"110000000000\",\"username\":\"glacier\",\"url\":\"https://glacier.example/@glacier\",\"acct\":\"glacier\"}],"
+                    + "\"tags\":[{\"name\":\"devoxx\",\"url\":\"https://mastodon.social/tags/devoxx\"}],\"emojis\":[],\"card\":null,\"poll\":null}";
+            String text = "{\"stream\":[\"hashtag\",\"devoxx\"],\"event\":\"update\",\"payload\":" + mapper.writeValueAsString(payload) + "}";
+            genericMessages[i] = new MastodonApiEvent.GenericMessage(text);
+
+            Status status = mock(Status.class, withSettings().stubOnly());
+            when(status.getId()).thenReturn(id);
+            when(status.getUrl()).thenReturn(url);
+            streamEvents[i] = new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusCreated(status), List.of());
+        }
+    }
+
+    @Benchmark
+    public void genericMessage() {
+        callback.onEvent(genericMessages[next]);
+        next = (next + 1) % STATUSES;
+    }
+
+    @Benchmark
+    public void streamEvent() {
+        callback.onEvent(streamEvents[next]);
+        next = (next + 1) % STATUSES;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(StompCallbackBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
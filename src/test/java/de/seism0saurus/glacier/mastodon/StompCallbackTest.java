@@ -7,7 +7,9 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.TextNode;
+import de.seism0saurus.glacier.webservice.messaging.WallDeduplication;
 import de.seism0saurus.glacier.webservice.messaging.messages.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.BeforeEach;
@@ -15,11 +17,14 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.SimpleMessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
-import org.springframework.web.client.RestTemplate;
 import social.bigbone.MastodonClient;
 import social.bigbone.api.entity.Account;
 import social.bigbone.api.entity.Notification;
@@ -29,16 +34,23 @@ import social.bigbone.api.entity.streaming.ParsedStreamEvent;
 import social.bigbone.api.entity.streaming.TechnicalEvent;
 import social.bigbone.api.entity.streaming.WebSocketEvent;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.time.Clock;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -106,9 +118,40 @@ public class StompCallbackTest {
     SimpMessagingTemplate mockTemplate;
 
     /**
-     * A RestTemplate object for making HTTP requests.
+     * An EmbedCheckClient object for making HTTP requests.
      */
-    RestTemplate restTemplate;
+    EmbedCheckClient embedCheckClient;
+
+    /**
+     * The cache for the embed policies. A new one is used for every test.
+     */
+    EmbedPolicyCache embedPolicyCache;
+
+    /**
+     * The pipeline for the events. It processes the events on the calling thread.
+     */
+    EventPipeline eventPipeline;
+
+    /**
+     * The backfill for the statuses, that were missed while the stream was down.
+     */
+    TimelineBackfill timelineBackfill;
+
+    /**
+     * The statuses, that were sent to each wall. New ones are used for every test.
+     */
+    DeliveredStatuses deliveredStatuses;
+
+    /**
+     * The index of the statuses, that mention glacier. New ones are used for every test.
+     */
+    OptInIndex optInIndex;
+
+    /**
+     * The registry of the metrics. New ones are used for every test.
+     */
+    SimpleMeterRegistry meterRegistry;
+    GlacierMetrics metrics;
 
     /**
      * The mockStatus variable represents a mock instance of the StatusCreatedMessage class.
@@ -127,7 +170,16 @@ public class StompCallbackTest {
         this.subscriptionManager = mock(SubscriptionManager.class);
         this.client = mock(MastodonClient.class);
         this.mockTemplate = mock(SimpMessagingTemplate.class);
-        this.restTemplate = mock(RestTemplate.class);
+        when(mockTemplate.getMessageConverter()).thenReturn(new SimpleMessageConverter());
+        this.embedCheckClient = mock(EmbedCheckClient.class);
+        this.embedPolicyCache = new EmbedPolicyCache(new LoadabilityCache(100, 600, 60), 100, 3600, 86400);
+        this.eventPipeline = new EventPipeline(Runnable::run, 100);
+        this.timelineBackfill = mock(TimelineBackfill.class);
+        this.deliveredStatuses = new DeliveredStatuses(100);
+        this.optInIndex = new OptInIndex(100, Duration.ofMinutes(15), Duration.ofSeconds(30), 100, Clock.systemUTC());
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.metrics = new GlacierMetrics(meterRegistry);
+        when(timelineBackfill.fetchLatest(anyString(), anyInt())).thenReturn(CompletableFuture.completedFuture(List.of()));
         this.mockStatus = mock(Status.class);
     }
 
@@ -145,7 +197,6 @@ public class StompCallbackTest {
                 .url("https://mastodon.example.com/12345/embed")
                 .build();
 
-        doNothing().when(mockTemplate).convertAndSend(eq(expectedDestination), any(StatusCreatedMessage.class));
         Account account = mock(Account.class);
         when(account.getDisplayName()).thenReturn("peter.kropotkin@example.com");
         when(mockStatus.getId()).thenReturn("12345");
@@ -153,9 +204,9 @@ public class StompCallbackTest {
         when(mockStatus.getAccount()).thenReturn(account);
 
         HttpHeaders allowHeader = getHeaders("ALLOWALL", null);
-        when(restTemplate.headForHeaders("https://mastodon.example.com/12345" + "/embed")).thenReturn(allowHeader);
+        when(embedCheckClient.fetchHeaders("https://mastodon.example.com/12345" + "/embed")).thenReturn(CompletableFuture.completedFuture(allowHeader));
 
-        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, principal, hashtag, "glacier@example.com", "glacier.example.com");
+        StompCallback callback = callback(mockTemplate, principal, "glacier@example.com", "glacier.example.com");
         ParsedStreamEvent.StatusCreated event = new ParsedStreamEvent.StatusCreated(mockStatus);
         MastodonApiEvent.StreamEvent streamEvent = new MastodonApiEvent.StreamEvent(event, List.of());
 
@@ -163,10 +214,267 @@ public class StompCallbackTest {
         callback.onEvent(streamEvent);
 
         // Verify
-        Mockito.verify(mockTemplate).convertAndSend(
-                eq(expectedDestination),
-                eq(expectedMessage)
-        );
+        Mockito.verify(mockTemplate).send(eq(expectedDestination), payload(expectedMessage));
+        assertEquals(1, meterRegistry.get("glacier.upstream.events").tag("hashtag", "hashtag").tag("type", WallEventMessage.CREATION).counter().count());
+        assertEquals(1, meterRegistry.get("glacier.embed.checks").tag("outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("glacier.embed.verdicts").tag("verdict", "loadable").counter().count());
+        assertEquals(1, meterRegistry.get("glacier.stomp.sends").tag("type", WallEventMessage.CREATION).counter().count());
+    }
+
+    /**
+     * Tests if a Status Created event is checked once and fanned out to all subscribers of the stream
+     */
+    @Test
+    public void onEvent_statusCreated_fanOutToAllSubscribers() {
+        // Setup
+        String principal1 = UUID.randomUUID().toString();
+        String principal2 = UUID.randomUUID().toString();
+        StatusCreatedMessage expectedMessage = StatusCreatedMessage.builder()
+                .id("12345")
+                .url("https://mastodon.example.com/12345/embed")
+                .build();
+
+        when(mockStatus.getId()).thenReturn("12345");
+        when(mockStatus.getUrl()).thenReturn("https://mastodon.example.com/12345");
+        when(embedCheckClient.fetchHeaders("https://mastodon.example.com/12345" + "/embed")).thenReturn(CompletableFuture.completedFuture(getHeaders("ALLOWALL", null)));
+
+        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, embedCheckClient, embedPolicyCache, eventPipeline, timelineBackfill, deliveredStatuses, optInIndex, metrics, true, 20, "devoxx", "glacier@example.com", FrameAncestors.of("glacier.example.com"));
+        callback.addSubscriber(principal1, "Devoxx");
+        callback.addSubscriber(principal2, "devoxx");
+        MastodonApiEvent.StreamEvent streamEvent = new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusCreated(mockStatus), List.of());
+
+        // Execute
+        callback.onEvent(streamEvent);
+
+        // Verify
+        verify(embedCheckClient, times(1)).fetchHeaders("https://mastodon.example.com/12345/embed");
+        verify(mockTemplate).send(eq("/topic/hashtags/" + principal1 + "/Devoxx/creation"), payload(expectedMessage));
+        verify(mockTemplate).send(eq("/topic/hashtags/" + principal2 + "/devoxx/creation"), payload(expectedMessage));
+    }
+
+    /**
+     * Tests if a Status Created event is sent in an envelope to the single destination of each wall, serialized once per spelling of the hashtag
+     */
+    @Test
+    public void onEvent_statusCreated_envelopeToWallDestinations() {
+        // Setup
+        String principal1 = UUID.randomUUID().toString();
+        String principal2 = UUID.randomUUID().toString();
+        String principal3 = UUID.randomUUID().toString();
+        StatusCreatedMessage expectedMessage = StatusCreatedMessage.builder()
+                .id("12345")
+                .url("https://mastodon.example.com/12345/embed")
+                .build();
+
+        when(mockStatus.getId()).thenReturn("12345");
+        when(mockStatus.getUrl()).thenReturn("https://mastodon.example.com/12345");
+        when(embedCheckClient.fetchHeaders("https://mastodon.example.com/12345" + "/embed")).thenReturn(CompletableFuture.completedFuture(getHeaders("ALLOWALL", null)));
+
+        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, embedCheckClient, embedPolicyCache, eventPipeline, timelineBackfill, deliveredStatuses, optInIndex, metrics, false, 20, "devoxx", "glacier@example.com", FrameAncestors.of("glacier.example.com"));
+        callback.addSubscriber(principal1, "Devoxx");
+        callback.addSubscriber(principal2, "devoxx");
+        callback.addSubscriber(principal3, "devoxx");
+        MastodonApiEvent.StreamEvent streamEvent = new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusCreated(mockStatus), List.of());
+
+        // Execute
+        callback.onEvent(streamEvent);
+
+        // Verify
+        verify(mockTemplate).send(eq("/topic/hashtags/" + principal1 + "/events"), payload(WallEventMessage.builder().type(WallEventMessage.CREATION).hashtag("Devoxx").payload(expectedMessage).build()));
+        verify(mockTemplate).send(eq("/topic/hashtags/" + principal2 + "/events"), payload(WallEventMessage.builder().type(WallEventMessage.CREATION).hashtag("devoxx").payload(expectedMessage).build()));
+        verify(mockTemplate).send(eq("/topic/hashtags/" + principal3 + "/events"), payload(WallEventMessage.builder().type(WallEventMessage.CREATION).hashtag("devoxx").payload(expectedMessage).build()));
+        verify(mockTemplate, times(2)).getMessageConverter();
+        verify(mockTemplate, never()).send(contains("/creation"), any(Message.class));
+        verify(mockTemplate, times(3)).send(anyString(), argThat(message -> "12345".equals(SimpMessageHeaderAccessor.wrap(message).getFirstNativeHeader(WallDeduplication.CREATED_HEADER))));
+    }
+
+    /**
+     * Tests if a status, that appears in the streams of two hashtags, is checked only once
+     */
+    @Test
+    public void onEvent_statusCreatedOnTwoStreams_checkedOnce() {
+        // Setup
+        when(mockStatus.getId()).thenReturn("12345");
+        when(mockStatus.getUrl()).thenReturn("https://mastodon.example.com/12345");
+        when(embedCheckClient.fetchHeaders("https://mastodon.example.com/12345" + "/embed")).thenReturn(CompletableFuture.completedFuture(getHeaders("ALLOWALL", null)));
+
+        StompCallback devoxx = new StompCallback(subscriptionManager, mockTemplate, embedCheckClient, embedPolicyCache, eventPipeline, timelineBackfill, deliveredStatuses, optInIndex, metrics, true, 20, "devoxx", "glacier@example.com", FrameAncestors.of("glacier.example.com"));
+        devoxx.addSubscriber("wall1", "devoxx");
+        StompCallback java = new StompCallback(subscriptionManager, mockTemplate, embedCheckClient, embedPolicyCache, eventPipeline, timelineBackfill, deliveredStatuses, optInIndex, metrics, true, 20, "java", "glacier@example.com", FrameAncestors.of("glacier.example.com"));
+        java.addSubscriber("wall2", "java");
+        MastodonApiEvent.StreamEvent streamEvent = new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusCreated(mockStatus), List.of());
+
+        // Execute
+        devoxx.onEvent(streamEvent);
+        java.onEvent(streamEvent);
+
+        // Verify
+        verify(embedCheckClient, times(1)).fetchHeaders("https://mastodon.example.com/12345/embed");
+        verify(mockTemplate).send(eq("/topic/hashtags/wall1/devoxx/creation"), payloadOf(StatusCreatedMessage.class));
+        verify(mockTemplate).send(eq("/topic/hashtags/wall2/java/creation"), payloadOf(StatusCreatedMessage.class));
+        assertEquals(1, embedPolicyCache.hits());
+        assertEquals(1, embedPolicyCache.probes());
+    }
+
+    /**
+     * Tests if a wall, that follows two hashtags of a status, gets the status and its modifications only once
+     */
+    @Test
+    public void onEvent_statusCreatedOnTwoStreamsOfOneWall_sentOnce() {
+        // Setup
+        when(mockStatus.getId()).thenReturn("12345");
+        when(mockStatus.getUrl()).thenReturn("https://mastodon.example.com/12345");
+        when(embedCheckClient.fetchHeaders("https://mastodon.example.com/12345" + "/embed")).thenReturn(CompletableFuture.completedFuture(getHeaders("ALLOWALL", null)));
+
+        StompCallback java = new StompCallback(subscriptionManager, mockTemplate, embedCheckClient, embedPolicyCache, eventPipeline, timelineBackfill, deliveredStatuses, optInIndex, metrics, true, 20, "java", "glacier@example.com", FrameAncestors.of("glacier.example.com"));
+        java.addSubscriber("wall1", "java");
+        StompCallback jvm = new StompCallback(subscriptionManager, mockTemplate, embedCheckClient, embedPolicyCache, eventPipeline, timelineBackfill, deliveredStatuses, optInIndex, metrics, true, 20, "jvm", "glacier@example.com", FrameAncestors.of("glacier.example.com"));
+        jvm.addSubscriber("wall1", "jvm");
+        jvm.addSubscriber("wall2", "jvm");
+
+        // Execute
+        java.onEvent(new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusCreated(mockStatus), List.of()));
+        jvm.onEvent(new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusCreated(mockStatus), List.of()));
+        java.onEvent(new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusEdited(mockStatus), List.of()));
+        jvm.onEvent(new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusDeleted("67890"), List.of()));
+
+        // Verify
+        verify(mockTemplate, times(1)).send(eq("/topic/hashtags/wall1/java/creation"), payloadOf(StatusCreatedMessage.class));
+        verify(mockTemplate, never()).send(eq("/topic/hashtags/wall1/jvm/creation"), payloadOf(StatusCreatedMessage.class));
+        verify(mockTemplate, times(1)).send(eq("/topic/hashtags/wall2/jvm/creation"), payloadOf(StatusCreatedMessage.class));
+        verify(mockTemplate, times(1)).send(eq("/topic/hashtags/wall1/java/modification"), payloadOf(StatusUpdatedMessage.class));
+        verify(mockTemplate, never()).send(contains("/deletion"), payloadOf(StatusDeletedMessage.class));
+    }
+
+    /**
+     * Tests if a status, that all walls of a stream already got, is not checked again
+     */
+    @Test
+    public void onEvent_statusCreatedForWallsThatGotIt_notChecked() {
+        // Setup
+        when(mockStatus.getId()).thenReturn("12345");
+        when(mockStatus.getUrl()).thenReturn("https://mastodon.example.com/12345");
+        deliveredStatuses.deliver("wall1", "12345");
+        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, embedCheckClient, embedPolicyCache, eventPipeline, timelineBackfill, deliveredStatuses, optInIndex, metrics, true, 20, "jvm", "glacier@example.com", FrameAncestors.of("glacier.example.com"));
+        callback.addSubscriber("wall1", "jvm");
+
+        // Execute
+        callback.onEvent(new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusCreated(mockStatus), List.of()));
+
+        // Verify
+        verifyNoInteractions(embedCheckClient);
+        verifyNoInteractions(mockTemplate);
+    }
+
+    /**
+     * Tests if a status is ignored, when its embed page can not be checked
+     */
+    @Test
+    public void onEvent_statusCreated_failedCheckIsIgnored() {
+        // Setup
+        when(mockStatus.getId()).thenReturn("12345");
+        when(mockStatus.getUrl()).thenReturn("https://mastodon.example.com/12345");
+        when(embedCheckClient.fetchHeaders("https://mastodon.example.com/12345/embed"))
+                .thenReturn(CompletableFuture.failedFuture(new IOException("Connection refused")));
+
+        StompCallback callback = callback(mockTemplate, UUID.randomUUID().toString(), "glacier@example.com", "glacier.example.com");
+        MastodonApiEvent.StreamEvent streamEvent = new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusCreated(mockStatus), List.of());
+
+        // Execute
+        callback.onEvent(streamEvent);
+
+        // Verify
+        verify(mockTemplate, never()).send(any(String.class), any(Message.class));
+        assertEquals(1, meterRegistry.get("glacier.embed.checks").tag("outcome", "failure").timer().count());
+        assertEquals(1, meterRegistry.get("glacier.embed.verdicts").tag("verdict", "failed").counter().count());
+    }
+
+    /**
+     * Tests if a status is sent, when the check of its embed page completes later
+     */
+    @Test
+    public void onEvent_statusCreated_sentWhenCheckCompletes() {
+        // Setup
+        CompletableFuture<HttpHeaders> headers = new CompletableFuture<>();
+        when(mockStatus.getId()).thenReturn("12345");
+        when(mockStatus.getUrl()).thenReturn("https://mastodon.example.com/12345");
+        when(embedCheckClient.fetchHeaders("https://mastodon.example.com/12345/embed")).thenReturn(headers);
+
+        StompCallback callback = callback(mockTemplate, "wall", "glacier@example.com", "glacier.example.com");
+        MastodonApiEvent.StreamEvent streamEvent = new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusCreated(mockStatus), List.of());
+
+        // Execute
+        callback.onEvent(streamEvent);
+
+        // Verify
+        verify(mockTemplate, never()).send(any(String.class), any(Message.class));
+        headers.complete(getHeaders("ALLOWALL", null));
+        verify(mockTemplate).send(eq("/topic/hashtags/wall/hashtag/creation"), payloadOf(StatusCreatedMessage.class));
+    }
+
+    /**
+     * Tests if a deletion waits for the pending creation of the same stream
+     */
+    @Test
+    public void onEvent_statusDeleted_doesNotOvertakeCreation() {
+        // Setup
+        CompletableFuture<HttpHeaders> headers = new CompletableFuture<>();
+        when(mockStatus.getId()).thenReturn("12345");
+        when(mockStatus.getUrl()).thenReturn("https://mastodon.example.com/12345");
+        when(embedCheckClient.fetchHeaders("https://mastodon.example.com/12345/embed")).thenReturn(headers);
+
+        StompCallback callback = callback(mockTemplate, "wall", "glacier@example.com", "glacier.example.com");
+
+        // Execute
+        callback.onEvent(new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusCreated(mockStatus), List.of()));
+        callback.onEvent(new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusDeleted("12345"), List.of()));
+
+        // Verify
+        verify(mockTemplate, never()).send(any(String.class), any(Message.class));
+        headers.complete(getHeaders("ALLOWALL", null));
+        InOrder inOrder = inOrder(mockTemplate);
+        inOrder.verify(mockTemplate).send(eq("/topic/hashtags/wall/hashtag/creation"), payloadOf(StatusCreatedMessage.class));
+        inOrder.verify(mockTemplate).send(eq("/topic/hashtags/wall/hashtag/deletion"), payloadOf(StatusDeletedMessage.class));
+    }
+
+    /**
+     * Tests if a removed subscriber does not get any further messages
+     */
+    @Test
+    public void onEvent_removedSubscriber_getsNoMessages() {
+        // Setup
+        String principal = UUID.randomUUID().toString();
+        StompCallback callback = callback(mockTemplate, principal, "glacier@example.com", "glacier.example.com");
+        callback.removeSubscriber(principal);
+        MastodonApiEvent.StreamEvent streamEvent = new MastodonApiEvent.StreamEvent(new ParsedStreamEvent.StatusDeleted("12345"), List.of());
+
+        // Execute
+        callback.onEvent(streamEvent);
+
+        // Verify
+        assertEquals(0, callback.numberOfSubscribers());
+        verify(mockTemplate, times(0)).send(any(String.class), any(Message.class));
+    }
+
+    /**
+     * Tests if replaced subscribers get the messages at the destinations of their new spelling of the hashtag
+     */
+    @Test
+    public void onEvent_replacedSubscribers_getMessagesAtTheirDestinations() {
+        // Setup
+        StompCallback callback = callback(mockTemplate, "wall1", "glacier@example.com", "glacier.example.com");
+        callback.addSubscriber("wall2", "hashtag");
+        callback.replaceSubscribers(Map.of("wall2", "HashTag", "wall3", "hashtag"));
+        TechnicalEvent.Failure failure = new TechnicalEvent.Failure(new IOException("Connection reset"));
+
+        // Execute
+        callback.onEvent(failure);
+
+        // Verify
+        assertEquals(2, callback.numberOfSubscribers());
+        verify(mockTemplate, never()).send(eq("/topic/hashtags/wall1/hashtag/state"), any(Message.class));
+        verify(mockTemplate, times(1)).send(eq("/topic/hashtags/wall2/HashTag/state"), payloadOf(StreamStateMessage.class));
+        verify(mockTemplate, times(1)).send(eq("/topic/hashtags/wall3/hashtag/state"), payloadOf(StreamStateMessage.class));
     }
 
     /**
@@ -179,7 +487,7 @@ public class StompCallbackTest {
 
         // Execute
         Exception exception = assertThrows(IllegalArgumentException.class, () ->
-                new StompCallback(subscriptionManager, mockTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", handle, "glacier.example.com")
+                callback(mockTemplate, UUID.randomUUID().toString(), handle, "glacier.example.com")
         );
 
         // Verify
@@ -196,7 +504,7 @@ public class StompCallbackTest {
 
         // Execute
         Exception exception = assertThrows(IllegalArgumentException.class, () ->
-                new StompCallback(subscriptionManager, mockTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", handle, "glacier.example.com")
+                callback(mockTemplate, UUID.randomUUID().toString(), handle, "glacier.example.com")
         );
 
         // Verify
@@ -212,7 +520,7 @@ public class StompCallbackTest {
         String handle = "peter.kropotkin@localhost";
 
         // Execute
-        StompCallback stompCallback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", handle, "glacier.example.com");
+        StompCallback stompCallback = callback(mockTemplate, UUID.randomUUID().toString(), handle, "glacier.example.com");
 
         // Get the private field 'shortHandle' using reflection
         Field shortHandleField = StompCallback.class.getDeclaredField("shortHandle");
@@ -232,7 +540,7 @@ public class StompCallbackTest {
         String handle = "@peter.kropotkin@localhost";
 
         // Execute
-        StompCallback stompCallback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", handle, "glacier.example.com");
+        StompCallback stompCallback = callback(mockTemplate, UUID.randomUUID().toString(), handle, "glacier.example.com");
 
         // Get the private field 'shortHandle' using reflection
         Field shortHandleField = StompCallback.class.getDeclaredField("shortHandle");
@@ -257,7 +565,6 @@ public class StompCallbackTest {
                 .url("https://mastodon.example.com/12345/embed")
                 .build();
 
-        doNothing().when(mockTemplate).convertAndSend(eq(expectedDestination), any(StatusUpdatedMessage.class));
         Account account = mock(Account.class);
         when(account.getDisplayName()).thenReturn("peter.kropotkin@example.com");
         when(mockStatus.getId()).thenReturn("12345");
@@ -265,9 +572,11 @@ public class StompCallbackTest {
         when(mockStatus.getAccount()).thenReturn(account);
 
         HttpHeaders allowHeader = getHeaders("ALLOWALL", null);
-        when(restTemplate.headForHeaders("https://mastodon.example.com/12345" + "/embed")).thenReturn(allowHeader);
+        when(embedCheckClient.fetchHeaders("https://mastodon.example.com/12345" + "/embed")).thenReturn(CompletableFuture.completedFuture(allowHeader));
 
-        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, principal, hashtag, "glacier@example.com", "glacier.example.com");
+        // The wall shows the status
+        deliveredStatuses.deliver(principal, "12345");
+        StompCallback callback = callback(mockTemplate, principal, "glacier@example.com", "glacier.example.com");
         ParsedStreamEvent.StatusEdited event = new ParsedStreamEvent.StatusEdited(mockStatus);
         MastodonApiEvent.StreamEvent streamEvent = new MastodonApiEvent.StreamEvent(event, List.of());
 
@@ -275,10 +584,7 @@ public class StompCallbackTest {
         callback.onEvent(streamEvent);
 
         // Verify
-        Mockito.verify(mockTemplate).convertAndSend(
-                eq(expectedDestination),
-                eq(expectedMessage)
-        );
+        Mockito.verify(mockTemplate).send(eq(expectedDestination), payload(expectedMessage));
     }
 
     /**
@@ -294,12 +600,13 @@ public class StompCallbackTest {
                 .id("12345")
                 .build();
 
-        doNothing().when(mockTemplate).convertAndSend(eq(expectedDestination), any(StatusUpdatedMessage.class));
 
         HttpHeaders allowHeader = getHeaders("ALLOWALL", null);
-        when(restTemplate.headForHeaders("https://mastodon.example.com/12345" + "/embed")).thenReturn(allowHeader);
+        when(embedCheckClient.fetchHeaders("https://mastodon.example.com/12345" + "/embed")).thenReturn(CompletableFuture.completedFuture(allowHeader));
 
-        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, principal, hashtag, "glacier@example.com", "glacier.example.com");
+        // The wall shows the status
+        deliveredStatuses.deliver(principal, "12345");
+        StompCallback callback = callback(mockTemplate, principal, "glacier@example.com", "glacier.example.com");
         ParsedStreamEvent.StatusDeleted event = new ParsedStreamEvent.StatusDeleted("12345");
         MastodonApiEvent.StreamEvent streamEvent = new MastodonApiEvent.StreamEvent(event, List.of());
 
@@ -307,10 +614,7 @@ public class StompCallbackTest {
         callback.onEvent(streamEvent);
 
         // Verify
-        Mockito.verify(mockTemplate).convertAndSend(
-                eq(expectedDestination),
-                eq(expectedMessage)
-        );
+        Mockito.verify(mockTemplate).send(eq(expectedDestination), payload(expectedMessage));
     }
 
     /**
@@ -323,7 +627,7 @@ public class StompCallbackTest {
         String principal = UUID.randomUUID().toString();
         String hashtag = "hashtag";
 
-        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, principal, hashtag, "glacier@example.com", "glacier.example.com");
+        StompCallback callback = callback(mockTemplate, principal, "glacier@example.com", "glacier.example.com");
         Notification notification = new Notification();
         ParsedStreamEvent.NewNotification event = new ParsedStreamEvent.NewNotification(notification);
         MastodonApiEvent.StreamEvent streamEvent = new MastodonApiEvent.StreamEvent(event, List.of());
@@ -332,7 +636,7 @@ public class StompCallbackTest {
         callback.onEvent(streamEvent);
 
         // Verify
-        Mockito.verify(mockTemplate, times(0)).convertAndSend(any(String.class), any(Object.class));
+        Mockito.verify(mockTemplate, times(0)).send(any(String.class), any(Message.class));
     }
 
     /**
@@ -350,16 +654,15 @@ public class StompCallbackTest {
                 .url("https://mastodon.example.com/12345/embed")
                 .build();
 
-        doNothing().when(mockTemplate).convertAndSend(eq(expectedDestination), any(StatusCreatedMessage.class));
         Account account = mock(Account.class);
         when(account.getDisplayName()).thenReturn("peter.kropotkin@example.com");
         when(mockStatus.getId()).thenReturn("12345");
         when(mockStatus.getUrl()).thenReturn("https://mastodon.example.com/12345");
         when(mockStatus.getAccount()).thenReturn(account);
 
-        when(restTemplate.headForHeaders("https://mastodon.example.com/12345" + "/embed")).thenReturn(headers);
+        when(embedCheckClient.fetchHeaders("https://mastodon.example.com/12345" + "/embed")).thenReturn(CompletableFuture.completedFuture(headers));
 
-        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, principal, hashtag, "glacier@example.com", "glacier.example.com");
+        StompCallback callback = callback(mockTemplate, principal, "glacier@example.com", "glacier.example.com");
         ParsedStreamEvent.StatusCreated event = new ParsedStreamEvent.StatusCreated(mockStatus);
         MastodonApiEvent.StreamEvent streamEvent = new MastodonApiEvent.StreamEvent(event, List.of());
 
@@ -368,12 +671,9 @@ public class StompCallbackTest {
 
         // Verify
         if (isLoadable) {
-            Mockito.verify(mockTemplate).convertAndSend(
-                    eq(expectedDestination),
-                    eq(expectedMessage)
-            );
+            Mockito.verify(mockTemplate).send(eq(expectedDestination), payload(expectedMessage));
         } else {
-            Mockito.verify(mockTemplate, times(0)).convertAndSend(any(String.class), any(Object.class));
+            Mockito.verify(mockTemplate, times(0)).send(any(String.class), any(Message.class));
         }
     }
 
@@ -402,6 +702,11 @@ public class StompCallbackTest {
                 , Arguments.of(getHeaders(null, "frame-ancestors http:;"), true) // Allow all http ancestors
                 , Arguments.of(getHeaders(null, "frame-ancestors https:;"), true) // Allow all https ancestors
                 , Arguments.of(getHeaders(null, ""), true) // empty csp header
+                , Arguments.of(getHeaders(null, "frame-ancestors *.example.com;"), true) // Allow all subdomains of the parent domain
+                , Arguments.of(getHeaders(null, "frame-ancestors https://*.glacier.example.com;"), false) // Subdomains of glacier are not glacier
+                , Arguments.of(getHeaders(null, "frame-ancestors glacierXexampleYcom;"), false) // The dots of the domain are no wildcards
+                , Arguments.of(getHeaders(null, "default-src 'self', frame-ancestors 'none'"), false) // Every policy must allow
+                , Arguments.of(getHeaders("DENY", "FRAME-ANCESTORS 'self' HTTPS://GLACIER.EXAMPLE.COM"), true) // frame-ancestors overrules X-Frame-Options
         );
     }
 
@@ -424,7 +729,7 @@ public class StompCallbackTest {
         // Setup
         TestLogAppender logAppender = getTestLogAppender();
 
-        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        StompCallback callback = callback(mockTemplate, UUID.randomUUID().toString(), "glacier@example.com", "example.com");
         TechnicalEvent.Open mockEvent = mock(TechnicalEvent.Open.class);
 
         // Execute
@@ -443,7 +748,7 @@ public class StompCallbackTest {
         // Setup
         TestLogAppender logAppender = getTestLogAppender();
 
-        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        StompCallback callback = callback(mockTemplate, UUID.randomUUID().toString(), "glacier@example.com", "example.com");
         TechnicalEvent.Closing mockEvent = mock(TechnicalEvent.Closing.class);
 
         // Execute
@@ -462,7 +767,7 @@ public class StompCallbackTest {
         // Setup
         TestLogAppender logAppender = getTestLogAppender();
 
-        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        StompCallback callback = callback(mockTemplate, UUID.randomUUID().toString(), "glacier@example.com", "example.com");
         TechnicalEvent.Closed mockEvent = mock(TechnicalEvent.Closed.class);
 
         // Execute
@@ -481,7 +786,7 @@ public class StompCallbackTest {
         // Setup
         TestLogAppender logAppender = getTestLogAppender();
 
-        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        StompCallback callback = callback(mockTemplate, UUID.randomUUID().toString(), "glacier@example.com", "example.com");
         TechnicalEvent mockEvent = mock(TechnicalEvent.class);
 
         // Execute
@@ -505,9 +810,12 @@ public class StompCallbackTest {
         }));
 
         HttpHeaders allowHeader = getHeaders("DENY", null);
-        when(restTemplate.headForHeaders("https://example.com/4567" + "/embed")).thenReturn(allowHeader);
+        when(embedCheckClient.fetchHeaders("https://example.com/4567" + "/embed")).thenReturn(CompletableFuture.completedFuture(allowHeader));
 
-        StompCallback callback = new StompCallback(subscriptionManager, spyMessagingTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        String principal = UUID.randomUUID().toString();
+        // The wall shows the status
+        deliveredStatuses.deliver(principal, "4567");
+        StompCallback callback = callback(spyMessagingTemplate, principal, "glacier@example.com", "example.com");
 
         MastodonApiEvent.GenericMessage mockEvent = mock(MastodonApiEvent.GenericMessage.class);
         ObjectMapper mapper = new ObjectMapper();
@@ -523,7 +831,7 @@ public class StompCallbackTest {
         callback.onEvent(mockEvent);
 
         // Verify
-        verify(spyMessagingTemplate, times(0)).convertAndSend(any(String.class), any(StatusCreatedMessage.class));
+        verify(spyMessagingTemplate, times(0)).send(any(String.class), payloadOf(StatusCreatedMessage.class));
         assertThat(logAppender.getLoggedMessages())
                 .anySatisfy(msg -> assertThat(msg).contains("Toot not loadable by this glacier instance. Ignoring"));
     }
@@ -541,9 +849,12 @@ public class StompCallbackTest {
         }));
 
         HttpHeaders allowHeader = getHeaders("ALLOWALL", null);
-        when(restTemplate.headForHeaders("https://example.com/4567" + "/embed")).thenReturn(allowHeader);
+        when(embedCheckClient.fetchHeaders("https://example.com/4567" + "/embed")).thenReturn(CompletableFuture.completedFuture(allowHeader));
 
-        StompCallback callback = new StompCallback(subscriptionManager, spyMessagingTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        String principal = UUID.randomUUID().toString();
+        // The wall shows the status
+        deliveredStatuses.deliver(principal, "4567");
+        StompCallback callback = callback(spyMessagingTemplate, principal, "glacier@example.com", "example.com");
 
         MastodonApiEvent.GenericMessage mockEvent = mock(MastodonApiEvent.GenericMessage.class);
         ObjectMapper mapper = new ObjectMapper();
@@ -559,9 +870,11 @@ public class StompCallbackTest {
         callback.onEvent(mockEvent);
 
         // Verify
-        verify(spyMessagingTemplate, times(0)).convertAndSend(any(String.class), any(StatusCreatedMessage.class));
+        verify(spyMessagingTemplate, times(0)).send(any(String.class), payloadOf(StatusCreatedMessage.class));
         assertThat(logAppender.getLoggedMessages())
                 .anySatisfy(msg -> assertThat(msg).contains("No opt in. Ignoring"));
+        assertEquals(1, meterRegistry.get("glacier.opt_in.rejections").counter().count());
+        assertEquals(1, meterRegistry.get("glacier.upstream.events").tag("type", WallEventMessage.MODIFICATION).counter().count());
     }
 
     /**
@@ -577,9 +890,12 @@ public class StompCallbackTest {
         StatusUpdatedMessage createdMessage = StatusUpdatedMessage.builder().id("4567").url("https://example.com/4567" + "/embed").editedAt("2025-01-017").build();
 
         HttpHeaders allowHeader = getHeaders("ALLOWALL", null);
-        when(restTemplate.headForHeaders("https://example.com/4567" + "/embed")).thenReturn(allowHeader);
+        when(embedCheckClient.fetchHeaders("https://example.com/4567" + "/embed")).thenReturn(CompletableFuture.completedFuture(allowHeader));
 
-        StompCallback callback = new StompCallback(subscriptionManager, spyMessagingTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        String principal = UUID.randomUUID().toString();
+        // The wall shows the status
+        deliveredStatuses.deliver(principal, "4567");
+        StompCallback callback = callback(spyMessagingTemplate, principal, "glacier@example.com", "example.com");
 
         MastodonApiEvent.GenericMessage mockEvent = mock(MastodonApiEvent.GenericMessage.class);
         ObjectMapper mapper = new ObjectMapper();
@@ -595,7 +911,94 @@ public class StompCallbackTest {
         callback.onEvent(mockEvent);
 
         // Verify
-        verify(spyMessagingTemplate, times(1)).convertAndSend(matches("/topic/hashtags/.*/hashtag/modification"), eq(createdMessage));
+        verify(spyMessagingTemplate, times(1)).send(matches("/topic/hashtags/.*/hashtag/modification"), payload(createdMessage));
+    }
+
+    /**
+     * Tests if the opt in ignores the case of the mentioned account, like Mastodon does
+     */
+    @Test
+    public void onEvent_EventGenericMessage_OptInIgnoresCase() throws JsonProcessingException {
+        // Setup
+        SimpMessagingTemplate spyMessagingTemplate = spy(new SimpMessagingTemplate((message, timeout) -> true));
+        HttpHeaders allowHeader = getHeaders("ALLOWALL", null);
+        when(embedCheckClient.fetchHeaders("https://example.com/4567" + "/embed")).thenReturn(CompletableFuture.completedFuture(allowHeader));
+        String principal = UUID.randomUUID().toString();
+        StompCallback callback = callback(spyMessagingTemplate, principal, "@Glacier@example.com", "example.com");
+
+        MastodonApiEvent.GenericMessage mockEvent = mock(MastodonApiEvent.GenericMessage.class);
+        ObjectMapper mapper = new ObjectMapper();
+        Mention other = Mention.builder().id("1234").username("@peter.kropotkin").acct("glacier.fan").build();
+        Mention mention = Mention.builder().id("4567").username("@glacier").acct("GLACIER").build();
+        GenericMessageContentPayload payload = GenericMessageContentPayload.builder().mentions(List.of(other, mention)).url("https://example.com/4567").id("4567").build();
+        GenericMessageContent content = GenericMessageContent.builder().event("update").stream(List.of("hashtag")).payload(TextNode.valueOf(mapper.writeValueAsString(payload))).build();
+        when(mockEvent.getText()).thenReturn(mapper.writeValueAsString(content));
+
+        // Execute
+        callback.onEvent(mockEvent);
+
+        // Verify
+        verify(spyMessagingTemplate, times(1)).send(eq("/topic/hashtags/" + principal + "/hashtag/creation"), payloadOf(StatusCreatedMessage.class));
+        assertEquals(0, meterRegistry.get("glacier.opt_in.rejections").counter().count());
+    }
+
+    /**
+     * Tests if a dropped stream removes its counters and the meters of its lane, so that the hashtags of the users do not pile up in the registry
+     */
+    @Test
+    public void discard_removesTheMetersOfTheStream() {
+        // Setup
+        StompCallback callback = callback(mockTemplate, UUID.randomUUID().toString(), "glacier@example.com", "example.com");
+        assertEquals(5, meterRegistry.find("glacier.upstream.events").tag("hashtag", "hashtag").counters().size());
+        assertEquals(0, meterRegistry.get("glacier.pipeline.lane.depth").tag("hashtag", "hashtag").gauge().value());
+
+        // Execute
+        callback.discard();
+
+        // Verify
+        assertThat(meterRegistry.find("glacier.upstream.events").tag("hashtag", "hashtag").counters()).isEmpty();
+        assertThat(meterRegistry.find("glacier.pipeline.lane.depth").gauges()).isEmpty();
+        assertThat(meterRegistry.find("glacier.pipeline.lane.dropped").functionCounters()).isEmpty();
+    }
+
+    /**
+     * Tests if a created status waits for its mention, while the stream is joined with the mention stream
+     */
+    @Test
+    public void onEvent_EventGenericMessage_UpdateWaitsForItsMention() throws JsonProcessingException {
+        // Setup
+        SimpMessagingTemplate spyMessagingTemplate = spy(new SimpMessagingTemplate((message, timeout) -> true));
+        HttpHeaders allowHeader = getHeaders("ALLOWALL", null);
+        when(embedCheckClient.fetchHeaders(anyString())).thenReturn(CompletableFuture.completedFuture(allowHeader));
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(0L);
+        this.optInIndex = new OptInIndex(100, Duration.ofMinutes(15), Duration.ofSeconds(30), 100, clock);
+        String principal = UUID.randomUUID().toString();
+        StompCallback callback = callback(spyMessagingTemplate, principal, "glacier@example.com", "example.com");
+        optInIndex.opened();
+        when(clock.millis()).thenReturn(30_000L);
+
+        ObjectMapper mapper = new ObjectMapper();
+        Mention mention = Mention.builder().id("4567").username("@glacier").acct("glacier").build();
+        MastodonApiEvent.GenericMessage mentioned = mock(MastodonApiEvent.GenericMessage.class);
+        GenericMessageContentPayload payload = GenericMessageContentPayload.builder().mentions(List.of(mention)).url("https://example.com/4567").id("4567").build();
+        GenericMessageContent content = GenericMessageContent.builder().event("update").stream(List.of("hashtag")).payload(TextNode.valueOf(mapper.writeValueAsString(payload))).build();
+        when(mentioned.getText()).thenReturn(mapper.writeValueAsString(content));
+        MastodonApiEvent.GenericMessage notMentioned = mock(MastodonApiEvent.GenericMessage.class);
+        payload = GenericMessageContentPayload.builder().mentions(List.of()).url("https://example.com/9999").id("9999").build();
+        content = GenericMessageContent.builder().event("update").stream(List.of("hashtag")).payload(TextNode.valueOf(mapper.writeValueAsString(payload))).build();
+        when(notMentioned.getText()).thenReturn(mapper.writeValueAsString(content));
+
+        // Execute
+        callback.onEvent(mentioned);
+        callback.onEvent(notMentioned);
+        verify(spyMessagingTemplate, never()).send(any(String.class), payloadOf(StatusCreatedMessage.class));
+        optInIndex.record("4567");
+
+        // Verify
+        verify(spyMessagingTemplate, times(1)).send(eq("/topic/hashtags/" + principal + "/hashtag/creation"), payloadOf(StatusCreatedMessage.class));
+        verify(embedCheckClient, never()).fetchHeaders("https://example.com/9999/embed");
+        assertEquals(1, optInIndex.joined());
     }
 
     /**
@@ -611,9 +1014,9 @@ public class StompCallbackTest {
         StatusCreatedMessage createdMessage = StatusCreatedMessage.builder().id("4567").url("https://example.com/4567" + "/embed").build();
 
         HttpHeaders allowHeader = getHeaders("ALLOWALL", null);
-        when(restTemplate.headForHeaders("https://example.com/4567" + "/embed")).thenReturn(allowHeader);
+        when(embedCheckClient.fetchHeaders("https://example.com/4567" + "/embed")).thenReturn(CompletableFuture.completedFuture(allowHeader));
 
-        StompCallback callback = new StompCallback(subscriptionManager, spyMessagingTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        StompCallback callback = callback(spyMessagingTemplate, UUID.randomUUID().toString(), "glacier@example.com", "example.com");
 
         MastodonApiEvent.GenericMessage mockEvent = mock(MastodonApiEvent.GenericMessage.class);
         ObjectMapper mapper = new ObjectMapper();
@@ -629,7 +1032,7 @@ public class StompCallbackTest {
         callback.onEvent(mockEvent);
 
         // Verify
-        verify(spyMessagingTemplate, times(1)).convertAndSend(matches("/topic/hashtags/.*/hashtag/creation"), eq(createdMessage));
+        verify(spyMessagingTemplate, times(1)).send(matches("/topic/hashtags/.*/hashtag/creation"), payload(createdMessage));
     }
 
     /**
@@ -644,7 +1047,10 @@ public class StompCallbackTest {
         }));
         StatusDeletedMessage deletedMessage = StatusDeletedMessage.builder().id("4567").build();
 
-        StompCallback callback = new StompCallback(subscriptionManager, spyMessagingTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        String principal = UUID.randomUUID().toString();
+        // The wall shows the status
+        deliveredStatuses.deliver(principal, "4567");
+        StompCallback callback = callback(spyMessagingTemplate, principal, "glacier@example.com", "example.com");
         MastodonApiEvent.GenericMessage mockEvent = mock(MastodonApiEvent.GenericMessage.class);
 
         ObjectMapper mapper = new ObjectMapper();
@@ -658,7 +1064,7 @@ public class StompCallbackTest {
         callback.onEvent(mockEvent);
 
         // Verify
-        verify(spyMessagingTemplate, times(1)).convertAndSend(matches("/topic/hashtags/.*/hashtag/deletion"), eq(deletedMessage));
+        verify(spyMessagingTemplate, times(1)).send(matches("/topic/hashtags/.*/hashtag/deletion"), payload(deletedMessage));
     }
 
     /**
@@ -673,7 +1079,10 @@ public class StompCallbackTest {
         }));
         StatusDeletedMessage deletedMessage = StatusDeletedMessage.builder().id("4567").build();
 
-        StompCallback callback = new StompCallback(subscriptionManager, spyMessagingTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        String principal = UUID.randomUUID().toString();
+        // The wall shows the status
+        deliveredStatuses.deliver(principal, "4567");
+        StompCallback callback = callback(spyMessagingTemplate, principal, "glacier@example.com", "example.com");
         MastodonApiEvent.GenericMessage mockEvent = mock(MastodonApiEvent.GenericMessage.class);
 
         ObjectMapper mapper = new ObjectMapper();
@@ -687,7 +1096,7 @@ public class StompCallbackTest {
         callback.onEvent(mockEvent);
 
         // Verify
-        verify(spyMessagingTemplate, times(1)).convertAndSend(matches("/topic/hashtags/.*/hashtag/deletion"), eq(deletedMessage));
+        verify(spyMessagingTemplate, times(1)).send(matches("/topic/hashtags/.*/hashtag/deletion"), payload(deletedMessage));
     }
 
     /**
@@ -697,7 +1106,7 @@ public class StompCallbackTest {
     public void onEvent_UnrelatedGenericMessageEvent_isIgnored() throws JsonProcessingException {
         // Setup
         TestLogAppender logAppender = getTestLogAppender();
-        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        StompCallback callback = callback(mockTemplate, UUID.randomUUID().toString(), "glacier@example.com", "example.com");
         MastodonApiEvent.GenericMessage mockEvent = mock(MastodonApiEvent.GenericMessage.class);
 
         ObjectMapper mapper = new ObjectMapper();
@@ -724,7 +1133,7 @@ public class StompCallbackTest {
     public void onEvent_EventGenericMessageWithInvalidContent_handlesExceptionGracefully() {
         // Setup
         TestLogAppender logAppender = getTestLogAppender();
-        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        StompCallback callback = callback(mockTemplate, UUID.randomUUID().toString(), "glacier@example.com", "example.com");
         MastodonApiEvent.GenericMessage mockEvent = mock(MastodonApiEvent.GenericMessage.class);
 
         when(mockEvent.getText()).thenReturn("not a json");
@@ -746,7 +1155,7 @@ public class StompCallbackTest {
         // Setup
         TestLogAppender logAppender = getTestLogAppender();
 
-        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        StompCallback callback = callback(mockTemplate, UUID.randomUUID().toString(), "glacier@example.com", "example.com");
         WebSocketEvent mockEvent = mock(WebSocketEvent.class);
 
         // Execute
@@ -765,7 +1174,7 @@ public class StompCallbackTest {
         // Setup
         TestLogAppender logAppender = getTestLogAppender();
         String errorMessage = "Error Message";
-        StompCallback callback = new StompCallback(subscriptionManager, mockTemplate, restTemplate, UUID.randomUUID().toString(), "hashtag", "glacier@example.com", "example.com");
+        StompCallback callback = callback(mockTemplate, UUID.randomUUID().toString(), "glacier@example.com", "example.com");
         TechnicalEvent.Failure mockEvent = mock(TechnicalEvent.Failure.class);
         Throwable mockException = mock(Throwable.class);
         when(mockEvent.getError()).thenReturn(mockException);
@@ -776,10 +1185,198 @@ public class StompCallbackTest {
 
         // Verify
         Mockito.verify(mockEvent, Mockito.atLeastOnce()).getError();
+        verify(subscriptionManager, times(1)).restartHashtagStream("hashtag");
         assertThat(logAppender.getLoggedMessages())
                 .anySatisfy(msg -> assertThat(msg).contains("got a Failure event. Restarting subscription. The error is: Error Message"));
     }
 
+    /**
+     * Tests if the walls are told once, that the stream is reconnecting, and again, when it is connected
+     */
+    @Test
+    public void onEvent_EventTechnicalFailure_sendStreamStateToSubscribers() {
+        // Setup
+        String principal = UUID.randomUUID().toString();
+        String destination = "/topic/hashtags/" + principal + "/hashtag/state";
+        StompCallback callback = callback(mockTemplate, principal, "glacier@example.com", "example.com");
+        TechnicalEvent.Failure failure = new TechnicalEvent.Failure(new IOException("Connection reset"));
+
+        // Execute
+        callback.onEvent(failure);
+        callback.onEvent(failure);
+        callback.onEvent(new TechnicalEvent.Open());
+        callback.onEvent(new TechnicalEvent.Open());
+
+        // Verify
+        InOrder inOrder = inOrder(mockTemplate);
+        inOrder.verify(mockTemplate).send(eq(destination), payload(StreamStateMessage.builder().state(StreamStateMessage.RECONNECTING).build()));
+        inOrder.verify(mockTemplate).send(eq(destination), payload(StreamStateMessage.builder().state(StreamStateMessage.CONNECTED).build()));
+        verify(mockTemplate, times(2)).getMessageConverter();
+        verifyNoMoreInteractions(mockTemplate);
+        verify(subscriptionManager, times(2)).restartHashtagStream("hashtag");
+        verify(subscriptionManager, times(2)).hashtagStreamOpened("hashtag");
+        verify(timelineBackfill, never()).fetchSince(anyString(), anyString());
+    }
+
+    /**
+     * Tests if the statuses, that were missed while the stream was down, are backfilled after the reconnect and sent only once.
+     * The live events are not held back by the backfill.
+     */
+    @Test
+    public void onEvent_reconnect_backfillsMissedStatusesOnce() throws JsonProcessingException {
+        // Setup
+        String principal = UUID.randomUUID().toString();
+        HttpHeaders allowHeader = getHeaders("ALLOWALL", null);
+        when(embedCheckClient.fetchHeaders(anyString())).thenReturn(CompletableFuture.completedFuture(allowHeader));
+        CompletableFuture<List<Status>> backfilled = new CompletableFuture<>();
+        when(timelineBackfill.fetchSince("hashtag", "100")).thenReturn(backfilled);
+        StompCallback callback = callback(mockTemplate, principal, "glacier@example.com", "example.com");
+        callback.onEvent(updateEvent("100"));
+
+        // Execute
+        callback.onEvent(new TechnicalEvent.Failure(new IOException("Connection reset")));
+        callback.onEvent(new TechnicalEvent.Open());
+        callback.onEvent(updateEvent("102"));
+        callback.onEvent(updateEvent("103"));
+        verify(mockTemplate, times(3)).send(anyString(), payloadOf(StatusCreatedMessage.class));
+        backfilled.complete(List.of(status("101"), status("102")));
+
+        // Verify
+        InOrder inOrder = inOrder(mockTemplate);
+        for (String id : List.of("100", "102", "103", "101")) {
+            inOrder.verify(mockTemplate).send(eq("/topic/hashtags/" + principal + "/hashtag/creation"), payload(StatusCreatedMessage.builder().id(id).url("https://example.com/" + id + "/embed").build()));
+        }
+        verify(mockTemplate, times(4)).send(anyString(), payloadOf(StatusCreatedMessage.class));
+    }
+
+    /**
+     * Tests if the seed fetches the latest statuses once and buffers the deliverable ones for new walls
+     */
+    @Test
+    public void seed_buffersDeliverableStatusesOnce() {
+        // Setup
+        String principal = UUID.randomUUID().toString();
+        HttpHeaders allowHeader = getHeaders("ALLOWALL", null);
+        when(embedCheckClient.fetchHeaders(anyString())).thenReturn(CompletableFuture.completedFuture(allowHeader));
+        Status withoutOptIn = status("102");
+        when(withoutOptIn.getMentions()).thenReturn(List.of());
+        List<Status> latest = List.of(status("101"), withoutOptIn, status("103"));
+        when(timelineBackfill.fetchLatest("hashtag", 20)).thenReturn(CompletableFuture.completedFuture(latest));
+        StompCallback callback = callback(mockTemplate, principal, "glacier@example.com", "example.com");
+
+        // Execute
+        callback.seed();
+        callback.seed();
+
+        // Verify
+        verify(timelineBackfill, times(1)).fetchLatest("hashtag", 20);
+        assertThat(callback.recentStatuses()).extracting(StatusCreatedMessage::getId).containsExactly("101", "103");
+        verify(mockTemplate, times(2)).send(anyString(), payloadOf(StatusCreatedMessage.class));
+    }
+
+    /**
+     * Tests if a member, that does not own the stream, only buffers the seeded statuses without sending them
+     */
+    @Test
+    public void seedRecent_buffersDeliverableStatusesWithoutSending() {
+        // Setup
+        String principal = UUID.randomUUID().toString();
+        HttpHeaders allowHeader = getHeaders("ALLOWALL", null);
+        when(embedCheckClient.fetchHeaders(anyString())).thenReturn(CompletableFuture.completedFuture(allowHeader));
+        Status withoutOptIn = status("102");
+        when(withoutOptIn.getMentions()).thenReturn(List.of());
+        List<Status> latest = List.of(status("101"), withoutOptIn, status("103"));
+        when(timelineBackfill.fetchLatest("hashtag", 20)).thenReturn(CompletableFuture.completedFuture(latest));
+        StompCallback callback = callback(mockTemplate, principal, "glacier@example.com", "example.com");
+
+        // Execute
+        callback.seedRecent();
+        callback.seed();
+
+        // Verify
+        verify(timelineBackfill, times(1)).fetchLatest("hashtag", 20);
+        assertThat(callback.recentStatuses()).extracting(StatusCreatedMessage::getId).containsExactly("101", "103");
+        verify(mockTemplate, never()).send(anyString(), payloadOf(StatusCreatedMessage.class));
+    }
+
+    /**
+     * Tests if live statuses are buffered and deleted statuses are removed from the buffer
+     */
+    @Test
+    public void onEvent_recentStatusesFollowCreationsAndDeletions() throws JsonProcessingException {
+        // Setup
+        HttpHeaders allowHeader = getHeaders("ALLOWALL", null);
+        when(embedCheckClient.fetchHeaders(anyString())).thenReturn(CompletableFuture.completedFuture(allowHeader));
+        StompCallback callback = callback(mockTemplate, UUID.randomUUID().toString(), "glacier@example.com", "example.com");
+
+        // Execute
+        callback.onEvent(updateEvent("100"));
+        callback.onEvent(updateEvent("101"));
+        callback.onEvent(new MastodonApiEvent.GenericMessage("{\"stream\":[\"hashtag\",\"hashtag\"],\"event\":\"delete\",\"payload\":\"100\"}"));
+
+        // Verify
+        assertThat(callback.recentStatuses()).containsExactly(StatusCreatedMessage.builder().id("101").url("https://example.com/101/embed").build());
+    }
+
+    /**
+     * Tests if the Mastodon ids are compared by their numeric value
+     */
+    @Test
+    public void isNewer_comparesNumericIds() {
+        assertThat(StompCallback.isNewer("100", null)).isTrue();
+        assertThat(StompCallback.isNewer("1000", "999")).isTrue();
+        assertThat(StompCallback.isNewer("999", "1000")).isFalse();
+        assertThat(StompCallback.isNewer("101", "100")).isTrue();
+        assertThat(StompCallback.isNewer("100", "100")).isFalse();
+    }
+
+    /**
+     * Creates a GenericMessage update event for a status, that mentions glacier.
+     */
+    private static MastodonApiEvent.GenericMessage updateEvent(final String id) throws JsonProcessingException {
+        ObjectMapper mapper = new ObjectMapper();
+        Mention mention = Mention.builder().id(id).username("@peter.kropotkin").acct("glacier").build();
+        GenericMessageContentPayload payload = GenericMessageContentPayload.builder().mentions(List.of(mention)).url("https://example.com/" + id).id(id).build();
+        GenericMessageContent content = GenericMessageContent.builder().event("update").stream(List.of("hashtag", "hashtag")).payload(TextNode.valueOf(mapper.writeValueAsString(payload))).build();
+        return new MastodonApiEvent.GenericMessage(mapper.writeValueAsString(content));
+    }
+
+    /**
+     * Creates a status of the tag timeline, that mentions glacier.
+     */
+    private static Status status(final String id) {
+        Status status = mock(Status.class);
+        social.bigbone.api.entity.Mention mention = mock(social.bigbone.api.entity.Mention.class);
+        when(mention.getAcct()).thenReturn("glacier");
+        when(status.getId()).thenReturn(id);
+        when(status.getUrl()).thenReturn("https://example.com/" + id);
+        when(status.getMentions()).thenReturn(List.of(mention));
+        return status;
+    }
+
+    /**
+     * Matches an encoded message with the given payload.
+     */
+    private static Message<?> payload(final Object expected) {
+        return argThat(message -> expected.equals(message.getPayload()));
+    }
+
+    /**
+     * Matches an encoded message with a payload of the given type.
+     */
+    private static Message<?> payloadOf(final Class<?> type) {
+        return argThat(message -> type.isInstance(message.getPayload()));
+    }
+
+    /**
+     * Creates a callback for the stream of the hashtag "hashtag" with the given principal as its only subscriber.
+     */
+    private StompCallback callback(final SimpMessagingTemplate template, final String principal, final String handle, final String glacierDomain) {
+        StompCallback callback = new StompCallback(subscriptionManager, template, embedCheckClient, embedPolicyCache, eventPipeline, timelineBackfill, deliveredStatuses, optInIndex, metrics, true, 20, "hashtag", handle, FrameAncestors.of(glacierDomain));
+        callback.addSubscriber(principal, "hashtag");
+        return callback;
+    }
+
     @NotNull
     private static TestLogAppender getTestLogAppender() {
         TestLogAppender logAppender = new TestLogAppender();
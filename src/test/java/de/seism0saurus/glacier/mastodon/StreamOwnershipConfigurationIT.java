@@ -0,0 +1,54 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+import javax.sql.DataSource;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Starts the jdbc cluster coordination with a DataSource, that is built from the spring.datasource properties.
+ */
+@SpringBootTest(
+        classes = StreamOwnershipConfigurationIT.TestConfiguration.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "glacier.cluster.coordination=jdbc",
+                "glacier.cluster.member=node1",
+                "glacier.broker.mode=relay",
+                "spring.datasource.url=jdbc:h2:mem:glacier-cluster;DB_CLOSE_DELAY=-1"
+        }
+)
+public class StreamOwnershipConfigurationIT {
+
+    @Autowired
+    private StreamOwnership streamOwnership;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void jdbcCoordination_sharesTheMembersInTheConfiguredDatabase() throws Exception {
+        // Act: The member renews its lease in the database
+        Set<String> members = streamOwnership.renew();
+
+        // Assert: The lease is written to the database of the spring.datasource.url
+        assertThat(streamOwnership).isInstanceOf(JdbcStreamOwnership.class);
+        assertThat(members).containsExactly("node1");
+        try (var connection = dataSource.getConnection()) {
+            assertThat(connection.getMetaData().getURL()).startsWith("jdbc:h2:mem:glacier-cluster");
+        }
+    }
+
+    @Configuration
+    @EnableAutoConfiguration
+    @Import(StreamOwnershipConfiguration.class)
+    static class TestConfiguration {
+    }
+}
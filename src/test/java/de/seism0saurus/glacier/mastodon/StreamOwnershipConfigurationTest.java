@@ -0,0 +1,38 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class StreamOwnershipConfigurationTest {
+
+    @SuppressWarnings("unchecked")
+    private final ObjectProvider<DataSource> dataSource = mock(ObjectProvider.class);
+
+    private final StreamOwnershipConfiguration configuration = new StreamOwnershipConfiguration();
+
+    @Test
+    void jdbcCoordination_failsWithTheSimpleBroker() {
+        // Execute & Verify
+        assertThatThrownBy(() -> configuration.streamOwnership("jdbc", "node1", 15_000, "simple", dataSource))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("relay");
+        verifyNoInteractions(dataSource);
+    }
+
+    @Test
+    void memoryCoordination_runsWithTheSimpleBroker() {
+        // Execute
+        StreamOwnership ownership = configuration.streamOwnership("memory", "node1", 15_000, "simple", dataSource);
+
+        // Verify
+        assertThat(ownership).isInstanceOf(InMemoryStreamOwnership.class);
+        assertThat(ownership.localMember()).isEqualTo("node1");
+    }
+}
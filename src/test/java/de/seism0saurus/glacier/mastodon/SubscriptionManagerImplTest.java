@@ -1,20 +1,34 @@
 package de.seism0saurus.glacier.mastodon;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.SimpleMessageConverter;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.http.HttpHeaders;
 import social.bigbone.MastodonClient;
+import social.bigbone.api.entity.Mention;
+import social.bigbone.api.entity.Status;
 import social.bigbone.api.method.StreamingMethods;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 class SubscriptionManagerImplTest {
@@ -26,21 +40,31 @@ class SubscriptionManagerImplTest {
     private SimpMessagingTemplate simpMessagingTemplate;
 
     @Mock
-    private RestTemplate restTemplate;
+    private EmbedCheckClient embedCheckClient;
 
     private final StreamingMethods methods;
 
-    @InjectMocks
-    private SubscriptionManagerImpl subscriptionManager;
+    private final List<Runnable> reconnects = new ArrayList<>();
+
+    private final ReconnectSupervisor reconnectSupervisor = new ReconnectSupervisor((task, delay) -> reconnects.add(task), Clock.systemUTC(), bound -> 0,
+            Duration.ofSeconds(1), Duration.ofMinutes(1), 5, Duration.ofSeconds(30), 10);
+
+    private final TimelineBackfill timelineBackfill;
+
+    private final SubscriptionManagerImpl subscriptionManager;
 
     public SubscriptionManagerImplTest() {
         MockitoAnnotations.openMocks(this);
         methods = mock(StreamingMethods.class);
         when(mastodonClient.streaming()).thenReturn(methods);
+        when(simpMessagingTemplate.getMessageConverter()).thenReturn(new SimpleMessageConverter());
+        when(methods.hashtag(anyString(), anyBoolean(), any(StompCallback.class))).thenReturn(mock(Closeable.class));
         String instance = "test-instance";
         String glacierDomain = "test-domain";
         String handle = "test-handle@test-instance";
-        subscriptionManager = new SubscriptionManagerImpl(instance, glacierDomain, handle, mastodonClient, simpMessagingTemplate, restTemplate);
+        timelineBackfill = mock(TimelineBackfill.class);
+        when(timelineBackfill.fetchLatest(anyString(), anyInt())).thenReturn(CompletableFuture.completedFuture(List.of()));
+        subscriptionManager = new SubscriptionManagerImpl(instance, glacierDomain, handle, 20, 100, true, new BigboneUpstreamConnector(mastodonClient), simpMessagingTemplate, embedCheckClient, new EmbedPolicyCache(new LoadabilityCache(100, 600, 60), 100, 3600, 86400), new EventPipeline(Runnable::run, 100), reconnectSupervisor, timelineBackfill, new InMemoryStreamOwnership("node1", Duration.ofMinutes(1), Clock.systemUTC(), new InMemoryStreamOwnership.Cluster()), new OptInIndex(100, 900, 30, 100), new GlacierMetrics(new SimpleMeterRegistry()));
     }
 
     @Test
@@ -59,7 +83,7 @@ class SubscriptionManagerImplTest {
         String principal = "user123";
         String hashtag = "TestHashtag";
         Closeable subscription = mock(Closeable.class);
-        when(methods.hashtag(eq(hashtag), anyBoolean(), any(StompCallback.class))).thenReturn(subscription);
+        when(methods.hashtag(eq("testhashtag"), anyBoolean(), any(StompCallback.class))).thenReturn(subscription);
 
         subscriptionManager.subscribeToHashtag(principal, hashtag);
 
@@ -67,7 +91,59 @@ class SubscriptionManagerImplTest {
 
         assertTrue(subscriptionManager.hasPrincipalSubscriptions(principal));
         assertTrue(subscriptionManager.isHashtagSubscribedByPrincipal(principal, hashtag));
-        verify(methods).hashtag(eq(hashtag), anyBoolean(), any(StompCallback.class));
+        verify(methods).hashtag(eq("testhashtag"), anyBoolean(), any(StompCallback.class));
+    }
+
+    @Test
+    void testSubscribeToHashtag_SharedUpstreamForSameCanonicalHashtag() throws InterruptedException {
+        Closeable subscription = mock(Closeable.class);
+        when(methods.hashtag(eq("devoxx"), anyBoolean(), any(StompCallback.class))).thenReturn(subscription);
+
+        subscriptionManager.subscribeToHashtag("user1", "Devoxx");
+        subscriptionManager.subscribeToHashtag("user2", "#devoxx");
+        subscriptionManager.subscribeToHashtag("user3", "DEVOXX");
+
+        Thread.sleep(1000L);
+
+        assertEquals(1, subscriptionManager.numberOfUpstreamStreams());
+        verify(methods, times(1)).hashtag(eq("devoxx"), anyBoolean(), any(StompCallback.class));
+    }
+
+    @Test
+    void testTerminateSubscription_UpstreamClosedWithLastSubscriber() throws InterruptedException, IOException {
+        Closeable subscription = mock(Closeable.class);
+        when(methods.hashtag(eq("devoxx"), anyBoolean(), any(StompCallback.class))).thenReturn(subscription);
+
+        subscriptionManager.subscribeToHashtag("user1", "Devoxx");
+        subscriptionManager.subscribeToHashtag("user2", "devoxx");
+        Thread.sleep(1000L);
+
+        subscriptionManager.terminateSubscription("user1", "Devoxx");
+        Thread.sleep(1000L);
+        assertEquals(1, subscriptionManager.numberOfUpstreamStreams());
+        verify(subscription, never()).close();
+
+        subscriptionManager.terminateAllSubscriptions("user2");
+        Thread.sleep(1000L);
+        assertEquals(0, subscriptionManager.numberOfUpstreamStreams());
+        verify(subscription, atLeastOnce()).close();
+    }
+
+    @Test
+    void testSubscribeToHashtag_SameCanonicalHashtagTwiceForPrincipal() {
+        subscriptionManager.subscribeToHashtag("user1", "Devoxx");
+        subscriptionManager.subscribeToHashtag("user1", "#devoxx");
+
+        assertEquals(1, subscriptionManager.numberOfSubscriptions("user1"));
+        assertTrue(subscriptionManager.isHashtagSubscribedByPrincipal("user1", "DEVOXX"));
+    }
+
+    @Test
+    void testCanonicalize() {
+        assertEquals("devoxx", HashtagStreamRegistry.canonicalize("#Devoxx"));
+        assertEquals("devoxx", HashtagStreamRegistry.canonicalize("ＤＥＶＯＸＸ"));
+        assertEquals("strasse", HashtagStreamRegistry.canonicalize("Straße"));
+        assertEquals(HashtagStreamRegistry.canonicalize("Straße"), HashtagStreamRegistry.canonicalize("STRASSE"));
     }
 
 //    @Test
@@ -309,4 +385,102 @@ class SubscriptionManagerImplTest {
 
         assertEquals(2, subscriptionManager.numberOfSubscriptions(principal));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testSubscribeToHashtag_TenThousandSubscriptionsWithConstantThreadCount() {
+        AtomicInteger closed = new AtomicInteger();
+        when(methods.hashtag(anyString(), anyBoolean(), any(StompCallback.class))).thenReturn(closed::incrementAndGet);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+
+        for (int i = 0; i < 10_000; i++) {
+            subscriptionManager.subscribeToHashtag("user" + i, "hashtag" + i);
+        }
+
+        assertEquals(10_000, subscriptionManager.numberOfUpstreamStreams());
+        assertTrue(threads.getThreadCount() <= threadsBefore + 2, "No thread may be held per subscription");
+
+        subscriptionManager.shutdown();
+
+        assertEquals(10_000, closed.get());
+        assertEquals(0, subscriptionManager.numberOfUpstreamStreams());
+        assertFalse(subscriptionManager.hasPrincipalSubscriptions("user0"));
+    }
+
+    @Test
+    void testRestartHashtagStream_DelayedBySupervisor() throws IOException {
+        Closeable subscription = mock(Closeable.class);
+        when(methods.hashtag(eq("devoxx"), anyBoolean(), any(StompCallback.class))).thenReturn(subscription);
+        subscriptionManager.subscribeToHashtag("user1", "Devoxx");
+
+        subscriptionManager.restartHashtagStream("DEVOXX");
+        subscriptionManager.restartHashtagStream("devoxx");
+
+        verify(subscription, never()).close();
+        assertEquals(1, reconnects.size());
+
+        reconnects.removeFirst().run();
+
+        verify(subscription, times(1)).close();
+        verify(methods, times(2)).hashtag(eq("devoxx"), anyBoolean(), any(StompCallback.class));
+        assertEquals(0, reconnectSupervisor.pendingReconnects());
+    }
+
+    @Test
+    void testTerminateSubscription_PendingRestartDropped() {
+        subscriptionManager.subscribeToHashtag("user1", "Devoxx");
+        subscriptionManager.restartHashtagStream("devoxx");
+
+        subscriptionManager.terminateSubscription("user1", "Devoxx");
+        reconnects.removeFirst().run();
+
+        verify(methods, times(1)).hashtag(eq("devoxx"), anyBoolean(), any(StompCallback.class));
+        assertEquals(0, subscriptionManager.numberOfUpstreamStreams());
+    }
+
+    @Test
+    void testRecentStatuses_SeededOncePerStreamAndSharedByWalls() {
+        Status status = mock(Status.class);
+        Mention mention = mock(Mention.class);
+        when(mention.getAcct()).thenReturn("test-handle");
+        when(status.getId()).thenReturn("101");
+        when(status.getUrl()).thenReturn("https://example.com/101");
+        when(status.getMentions()).thenReturn(List.of(mention));
+        when(timelineBackfill.fetchLatest("devoxx", 20)).thenReturn(CompletableFuture.completedFuture(List.of(status)));
+        when(embedCheckClient.fetchHeaders(anyString())).thenReturn(CompletableFuture.completedFuture(new HttpHeaders()));
+
+        subscriptionManager.subscribeToHashtag("user1", "Devoxx");
+        subscriptionManager.subscribeToHashtag("user2", "devoxx");
+
+        verify(timelineBackfill, times(1)).fetchLatest(anyString(), anyInt());
+        assertEquals(List.of("101"), subscriptionManager.recentStatuses("user3", "DEVOXX").stream().map(message -> message.getId()).toList());
+        assertTrue(subscriptionManager.recentStatuses("user3", "java").isEmpty());
+    }
+
+    @Test
+    void testDuplicateAcrossHashtags_SentAndCheckedOncePerWall() {
+        Status status = mock(Status.class);
+        Mention mention = mock(Mention.class);
+        when(mention.getAcct()).thenReturn("test-handle");
+        when(status.getId()).thenReturn("101");
+        when(status.getUrl()).thenReturn("https://example.com/101");
+        when(status.getMentions()).thenReturn(List.of(mention));
+        when(timelineBackfill.fetchLatest("java", 20)).thenReturn(CompletableFuture.completedFuture(List.of(status)));
+        when(timelineBackfill.fetchLatest("jvm", 20)).thenReturn(CompletableFuture.completedFuture(List.of(status)));
+        when(embedCheckClient.fetchHeaders(anyString())).thenReturn(CompletableFuture.completedFuture(new HttpHeaders()));
+
+        subscriptionManager.subscribeToHashtag("user1", "java");
+        subscriptionManager.subscribeToHashtag("user1", "jvm");
+
+        verify(simpMessagingTemplate, times(1)).send(matches("/topic/hashtags/user1/.*/creation"), any(Message.class));
+        verify(embedCheckClient, times(1)).fetchHeaders(anyString());
+        assertTrue(subscriptionManager.recentStatuses("user1", "java").isEmpty());
+        assertEquals(List.of("101"), subscriptionManager.recentStatuses("user2", "java").stream().map(message -> message.getId()).toList());
+    }
+
+    @Test
+    void testWallDestination_LegacyDestinations_None() {
+        assertNull(subscriptionManager.wallDestination("user1"));
+        assertEquals("/topic/hashtags/user1/events", StompCallback.wallDestination("user1"));
+    }
+}
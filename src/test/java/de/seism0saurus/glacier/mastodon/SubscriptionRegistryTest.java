@@ -0,0 +1,186 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SubscriptionRegistryTest {
+
+    private final SubscriptionRegistry registry = new SubscriptionRegistry();
+    private final List<String> actions = new ArrayList<>();
+    private final BiConsumer<String, String> record = (principal, hashtag) -> actions.add(principal + ":" + hashtag);
+
+    @Test
+    void subscribe_newAndExisting() {
+        // Execute
+        boolean first = registry.subscribe("wall1", "#Devoxx", record);
+        boolean second = registry.subscribe("wall1", "devoxx", record);
+
+        // Verify
+        assertTrue(first);
+        assertFalse(second);
+        assertEquals(List.of("wall1:#Devoxx"), actions);
+        assertTrue(registry.isSubscribed("wall1", "DEVOXX"));
+        assertEquals(1, registry.numberOfSubscriptions("wall1"));
+    }
+
+    @Test
+    void terminate_returnsTheSubscribedHashtag() {
+        // Setup
+        registry.subscribe("wall1", "#Devoxx", record);
+        registry.subscribe("wall2", "devoxx", record);
+        actions.clear();
+
+        // Execute
+        String subscribed = registry.terminate("wall1", "devoxx", record);
+
+        // Verify
+        assertEquals("#Devoxx", subscribed);
+        assertEquals(List.of("wall1:#Devoxx"), actions);
+        assertFalse(registry.hasSubscriptions("wall1"));
+        assertTrue(registry.isSubscribed("wall2", "devoxx"));
+    }
+
+    @Test
+    void terminate_unknownPrincipalOrHashtag() {
+        // Setup
+        registry.subscribe("wall1", "devoxx", record);
+
+        // Verify
+        assertThrows(IllegalArgumentException.class, () -> registry.terminate("wall2", "devoxx", record));
+        assertThrows(IllegalArgumentException.class, () -> registry.terminate("wall1", "java", record));
+        assertEquals(List.of("wall1:devoxx"), actions);
+    }
+
+    @Test
+    void terminateAll_removesEverySubscription() {
+        // Setup
+        registry.subscribe("wall1", "devoxx", record);
+        registry.subscribe("wall1", "java", record);
+        registry.subscribe("wall2", "java", record);
+        actions.clear();
+
+        // Execute
+        int terminated = registry.terminateAll("wall1", record);
+
+        // Verify
+        assertEquals(2, terminated);
+        assertEquals(Set.of("wall1:devoxx", "wall1:java"), Set.copyOf(actions));
+        assertEquals(0, registry.terminateAll("wall1", record));
+        assertEquals(1, registry.numberOfPrincipals());
+        assertTrue(registry.isSubscribed("wall2", "java"));
+    }
+
+    @Test
+    void subscribe_failedActionIsRolledBack() {
+        // Execute
+        assertThrows(IllegalStateException.class, () -> registry.subscribe("wall1", "devoxx", (principal, hashtag) -> {
+            throw new IllegalStateException("Upstream not available");
+        }));
+
+        // Verify
+        assertFalse(registry.hasSubscriptions("wall1"));
+        assertTrue(registry.subscribe("wall1", "devoxx", record));
+    }
+
+    @Test
+    void clear_removesEverySubscriptionWithoutActions() {
+        // Setup
+        registry.subscribe("wall1", "devoxx", record);
+        registry.subscribe("wall2", "java", record);
+        actions.clear();
+
+        // Execute
+        int removed = registry.clear();
+
+        // Verify
+        assertEquals(2, removed);
+        assertEquals(0, registry.numberOfPrincipals());
+        assertTrue(actions.isEmpty());
+    }
+
+    @Test
+    void concurrentOperations_noLostOrDuplicateSubscriptions() throws Exception {
+        // Setup
+        int threads = 16;
+        int operations = 5_000;
+        List<String> principals = List.of("wall1", "wall2", "wall3", "wall4", "wall5", "wall6", "wall7", "wall8");
+        List<String> hashtags = List.of("devoxx", "#Devoxx", "java", "JAVA", "kotlin", "spring");
+        SubscriptionRegistry registry = new SubscriptionRegistry(4);
+        Map<String, AtomicInteger> active = new ConcurrentHashMap<>();
+        BiConsumer<String, String> acquire = (principal, hashtag) -> {
+            int count = counter(active, principal, hashtag).incrementAndGet();
+            assertEquals(1, count, "Duplicate subscription of " + principal + " to " + hashtag);
+        };
+        BiConsumer<String, String> release = (principal, hashtag) -> {
+            int count = counter(active, principal, hashtag).decrementAndGet();
+            assertEquals(0, count, "Lost subscription of " + principal + " to " + hashtag);
+        };
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+
+        // Execute
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < operations; i++) {
+                        String principal = principals.get(random.nextInt(principals.size()));
+                        String hashtag = hashtags.get(random.nextInt(hashtags.size()));
+                        switch (random.nextInt(10)) {
+                            case 0 -> registry.terminateAll(principal, release);
+                            case 1, 2, 3, 4 -> {
+                                try {
+                                    registry.terminate(principal, hashtag, release);
+                                } catch (IllegalArgumentException e) {
+                                    // Not subscribed at the moment
+                                }
+                            }
+                            default -> registry.subscribe(principal, hashtag, acquire);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get();
+            }
+        }
+
+        // Verify
+        int subscriptions = 0;
+        for (String principal : principals) {
+            for (String hashtag : List.of("devoxx", "java", "kotlin", "spring")) {
+                boolean subscribed = registry.isSubscribed(principal, hashtag);
+                assertEquals(subscribed ? 1 : 0, counter(active, principal, hashtag).get());
+                subscriptions += subscribed ? 1 : 0;
+            }
+            assertEquals(registry.numberOfSubscriptions(principal) > 0, registry.hasSubscriptions(principal));
+        }
+        assertEquals(subscriptions, registry.numberOfSubscriptions());
+    }
+
+    @Test
+    void constructor_noStripes() {
+        assertThrows(IllegalArgumentException.class, () -> new SubscriptionRegistry(0));
+    }
+
+    private static AtomicInteger counter(final Map<String, AtomicInteger> active, final String principal, final String hashtag) {
+        return active.computeIfAbsent(principal + ":" + HashtagStreamRegistry.canonicalize(hashtag), key -> new AtomicInteger());
+    }
+}
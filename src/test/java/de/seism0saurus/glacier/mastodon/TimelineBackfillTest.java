@@ -0,0 +1,124 @@
+package de.seism0saurus.glacier.mastodon;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import social.bigbone.api.MastodonRequest;
+import social.bigbone.api.Pageable;
+import social.bigbone.api.Range;
+import social.bigbone.api.entity.Status;
+import social.bigbone.api.method.TimelineMethods;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class TimelineBackfillTest {
+
+    private TimelineMethods timelines;
+    private final List<String> timeline = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        timelines = mock(TimelineMethods.class);
+        // The tag timeline serves the statuses newest first, filtered by max_id and since_id like Mastodon
+        when(timelines.getTagTimeline(eq("devoxx"), eq(TimelineMethods.StatusOrigin.LOCAL_AND_REMOTE), any(Range.class))).thenAnswer(invocation -> {
+            Range range = invocation.getArgument(2);
+            List<Status> part = timeline.reversed().stream()
+                    .filter(id -> range.getMaxId() == null || StompCallback.isNewer(range.getMaxId(), id))
+                    .filter(id -> range.getSinceId() == null || StompCallback.isNewer(id, range.getSinceId()))
+                    .limit(range.getLimit())
+                    .map(TimelineBackfillTest::status)
+                    .toList();
+            return request(part);
+        });
+    }
+
+    @Test
+    void fetchSince_pagesUntilTheLastKnownStatus() throws Exception {
+        // Setup
+        timeline.addAll(List.of("99", "100", "101", "102", "103", "104", "105"));
+        TimelineBackfill backfill = new TimelineBackfill(timelines, Runnable::run, 2, 5);
+
+        // Execute
+        List<Status> statuses = backfill.fetchSince("devoxx", "100").get();
+
+        // Verify
+        assertEquals(List.of("101", "102", "103", "104", "105"), statuses.stream().map(Status::getId).toList());
+        ArgumentCaptor<Range> ranges = ArgumentCaptor.forClass(Range.class);
+        verify(timelines, times(3)).getTagTimeline(eq("devoxx"), eq(TimelineMethods.StatusOrigin.LOCAL_AND_REMOTE), ranges.capture());
+        assertEquals(java.util.Arrays.asList(null, "104", "102"), ranges.getAllValues().stream().map(Range::getMaxId).toList());
+        assertTrue(ranges.getAllValues().stream().allMatch(range -> "100".equals(range.getSinceId())));
+    }
+
+    @Test
+    void fetchSince_stopsAfterMaxPages() throws Exception {
+        // Setup
+        for (int id = 101; id <= 200; id++) {
+            timeline.add(String.valueOf(id));
+        }
+        TimelineBackfill backfill = new TimelineBackfill(timelines, Runnable::run, 10, 3);
+
+        // Execute
+        List<Status> statuses = backfill.fetchSince("devoxx", "100").get();
+
+        // Verify
+        assertEquals(30, statuses.size());
+        assertEquals("171", statuses.getFirst().getId());
+        assertEquals("200", statuses.getLast().getId());
+    }
+
+    @Test
+    void fetchSince_nothingMissed() throws Exception {
+        // Setup
+        timeline.addAll(List.of("99", "100"));
+        TimelineBackfill backfill = new TimelineBackfill(timelines, Runnable::run, 40, 5);
+
+        // Execute
+        List<Status> statuses = backfill.fetchSince("devoxx", "100").get();
+
+        // Verify
+        assertTrue(statuses.isEmpty());
+        verify(timelines, times(1)).getTagTimeline(any(), any(), any());
+    }
+
+    @Test
+    void fetchSince_failedRequestCompletesExceptionally() {
+        // Setup
+        when(timelines.getTagTimeline(any(), any(), any())).thenThrow(new IllegalStateException("Instance unavailable"));
+        TimelineBackfill backfill = new TimelineBackfill(timelines, Runnable::run, 40, 5);
+
+        // Execute
+        CompletableFuture<List<Status>> statuses = backfill.fetchSince("devoxx", "100");
+
+        // Verify
+        assertThrows(ExecutionException.class, statuses::get);
+    }
+
+    @Test
+    void constructor_invalidPages() {
+        assertThrows(IllegalArgumentException.class, () -> new TimelineBackfill(timelines, Runnable::run, 0, 5));
+        assertThrows(IllegalArgumentException.class, () -> new TimelineBackfill(timelines, Runnable::run, 40, 0));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MastodonRequest<Pageable<Status>> request(final List<Status> part) {
+        Pageable<Status> pageable = mock(Pageable.class);
+        when(pageable.getPart()).thenReturn(part);
+        MastodonRequest<Pageable<Status>> request = mock(MastodonRequest.class);
+        when(request.execute()).thenReturn(pageable);
+        return request;
+    }
+
+    private static Status status(final String id) {
+        Status status = mock(Status.class);
+        when(status.getId()).thenReturn(id);
+        return status;
+    }
+}
@@ -1,15 +1,18 @@
 package de.seism0saurus.glacier.webservice;
 
 import de.seism0saurus.glacier.mastodon.SubscriptionManager;
+import de.seism0saurus.glacier.webservice.messaging.messages.StatusCreatedMessage;
 import de.seism0saurus.glacier.webservice.messaging.messages.SubscriptionAckMessage;
 import de.seism0saurus.glacier.webservice.messaging.messages.SubscriptionMessage;
 import de.seism0saurus.glacier.webservice.messaging.messages.TerminationAckMessage;
 import de.seism0saurus.glacier.webservice.messaging.messages.TerminationMessage;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 
 import java.security.Principal;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -86,6 +89,52 @@ public class SubscriptionControllerTest {
         assertThat(result.getHashtag()).isEqualTo(subscriptionMessage.getHashtag());
     }
 
+    /**
+     * Subscribes to a hashtag and returns the recent statuses of the hashtag with the SubscriptionAckMessage.
+     */
+    @Test
+    public void subscribe_withRecentStatuses_replaysThemInAcknowledgement() {
+        // Setup
+        SubscriptionMessage subscriptionMessage = new SubscriptionMessage();
+        subscriptionMessage.setHashtag("TestHashtag");
+
+        Principal principal = () -> "123456789";
+        SimpMessageHeaderAccessor headerAccessor = mock(SimpMessageHeaderAccessor.class);
+        when(headerAccessor.getUser()).thenReturn(principal);
+        List<StatusCreatedMessage> recent = List.of(StatusCreatedMessage.builder().id("101").url("https://example.com/101/embed").build());
+        when(subscriptionManager.recentStatuses("123456789", "TestHashtag")).thenReturn(recent);
+
+        // Execute
+        SubscriptionAckMessage result = subscriptionController.subscribe(headerAccessor, subscriptionMessage);
+
+        // Verify
+        InOrder inOrder = inOrder(subscriptionManager);
+        inOrder.verify(subscriptionManager).subscribeToHashtag("123456789", "TestHashtag");
+        inOrder.verify(subscriptionManager).recentStatuses("123456789", "TestHashtag");
+        assertThat(result.getRecent()).isEqualTo(recent);
+    }
+
+    /**
+     * Subscribes to a hashtag and returns the single destination of the wall with the SubscriptionAckMessage.
+     */
+    @Test
+    public void subscribe_withWallDestination_returnsItInAcknowledgement() {
+        // Setup
+        SubscriptionMessage subscriptionMessage = new SubscriptionMessage();
+        subscriptionMessage.setHashtag("TestHashtag");
+
+        Principal principal = () -> "123456789";
+        SimpMessageHeaderAccessor headerAccessor = mock(SimpMessageHeaderAccessor.class);
+        when(headerAccessor.getUser()).thenReturn(principal);
+        when(subscriptionManager.wallDestination("123456789")).thenReturn("/topic/hashtags/123456789/events");
+
+        // Execute
+        SubscriptionAckMessage result = subscriptionController.subscribe(headerAccessor, subscriptionMessage);
+
+        // Verify
+        assertThat(result.getDestination()).isEqualTo("/topic/hashtags/123456789/events");
+    }
+
     /**
      * This method tests the behavior of the `subscribe` method in the `SubscriptionController` class when no existing principal is provided.
      * It verifies that the method does not subscribe to the hashtag and returns a `SubscriptionAckMessage` indicating that the subscription was not successful.
@@ -1,14 +1,22 @@
 package de.seism0saurus.glacier.webservice;
 
+import de.seism0saurus.glacier.webservice.messaging.BrokerRelay;
+import de.seism0saurus.glacier.webservice.messaging.ResumeBuffer;
+import de.seism0saurus.glacier.webservice.messaging.WallDeduplication;
 import de.seism0saurus.glacier.webservice.messaging.WebSocketConfiguration;
 import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.messaging.simp.config.SimpleBrokerRegistration;
+import org.springframework.messaging.simp.config.StompBrokerRelayRegistration;
+import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.StompWebSocketEndpointRegistration;
 import org.springframework.web.socket.config.annotation.WebMvcStompEndpointRegistry;
 import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
 /*
@@ -26,6 +34,7 @@ public class WebSocketConfigurationTest {
     public void testConfigureMessageBroker() {
         // Setup
         MessageBrokerRegistry mockRegistry = mock(MessageBrokerRegistry.class);
+        when(mockRegistry.configureBrokerChannel()).thenReturn(mock(ChannelRegistration.class));
         MessageBrokerRegistry simpleBrokerRegistration =
                 mock(MessageBrokerRegistry.class);
         SimpleBrokerRegistration brokerRegistration =
@@ -34,7 +43,7 @@ public class WebSocketConfigurationTest {
                 .thenReturn(brokerRegistration);
         when(mockRegistry.setApplicationDestinationPrefixes("/glacier"))
                 .thenReturn(simpleBrokerRegistration);
-        WebSocketConfiguration webSocketConfiguration = new WebSocketConfiguration("example.com");
+        WebSocketConfiguration webSocketConfiguration = new WebSocketConfiguration("example.com", new ResumeBuffer(10), BrokerRelay.simple(), new WallDeduplication(10));
 
         // Execute
         webSocketConfiguration.configureMessageBroker(mockRegistry);
@@ -55,7 +64,7 @@ public class WebSocketConfigurationTest {
         StompWebSocketEndpointRegistration registration = mock(StompWebSocketEndpointRegistration.class);
         when(registry.addEndpoint(anyString())).thenReturn(registration);
         when(registration.setAllowedOrigins(anyString(),anyString(),anyString())).thenReturn(registration);
-        WebSocketConfiguration webSocketConfiguration = new WebSocketConfiguration("example.com");
+        WebSocketConfiguration webSocketConfiguration = new WebSocketConfiguration("example.com", new ResumeBuffer(10), BrokerRelay.simple(), new WallDeduplication(10));
 
         // Execute
         webSocketConfiguration.registerStompEndpoints(registry);
@@ -64,6 +73,57 @@ public class WebSocketConfigurationTest {
         verify(registration, times(1)).setHandshakeHandler(any(DefaultHandshakeHandler.class));
     }
 
+    /**
+     * Test that the messages to the broker are numbered for the walls.
+     */
+    @Test
+    void testConfigureMessageBroker_registersSequencingInterceptor() {
+        // Setup
+        MessageBrokerRegistry mockRegistry = mock(MessageBrokerRegistry.class);
+        ChannelRegistration brokerChannel = mock(ChannelRegistration.class);
+        when(mockRegistry.configureBrokerChannel()).thenReturn(brokerChannel);
+        WebSocketConfiguration webSocketConfiguration = new WebSocketConfiguration("example.com", new ResumeBuffer(10), BrokerRelay.simple(), new WallDeduplication(10));
+
+        // Execute
+        webSocketConfiguration.configureMessageBroker(mockRegistry);
+
+        // Verify
+        verify(brokerChannel, times(1)).interceptors(any(ChannelInterceptor.class));
+        ChannelRegistration clientOutboundChannel = mock(ChannelRegistration.class);
+        webSocketConfiguration.configureClientOutboundChannel(clientOutboundChannel);
+        verifyNoInteractions(clientOutboundChannel);
+    }
+
+    /**
+     * Test that the relay mode only deduplicates the messages on their way to the sessions of this node and turns the resume off.
+     */
+    @Test
+    void testConfigureClientOutboundChannel_relayModeDisablesResume() {
+        // Setup
+        MessageBrokerRegistry mockRegistry = mock(MessageBrokerRegistry.class);
+        ChannelRegistration brokerChannel = mock(ChannelRegistration.class);
+        when(mockRegistry.configureBrokerChannel()).thenReturn(brokerChannel);
+        when(mockRegistry.enableStompBrokerRelay("/topic")).thenReturn(mock(StompBrokerRelayRegistration.class, RETURNS_SELF));
+        ChannelRegistration clientInboundChannel = mock(ChannelRegistration.class);
+        ChannelRegistration clientOutboundChannel = mock(ChannelRegistration.class);
+        BrokerRelay brokerRelay = new BrokerRelay("relay", "broker.example.com", 61613, "client", "secret", "system", "secret", "", 5000, 6000, 10, 1000);
+        ResumeBuffer resumeBuffer = new ResumeBuffer(10);
+        WebSocketConfiguration webSocketConfiguration = new WebSocketConfiguration("example.com", resumeBuffer, brokerRelay, new WallDeduplication(10));
+
+        // Execute
+        webSocketConfiguration.configureMessageBroker(mockRegistry);
+        webSocketConfiguration.configureClientInboundChannel(clientInboundChannel);
+        webSocketConfiguration.configureClientOutboundChannel(clientOutboundChannel);
+        resumeBuffer.connected("wall1", null);
+
+        // Verify
+        verify(brokerChannel, never()).interceptors(any(ChannelInterceptor.class));
+        verifyNoInteractions(clientInboundChannel);
+        verify(clientOutboundChannel, times(1)).interceptors(any(ChannelInterceptor.class));
+        assertEquals(0, resumeBuffer.numberOfWalls());
+        brokerRelay.close();
+    }
+
     /**
      * Test that configureMessageBroker can handle different prefixes being set.
      */
@@ -71,10 +131,11 @@ public class WebSocketConfigurationTest {
     public void testConfigureMessageBrokerWithDifferentPrefixes() {
         // Setup
         MessageBrokerRegistry mockRegistry = mock(MessageBrokerRegistry.class);
+        when(mockRegistry.configureBrokerChannel()).thenReturn(mock(ChannelRegistration.class));
         SimpleBrokerRegistration brokerRegistration = mock(SimpleBrokerRegistration.class);
         when(mockRegistry.enableSimpleBroker("/anotherTopic")).thenReturn(brokerRegistration);
 
-        WebSocketConfiguration webSocketConfiguration = new WebSocketConfiguration("example.com");
+        WebSocketConfiguration webSocketConfiguration = new WebSocketConfiguration("example.com", new ResumeBuffer(10), BrokerRelay.simple(), new WallDeduplication(10));
 
         // Execute
         webSocketConfiguration.configureMessageBroker(mockRegistry);
@@ -83,4 +144,38 @@ public class WebSocketConfigurationTest {
         verify(mockRegistry, times(1)).enableSimpleBroker("/topic");
         verify(mockRegistry, times(1)).setApplicationDestinationPrefixes("/glacier");
     }
-}
\ No newline at end of file
+
+    /**
+     * Test that the relay mode relays the messages to an external broker with the configured heartbeats instead of the in-memory broker.
+     */
+    @Test
+    void testConfigureMessageBroker_relayMode() {
+        // Setup
+        MessageBrokerRegistry mockRegistry = mock(MessageBrokerRegistry.class);
+        when(mockRegistry.configureBrokerChannel()).thenReturn(mock(ChannelRegistration.class));
+        StompBrokerRelayRegistration relayRegistration = mock(StompBrokerRelayRegistration.class, RETURNS_SELF);
+        when(mockRegistry.enableStompBrokerRelay("/topic")).thenReturn(relayRegistration);
+        BrokerRelay brokerRelay = new BrokerRelay("relay", "broker.example.com", 61613, "client", "secret", "system", "secret", "", 5000, 6000, 10, 1000);
+        WebSocketConfiguration webSocketConfiguration = new WebSocketConfiguration("example.com", new ResumeBuffer(10), brokerRelay, new WallDeduplication(10));
+
+        // Execute
+        webSocketConfiguration.configureMessageBroker(mockRegistry);
+
+        // Verify
+        verify(mockRegistry, times(1)).enableStompBrokerRelay("/topic");
+        verify(mockRegistry, never()).enableSimpleBroker(any(String[].class));
+        verify(relayRegistration, times(1)).setSystemHeartbeatSendInterval(5000);
+        verify(relayRegistration, times(1)).setSystemHeartbeatReceiveInterval(6000);
+        verify(relayRegistration, times(1)).setUserDestinationBroadcast(anyString());
+        verify(relayRegistration, times(1)).setUserRegistryBroadcast(anyString());
+        brokerRelay.close();
+    }
+
+    /**
+     * Test that an unknown broker mode is rejected.
+     */
+    @Test
+    void testBrokerRelay_unknownMode() {
+        assertThrows(IllegalArgumentException.class, () -> new BrokerRelay("cluster", "localhost", 61613, "", "", "", "", "", 0, 0, 10, 1000));
+    }
+}
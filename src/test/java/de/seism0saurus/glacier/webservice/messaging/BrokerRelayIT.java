@@ -0,0 +1,125 @@
+package de.seism0saurus.glacier.webservice.messaging;
+
+import de.seism0saurus.glacier.webservice.messaging.messages.StatusCreatedMessage;
+import de.seism0saurus.glacier.webservice.messaging.messages.WallEventMessage;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.messaging.converter.SimpleMessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * Relays the messages to the walls over a stand-in for an external STOMP broker.
+ */
+@SpringBootTest(
+        classes = BrokerRelayIT.TestConfiguration.class,
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"glacier.broker.mode=relay", "glacier.broker.relay.heartbeatSendInterval=0", "glacier.broker.relay.heartbeatReceiveInterval=0"}
+)
+public class BrokerRelayIT {
+
+    private static final StompBrokerStandIn BROKER = StompBrokerStandIn.start();
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private SimpMessagingTemplate simpMessagingTemplate;
+
+    private final WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+
+    @DynamicPropertySource
+    static void brokerProperties(final DynamicPropertyRegistry registry) {
+        registry.add("glacier.broker.relay.port", BROKER::port);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stompClient.stop();
+    }
+
+    @AfterAll
+    static void stopBroker() throws Exception {
+        BROKER.close();
+    }
+
+    @Test
+    void messagesToAWall_areRelayedOverTheBroker() throws Exception {
+        // Arrange: A wall subscribes to its destination
+        BlockingQueue<Received> received = subscribe("/topic/hashtags/wall1/events");
+
+        // Act: This node and another node send to the destination of the wall
+        simpMessagingTemplate.convertAndSend("/topic/hashtags/wall1/events", WallEventMessage.builder()
+                .type(WallEventMessage.CREATION)
+                .hashtag("devoxx")
+                .payload(StatusCreatedMessage.builder().id("101").url("https://example.com/101/embed").build())
+                .build());
+        BROKER.publish("/topic/hashtags/wall1/events", "{\"type\":\"deletion\",\"hashtag\":\"devoxx\",\"payload\":{\"id\":\"101\"}}");
+
+        // Assert: Both messages reach the wall. They are not numbered, because the resume is off in the relay mode
+        List<Received> messages = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Received message = received.poll(10, TimeUnit.SECONDS);
+            assertThat(message).isNotNull();
+            messages.add(message);
+        }
+        assertThat(messages).anySatisfy(creation -> assertThat(creation.body()).contains("\"type\":\"creation\"").contains("\"id\":\"101\""));
+        assertThat(messages).anySatisfy(deletion -> assertThat(deletion.body()).contains("\"type\":\"deletion\""));
+        assertThat(messages).allSatisfy(message -> assertThat(message.headers().getFirst(ResumeBuffer.SEQUENCE_HEADER)).isNull());
+    }
+
+    private BlockingQueue<Received> subscribe(final String destination) throws Exception {
+        stompClient.setMessageConverter(new SimpleMessageConverter());
+        StompSession session = stompClient.connectAsync("ws://localhost:" + port + "/websocket", new StompSessionHandlerAdapter() {
+        }).get(10, TimeUnit.SECONDS);
+        BlockingQueue<Received> received = new LinkedBlockingQueue<>();
+        session.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(final StompHeaders headers) {
+                return byte[].class;
+            }
+
+            @Override
+            public void handleFrame(final StompHeaders headers, final Object payload) {
+                received.add(new Received(headers, new String((byte[]) payload, StandardCharsets.UTF_8)));
+            }
+        });
+        await().atMost(Duration.ofSeconds(10)).until(() -> BROKER.hasSubscription(destination));
+        return received;
+    }
+
+    private record Received(StompHeaders headers, String body) {
+    }
+
+    @Configuration
+    @EnableAutoConfiguration
+    @Import({WebSocketConfiguration.class, ResumeBuffer.class, BrokerRelay.class, WallDeduplication.class})
+    static class TestConfiguration {
+    }
+}
@@ -0,0 +1,61 @@
+package de.seism0saurus.glacier.webservice.messaging;
+
+import de.seism0saurus.glacier.mastodon.CircuitBreaker;
+import de.seism0saurus.glacier.mastodon.EmbedCheckClient;
+import de.seism0saurus.glacier.mastodon.EmbedPolicyCache;
+import de.seism0saurus.glacier.mastodon.EventPipeline;
+import de.seism0saurus.glacier.mastodon.LoadabilityCache;
+import de.seism0saurus.glacier.mastodon.OptInIndex;
+import de.seism0saurus.glacier.mastodon.ReconnectSupervisor;
+import de.seism0saurus.glacier.mastodon.SubscriptionManagerImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class GlacierMeterBinderTest {
+
+    private final SubscriptionManagerImpl subscriptionManager = mock(SubscriptionManagerImpl.class);
+    private final SubscriptionListener subscriptionListener = mock(SubscriptionListener.class);
+    private final EventPipeline eventPipeline = mock(EventPipeline.class);
+    private final ReconnectSupervisor reconnectSupervisor = mock(ReconnectSupervisor.class);
+    private final LoadabilityCache loadabilityCache = mock(LoadabilityCache.class);
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        executor.initialize();
+        new GlacierMeterBinder(subscriptionManager, subscriptionListener, new ResumeBuffer(10), eventPipeline,
+                mock(EmbedPolicyCache.class), loadabilityCache, mock(EmbedCheckClient.class), reconnectSupervisor, mock(OptInIndex.class), executor).bindTo(registry);
+    }
+
+    @Test
+    void bindTo_gaugesReadTheComponents() {
+        // Setup
+        when(subscriptionManager.numberOfUpstreamStreams()).thenReturn(3);
+        when(subscriptionManager.numberOfWalls()).thenReturn(2);
+        when(subscriptionManager.numberOfSubscriptions()).thenReturn(5);
+        when(subscriptionListener.numberOfPendingDisconnects()).thenReturn(1);
+        when(eventPipeline.dropped()).thenReturn(7L);
+        when(reconnectSupervisor.instanceState()).thenReturn(CircuitBreaker.State.OPEN);
+        when(loadabilityCache.hits()).thenReturn(11L);
+        when(loadabilityCache.coalesced()).thenReturn(4L);
+
+        // Verify
+        assertEquals(3, registry.get("glacier.upstream.streams").gauge().value());
+        assertEquals(2, registry.get("glacier.walls").gauge().value());
+        assertEquals(5, registry.get("glacier.subscriptions").gauge().value());
+        assertEquals(1, registry.get("glacier.disconnects.pending").gauge().value());
+        assertEquals(0, registry.get("glacier.stomp.outbound.queue").gauge().value());
+        assertEquals(7, registry.get("glacier.pipeline.dropped").functionCounter().count());
+        assertEquals(11, registry.get("glacier.loadability.cache.hits").functionCounter().count());
+        assertEquals(4, registry.get("glacier.loadability.cache.coalesced").functionCounter().count());
+        assertEquals(1, registry.get("glacier.upstream.breaker").tag("state", "open").gauge().value());
+        assertEquals(0, registry.get("glacier.upstream.breaker").tag("state", "closed").gauge().value());
+    }
+}
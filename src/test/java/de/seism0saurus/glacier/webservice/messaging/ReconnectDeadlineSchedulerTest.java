@@ -0,0 +1,161 @@
+package de.seism0saurus.glacier.webservice.messaging;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReconnectDeadlineSchedulerTest {
+
+    private final TestClock clock = new TestClock();
+    private final ReconnectDeadlineScheduler scheduler = new ReconnectDeadlineScheduler(clock, Duration.ofMillis(100), 8);
+    private final List<String> expired = new ArrayList<>();
+
+    @Test
+    void advance_expiresDeadlineNotEarlier() {
+        // Setup
+        scheduler.schedule("wall1", Duration.ofMillis(250), () -> expired.add("wall1"));
+
+        // Execute
+        clock.advance(Duration.ofMillis(249));
+        scheduler.advance();
+
+        // Verify
+        assertTrue(expired.isEmpty());
+        assertTrue(scheduler.isScheduled("wall1"));
+
+        // Execute
+        clock.advance(Duration.ofMillis(51));
+        scheduler.advance();
+
+        // Verify
+        assertEquals(List.of("wall1"), expired);
+        assertFalse(scheduler.isScheduled("wall1"));
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    void advance_deadlineLaterThanOneTurnOfTheWheel() {
+        // Setup
+        scheduler.schedule("wall1", Duration.ofMinutes(5), () -> expired.add("wall1"));
+
+        // Execute
+        for (int i = 0; i < 2999; i++) {
+            clock.advance(Duration.ofMillis(100));
+            scheduler.advance();
+        }
+
+        // Verify
+        assertTrue(expired.isEmpty());
+
+        // Execute
+        clock.advance(Duration.ofMillis(100));
+        scheduler.advance();
+
+        // Verify
+        assertEquals(List.of("wall1"), expired);
+    }
+
+    @Test
+    void advance_skippedTicksAreCaughtUp() {
+        // Setup
+        scheduler.schedule("wall1", Duration.ofMillis(300), () -> expired.add("wall1"));
+        scheduler.schedule("wall2", Duration.ofSeconds(3), () -> expired.add("wall2"));
+
+        // Execute
+        clock.advance(Duration.ofSeconds(10));
+        scheduler.advance();
+
+        // Verify
+        assertEquals(Set.of("wall1", "wall2"), Set.copyOf(expired));
+    }
+
+    @Test
+    void cancel_deadlineDoesNotExpire() {
+        // Setup
+        scheduler.schedule("wall1", Duration.ofMillis(100), () -> expired.add("wall1"));
+
+        // Execute
+        boolean cancelled = scheduler.cancel("wall1");
+        clock.advance(Duration.ofSeconds(1));
+        scheduler.advance();
+
+        // Verify
+        assertTrue(cancelled);
+        assertFalse(scheduler.cancel("wall1"));
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    void schedule_replacesPendingDeadline() {
+        // Setup
+        scheduler.schedule("wall1", Duration.ofMillis(100), () -> expired.add("first"));
+
+        // Execute
+        scheduler.schedule("wall1", Duration.ofMillis(500), () -> expired.add("second"));
+        clock.advance(Duration.ofMillis(200));
+        scheduler.advance();
+
+        // Verify
+        assertTrue(expired.isEmpty());
+        assertEquals(1, scheduler.pending());
+        clock.advance(Duration.ofMillis(300));
+        scheduler.advance();
+        assertEquals(List.of("second"), expired);
+    }
+
+    @Test
+    void advance_failedActionDoesNotStopOtherDeadlines() {
+        // Setup
+        scheduler.schedule("wall1", Duration.ofMillis(100), () -> {
+            throw new IllegalStateException("Broken action");
+        });
+        scheduler.schedule("wall2", Duration.ofMillis(100), () -> expired.add("wall2"));
+
+        // Execute
+        clock.advance(Duration.ofMillis(100));
+        scheduler.advance();
+
+        // Verify
+        assertEquals(List.of("wall2"), expired);
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    void constructor_invalidWheel() {
+        assertThrows(IllegalArgumentException.class, () -> new ReconnectDeadlineScheduler(clock, Duration.ZERO, 8));
+        assertThrows(IllegalArgumentException.class, () -> new ReconnectDeadlineScheduler(clock, Duration.ofMillis(100), 0));
+    }
+
+    static class TestClock extends Clock {
+
+        private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+        void advance(final Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
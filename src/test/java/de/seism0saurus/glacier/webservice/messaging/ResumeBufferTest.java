@@ -0,0 +1,192 @@
+package de.seism0saurus.glacier.webservice.messaging;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ResumeBufferTest {
+
+    private static final String CREATION = "/topic/hashtags/wall1/devoxx/creation";
+    private static final String DELETION = "/topic/hashtags/wall1/devoxx/deletion";
+
+    private final ResumeBuffer resumeBuffer = new ResumeBuffer(3, "node1");
+
+    @Test
+    void sequence_numbersMessagesPerPrincipal() {
+        // Execute
+        Message<?> first = resumeBuffer.sequence(message(CREATION, "1"));
+        Message<?> second = resumeBuffer.sequence(message(DELETION, "1"));
+        Message<?> other = resumeBuffer.sequence(message("/topic/hashtags/wall2/devoxx/creation", "2"));
+
+        // Verify
+        assertEquals("node1:1", sequenceOf(first));
+        assertEquals("node1:2", sequenceOf(second));
+        assertEquals("node1:1", sequenceOf(other));
+        assertEquals("1", first.getPayload());
+    }
+
+    @Test
+    void sequence_ignoresOtherDestinationsAndSequencedMessages() {
+        // Setup
+        Message<?> ack = message("/user/topic/subscriptions", "ack");
+        Message<?> sequenced = resumeBuffer.sequence(message(CREATION, "1"));
+
+        // Execute & Verify
+        assertSame(ack, resumeBuffer.sequence(ack));
+        assertSame(sequenced, resumeBuffer.sequence(sequenced));
+        assertEquals(1, resumeBuffer.numberOfBufferedMessages("wall1"));
+    }
+
+    @Test
+    void missed_returnsTheTailAfterTheResumeHeaderPerDestination() {
+        // Setup
+        resumeBuffer.connected("wall1", null);
+        resumeBuffer.sequence(message(CREATION, "1"));
+        resumeBuffer.disconnected("wall1");
+        resumeBuffer.sequence(message(CREATION, "2"));
+        resumeBuffer.sequence(message(DELETION, "1"));
+
+        // Execute
+        resumeBuffer.connected("wall1", "node1:1");
+
+        // Verify
+        assertEquals(List.of("2"), resumeBuffer.missed("wall1", CREATION).stream().map(Message::getPayload).toList());
+        assertEquals(List.of("node1:3"), resumeBuffer.missed("wall1", DELETION).stream().map(ResumeBufferTest::sequenceOf).toList());
+    }
+
+    @Test
+    void missed_nothingWithoutResumeHeaderOrAfterForget() {
+        // Setup
+        resumeBuffer.sequence(message(CREATION, "1"));
+        resumeBuffer.connected("wall1", null);
+
+        // Execute & Verify
+        assertTrue(resumeBuffer.missed("wall1", CREATION).isEmpty());
+        resumeBuffer.connected("wall1", "node1:0");
+        resumeBuffer.forget("wall1");
+        assertTrue(resumeBuffer.missed("wall1", CREATION).isEmpty());
+        assertEquals(0, resumeBuffer.numberOfBufferedMessages("wall1"));
+    }
+
+    @Test
+    void missed_nothingForTheResumeHeaderOfAnotherNode() {
+        // Setup
+        resumeBuffer.sequence(message(CREATION, "1"));
+        resumeBuffer.sequence(message(CREATION, "2"));
+
+        // Execute & Verify
+        resumeBuffer.connected("wall1", "node2:1");
+        assertTrue(resumeBuffer.missed("wall1", CREATION).isEmpty());
+        resumeBuffer.connected("wall1", "1");
+        assertTrue(resumeBuffer.missed("wall1", CREATION).isEmpty());
+        resumeBuffer.connected("wall1", "node1:x");
+        assertTrue(resumeBuffer.missed("wall1", CREATION).isEmpty());
+        resumeBuffer.connected("wall1", "node1:1");
+        assertEquals(List.of("2"), resumeBuffer.missed("wall1", CREATION).stream().map(Message::getPayload).toList());
+    }
+
+    @Test
+    void sequence_bufferIsBounded() {
+        // Execute
+        for (int i = 1; i <= 5; i++) {
+            resumeBuffer.sequence(message(CREATION, Integer.toString(i)));
+        }
+        resumeBuffer.connected("wall1", "node1:0");
+
+        // Verify: the oldest two messages are missing
+        assertEquals(3, resumeBuffer.numberOfBufferedMessages("wall1"));
+        assertEquals(List.of("3", "4", "5"), resumeBuffer.missed("wall1", CREATION).stream().map(Message::getPayload).toList());
+    }
+
+    @Test
+    void replayInterceptor_sendsMissedMessagesAfterTheBrokerRegisteredTheSubscription() {
+        // Setup
+        resumeBuffer.sequence(message(CREATION, "1"));
+        resumeBuffer.sequence(message(CREATION, "2"));
+        resumeBuffer.connected("wall1", "node1:1");
+        SimpleBrokerMessageHandler broker = mock(SimpleBrokerMessageHandler.class);
+        MessageChannel clientOutboundChannel = mock(MessageChannel.class);
+        when(broker.getClientOutboundChannel()).thenReturn(clientOutboundChannel);
+        MessageHandler controller = mock(MessageHandler.class);
+
+        // Execute
+        resumeBuffer.replayInterceptor().afterMessageHandled(subscribe(CREATION, "wall1"), mock(MessageChannel.class), controller, null);
+        resumeBuffer.replayInterceptor().afterMessageHandled(subscribe(CREATION, "wall2"), mock(MessageChannel.class), broker, null);
+        resumeBuffer.replayInterceptor().afterMessageHandled(subscribe(CREATION, "wall1"), mock(MessageChannel.class), broker, null);
+
+        // Verify: the replay goes straight to the subscription of the session and not through the broker
+        verifyNoInteractions(controller);
+        verify(clientOutboundChannel, times(1)).send(argThat(message -> "2".equals(message.getPayload())
+                && "session1".equals(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()))
+                && "sub1".equals(SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders()))
+                && CREATION.equals(SimpMessageHeaderAccessor.getDestination(message.getHeaders()))
+                && "node1:2".equals(sequenceOf(message))));
+        verifyNoMoreInteractions(clientOutboundChannel);
+        verify(broker, never()).handleMessage(any());
+    }
+
+    @Test
+    void replayInterceptor_replaysOnlyTheFirstSubscriptionAfterTheConnect() {
+        // Setup
+        resumeBuffer.sequence(message(CREATION, "1"));
+        resumeBuffer.sequence(message(CREATION, "2"));
+        resumeBuffer.connected("wall1", "node1:1");
+        SimpleBrokerMessageHandler broker = mock(SimpleBrokerMessageHandler.class);
+        MessageChannel clientOutboundChannel = mock(MessageChannel.class);
+        when(broker.getClientOutboundChannel()).thenReturn(clientOutboundChannel);
+
+        // Execute: the wall subscribes, unsubscribes and subscribes again on the same connection
+        resumeBuffer.replayInterceptor().afterMessageHandled(subscribe(CREATION, "wall1"), mock(MessageChannel.class), broker, null);
+        resumeBuffer.replayInterceptor().afterMessageHandled(subscribe(CREATION, "wall1"), mock(MessageChannel.class), broker, null);
+
+        // Verify: the missed message is sent once
+        verify(clientOutboundChannel, times(1)).send(argThat(message -> "2".equals(message.getPayload())));
+        verifyNoMoreInteractions(clientOutboundChannel);
+
+        // Execute & Verify: a new connection resumes again
+        resumeBuffer.connected("wall1", "node1:1");
+        assertEquals(List.of("2"), resumeBuffer.missed("wall1", CREATION).stream().map(Message::getPayload).toList());
+    }
+
+    @Test
+    void constructor_invalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new ResumeBuffer(0));
+    }
+
+    @Test
+    void principalOf_destinationsOfWalls() {
+        assertEquals("wall1", ResumeBuffer.principalOf(CREATION));
+        assertNull(ResumeBuffer.principalOf("/topic/hashtags//devoxx/creation"));
+        assertNull(ResumeBuffer.principalOf("/topic/subscriptions"));
+        assertNull(ResumeBuffer.principalOf(null));
+    }
+
+    private static Message<String> message(final String destination, final String payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+
+    private static Message<byte[]> subscribe(final String destination, final String principal) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setDestination(destination);
+        accessor.setUser(() -> principal);
+        accessor.setSessionId("session1");
+        accessor.setSubscriptionId("sub1");
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static String sequenceOf(final Message<?> message) {
+        return SimpMessageHeaderAccessor.wrap(message).getFirstNativeHeader(ResumeBuffer.SEQUENCE_HEADER);
+    }
+}
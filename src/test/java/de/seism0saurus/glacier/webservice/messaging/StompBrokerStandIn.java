@@ -0,0 +1,220 @@
+package de.seism0saurus.glacier.webservice.messaging;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal STOMP 1.2 broker, that stands in for RabbitMQ or ActiveMQ in the integration tests of the broker relay.
+ * <p>
+ * It accepts every login, never sends heartbeats and delivers each SEND frame to the subscriptions with exactly the same destination.
+ */
+class StompBrokerStandIn implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicLong messageIds = new AtomicLong();
+
+    private StompBrokerStandIn(final ServerSocket serverSocket) {
+        this.serverSocket = serverSocket;
+    }
+
+    /**
+     * Starts the broker on a free port of localhost.
+     *
+     * @return the started broker
+     */
+    static StompBrokerStandIn start() {
+        try {
+            StompBrokerStandIn broker = new StompBrokerStandIn(new ServerSocket(0));
+            Thread.ofVirtual().name("stomp-stand-in").start(broker::accept);
+            return broker;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start the STOMP broker stand-in", e);
+        }
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the number of connections, that sent a CONNECT frame.
+     */
+    long numberOfConnections() {
+        return connections.stream().filter(connection -> connection.connected).count();
+    }
+
+    /**
+     * Checks if there is a subscription for the destination.
+     */
+    boolean hasSubscription(final String destination) {
+        return subscriptions.stream().anyMatch(subscription -> subscription.destination.equals(destination));
+    }
+
+    /**
+     * Publishes a message like another node, that is connected to the same broker.
+     */
+    void publish(final String destination, final String body) {
+        route(Map.of("destination", destination, "content-type", "application/json"), body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Connection connection : connections) {
+            connection.socket.close();
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Connection connection = new Connection(serverSocket.accept());
+                connections.add(connection);
+                Thread.ofVirtual().start(() -> serve(connection));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(final Connection connection) {
+        try (Socket socket = connection.socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            while (true) {
+                Frame frame = Frame.read(in);
+                if (frame == null) {
+                    break;
+                }
+                switch (frame.command) {
+                    case "CONNECT", "STOMP" -> {
+                        connection.connected = true;
+                        connection.write("CONNECTED", Map.of("version", "1.2", "heart-beat", "0,0"), new byte[0]);
+                    }
+                    case "SUBSCRIBE" -> subscriptions.add(new Subscription(connection, frame.headers.get("id"), frame.headers.get("destination")));
+                    case "UNSUBSCRIBE" -> subscriptions.removeIf(subscription -> subscription.connection == connection && subscription.id.equals(frame.headers.get("id")));
+                    case "SEND" -> route(frame.headers, frame.body);
+                    case "DISCONNECT" -> {
+                        if (frame.headers.containsKey("receipt")) {
+                            connection.write("RECEIPT", Map.of("receipt-id", frame.headers.get("receipt")), new byte[0]);
+                        }
+                        return;
+                    }
+                    default -> {
+                    }
+                }
+                if (frame.headers.containsKey("receipt") && !"DISCONNECT".equals(frame.command)) {
+                    connection.write("RECEIPT", Map.of("receipt-id", frame.headers.get("receipt")), new byte[0]);
+                }
+            }
+        } catch (IOException e) {
+            // The connection is gone
+        } finally {
+            subscriptions.removeIf(subscription -> subscription.connection == connection);
+            connections.remove(connection);
+        }
+    }
+
+    private void route(final Map<String, String> sendHeaders, final byte[] body) {
+        String destination = sendHeaders.get("destination");
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.destination.equals(destination)) {
+                continue;
+            }
+            Map<String, String> headers = new LinkedHashMap<>(sendHeaders);
+            headers.remove("receipt");
+            headers.remove("content-length");
+            headers.put("subscription", subscription.id);
+            headers.put("message-id", Long.toString(messageIds.incrementAndGet()));
+            try {
+                subscription.connection.write("MESSAGE", headers, body);
+            } catch (IOException e) {
+                // The subscriber is gone
+            }
+        }
+    }
+
+    private record Subscription(Connection connection, String id, String destination) {
+    }
+
+    private static class Connection {
+        private final Socket socket;
+        private volatile boolean connected;
+
+        private Connection(final Socket socket) {
+            this.socket = socket;
+        }
+
+        private synchronized void write(final String command, final Map<String, String> headers, final byte[] body) throws IOException {
+            StringBuilder frame = new StringBuilder(command).append('\n');
+            headers.forEach((name, value) -> frame.append(name).append(':').append(value).append('\n'));
+            frame.append("content-length:").append(body.length).append("\n\n");
+            OutputStream out = socket.getOutputStream();
+            out.write(frame.toString().getBytes(StandardCharsets.UTF_8));
+            out.write(body);
+            out.write(0);
+            out.flush();
+        }
+    }
+
+    private record Frame(String command, Map<String, String> headers, byte[] body) {
+
+        /**
+         * Reads the next frame and skips the heartbeats before it.
+         *
+         * @return the frame or null at the end of the stream
+         */
+        private static Frame read(final InputStream in) throws IOException {
+            String command = "";
+            while (command.isEmpty()) {
+                command = readLine(in);
+                if (command == null) {
+                    return null;
+                }
+            }
+            Map<String, String> headers = new LinkedHashMap<>();
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                headers.putIfAbsent(line.substring(0, colon), line.substring(colon + 1));
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            if (headers.containsKey("content-length")) {
+                body.write(in.readNBytes(Integer.parseInt(headers.get("content-length"))));
+                in.read();
+            } else {
+                int b;
+                while ((b = in.read()) > 0) {
+                    body.write(b);
+                }
+            }
+            return new Frame(command, headers, body.toByteArray());
+        }
+
+        private static String readLine(final InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    return null;
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            return line.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
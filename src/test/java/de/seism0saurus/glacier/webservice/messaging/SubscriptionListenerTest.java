@@ -5,10 +5,15 @@ import org.junit.jupiter.api.Test;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.web.socket.messaging.SessionConnectedEvent;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
 import java.security.Principal;
+import java.time.Duration;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -16,8 +21,9 @@ import static org.mockito.Mockito.*;
 class SubscriptionListenerTest {
 
     private final SubscriptionManager subscriptionManager = mock(SubscriptionManager.class);
+    private final ResumeBuffer resumeBuffer = mock(ResumeBuffer.class);
 
-    private SubscriptionListener subscriptionListener = new SubscriptionListener(subscriptionManager, 300_000L);
+    private SubscriptionListener subscriptionListener = new SubscriptionListener(subscriptionManager, resumeBuffer, 300_000L);
 
     @Test
     void testOnConnectedEvent_WithoutPreviousDisconnect() throws Exception {
@@ -64,7 +70,7 @@ class SubscriptionListenerTest {
     @Test
     void testOnConnectedEvent_WithPreviousDisconnect_WithWaitingForTimeout() throws Exception {
         // Reduce the timeout to one second
-        subscriptionListener = new SubscriptionListener(subscriptionManager, 1_000L);
+        subscriptionListener = new SubscriptionListener(subscriptionManager, resumeBuffer, 1_000L);
 
         // Create a valid Principal object
         Principal principal = () -> "user1";
@@ -113,7 +119,7 @@ class SubscriptionListenerTest {
     @Test
     void testOnDisconnectEvent_WithWaitingForTimeout() throws Exception {
         // Reduce the timeout to one second
-        subscriptionListener = new SubscriptionListener(subscriptionManager, 1_000L);
+        subscriptionListener = new SubscriptionListener(subscriptionManager, resumeBuffer, 1_000L);
 
         // Create a valid Principal object
         Principal principal = () -> "user1";
@@ -133,9 +139,36 @@ class SubscriptionListenerTest {
 
         // Valiate assumptions after test
         verify(subscriptionManager, times(1)).terminateAllSubscriptions(anyString());
+        verify(resumeBuffer).disconnected("user1");
+        verify(resumeBuffer).forget("user1");
         assertFalse(subscriptionListener.hasRunningDisconnectTimer());
     }
 
+    @Test
+    void testOnConnectedEvent_WithResumeHeader() {
+        // Setup
+        StompHeaderAccessor connect = StompHeaderAccessor.create(StompCommand.CONNECT);
+        connect.setNativeHeader(ResumeBuffer.RESUME_HEADER, "3f9a1c2e:42");
+        SimpMessageHeaderAccessor connectAck = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT_ACK);
+        connectAck.setHeader(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER, MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()));
+        SessionConnectedEvent event = new SessionConnectedEvent(this, MessageBuilder.createMessage(new byte[0], connectAck.getMessageHeaders()), () -> "user1");
+
+        // Execute
+        subscriptionListener.onConnectedEvent(event);
+
+        // Verify
+        verify(resumeBuffer).connected("user1", "3f9a1c2e:42");
+    }
+
+    @Test
+    void testOnConnectedEvent_WithoutResumeHeader() {
+        // Execute
+        connect(() -> "user1");
+
+        // Verify
+        verify(resumeBuffer).connected("user1", null);
+    }
+
     @Test
     void testOnDisconnectEvent_WithoutPrincipal() throws Exception {
         // Create a valid Principal object for connect
@@ -173,6 +206,36 @@ class SubscriptionListenerTest {
         assertTrue(subscriptionListener.hasRunningDisconnectTimers());
     }
 
+    @Test
+    void testOnDisconnectEvent_ManyPrincipalsWithInjectedClock() {
+        // A wheel, that is advanced by hand
+        ReconnectDeadlineSchedulerTest.TestClock clock = new ReconnectDeadlineSchedulerTest.TestClock();
+        ReconnectDeadlineScheduler scheduler = new ReconnectDeadlineScheduler(clock, Duration.ofMillis(100), 512);
+        subscriptionListener = new SubscriptionListener(subscriptionManager, resumeBuffer, 300_000L, scheduler);
+
+        // Mock the disconnect of a whole venue
+        for (int i = 0; i < 5_000; i++) {
+            String name = "user" + i;
+            disconnect(() -> name);
+        }
+        connect(() -> "user0");
+
+        // Valiate the pending deadlines
+        assertEquals(4_999, subscriptionListener.numberOfPendingDisconnects());
+        clock.advance(Duration.ofMillis(299_900));
+        scheduler.advance();
+        verify(subscriptionManager, never()).terminateAllSubscriptions(anyString());
+
+        // Wait for timeout
+        clock.advance(Duration.ofMillis(100));
+        scheduler.advance();
+
+        // Valiate assumptions after timeout
+        verify(subscriptionManager, times(4_999)).terminateAllSubscriptions(anyString());
+        verify(subscriptionManager, never()).terminateAllSubscriptions("user0");
+        assertEquals(0, subscriptionListener.numberOfPendingDisconnects());
+    }
+
     private void connect(Principal principal) {
         // Mock the event
         SessionConnectedEvent event = mock(SessionConnectedEvent.class);
@@ -0,0 +1,68 @@
+package de.seism0saurus.glacier.webservice.messaging;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WallDeduplicationTest {
+
+    private static final String EVENTS = "/topic/hashtags/wall1/events";
+
+    private final WallDeduplication wallDeduplication = new WallDeduplication(10);
+
+    @Test
+    void deduplicate_dropsTheCopyOfACreatedStatusFromAnotherOwner() {
+        // Setup: the owners of devoxx and java both send status 101 to the wall
+        Message<?> fromDevoxx = message(EVENTS, "session1", "101");
+        Message<?> fromJava = message(EVENTS, "session1", "101");
+
+        // Execute & Verify
+        assertSame(fromDevoxx, wallDeduplication.deduplicate(fromDevoxx));
+        assertNull(wallDeduplication.deduplicate(fromJava));
+        assertNotNull(wallDeduplication.deduplicate(message(EVENTS, "session2", "101")));
+        assertNotNull(wallDeduplication.deduplicate(message(EVENTS, "session1", "102")));
+    }
+
+    @Test
+    void deduplicate_passesOtherMessages() {
+        // Setup
+        Message<?> deletion = message(EVENTS, "session1", null);
+        Message<?> ack = message("/user/topic/subscriptions", "session1", "101");
+
+        // Execute & Verify
+        assertSame(deletion, wallDeduplication.deduplicate(deletion));
+        assertSame(deletion, wallDeduplication.deduplicate(deletion));
+        assertSame(ack, wallDeduplication.deduplicate(ack));
+        assertSame(ack, wallDeduplication.deduplicate(ack));
+        assertEquals(0, wallDeduplication.numberOfSessions());
+    }
+
+    @Test
+    void onDisconnectEvent_forgetsTheSession() {
+        // Setup
+        wallDeduplication.deduplicate(message(EVENTS, "session1", "101"));
+
+        // Execute
+        wallDeduplication.onDisconnectEvent(new SessionDisconnectEvent(this, message(EVENTS, "session1", null), "session1", CloseStatus.NORMAL));
+
+        // Verify
+        assertEquals(0, wallDeduplication.numberOfSessions());
+        assertNotNull(wallDeduplication.deduplicate(message(EVENTS, "session1", "101")));
+    }
+
+    private static Message<byte[]> message(final String destination, final String sessionId, final String createdId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        accessor.setSessionId(sessionId);
+        if (createdId != null) {
+            accessor.setNativeHeader(WallDeduplication.CREATED_HEADER, createdId);
+        }
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}